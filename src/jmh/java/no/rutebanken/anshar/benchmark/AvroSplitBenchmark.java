@@ -0,0 +1,119 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.benchmark;
+
+import net.sf.saxon.TransformerFactoryImpl;
+import no.rutebanken.anshar.routes.siri.helpers.SiriPayloadHelper;
+import org.entur.avro.realtime.siri.converter.Converter;
+import org.entur.avro.realtime.siri.model.SiriRecord;
+import org.entur.siri21.util.SiriXml;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Node;
+import uk.org.siri.siri21.Siri;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting a full ET-delivery into one Avro-record per EstimatedVehicleJourney before publishing to Pubsub/Kafka -
+ * through XML (serialize, split.xsl, tokenize, parse each fragment), and directly from the Siri-object.
+ *
+ * Records converted per second are reported as the "records" counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AvroSplitBenchmark {
+
+    private Siri siri;
+    private Templates split;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Records {
+        public long records;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            records = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        siri = SiriSamples.parse(SiriSamples.load(SiriSamples.ET_SAMPLE));
+        try (var xsl = getClass().getResourceAsStream("/xsl/split.xsl")) {
+            split = new TransformerFactoryImpl().newTemplates(new StreamSource(xsl));
+        }
+    }
+
+    /**
+     * Previous route: SiriXml.toXml, split.xsl, tokenizeXML("Siri"), SiriXml.parseXml and jaxb2Avro per fragment
+     */
+    @Benchmark
+    public void xmlSplit(Records records, Blackhole blackhole) throws Exception {
+        DOMResult splitResult = new DOMResult();
+        split.newTransformer().transform(new StreamSource(new StringReader(SiriXml.toXml(siri))), splitResult);
+
+        Transformer fragmentWriter = new TransformerFactoryImpl().newTransformer();
+        Node root = splitResult.getNode().getFirstChild();
+        for (Node fragment = root.getFirstChild(); fragment != null; fragment = fragment.getNextSibling()) {
+            if (fragment.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            StringWriter xml = new StringWriter();
+            fragmentWriter.transform(new DOMSource(fragment), new StreamResult(xml));
+
+            SiriRecord siriRecord = Converter.jaxb2Avro(SiriXml.parseXml(xml.toString()));
+            blackhole.consume(siriRecord);
+            records.records++;
+        }
+    }
+
+    /**
+     * Current route: SiriPayloadHelper.splitServiceDelivery and jaxb2Avro per split Siri-object
+     */
+    @Benchmark
+    public void objectSplit(Records records, Blackhole blackhole) throws Exception {
+        for (Siri splitSiri : SiriPayloadHelper.splitServiceDelivery(siri)) {
+            SiriRecord siriRecord = Converter.jaxb2Avro(splitSiri);
+            blackhole.consume(siriRecord);
+            records.records++;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.benchmark;
+
+import no.rutebanken.anshar.App;
+import no.rutebanken.anshar.data.EstimatedTimetables;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores a full ET-delivery in the repository backed by an embedded Hazelcast-instance.
+ *
+ * "unchanged" resends identical data, i.e. measures the checksum-path that discards fake updates, while
+ * "changed" modifies every journey so that all data is written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class EstimatedTimetablesBenchmark {
+
+    private static final String DATASET_ID = "BNR";
+
+    private ConfigurableApplicationContext context;
+    private EstimatedTimetables estimatedTimetables;
+    private List<EstimatedVehicleJourney> journeys;
+    private boolean predictionInaccurate;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(App.class)
+                .web(WebApplicationType.NONE)
+                .run();
+        estimatedTimetables = context.getBean(EstimatedTimetables.class);
+
+        journeys = SiriSamples.estimatedVehicleJourneys(SiriSamples.parse(SiriSamples.load(SiriSamples.ET_SAMPLE)));
+        SiriSamples.shiftToNow(journeys);
+
+        estimatedTimetables.addAll(DATASET_ID, journeys);
+    }
+
+    @Setup(Level.Invocation)
+    public void touch() {
+        ZonedDateTime now = ZonedDateTime.now();
+        for (EstimatedVehicleJourney journey : journeys) {
+            journey.setRecordedAtTime(now);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Benchmark
+    public Collection<EstimatedVehicleJourney> addAllUnchanged() {
+        return estimatedTimetables.addAll(DATASET_ID, journeys);
+    }
+
+    @Benchmark
+    public Collection<EstimatedVehicleJourney> addAllChanged() {
+        predictionInaccurate = !predictionInaccurate;
+        for (EstimatedVehicleJourney journey : journeys) {
+            journey.setPredictionInaccurate(predictionInaccurate);
+        }
+        return estimatedTimetables.addAll(DATASET_ID, journeys);
+    }
+}
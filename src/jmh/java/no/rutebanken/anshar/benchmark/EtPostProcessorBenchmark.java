@@ -0,0 +1,197 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.benchmark;
+
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.routes.siri.processor.BaneNorRemoveExpiredJourneysPostProcessor;
+import no.rutebanken.anshar.routes.siri.processor.BaneNorSiriEtRewriter;
+import no.rutebanken.anshar.routes.siri.processor.BaneNorSiriStopAssignmentPopulater;
+import no.rutebanken.anshar.routes.siri.processor.EnsureIncreasingTimesProcessor;
+import no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService;
+import no.rutebanken.anshar.routes.siri.processor.routedata.RouteData;
+import no.rutebanken.anshar.routes.siri.processor.routedata.ServiceDate;
+import no.rutebanken.anshar.routes.siri.processor.routedata.StopTime;
+import no.rutebanken.anshar.routes.siri.transformer.ApplicationContextHolder;
+import no.rutebanken.anshar.routes.siri.transformer.SiriValueTransformer;
+import no.rutebanken.anshar.routes.siri.transformer.ValueAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rutebanken.netex.model.DatedServiceJourney;
+import org.rutebanken.netex.model.OperatingDay;
+import org.rutebanken.netex.model.OperatingDayRefStructure;
+import org.rutebanken.netex.model.ServiceAlterationEnumeration;
+import org.springframework.context.support.StaticApplicationContext;
+import uk.org.siri.siri21.DatedVehicleJourneyRef;
+import uk.org.siri.siri21.EstimatedCall;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.RecordedCall;
+import uk.org.siri.siri21.Siri;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the route data-dependent part of the BaneNOR ET post-processor chain on a full delivery.
+ *
+ * Route data is generated from the delivery itself - one ServiceJourney per train number with a DatedServiceJourney
+ * for each operating day - so every journey is matched against plan data, and cancellation checks are performed for
+ * realistic numbers of operating days. The stop/platform mapping step is left out since the sample already refers to
+ * NSR quays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EtPostProcessorBenchmark {
+
+    private static final String DATASET_ID = "BNR";
+
+    @Param({"30", "365"})
+    private int operatingDays;
+
+    private Siri original;
+    private Siri siri;
+    private List<ValueAdapter> postProcessors;
+    private StaticApplicationContext context;
+
+    @Setup
+    public void setup() {
+        context = new StaticApplicationContext();
+        context.getBeanFactory().registerSingleton("metricsService", new PrometheusMetricsService());
+        context.refresh();
+        new ApplicationContextHolder().setApplicationContext(context);
+
+        original = SiriSamples.parse(SiriSamples.load(SiriSamples.ET_SAMPLE));
+        List<EstimatedVehicleJourney> journeys = SiriSamples.estimatedVehicleJourneys(original);
+        SiriSamples.shiftToNow(journeys);
+
+        NetexUpdaterService.setRouteData(createRouteData(journeys, operatingDays));
+
+        postProcessors = List.of(
+                new BaneNorRemoveExpiredJourneysPostProcessor(DATASET_ID),
+                new BaneNorSiriEtRewriter(DATASET_ID),
+                new BaneNorSiriStopAssignmentPopulater(DATASET_ID),
+                new EnsureIncreasingTimesProcessor(DATASET_ID)
+        );
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() throws Exception {
+        // Post-processors modify the object in place - every invocation needs an untouched copy
+        siri = SiriObjectFactory.deepCopy(original);
+    }
+
+    @Benchmark
+    public Siri process() {
+        return SiriValueTransformer.transform(siri, postProcessors, false, false);
+    }
+
+    private static RouteData createRouteData(List<EstimatedVehicleJourney> journeys, int operatingDays) {
+        RouteData.Builder builder = RouteData.builder();
+        List<String> knownStops = new ArrayList<>();
+
+        for (EstimatedVehicleJourney journey : journeys) {
+            if (journey.getVehicleRef() == null) {
+                continue;
+            }
+            String trainNumber = journey.getVehicleRef().getValue();
+            String serviceJourneyId = "NSB:ServiceJourney:" + trainNumber;
+
+            List<StopTime> stopTimes = new ArrayList<>();
+            ZonedDateTime firstDeparture = null;
+            if (journey.getRecordedCalls() != null) {
+                for (RecordedCall call : journey.getRecordedCalls().getRecordedCalls()) {
+                    ZonedDateTime departure = call.getAimedDepartureTime() != null ? call.getAimedDepartureTime() : call.getAimedArrivalTime();
+                    firstDeparture = firstDeparture != null ? firstDeparture : departure;
+                    stopTimes.add(createStopTime(call.getStopPointRef().getValue(), stopTimes.size() + 1, call.getAimedArrivalTime(), departure));
+                }
+            }
+            if (journey.getEstimatedCalls() != null) {
+                for (EstimatedCall call : journey.getEstimatedCalls().getEstimatedCalls()) {
+                    ZonedDateTime departure = call.getAimedDepartureTime() != null ? call.getAimedDepartureTime() : call.getAimedArrivalTime();
+                    firstDeparture = firstDeparture != null ? firstDeparture : departure;
+                    stopTimes.add(createStopTime(call.getStopPointRef().getValue(), stopTimes.size() + 1, call.getAimedArrivalTime(), departure));
+                }
+            }
+            if (firstDeparture == null) {
+                continue;
+            }
+
+            // Recorded reference contains the original date - replaced to match the shifted timestamps
+            LocalDate serviceDay = firstDeparture.toLocalDate();
+            DatedVehicleJourneyRef datedVehicleJourneyRef = new DatedVehicleJourneyRef();
+            datedVehicleJourneyRef.setValue(trainNumber + ":" + serviceDay);
+            journey.setDatedVehicleJourneyRef(datedVehicleJourneyRef);
+
+            List<ServiceDate> serviceDates = new ArrayList<>();
+            List<DatedServiceJourney> datedServiceJourneys = new ArrayList<>();
+            LocalDate firstDay = serviceDay.minusDays(operatingDays / 2);
+            for (int i = 0; i < operatingDays; i++) {
+                LocalDate day = firstDay.plusDays(i);
+                String operatingDayId = "NSB:OperatingDay:" + day;
+                builder.putOperatingDay(operatingDayId, new OperatingDay().withCalendarDate(day.atStartOfDay()));
+                serviceDates.add(new ServiceDate(day.getYear(), day.getMonthValue(), day.getDayOfMonth()));
+                datedServiceJourneys.add(new DatedServiceJourney()
+                        .withId("NSB:DatedServiceJourney:" + trainNumber + "-" + day)
+                        .withOperatingDayRef(new OperatingDayRefStructure().withRef(operatingDayId))
+                        .withServiceAlteration(day.equals(serviceDay) ? null : ServiceAlterationEnumeration.PLANNED));
+            }
+
+            builder.putStopTimes(serviceJourneyId, stopTimes)
+                    .addTrainNumberTrips(trainNumber, List.of(serviceJourneyId))
+                    .putServiceDates(serviceJourneyId, serviceDates)
+                    .putDatedServiceJourneys(serviceJourneyId, datedServiceJourneys);
+
+            for (StopTime stopTime : stopTimes) {
+                if (!knownStops.contains(stopTime.getStopId())) {
+                    knownStops.add(stopTime.getStopId());
+                    builder.putParentStop(stopTime.getStopId(), stopTime.getStopId().replace("Quay", "StopPlace"));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static StopTime createStopTime(String stopId, int sequence, ZonedDateTime arrival, ZonedDateTime departure) {
+        return new StopTime(stopId, sequence, secondsOfDay(arrival != null ? arrival : departure), secondsOfDay(departure));
+    }
+
+    private static int secondsOfDay(ZonedDateTime time) {
+        return time != null ? time.toLocalTime().toSecondOfDay() : -1;
+    }
+}
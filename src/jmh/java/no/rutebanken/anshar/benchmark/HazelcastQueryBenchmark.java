@@ -0,0 +1,167 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.benchmark;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.IndexType;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hazelcast.query.Predicate;
+import com.hazelcast.query.Predicates;
+import no.rutebanken.anshar.data.SiriObjectStorageKey;
+import no.rutebanken.anshar.data.collections.KryoSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.LineRef;
+
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares lookups by codespace, lineRef and start time using full scans (as previously done) with
+ * attribute-predicates backed by the indexes defined in ExtendedHazelcastService.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HazelcastQueryBenchmark {
+
+    private static final int LINE_COUNT = 500;
+    private static final int CODESPACE_COUNT = 20;
+
+    @Param({"100000"})
+    private int journeyCount;
+
+    private HazelcastInstance hazelcast;
+    private IMap<SiriObjectStorageKey, EstimatedVehicleJourney> journeys;
+    private IMap<SiriObjectStorageKey, ZonedDateTime> startTimes;
+
+    private String lineRef;
+    private String codespaceId;
+    private ZonedDateTime previewExpiry;
+
+    @Setup
+    public void setup() {
+        Config config = new Config();
+        config.setClusterName("anshar-benchmark");
+        config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+        config.getNetworkConfig().getJoin().getAutoDetectionConfig().setEnabled(false);
+        config.getSerializationConfig().addSerializerConfig(new SerializerConfig()
+                .setTypeClass(EstimatedVehicleJourney.class)
+                .setImplementation(new KryoSerializer()));
+
+        hazelcast = Hazelcast.newHazelcastInstance(config);
+
+        journeys = hazelcast.getMap("benchmark.et");
+        journeys.addIndex(IndexType.HASH, SiriObjectStorageKey.CODESPACE_ID_ATTRIBUTE);
+        journeys.addIndex(IndexType.HASH, SiriObjectStorageKey.NORMALIZED_LINE_REF_ATTRIBUTE);
+
+        startTimes = hazelcast.getMap("benchmark.et.startTime");
+        startTimes.addIndex(IndexType.SORTED, "this");
+
+        ZonedDateTime now = ZonedDateTime.now();
+        Map<SiriObjectStorageKey, EstimatedVehicleJourney> journeyBatch = new HashMap<>();
+        Map<SiriObjectStorageKey, ZonedDateTime> startTimeBatch = new HashMap<>();
+        for (int i = 0; i < journeyCount; i++) {
+            String line = "TST:Line:" + (i % LINE_COUNT);
+            SiriObjectStorageKey key = new SiriObjectStorageKey("CS" + (i % CODESPACE_COUNT), line, "TST:ServiceJourney:" + i);
+
+            EstimatedVehicleJourney journey = new EstimatedVehicleJourney();
+            LineRef ref = new LineRef();
+            ref.setValue(line);
+            journey.setLineRef(ref);
+            journey.setRecordedAtTime(now);
+
+            journeyBatch.put(key, journey);
+            startTimeBatch.put(key, now.plusMinutes(i % (24 * 60)));
+
+            if (journeyBatch.size() == 10_000) {
+                journeys.putAll(journeyBatch);
+                startTimes.putAll(startTimeBatch);
+                journeyBatch.clear();
+                startTimeBatch.clear();
+            }
+        }
+        journeys.putAll(journeyBatch);
+        startTimes.putAll(startTimeBatch);
+
+        lineRef = "TST:Line:42";
+        codespaceId = "CS7";
+        previewExpiry = now.plusMinutes(30);
+    }
+
+    @TearDown
+    public void tearDown() {
+        hazelcast.shutdown();
+    }
+
+    @Benchmark
+    public Set<SiriObjectStorageKey> lineRefScan() {
+        final String ref = lineRef;
+        Predicate<SiriObjectStorageKey, EstimatedVehicleJourney> predicate = entry -> ref.equalsIgnoreCase(entry.getKey().getLineRef());
+        return journeys.keySet(predicate);
+    }
+
+    @Benchmark
+    public Set<SiriObjectStorageKey> lineRefIndexed() {
+        return journeys.keySet(Predicates.equal(SiriObjectStorageKey.NORMALIZED_LINE_REF_ATTRIBUTE, SiriObjectStorageKey.normalizeLineRef(lineRef)));
+    }
+
+    @Benchmark
+    public Set<SiriObjectStorageKey> codespaceScan() {
+        final String codespace = codespaceId;
+        Predicate<SiriObjectStorageKey, EstimatedVehicleJourney> predicate = entry -> codespace.equals(entry.getKey().getCodespaceId());
+        return journeys.keySet(predicate);
+    }
+
+    @Benchmark
+    public Set<SiriObjectStorageKey> codespaceIndexed() {
+        return journeys.keySet(Predicates.equal(SiriObjectStorageKey.CODESPACE_ID_ATTRIBUTE, codespaceId));
+    }
+
+    @Benchmark
+    public Set<SiriObjectStorageKey> startTimeScan() {
+        return startTimes.entrySet().stream()
+                .filter(entry -> entry.getValue().isBefore(previewExpiry))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    @Benchmark
+    public Set<SiriObjectStorageKey> startTimeIndexed() {
+        return startTimes.keySet(Predicates.lessThan("this", previewExpiry));
+    }
+}
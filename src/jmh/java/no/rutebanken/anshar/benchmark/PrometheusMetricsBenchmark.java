@@ -0,0 +1,148 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.benchmark;
+
+import io.micrometer.core.instrument.ImmutableTag;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.metrics.SiriContent;
+import no.rutebanken.anshar.routes.siri.transformer.MappingNames;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the metrics registered by an addAll of the ET-sample: incoming data for the delivery, a data mapping per
+ * journey and content per call - i.e. a feed where every call carries counted content (occupancy, quay changes etc).
+ *
+ * "uncached" builds tags and looks up the meter in the registry for every registration, as was previously done,
+ * while "cached" uses the meter handles cached by PrometheusMetricsService. Run with "-prof gc" to compare
+ * allocation per addAll (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PrometheusMetricsBenchmark {
+
+    private static final String DATASET_ID = "BNR";
+
+    private static final SiriContent[] CALL_CONTENT = {
+            SiriContent.OCCUPANCY_STOP, SiriContent.QUAY_CHANGED, SiriContent.DESTINATION_DISPLAY, SiriContent.STOP_CANCELLATION
+    };
+
+    private PrometheusMetricsService metrics;
+    private PrometheusMeterRegistry registry;
+
+    // Number of calls per journey in the sample
+    private int[] callCounts;
+
+    @Setup
+    public void setup() {
+        metrics = new PrometheusMetricsService();
+        registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+        List<EstimatedVehicleJourney> journeys = SiriSamples.estimatedVehicleJourneys(SiriSamples.parse(SiriSamples.load(SiriSamples.ET_SAMPLE)));
+        callCounts = new int[journeys.size()];
+        for (int i = 0; i < journeys.size(); i++) {
+            EstimatedVehicleJourney journey = journeys.get(i);
+            if (journey.getRecordedCalls() != null) {
+                callCounts[i] += journey.getRecordedCalls().getRecordedCalls().size();
+            }
+            if (journey.getEstimatedCalls() != null) {
+                callCounts[i] += journey.getEstimatedCalls().getEstimatedCalls().size();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        metrics.close();
+        registry.close();
+    }
+
+    @Benchmark
+    public void addAllCached() {
+        for (int callCount : callCounts) {
+            metrics.registerDataMapping(SiriDataType.ESTIMATED_TIMETABLE, DATASET_ID, MappingNames.OVERRIDE_MONITORED_FALSE, 1);
+            for (int call = 0; call < callCount; call++) {
+                metrics.registerSiriContent(SiriDataType.ESTIMATED_TIMETABLE, DATASET_ID, null, CALL_CONTENT[call % CALL_CONTENT.length]);
+            }
+        }
+        metrics.registerIncomingData(SiriDataType.ESTIMATED_TIMETABLE, DATASET_ID, callCounts.length, callCounts.length, 0, 0);
+    }
+
+    @Benchmark
+    public void addAllUncached() {
+        for (int callCount : callCounts) {
+            registerDataMappingUncached(SiriDataType.ESTIMATED_TIMETABLE, DATASET_ID, MappingNames.OVERRIDE_MONITORED_FALSE, 1);
+            for (int call = 0; call < callCount; call++) {
+                registerSiriContentUncached(SiriDataType.ESTIMATED_TIMETABLE, DATASET_ID, CALL_CONTENT[call % CALL_CONTENT.length]);
+            }
+        }
+        registerIncomingDataUncached(SiriDataType.ESTIMATED_TIMETABLE, DATASET_ID, callCounts.length, callCounts.length, 0, 0);
+    }
+
+    private void registerDataMappingUncached(SiriDataType dataType, String agencyId, MappingNames mappingName, int mappedCount) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag("dataType", dataType.name()));
+        counterTags.add(new ImmutableTag("agency", agencyId));
+        counterTags.add(new ImmutableTag("mappingName", mappingName.toString()));
+        counterTags.add(new ImmutableTag("mappingId", mappingName.name()));
+
+        registry.counter("app.anshar.data.mapping", counterTags).increment(mappedCount);
+    }
+
+    private void registerSiriContentUncached(SiriDataType dataType, String agencyId, SiriContent content) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag("dataType", dataType.name()));
+        counterTags.add(new ImmutableTag("agency", agencyId));
+        counterTags.add(new ImmutableTag("siriContent", content.name()));
+        counterTags.add(new ImmutableTag("siriContentLabel", content.getLabel()));
+        counterTags.add(new ImmutableTag("group", content.name()));
+
+        registry.counter("app.anshar.siri.content", counterTags).increment();
+    }
+
+    private void registerIncomingDataUncached(SiriDataType dataType, String agencyId, long total, long updated, long expired, long ignored) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag("dataType", dataType.name()));
+        counterTags.add(new ImmutableTag("agency", agencyId));
+
+        registry.counter("app.anshar.data.total", counterTags).increment(total);
+        registry.counter("app.anshar.data.success", counterTags).increment(updated);
+        registry.counter("app.anshar.data.expired", counterTags).increment(expired);
+        registry.counter("app.anshar.data.ignored", counterTags).increment(ignored);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.benchmark;
+
+import no.rutebanken.anshar.routes.outbound.SiriHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.siri.siri21.LineRef;
+import uk.org.siri.siri21.Siri;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filters a full ET-delivery on LineRef, as done per outbound subscription with a line-filter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SiriHelperBenchmark {
+
+    private Siri siri;
+    private Map<Class, Set<String>> lineRefFilter;
+
+    @Setup
+    public void setup() {
+        siri = SiriSamples.parse(SiriSamples.load(SiriSamples.ET_SAMPLE));
+
+        lineRefFilter = new HashMap<>();
+        lineRefFilter.put(LineRef.class, Set.of("NSB:Line:L1"));
+    }
+
+    @Benchmark
+    public Siri filterSiriPayload() {
+        return SiriHelper.filterSiriPayload(siri, lineRefFilter);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.benchmark;
+
+import net.sf.saxon.TransformerFactoryImpl;
+import no.rutebanken.anshar.data.collections.KryoSerializer;
+import no.rutebanken.anshar.routes.protobuf.ProtobufConverterRoute;
+import no.rutebanken.anshar.routes.siri.helpers.SiriPayloadHelper;
+import no.rutebanken.anshar.routes.siri.transformer.SiriValueTransformer;
+import org.entur.siri21.util.SiriXml;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.siri.siri21.Siri;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest of a full ET-delivery from HTTP-body to the Siri-object handed to SiriHandler - with and without the
+ * XML round trip across the queue (anshar.incoming.single.parse.enabled).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SiriIngestBenchmark {
+
+    private final KryoSerializer kryoSerializer = new KryoSerializer();
+
+    private String xml;
+    private Templates indent;
+
+    @Setup
+    public void setup() throws Exception {
+        xml = new String(SiriSamples.load(SiriSamples.ET_SAMPLE), StandardCharsets.UTF_8);
+        try (var xsl = getClass().getResourceAsStream("/xsl/indent.xsl")) {
+            indent = new TransformerFactoryImpl().newTemplates(new StreamSource(xsl));
+        }
+    }
+
+    /**
+     * parse, map, serialize, indent, queue XML-text, parse again
+     */
+    @Benchmark
+    public Siri xmlOnQueue() throws Exception {
+        Siri parsed = SiriXml.parseXml(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        Siri mapped = SiriValueTransformer.transform(parsed, new ArrayList<>(), false, true);
+
+        StringWriter formatted = new StringWriter();
+        indent.newTransformer().transform(new StreamSource(new StringReader(SiriXml.toXml(mapped))), new StreamResult(formatted));
+
+        String body = ProtobufConverterRoute.fixEncodingErrorsInXml(formatted.toString(), null);
+        String dequeued = (String) kryoSerializer.read(kryoSerializer.write(body));
+        return SiriXml.parseXml(new ByteArrayInputStream(dequeued.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * parse, map, queue Siri-object
+     */
+    @Benchmark
+    public Siri objectOnQueue() throws Exception {
+        if (!SiriPayloadHelper.isSiri20Payload(xml)) {
+            throw new IllegalStateException("Sample should not need XSLT");
+        }
+        String body = ProtobufConverterRoute.fixEncodingErrorsInXml(xml, null);
+        Siri parsed = SiriXml.parseXml(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        Siri mapped = SiriValueTransformer.transform(parsed, new ArrayList<>(), false, true);
+
+        return (Siri) kryoSerializer.read(kryoSerializer.write(mapped));
+    }
+}
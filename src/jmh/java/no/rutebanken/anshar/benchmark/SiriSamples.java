@@ -0,0 +1,131 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.benchmark;
+
+import org.entur.siri21.util.SiriXml;
+import uk.org.siri.siri21.EstimatedCall;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.RecordedCall;
+import uk.org.siri.siri21.Siri;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the SIRI sample files bundled as test resources, so all benchmarks operate on the same realistic payloads.
+ */
+public final class SiriSamples {
+
+    public static final String ET_SAMPLE = "/siri-et-from-bnr.xml";
+
+    private SiriSamples() {
+    }
+
+    public static byte[] load(String resource) {
+        try (InputStream in = SiriSamples.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Sample not found: " + resource);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Siri parse(byte[] xml) {
+        try {
+            return SiriXml.parseXml(new ByteArrayInputStream(xml));
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to parse sample", e);
+        }
+    }
+
+    public static List<EstimatedVehicleJourney> estimatedVehicleJourneys(Siri siri) {
+        List<EstimatedVehicleJourney> result = new ArrayList<>();
+        siri.getServiceDelivery().getEstimatedTimetableDeliveries()
+                .forEach(delivery -> delivery.getEstimatedJourneyVersionFrames()
+                        .forEach(frame -> result.addAll(frame.getEstimatedVehicleJourneies())));
+        return result;
+    }
+
+    /**
+     * The samples are recorded in the past - moves all timestamps so that the first call is "now",
+     * otherwise the data is regarded as expired and silently dropped by the repositories.
+     */
+    public static void shiftToNow(List<EstimatedVehicleJourney> journeys) {
+        ZonedDateTime earliest = null;
+        for (EstimatedVehicleJourney journey : journeys) {
+            ZonedDateTime recordedAtTime = journey.getRecordedAtTime();
+            if (recordedAtTime != null && (earliest == null || recordedAtTime.isBefore(earliest))) {
+                earliest = recordedAtTime;
+            }
+            if (journey.getRecordedCalls() != null) {
+                for (RecordedCall call : journey.getRecordedCalls().getRecordedCalls()) {
+                    earliest = min(earliest, call.getAimedDepartureTime());
+                    earliest = min(earliest, call.getAimedArrivalTime());
+                }
+            }
+            if (journey.getEstimatedCalls() != null) {
+                for (EstimatedCall call : journey.getEstimatedCalls().getEstimatedCalls()) {
+                    earliest = min(earliest, call.getAimedDepartureTime());
+                    earliest = min(earliest, call.getAimedArrivalTime());
+                }
+            }
+        }
+        if (earliest == null) {
+            return;
+        }
+        Duration offset = Duration.between(earliest, ZonedDateTime.now());
+        for (EstimatedVehicleJourney journey : journeys) {
+            journey.setRecordedAtTime(shift(journey.getRecordedAtTime(), offset));
+            if (journey.getRecordedCalls() != null) {
+                for (RecordedCall call : journey.getRecordedCalls().getRecordedCalls()) {
+                    call.setAimedArrivalTime(shift(call.getAimedArrivalTime(), offset));
+                    call.setExpectedArrivalTime(shift(call.getExpectedArrivalTime(), offset));
+                    call.setActualArrivalTime(shift(call.getActualArrivalTime(), offset));
+                    call.setAimedDepartureTime(shift(call.getAimedDepartureTime(), offset));
+                    call.setExpectedDepartureTime(shift(call.getExpectedDepartureTime(), offset));
+                    call.setActualDepartureTime(shift(call.getActualDepartureTime(), offset));
+                }
+            }
+            if (journey.getEstimatedCalls() != null) {
+                for (EstimatedCall call : journey.getEstimatedCalls().getEstimatedCalls()) {
+                    call.setAimedArrivalTime(shift(call.getAimedArrivalTime(), offset));
+                    call.setExpectedArrivalTime(shift(call.getExpectedArrivalTime(), offset));
+                    call.setAimedDepartureTime(shift(call.getAimedDepartureTime(), offset));
+                    call.setExpectedDepartureTime(shift(call.getExpectedDepartureTime(), offset));
+                }
+            }
+        }
+    }
+
+    private static ZonedDateTime min(ZonedDateTime current, ZonedDateTime candidate) {
+        if (candidate == null) {
+            return current;
+        }
+        return current == null || candidate.isBefore(current) ? candidate : current;
+    }
+
+    private static ZonedDateTime shift(ZonedDateTime time, Duration offset) {
+        return time != null ? time.plus(offset) : null;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.benchmark;
+
+import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
+import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.routes.siri.transformer.SiriValueTransformer;
+import no.rutebanken.anshar.routes.siri.transformer.ValueAdapter;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import no.rutebanken.anshar.subscription.helpers.MappingAdapterPresets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.siri.siri21.Siri;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the outbound ET-adapters to a full delivery - as done for every outbound subscription and every
+ * request/response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SiriValueTransformerBenchmark {
+
+    @Param({"DEFAULT", "ORIGINAL_ID"})
+    private OutboundIdMappingPolicy policy;
+
+    private Siri original;
+    private Siri siri;
+    private List<ValueAdapter> adapters;
+
+    @Setup
+    public void setup() {
+        original = SiriSamples.parse(SiriSamples.load(SiriSamples.ET_SAMPLE));
+        adapters = new MappingAdapterPresets(null).getOutboundAdapters(SiriDataType.ESTIMATED_TIMETABLE, policy);
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() throws Exception {
+        // Adapters modify the object in place - every invocation needs an untouched copy
+        siri = SiriObjectFactory.deepCopy(original);
+    }
+
+    @Benchmark
+    public Siri transform() {
+        return SiriValueTransformer.transform(siri, adapters, false, false);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.benchmark;
+
+import org.entur.siri21.util.SiriXml;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.siri.siri21.Siri;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unmarshalling and marshalling of a full ET-delivery, i.e. the first and last step of every incoming/outgoing message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SiriXmlBenchmark {
+
+    private byte[] xml;
+    private Siri siri;
+
+    @Setup
+    public void setup() {
+        xml = SiriSamples.load(SiriSamples.ET_SAMPLE);
+        siri = SiriSamples.parse(xml);
+    }
+
+    @Benchmark
+    public Siri parseXml() throws Exception {
+        return SiriXml.parseXml(new ByteArrayInputStream(xml));
+    }
+
+    @Benchmark
+    public byte[] toXml() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length);
+        SiriXml.toXml(siri, null, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.benchmark.SiriSamples;
+import org.entur.siri.validator.SiriValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.org.siri.siri21.Siri;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of outbound data as done by {@link CamelRouteManager} for every push to a subscriber,
+ * including the downgrade to SIRI 2.0.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OutboundSerializationBenchmark {
+
+    @Param({"VERSION_2_0", "VERSION_2_1"})
+    private SiriValidator.Version version;
+
+    private Siri siri;
+    private int expectedSize;
+
+    @Setup
+    public void setup() {
+        byte[] xml = SiriSamples.load(SiriSamples.ET_SAMPLE);
+        siri = SiriSamples.parse(xml);
+        expectedSize = xml.length;
+    }
+
+    @Benchmark
+    public byte[] serializeSiriObject() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(expectedSize);
+        CamelRouteManager.serializeSiriObject(version, siri, out);
+        return out.toByteArray();
+    }
+}
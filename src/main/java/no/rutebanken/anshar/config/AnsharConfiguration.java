@@ -81,7 +81,7 @@ public class AnsharConfiguration {
     @Value("${anshar.siri.vm.graceperiod.minutes:0}")
     private long vmGraceperiodMinutes;
 
-    @Value("${anshar.siri.cleanup.interval.seconds:60}")
+    @Value("${anshar.siri.cleanup.interval.seconds:1}")
     private int cleanupIntervalSeconds;
 
     @Value("${anshar.validation.profile.enabled}")
@@ -126,6 +126,14 @@ public class AnsharConfiguration {
 
     @Value("${anshar.split.data.for.processing:false}")
     private Boolean splitDataForProcessing;
+
+    /*
+     * When enabled, incoming deliveries are parsed once and the mapped Siri-object is put on the queue
+     * instead of the XML-text. Queue-consumers handle both formats.
+     */
+    @Value("${anshar.incoming.single.parse.enabled:false}")
+    private boolean singleParseIngest;
+
     @Value("${anshar.siri.et.future.update.hard.limit.duration:}")
     private Duration hardLimitForFutureUpdates;
 
@@ -272,6 +280,10 @@ public class AnsharConfiguration {
         return splitDataForProcessing;
     }
 
+    public boolean isSingleParseIngest() {
+        return singleParseIngest;
+    }
+
     public Duration hardLimitForFutureEtUpdates() {
         return hardLimitForFutureUpdates;
     }
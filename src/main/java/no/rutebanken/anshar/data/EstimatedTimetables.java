@@ -17,6 +17,7 @@ package no.rutebanken.anshar.data;
 
 import com.hazelcast.map.IMap;
 import com.hazelcast.query.Predicates;
+import com.hazelcast.ringbuffer.Ringbuffer;
 import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.data.collections.ExtendedHazelcastService;
 import no.rutebanken.anshar.data.util.TimingTracer;
@@ -38,7 +39,6 @@ import uk.org.siri.siri21.StopAssignmentStructure;
 import uk.org.siri.siri21.StopPointRefStructure;
 
 import javax.annotation.PostConstruct;
-import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
@@ -72,7 +72,7 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
 
     @Autowired
     @Qualifier("getEtChecksumMap")
-    private IMap<SiriObjectStorageKey,String> checksumCache;
+    private IMap<SiriObjectStorageKey,Long> checksumCache;
 
     @Autowired
     @Qualifier("getIdForPatternChangesMap")
@@ -88,7 +88,11 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
 
     @Autowired
     @Qualifier("getLastEtUpdateRequest")
-    private IMap<String, Instant> lastUpdateRequested;
+    private IMap<String, Long> lastUpdateRequested;
+
+    @Autowired
+    @Qualifier("getEstimatedTimetableChangeLog")
+    private Ringbuffer<Collection<SiriObjectStorageKey>> changeLog;
 
     @Autowired
     private AnsharConfiguration configuration;
@@ -114,14 +118,16 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
 
     @PostConstruct
     private void initializeUpdateCommitter() {
-        super.initBufferCommitter(hazelcastService, lastUpdateRequested, changesMap, configuration.getChangeBufferCommitFrequency());
+        super.initBufferCommitter(hazelcastService, lastUpdateRequested, changesMap, changeLog, configuration.getChangeBufferCommitFrequency());
         enableCache(timetableDeliveries,
             // Only cache monitored/cancelled/extra trips
             value -> (Boolean.TRUE.equals(value.isMonitored()) |
                 Boolean.TRUE.equals(value.isCancellation()) |
                 Boolean.TRUE.equals(value.isExtraJourney()))
         );
-        linkEntriesTtl(timetableDeliveries, changesMap, checksumCache, idStartTimeMap);
+        createCleanupJob(hazelcastService, timetableDeliveries, configuration.getCleanupIntervalSeconds(), -1, checksumCache, idStartTimeMap);
+
+        trackLocalDatasetSize(timetableDeliveries);
     }
 
     /**
@@ -169,23 +175,8 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
         return sizeMap;
     }
 
-    public Map<String, Integer> getLocalDatasetSize() {
-        Map<String, Integer> sizeMap = new HashMap<>();
-        long t1 = System.currentTimeMillis();
-        timetableDeliveries.localKeySet().forEach(key -> {
-                        String datasetId = key.getCodespaceId();
-
-                        Integer count = sizeMap.getOrDefault(datasetId, 0);
-                        sizeMap.put(datasetId, count+1);
-                    });
-        logger.debug("Calculating local data-distribution (ET) took {} ms: {}", (System.currentTimeMillis()-t1), sizeMap);
-        return sizeMap;
-    }
-
     public Integer getDatasetSize(String datasetId) {
-        return Math.toIntExact(timetableDeliveries.keySet().stream()
-                .filter(key -> datasetId.equals(key.getCodespaceId()))
-                .count());
+        return timetableDeliveries.keySet(createHzCodespacePredicate(datasetId)).size();
     }
 
     @Override
@@ -254,13 +245,16 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
         }
 
         // Get all relevant ids
-        Set<SiriObjectStorageKey> allIds = new HashSet<>();
-        Set<SiriObjectStorageKey> idSet = changesMap.getOrDefault(requestorId, allIds);
+        TrackedChanges trackedChanges = getTrackedChanges(isAdHocRequest ? null : requestorId);
+        Set<SiriObjectStorageKey> idSet = trackedChanges.getChanges();
 
-        if (idSet == allIds) {
-            idSet.addAll(timetableDeliveries
-                    .keySet(entry -> datasetId == null || ((SiriObjectStorageKey) entry.getKey()).getCodespaceId().equals(datasetId))
-            );
+        if (idSet == null) {
+            idSet = new HashSet<>();
+            if (datasetId == null) {
+                idSet.addAll(timetableDeliveries.keySet());
+            } else {
+                idSet.addAll(timetableDeliveries.keySet(createHzCodespacePredicate(datasetId)));
+            }
         }
 
         //Filter by datasetId
@@ -272,11 +266,8 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
 
         if (previewInterval >= 0) {
             long t1 = System.currentTimeMillis();
-            startTimes.addAll(idStartTimeMap
-                        .entrySet().stream()
-                        .filter(entry -> entry.getValue().isBefore(previewExpiry))
-                        .map(Map.Entry::getKey)
-                        .collect(Collectors.toSet()));
+            // Resolved by the sorted startTime-index
+            startTimes.addAll(idStartTimeMap.keySet(Predicates.lessThan("this", previewExpiry)));
 
             logger.info("Found {} ids starting within {} ms in {} ms", startTimes.size(), previewInterval, (System.currentTimeMillis()-t1));
         }
@@ -332,7 +323,7 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
             siri.getServiceDelivery().setRequestMessageRef(msgRef);
 
             //Update change-tracker
-            updateChangeTrackers(lastUpdateRequested, changesMap, requestorId, idSet, trackingPeriodMinutes, TimeUnit.MINUTES);
+            updateChangeTrackers(requestorId, idSet, trackedChanges.getNextSequence(), trackingPeriodMinutes, TimeUnit.MINUTES);
 
             logger.info("Returning {}, {} left for requestorRef {}", sizeLimitedIds.size(), idSet.size(), requestorId);
         }
@@ -508,8 +499,11 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
     public Collection<EstimatedVehicleJourney> getAllUpdates(String requestorId, String datasetId) {
         if (requestorId != null) {
 
-            Set<SiriObjectStorageKey> idSet = changesMap.get(requestorId);
-            lastUpdateRequested.put(requestorId, Instant.now(), configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
+            TrackedChanges trackedChanges = getTrackedChanges(requestorId);
+            Set<SiriObjectStorageKey> idSet = trackedChanges.getChanges();
+
+            // All changes are returned, or not relevant for the requested dataset
+            updateChangeTrackers(requestorId, new HashSet<>(), trackedChanges.getNextSequence(), configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
 
             if (idSet != null) {
                 Set<SiriObjectStorageKey> datasetFilteredIdSet = new HashSet<>();
@@ -522,22 +516,11 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
 
                 Collection<EstimatedVehicleJourney> changes = timetableDeliveries.getAll(datasetFilteredIdSet).values();
 
-                Set<SiriObjectStorageKey> existingSet = changesMap.get(requestorId);
-                if (existingSet == null) {
-                    existingSet = new HashSet<>();
-                }
-                //Remove returned ids
-                existingSet.removeAll(idSet);
-
-                updateChangeTrackers(lastUpdateRequested, changesMap, requestorId, existingSet, configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
-
                 logger.info("Returning {} changes to requestorRef {}", changes.size(), requestorId);
                 return changes;
-            } else {
-
-                logger.info("Returning all to requestorRef {}", requestorId);
-                updateChangeTrackers(lastUpdateRequested, changesMap, requestorId, new HashSet<>(), configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
             }
+
+            logger.info("Returning all to requestorRef {}", requestorId);
         }
 
         return getAll(datasetId);
@@ -645,7 +628,7 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
         prepareMetrics();
         Map<SiriObjectStorageKey, EstimatedVehicleJourney> changes = new HashMap();
 
-        Map<SiriObjectStorageKey, String> checksumCacheTmp = new HashMap<>();
+        Map<SiriObjectStorageKey, Long> checksumCacheTmp = new HashMap<>();
         Map<SiriObjectStorageKey, ZonedDateTime> idStartTimeMapTmp = new HashMap<>();
         Map<SiriObjectStorageKey, Long> expirationMap = new HashMap<>();
 
@@ -658,29 +641,22 @@ public class EstimatedTimetables  extends SiriRepository<EstimatedVehicleJourney
 
             timingTracer.mark("createKey");
 
-            String currentChecksum = null;
-
             // Using "now" as default recordedAtTime
-            ZonedDateTime recordedAtTime = et.getRecordedAtTime() != null ? et.getRecordedAtTime(): ZonedDateTime.now();
-            try {
-                // Calculate checksum without "RecordedTime" - thus ignoring "fake" updates
-                et.setRecordedAtTime(null);
-                currentChecksum = getChecksum(et);
-                timingTracer.mark("getChecksum");
-            } catch (Exception e) {
-                //Ignore - data will be updated
-            } finally {
-                //Set original RecordedTime back
-                et.setRecordedAtTime(recordedAtTime);
+            if (et.getRecordedAtTime() == null) {
+                et.setRecordedAtTime(ZonedDateTime.now());
             }
 
-            String existingChecksum = checksumCache.get(key);
+            // Calculate checksum without "RecordedTime" - thus ignoring "fake" updates
+            long currentChecksum = getChecksum(et, "recordedAtTime");
+            timingTracer.mark("getChecksum");
+
+            Long existingChecksum = checksumCache.get(key);
             timingTracer.mark("checksumCache.get");
             boolean updated;
 //            if (existingChecksum != null && timetableDeliveries.containsKey(key)) {
             if (existingChecksum != null) {
                 //Exists - compare values
-                updated =  !(currentChecksum.equals(existingChecksum));
+                updated = currentChecksum != existingChecksum;
                 if (updated && et.isMonitored() == null) {
                     et.setMonitored(true);
                 }
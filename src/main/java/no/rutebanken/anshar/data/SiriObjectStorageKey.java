@@ -3,10 +3,17 @@ package no.rutebanken.anshar.data;
 import com.google.common.base.Objects;
 
 import java.io.Serializable;
+import java.util.Locale;
 import java.util.StringJoiner;
 
 public class SiriObjectStorageKey implements Serializable {
 
+    /*
+     * Attribute-paths used for Hazelcast-indexes and -predicates on keys
+     */
+    public static final String CODESPACE_ID_ATTRIBUTE = "__key.codespaceId";
+    public static final String NORMALIZED_LINE_REF_ATTRIBUTE = "__key.normalizedLineRef";
+
     private final String codespaceId;
     private final String lineRef;
 
@@ -18,18 +25,29 @@ public class SiriObjectStorageKey implements Serializable {
         this.key = key;
     }
 
-    String getCodespaceId() {
+    public String getCodespaceId() {
         return codespaceId;
     }
 
-    String getLineRef() {
+    public String getLineRef() {
         return lineRef;
     }
 
-    String getKey() {
+    /**
+     * LineRef in lower case - used for case-insensitive, indexed lookups
+     */
+    public String getNormalizedLineRef() {
+        return normalizeLineRef(lineRef);
+    }
+
+    public String getKey() {
         return key;
     }
 
+    public static String normalizeLineRef(String lineRef) {
+        return lineRef != null ? lineRef.toLowerCase(Locale.ROOT) : null;
+    }
+
     @Override
     public String toString() {
         return new StringJoiner(", ", SiriObjectStorageKey.class.getSimpleName() + "[", "]")
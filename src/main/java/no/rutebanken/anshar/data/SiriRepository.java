@@ -15,53 +15,85 @@
 
 package no.rutebanken.anshar.data;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hazelcast.cluster.Member;
 import com.hazelcast.core.EntryEvent;
 import com.hazelcast.map.IMap;
+import com.hazelcast.map.MapEvent;
 import com.hazelcast.map.listener.EntryAddedListener;
 import com.hazelcast.map.listener.EntryEvictedListener;
 import com.hazelcast.map.listener.EntryExpiredListener;
 import com.hazelcast.map.listener.EntryRemovedListener;
 import com.hazelcast.map.listener.EntryUpdatedListener;
+import com.hazelcast.map.listener.MapClearedListener;
+import com.hazelcast.map.listener.MapEvictedListener;
+import com.hazelcast.partition.MigrationListener;
+import com.hazelcast.partition.MigrationState;
+import com.hazelcast.partition.PartitionService;
+import com.hazelcast.partition.ReplicaMigrationEvent;
 import com.hazelcast.query.Predicate;
-import jakarta.xml.bind.DatatypeConverter;
+import com.hazelcast.query.Predicates;
+import com.hazelcast.ringbuffer.ReadResultSet;
+import com.hazelcast.ringbuffer.Ringbuffer;
 import no.rutebanken.anshar.data.collections.ExtendedHazelcastService;
+import no.rutebanken.anshar.data.util.ExpiryIndex;
+import no.rutebanken.anshar.data.util.StructuralChecksum;
+import no.rutebanken.anshar.metrics.PipelineStage;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.siri.transformer.ApplicationContextHolder;
 import no.rutebanken.anshar.subscription.SiriDataType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.util.SerializationUtils;
+import org.springframework.beans.factory.annotation.Value;
 import uk.org.siri.siri21.VehicleActivityStructure;
 
 import java.io.Serializable;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.time.Instant;
 import java.time.ZonedDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 abstract class SiriRepository<T> {
 
-    private IMap<String, Instant> lastUpdateRequested;
+    /**
+     * Max number of commits read from the change-log per roundtrip
+     */
+    private static final int CHANGE_LOG_READ_BATCH_SIZE = 1000;
+
+    /**
+     * Next sequence in the change-log to read from - per requestor
+     */
+    private IMap<String, Long> lastUpdateRequested;
+
+    /**
+     * Changes that were read from the change-log, but not returned to the requestor (e.g. because of maxSize
+     * or previewInterval) - only written by the requestor's own requests
+     */
     private IMap<String, Set<SiriObjectStorageKey>> changesMap;
 
+    private Ringbuffer<Collection<SiriObjectStorageKey>> changeLog;
+
     private final SiriDataType SIRI_DATA_TYPE;
 
     abstract Collection<T> getAll();
@@ -93,6 +125,32 @@ abstract class SiriRepository<T> {
 
     Map<SiriObjectStorageKey, T> cache = Maps.newConcurrentMap();
 
+    /**
+     * Incremented on every change to the underlying map seen by this node
+     */
+    private final AtomicLong cacheVersion = new AtomicLong();
+
+    /**
+     * Number of elements per codespace owned by this node - maintained from entry-events
+     */
+    private final ConcurrentMap<String, AtomicLong> localDatasetSize = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService localDatasetSizeExecutor;
+
+    @Value("${anshar.metrics.local.dataset.size.recount.interval.seconds:300}")
+    private long localDatasetSizeRecountInterval = 300;
+
+    /**
+     * Expiry of elements owned by this node - maintained from entry-events
+     */
+    private ExpiryIndex<SiriObjectStorageKey> expiryIndex;
+
+    private static final long EXPIRY_RESOLUTION_MILLIS = 1000;
+
+    private ExpiryTracker expiryTracker;
+
+    private ScheduledExecutorService cleanupExecutor;
+
     protected SiriRepository (SiriDataType siriDataType) {
         this.SIRI_DATA_TYPE = siriDataType;
     }
@@ -109,6 +167,7 @@ abstract class SiriRepository<T> {
             if (includeInCachePredicate == null || includeInCachePredicate.test(entryEvent.getValue())) {
                 cache.put(entryEvent.getKey(), entryEvent.getValue());
             }
+            cacheVersion.incrementAndGet();
         }, true);
 
         // Entry updated - new version
@@ -117,24 +176,28 @@ abstract class SiriRepository<T> {
             if (includeInCachePredicate == null || includeInCachePredicate.test(entryEvent.getValue())) {
                 cache.put(entryEvent.getKey(), entryEvent.getValue());
             }
+            cacheVersion.incrementAndGet();
         }, true);
 
         //Entry expired by TTL
         map.addEntryListener((EntryExpiredListener<SiriObjectStorageKey, T>) entryEvent -> {
 
             cache.remove(entryEvent.getKey());
+            cacheVersion.incrementAndGet();
         }, false);
 
         // Entry evicted
         map.addEntryListener((EntryEvictedListener<SiriObjectStorageKey, T>) entryEvent -> {
 
             cache.remove(entryEvent.getKey());
+            cacheVersion.incrementAndGet();
         }, false);
 
         // Entry removed - e.g. "delete all for codespace"
         map.addEntryListener((EntryRemovedListener<SiriObjectStorageKey, T>) entryEvent -> {
 
             cache.remove(entryEvent.getKey());
+            cacheVersion.incrementAndGet();
         }, false);
 
         // Initialize cache
@@ -154,107 +217,142 @@ abstract class SiriRepository<T> {
     }
 
     /**
-     * Links entries across provided Maps.
+     * Maintains the number of elements per codespace owned by this node from local entry-events, so that reading
+     * the size does not iterate the map.
+     *
+     * Entries migrated between nodes do not trigger events, and a recount may race with concurrent updates, so the
+     * counters are periodically recounted from the local keys.
+     */
+    void trackLocalDatasetSize(IMap<SiriObjectStorageKey, T> map) {
+        map.addLocalEntryListener(new LocalDatasetSizeListener(map));
+
+        localDatasetSizeExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat(getClass().getSimpleName() + "-dataset-size-%d").setDaemon(true).build());
+        localDatasetSizeExecutor.scheduleWithFixedDelay(() -> recountLocalDatasetSize(map),
+                0, localDatasetSizeRecountInterval, TimeUnit.SECONDS);
+    }
+
+    private void recountLocalDatasetSize(IMap<SiriObjectStorageKey, T> map) {
+        try {
+            long t1 = System.currentTimeMillis();
+            Map<String, Long> sizeMap = new HashMap<>();
+            for (SiriObjectStorageKey key : map.localKeySet()) {
+                sizeMap.merge(key.getCodespaceId(), 1L, Long::sum);
+            }
+            for (Map.Entry<String, AtomicLong> entry : localDatasetSize.entrySet()) {
+                entry.getValue().set(sizeMap.getOrDefault(entry.getKey(), 0L));
+            }
+            for (Map.Entry<String, Long> entry : sizeMap.entrySet()) {
+                localDatasetSizeCounter(entry.getKey()).set(entry.getValue());
+            }
+            logger.debug("Recounting local data-distribution ({}) took {} ms: {}", this.getClass().getSimpleName(),
+                    (System.currentTimeMillis() - t1), sizeMap);
+        } catch (Throwable t) {
+            //Catch everything to avoid executor being killed
+            logger.info("Exception caught when recounting local dataset size", t);
+        }
+    }
+
+    private AtomicLong localDatasetSizeCounter(String datasetId) {
+        return localDatasetSize.computeIfAbsent(datasetId, id -> new AtomicLong());
+    }
+
+    /**
+     * @return Number of elements per codespace owned by this node
+     */
+    public Map<String, Integer> getLocalDatasetSize() {
+        Map<String, Integer> sizeMap = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : localDatasetSize.entrySet()) {
+            sizeMap.put(entry.getKey(), (int) entry.getValue().get());
+        }
+        return sizeMap;
+    }
+
+    /**
+     * @return Live counters per codespace owned by this node - for gauges that are registered once
+     */
+    public Map<String, AtomicLong> getLocalDatasetSizeCounters() {
+        return Collections.unmodifiableMap(localDatasetSize);
+    }
+
+    /**
+     * Removes expired entries, and links entries across provided Maps.
+     *
+     * The expiry of every entry owned by this node is kept in a node-local {@link ExpiryIndex}, maintained from
+     * local entry-events. Each cleanup pass only touches the entries that are due, instead of scanning the entire
+     * map - or setting TTL on the map for every update. Entries migrated between nodes do not trigger events, so the
+     * index is rebuilt from the local entries when a migration has finished.
      *
-     * TTL is set on main map, other maps are linked using EntryListeners:
-     *   When an object is removed/expired from the main map, it is also removed from the linked maps
+     * When an object is removed/expired from the main map, it is also removed from the linked maps. This is done by
+     * the node owning the entry, which also owns the linked entries since they share the same key.
      *
+     * @param hazelcastService
      * @param map
+     * @param cleanupInterval Seconds between each cleanup
+     * @param maxValidityMillis VehicleActivities not updated within this period are removed - ignored when not positive
      * @param linkedMaps
      */
-    void linkEntriesTtl(IMap<SiriObjectStorageKey, T> map,  IMap<String, Set<SiriObjectStorageKey>> linkedChangeMap, Map<SiriObjectStorageKey, ? extends Object>... linkedMaps) {
-        {
+    void createCleanupJob(ExtendedHazelcastService hazelcastService, IMap<SiriObjectStorageKey, T> map, long cleanupInterval,
+                          long maxValidityMillis, Map<SiriObjectStorageKey, ? extends Object>... linkedMaps) {
 
-            // Entry added - new data
-            map.addEntryListener((EntryAddedListener<SiriObjectStorageKey, T>) entryEvent -> {
-                map.setTtl(entryEvent.getKey(), getExpiration(entryEvent.getValue()), TimeUnit.MILLISECONDS);
-            }, true);
+        expiryIndex = new ExpiryIndex<>(EXPIRY_RESOLUTION_MILLIS);
+        cleanupExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat(getClass().getSimpleName() + "-cleanup-%d").setDaemon(true).build());
 
-            // Entry updated - new version
-            map.addEntryListener((EntryUpdatedListener<SiriObjectStorageKey, T>) entryEvent -> {
-                map.setTtl(entryEvent.getKey(), getExpiration(entryEvent.getValue()), TimeUnit.MILLISECONDS);
-            }, true);
+        PartitionService partitionService = hazelcastService.getHazelcastInstance().getPartitionService();
+        expiryTracker = new ExpiryTracker(map, partitionService, maxValidityMillis, linkedMaps);
 
-            //Entry expired by TTL
-            map.addEntryListener((EntryExpiredListener<SiriObjectStorageKey, T>) entryEvent -> {
-                removeFromLinked(linkedChangeMap, entryEvent, linkedMaps);
-            }, false);
+        map.addLocalEntryListener(expiryTracker);
 
-            // Entry evicted
-            map.addEntryListener((EntryEvictedListener<SiriObjectStorageKey, T>) entryEvent -> {
-                removeFromLinked(linkedChangeMap, entryEvent, linkedMaps);
-            }, false);
+        partitionService.addMigrationListener(new MigrationListener() {
+            @Override
+            public void migrationStarted(MigrationState state) {
+            }
 
-            // Entry removed - e.g. "delete all for codespace"
-            map.addEntryListener((EntryRemovedListener<SiriObjectStorageKey, T>) entryEvent -> {
-                removeFromLinked(linkedChangeMap, entryEvent, linkedMaps);
-            }, false);
-        }
-    }
+            @Override
+            public void migrationFinished(MigrationState state) {
+                cleanupExecutor.execute(expiryTracker::rebuild);
+            }
 
-    void createCleanupJob(IMap<SiriObjectStorageKey, T> map, IMap<String, Set<SiriObjectStorageKey>> linkedChangeMap, long cleanupInterval, long maxValidityMillis) {
+            @Override
+            public void replicaMigrationCompleted(ReplicaMigrationEvent event) {
+            }
+
+            @Override
+            public void replicaMigrationFailed(ReplicaMigrationEvent event) {
+            }
+        });
 
         logger.info("Initializing scheduled cleanup job with interval {} seconds", cleanupInterval);
-        Executors.newSingleThreadScheduledExecutor()
-                .scheduleWithFixedDelay(() -> removeExpired(map, linkedChangeMap, maxValidityMillis), cleanupInterval, cleanupInterval, TimeUnit.SECONDS);
+        cleanupExecutor.execute(expiryTracker::rebuild);
+        cleanupExecutor.scheduleWithFixedDelay(this::removeExpired, cleanupInterval, cleanupInterval, TimeUnit.SECONDS);
     }
 
-    private void removeExpired(IMap<SiriObjectStorageKey, T> map, IMap<String, Set<SiriObjectStorageKey>> linkedChangeMap, long maxValidityMillis) {
-        try {
-            logger.debug("Cleaning up expired objects");
-            long t1 = System.currentTimeMillis();
-            Set<SiriObjectStorageKey> expired = map.entrySet().stream()
-                    .filter(entry -> {
-                        // Check if entry is expired
-                        if (getExpiration(entry.getValue()) < 0) {
-                            return true;
-                        }
-                        // Check if entry is older than maxValidityMillis
-                        if (maxValidityMillis > 0) {
-                            if (entry.getValue() instanceof VehicleActivityStructure) {
-                                ZonedDateTime recordedAtTime = ((VehicleActivityStructure) entry.getValue()).getRecordedAtTime();
-                                long timeSinceUpdate = Math.abs(ZonedDateTime.now().until(recordedAtTime, ChronoUnit.MILLIS));
-                                return timeSinceUpdate > maxValidityMillis;
-                            }
-                        }
-                        return false;
-                    })
-                    .map(Map.Entry::getKey)
-                    .collect(Collectors.toSet());
-
-            long t2 = System.currentTimeMillis();
-            if (!expired.isEmpty()) {
-                for (SiriObjectStorageKey key : expired) {
-                    map.delete(key);
-                }
-            }
+    /**
+     * Number of local entries tracked for expiry - package-private for unittest
+     */
+    int getExpiryIndexSize() {
+        return expiryIndex != null ? expiryIndex.size() : 0;
+    }
 
-            long t3 = System.currentTimeMillis();
-            if (!expired.isEmpty()) {
-                for (String requestorId : linkedChangeMap.keySet()) {
-                    Set<SiriObjectStorageKey> keys = linkedChangeMap.get(requestorId);
-                    if (keys != null) {
-                        keys.removeAll(expired);
-                        if (keys.isEmpty()) {
-                            linkedChangeMap.remove(requestorId);
-                        }
-                    }
-                }
-            }
-            logger.info("Cleaning {} expired objects took {} ms, finding {} ms, removing {}, changes {} ms, now have {} objects",
-                    expired.size(), (System.currentTimeMillis() - t1), (t2 - t1), (t3 - t2), (System.currentTimeMillis() - t3), map.size());
+    /**
+     * Runs a single cleanup pass - package-private for unittest
+     *
+     * @return Number of removed entries
+     */
+    int removeExpired() {
+        try {
+            return expiryTracker != null ? expiryTracker.removeExpired() : 0;
         } catch (Throwable t) {
             //Catch everything to avoid executor being killed
             logger.info("Exception caught when cleaning up expired data", t);
+            return 0;
         }
     }
 
-    private void removeFromLinked(IMap<String, Set<SiriObjectStorageKey>> linkedChangeMap, EntryEvent<SiriObjectStorageKey, T> entryEvent, Map<SiriObjectStorageKey, ?>[] linkedMaps) {
+    private void removeFromLinked(SiriObjectStorageKey key, Map<SiriObjectStorageKey, ?>[] linkedMaps) {
         for (Map<SiriObjectStorageKey, ?> linkedMap : linkedMaps) {
-            linkedMap.remove(entryEvent.getKey());
-        }
-        for (Set<SiriObjectStorageKey> changes : linkedChangeMap.values()) {
-            changes.remove(entryEvent.getKey());
+            linkedMap.remove(key);
         }
     }
 
@@ -271,15 +369,16 @@ abstract class SiriRepository<T> {
         }
 
         if (requestorId != null) {
-            try {
-                requestorRefRepository.touchRequestorRef(requestorId,
-                    datasetId,
-                    clientTrackingName,
-                    SIRI_DATA_TYPE
-                );
+            requestorRefRepository.touchRequestorRef(requestorId,
+                datasetId,
+                clientTrackingName,
+                SIRI_DATA_TYPE
+            );
 
-                if (changesMap.containsKey(requestorId)) {
-                    Set<SiriObjectStorageKey> changes = changesMap.get(requestorId);
+            TrackedChanges trackedChanges = getTrackedChanges(requestorId);
+            try {
+                if (trackedChanges.isTracked()) {
+                    Set<SiriObjectStorageKey> changes = trackedChanges.getChanges();
 
                     changes = changes.stream()
                         .filter((k) -> datasetId == null || codespaceMatches(datasetId, k))
@@ -297,10 +396,9 @@ abstract class SiriRepository<T> {
                     return updates;
                 }
             } finally {
-                updateChangeTrackers(lastUpdateRequested,
-                    changesMap,
-                    requestorId,
+                updateChangeTrackers(requestorId,
                     new HashSet<>(),
+                    trackedChanges.getNextSequence(),
                     2,
                     TimeUnit.MINUTES
                 );
@@ -318,9 +416,22 @@ abstract class SiriRepository<T> {
             .collect(Collectors.toList());
     }
 
-    void initBufferCommitter(ExtendedHazelcastService hazelcastService, IMap<String, Instant> lastUpdateRequested, IMap<String, Set<SiriObjectStorageKey>> changesMap, int commitFrequency) {
+    /**
+     * Node-local version of the data - changes whenever the data has changed. Read before fetching data, so that
+     * the version never claims newer data than what is returned.
+     *
+     * @return Version to be used for e.g. ETags
+     */
+    public long getCacheVersion() {
+        return cacheVersion.get();
+    }
+
+    void initBufferCommitter(ExtendedHazelcastService hazelcastService, IMap<String, Long> lastUpdateRequested,
+                             IMap<String, Set<SiriObjectStorageKey>> changesMap, Ringbuffer<Collection<SiriObjectStorageKey>> changeLog,
+                             int commitFrequency) {
         this.lastUpdateRequested = lastUpdateRequested;
         this.changesMap = changesMap;
+        this.changeLog = changeLog;
 
         if (singleThreadScheduledExecutor == null) {
             singleThreadScheduledExecutor = Executors.newSingleThreadScheduledExecutor();
@@ -340,29 +451,27 @@ abstract class SiriRepository<T> {
     }
 
     /**
-     * Commits local change-buffer to cluster
+     * Commits local change-buffer to cluster as a single entry in the change-log - independent of the number of
+     * requestors, as each requestor reads the change-log from its own sequence
      */
     void commitChanges() {
 
         try {
             if (!dirtyChanges.isEmpty()) {
 
-                long t1 = System.currentTimeMillis();
+                long t1 = System.nanoTime();
 
-                final Set<SiriObjectStorageKey> bufferedChanges = new HashSet<>(dirtyChanges);
+                final ArrayList<SiriObjectStorageKey> bufferedChanges = new ArrayList<>(dirtyChanges);
                 dirtyChanges.clear();
 
-                changesMap.keySet().forEach(key -> {
-                    if (!lastUpdateRequested.containsKey(key)) {
-                        changesMap.delete(key);
-                    }
-                });
+                long sequence = changeLog.add(bufferedChanges);
+                long commitNanos = System.nanoTime() - t1;
+                logger.info("Committed {} changes with sequence {} ({}), update took {} ms",
+                        bufferedChanges.size(), sequence, this.getClass().getSimpleName(), TimeUnit.NANOSECONDS.toMillis(commitNanos));
 
-                if (!changesMap.isEmpty()) {
-                    changesMap.executeOnEntries(new AppendChangesToSetEntryProcessor(bufferedChanges));
-                    logger.info("Updating changes for {} requestors ({}), committed {} changes, update took {} ms",
-                            changesMap.size(), this.getClass().getSimpleName(), bufferedChanges.size(), (System.currentTimeMillis() - t1));
-                }
+                // Commits contain changes for all codespaces
+                prepareMetrics();
+                metrics.recordPipelineStage(PipelineStage.COMMIT, SIRI_DATA_TYPE, null, commitNanos);
             } else {
                 logger.debug("No changes - ignoring commit ({})", this.getClass().getSimpleName());
             }
@@ -395,31 +504,127 @@ abstract class SiriRepository<T> {
         }
     }
 
-    void updateChangeTrackers(IMap<String, Instant> lastUpdateRequested, IMap<String, Set<SiriObjectStorageKey>> changesMap,
-                              String key, Set<SiriObjectStorageKey> changes, int trackingPeriodMinutes, TimeUnit timeUnit) {
-        final String breadcrumbId = MDC.get("camel.breadcrumbId");
+    /**
+     * Resolves changes not yet returned to the requestor: the remainder from the previous request, and all changes
+     * committed to the change-log since then.
+     *
+     * Requestors that are not tracked - or have fallen behind the change-log - are returned as untracked, and should
+     * get a full resync. The returned sequence is resolved before reading, so changes committed while the requestor
+     * reads all data are returned on the next request.
+     */
+    TrackedChanges getTrackedChanges(String requestorId) {
+        final long nextSequence = changeLog.tailSequence() + 1;
 
-        ExecutorService executorService = Executors.newSingleThreadExecutor();
-        executorService.execute(() -> {
-            try {
-                MDC.put("camel.breadcrumbId", breadcrumbId);
+        Long sequence = requestorId != null ? lastUpdateRequested.get(requestorId) : null;
+        if (sequence == null) {
+            return new TrackedChanges(null, nextSequence);
+        }
+        if (sequence < changeLog.headSequence() || sequence > nextSequence) {
+            logger.warn("Requestor {} is no longer covered by the change-log ({}) - full resync", requestorId, this.getClass().getSimpleName());
+            return new TrackedChanges(null, nextSequence);
+        }
 
-                long t1 = System.currentTimeMillis();
+        Set<SiriObjectStorageKey> changes = new HashSet<>();
+        Set<SiriObjectStorageKey> remainder = changesMap.get(requestorId);
+        if (remainder != null) {
+            changes.addAll(remainder);
+        }
 
-                changesMap.executeOnKey(key, new ReplaceSetEntryProcessor(changes));
-                changesMap.setTtl(key, trackingPeriodMinutes, timeUnit);
+        long t1 = System.currentTimeMillis();
+        final int batchSize = (int) Math.min(CHANGE_LOG_READ_BATCH_SIZE, changeLog.capacity());
+        try {
+            while (sequence < nextSequence) {
+                ReadResultSet<Collection<SiriObjectStorageKey>> commits = changeLog
+                        .readManyAsync(sequence, 0, batchSize, null)
+                        .toCompletableFuture()
+                        .get();
+
+                if (commits.readCount() == 0) {
+                    break;
+                }
+                if (commits.getSequence(0) != sequence) {
+                    // Overwritten while reading
+                    logger.warn("Requestor {} has fallen behind the change-log ({}) - full resync", requestorId, this.getClass().getSimpleName());
+                    return new TrackedChanges(null, nextSequence);
+                }
+                for (Collection<SiriObjectStorageKey> commit : commits) {
+                    changes.addAll(commit);
+                }
+                sequence = commits.getNextSequenceToReadFrom();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading change-log", e);
+        } catch (ExecutionException e) {
+            logger.warn("Reading change-log failed for requestor {} ({}) - full resync", requestorId, this.getClass().getSimpleName(), e);
+            return new TrackedChanges(null, nextSequence);
+        }
 
-                lastUpdateRequested.set(key, Instant.now(), trackingPeriodMinutes, timeUnit);
+        logger.info("Found {} changes for requestor {} in {} ms ({})", changes.size(), requestorId, (System.currentTimeMillis() - t1), this.getClass().getSimpleName());
+        return new TrackedChanges(changes, sequence);
+    }
+
+    /**
+     * Stores the requestor's position in the change-log, and the changes that were not returned
+     */
+    void updateChangeTrackers(String key, Set<SiriObjectStorageKey> changes, long nextSequence, int trackingPeriodMinutes, TimeUnit timeUnit) {
+        changesMap.setAsync(key, changes, trackingPeriodMinutes, timeUnit);
+        lastUpdateRequested.setAsync(key, nextSequence, trackingPeriodMinutes, timeUnit);
 
-                logger.info("Replacing changes for requestor async {} took {} ms. ({})",
-                    key,(System.currentTimeMillis() - t1),this.getClass().getSimpleName());
-            } finally {
-                MDC.remove("camel.breadcrumbId");
-            }
-        });
         logger.info("Changetracker-update submitted");
     }
 
+    /**
+     * @return Number of pending changes per tracked requestor - i.e. commits in the change-log not yet read, and
+     *         changes remaining from the previous request. The change-log itself is not read.
+     */
+    public Map<String, Integer> getPendingChangeCounts() {
+        final long nextSequence = changeLog.tailSequence() + 1;
+
+        Map<String, Long> sequences = new HashMap<>();
+        for (Map.Entry<String, Long> entry : lastUpdateRequested.entrySet()) {
+            sequences.put(entry.getKey(), entry.getValue());
+        }
+        Map<String, Set<SiriObjectStorageKey>> remainders = changesMap.getAll(sequences.keySet());
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, Long> entry : sequences.entrySet()) {
+            long pendingCommits = Math.max(0, nextSequence - entry.getValue());
+            Set<SiriObjectStorageKey> remainder = remainders.get(entry.getKey());
+            long pending = pendingCommits + (remainder != null ? remainder.size() : 0);
+            counts.put(entry.getKey(), (int) Math.min(Integer.MAX_VALUE, pending));
+        }
+        return counts;
+    }
+
+    static final class TrackedChanges {
+        private final Set<SiriObjectStorageKey> changes;
+        private final long nextSequence;
+
+        private TrackedChanges(Set<SiriObjectStorageKey> changes, long nextSequence) {
+            this.changes = changes;
+            this.nextSequence = nextSequence;
+        }
+
+        boolean isTracked() {
+            return changes != null;
+        }
+
+        /**
+         * @return Pending changes, or null if requestor is not tracked
+         */
+        Set<SiriObjectStorageKey> getChanges() {
+            return changes;
+        }
+
+        /**
+         * @return Sequence to read from on the next request
+         */
+        long getNextSequence() {
+            return nextSequence;
+        }
+    }
+
     /**
      * Helper method to retrieve multiple values by ids
      * @param collection
@@ -450,6 +655,25 @@ abstract class SiriRepository<T> {
         return collection.getAll(codespaceKeys).values();
     }
 
+    /**
+     * Returns all values in pages of at most pageSize elements. Each page is read from the repository when
+     * iterated, so the complete dataset is never held in memory - values removed in the meantime are skipped.
+     */
+    public Iterable<Collection<T>> getAllPaged(int pageSize) {
+        final Map<SiriObjectStorageKey, T> collection = getAllAsMap();
+        final List<SiriObjectStorageKey> keys = new ArrayList<>(collection.keySet());
+
+        return Iterables.transform(Lists.partition(keys, pageSize), pageKeys -> {
+            if (collection instanceof IMap<SiriObjectStorageKey, T> map) {
+                return map.getAll(new HashSet<>(pageKeys)).values();
+            }
+            return pageKeys.stream()
+                    .map(collection::get)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        });
+    }
+
     Set<SiriObjectStorageKey> filterIdsByDataset(final Set<SiriObjectStorageKey> idSet, List<String> excludedDatasetIds, String datasetId) {
 
         Set<SiriObjectStorageKey> requestedIds = new HashSet<>();
@@ -480,16 +704,19 @@ abstract class SiriRepository<T> {
     abstract void clearAllByDatasetId(String datasetId);
 
 
+    /**
+     * Attribute-based predicate - resolved by the codespace-index defined in ExtendedHazelcastService
+     */
     Predicate<SiriObjectStorageKey, T> createHzCodespacePredicate(String datasetId) {
-        return entry -> {
-            return codespaceMatches(datasetId, entry.getKey());
-        };
+        return Predicates.equal(SiriObjectStorageKey.CODESPACE_ID_ATTRIBUTE, datasetId);
     }
 
+    /**
+     * Attribute-based, case-insensitive predicate - resolved by the lineRef-index defined in ExtendedHazelcastService
+     */
     Predicate<SiriObjectStorageKey, T> createHzLineRefPredicate(String lineRef) {
-        return entry -> {
-            return lineRefMatches(lineRef, entry.getKey());
-        };
+        String decodedLine = URLDecoder.decode(lineRef, StandardCharsets.UTF_8);
+        return Predicates.equal(SiriObjectStorageKey.NORMALIZED_LINE_REF_ATTRIBUTE, SiriObjectStorageKey.normalizeLineRef(decodedLine));
     }
 
     private static boolean codespaceMatches(String datasetId, SiriObjectStorageKey entry) {
@@ -511,28 +738,219 @@ abstract class SiriRepository<T> {
     }
 
     /**
-     * Compares object-equality by calculating and comparing MD5-checksum
+     * Compares object-equality by calculating and comparing structural checksum
      * @param existing
      * @param updated
      * @return
      */
     static boolean isEqual(Serializable existing, Serializable updated) {
         try {
-            String checksumExisting = getChecksum(existing);
-            String checksumUpdated = getChecksum(updated);
-
-            return checksumExisting.equals(checksumUpdated);
-
+            return getChecksum(existing) == getChecksum(updated);
         } catch (Exception e) {
             //ignore - data will be updated
         }
         return false;
     }
 
-    static String getChecksum(Serializable object) throws NoSuchAlgorithmException {
-        byte[] bytes = SerializationUtils.serialize(object);
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        return DatatypeConverter.printHexBinary(md.digest(bytes));
+    /**
+     * @param object Object to calculate checksum for
+     * @param ignoredFields Fields on the provided object to ignore - e.g. timestamps that change without actual changes in data
+     * @return 64-bit structural checksum
+     */
+    static long getChecksum(Object object, String... ignoredFields) {
+        return StructuralChecksum.checksum(object, Set.of(ignoredFields));
+    }
+
+    private class LocalDatasetSizeListener implements EntryAddedListener<SiriObjectStorageKey, T>,
+            EntryRemovedListener<SiriObjectStorageKey, T>, EntryExpiredListener<SiriObjectStorageKey, T>,
+            EntryEvictedListener<SiriObjectStorageKey, T>, MapClearedListener, MapEvictedListener {
+
+        private final IMap<SiriObjectStorageKey, T> map;
+
+        private LocalDatasetSizeListener(IMap<SiriObjectStorageKey, T> map) {
+            this.map = map;
+        }
+
+        @Override
+        public void entryAdded(EntryEvent<SiriObjectStorageKey, T> event) {
+            localDatasetSizeCounter(event.getKey().getCodespaceId()).incrementAndGet();
+        }
+
+        @Override
+        public void entryRemoved(EntryEvent<SiriObjectStorageKey, T> event) {
+            decrement(event);
+        }
+
+        @Override
+        public void entryExpired(EntryEvent<SiriObjectStorageKey, T> event) {
+            decrement(event);
+        }
+
+        @Override
+        public void entryEvicted(EntryEvent<SiriObjectStorageKey, T> event) {
+            decrement(event);
+        }
+
+        @Override
+        public void mapCleared(MapEvent event) {
+            localDatasetSizeExecutor.execute(() -> recountLocalDatasetSize(map));
+        }
+
+        @Override
+        public void mapEvicted(MapEvent event) {
+            localDatasetSizeExecutor.execute(() -> recountLocalDatasetSize(map));
+        }
+
+        private void decrement(EntryEvent<SiriObjectStorageKey, T> event) {
+            localDatasetSizeCounter(event.getKey().getCodespaceId()).updateAndGet(count -> Math.max(0, count - 1));
+        }
+    }
+
+    /**
+     * Keeps the expiry-index up to date from local entry-events, and removes the expired entries
+     */
+    private class ExpiryTracker implements EntryAddedListener<SiriObjectStorageKey, T>,
+            EntryUpdatedListener<SiriObjectStorageKey, T>, EntryRemovedListener<SiriObjectStorageKey, T>,
+            EntryExpiredListener<SiriObjectStorageKey, T>, EntryEvictedListener<SiriObjectStorageKey, T>,
+            MapClearedListener, MapEvictedListener {
+
+        private final IMap<SiriObjectStorageKey, T> map;
+        private final PartitionService partitionService;
+        private final long maxValidityMillis;
+        private final Map<SiriObjectStorageKey, ?>[] linkedMaps;
+
+        private ExpiryTracker(IMap<SiriObjectStorageKey, T> map, PartitionService partitionService, long maxValidityMillis,
+                              Map<SiriObjectStorageKey, ?>[] linkedMaps) {
+            this.map = map;
+            this.partitionService = partitionService;
+            this.maxValidityMillis = maxValidityMillis;
+            this.linkedMaps = linkedMaps;
+        }
 
+        /**
+         * @return Absolute expiry time in epoch millis
+         */
+        private long getExpiryTime(T value) {
+            long now = System.currentTimeMillis();
+            long expiryTime = now + getExpiration(value);
+            // Entry is also expired when recordedAtTime is more than maxValidityMillis away - in the past or the future
+            if (maxValidityMillis > 0 && value instanceof VehicleActivityStructure) {
+                ZonedDateTime recordedAtTime = ((VehicleActivityStructure) value).getRecordedAtTime();
+                if (recordedAtTime != null) {
+                    long recordedAt = recordedAtTime.toInstant().toEpochMilli();
+                    if (recordedAt - now > maxValidityMillis) {
+                        return now;
+                    }
+                    expiryTime = Math.min(expiryTime, recordedAt + maxValidityMillis);
+                }
+            }
+            return expiryTime;
+        }
+
+        private void rebuild() {
+            try {
+                long t1 = System.currentTimeMillis();
+                Set<SiriObjectStorageKey> localKeys = map.localKeySet();
+                expiryIndex.retainAll(localKeys::contains);
+                for (Map.Entry<SiriObjectStorageKey, T> entry : map.getAll(localKeys).entrySet()) {
+                    expiryIndex.schedule(entry.getKey(), getExpiryTime(entry.getValue()));
+                }
+                logger.info("Rebuilding expiry-index ({}) with {} local objects took {} ms", SiriRepository.this.getClass().getSimpleName(),
+                        expiryIndex.size(), (System.currentTimeMillis() - t1));
+            } catch (Throwable t) {
+                //Catch everything to avoid executor being killed
+                logger.info("Exception caught when rebuilding expiry-index", t);
+            }
+        }
+
+        private int removeExpired() throws ExecutionException, InterruptedException {
+            long t1 = System.currentTimeMillis();
+            Set<SiriObjectStorageKey> expired = new HashSet<>();
+            for (SiriObjectStorageKey key : expiryIndex.pollExpired(t1)) {
+                // Partition may have been migrated since the entry was indexed
+                Member owner = partitionService.getPartition(key).getOwner();
+                if (owner != null && owner.localMember()) {
+                    expired.add(key);
+                }
+            }
+            if (expired.isEmpty()) {
+                return 0;
+            }
+
+            long t2 = System.currentTimeMillis();
+            // Polled keys are no longer indexed - any that are not removed must be rescheduled, as there is no TTL
+            Set<SiriObjectStorageKey> retry = new HashSet<>(expired);
+            Map<SiriObjectStorageKey, CompletableFuture<T>> removals = new HashMap<>();
+            try {
+                Map<SiriObjectStorageKey, T> entries = map.getAll(expired);
+                // Already removed
+                retry.retainAll(entries.keySet());
+                for (Map.Entry<SiriObjectStorageKey, T> entry : entries.entrySet()) {
+                    long expiryTime = getExpiryTime(entry.getValue());
+                    if (expiryTime > t1) {
+                        // Updated after expiry was polled
+                        expiryIndex.schedule(entry.getKey(), expiryTime);
+                        retry.remove(entry.getKey());
+                    } else {
+                        removals.put(entry.getKey(), map.removeAsync(entry.getKey()).toCompletableFuture());
+                    }
+                }
+                CompletableFuture.allOf(removals.values().toArray(new CompletableFuture[0])).get();
+            } finally {
+                removals.forEach((key, removal) -> {
+                    if (removal.isDone() && !removal.isCompletedExceptionally()) {
+                        retry.remove(key);
+                    }
+                });
+                for (SiriObjectStorageKey key : retry) {
+                    expiryIndex.schedule(key, t1);
+                }
+            }
+
+            logger.debug("Cleaning {} expired objects took {} ms, finding {} ms, removing {} ms, {} local objects remaining",
+                    removals.size(), (System.currentTimeMillis() - t1), (t2 - t1), (System.currentTimeMillis() - t2),
+                    expiryIndex.size());
+            return removals.size();
+        }
+
+        @Override
+        public void entryAdded(EntryEvent<SiriObjectStorageKey, T> event) {
+            expiryIndex.schedule(event.getKey(), getExpiryTime(event.getValue()));
+        }
+
+        @Override
+        public void entryUpdated(EntryEvent<SiriObjectStorageKey, T> event) {
+            expiryIndex.schedule(event.getKey(), getExpiryTime(event.getValue()));
+        }
+
+        @Override
+        public void entryRemoved(EntryEvent<SiriObjectStorageKey, T> event) {
+            remove(event);
+        }
+
+        @Override
+        public void entryExpired(EntryEvent<SiriObjectStorageKey, T> event) {
+            remove(event);
+        }
+
+        @Override
+        public void entryEvicted(EntryEvent<SiriObjectStorageKey, T> event) {
+            remove(event);
+        }
+
+        @Override
+        public void mapCleared(MapEvent event) {
+            cleanupExecutor.execute(this::rebuild);
+        }
+
+        @Override
+        public void mapEvicted(MapEvent event) {
+            cleanupExecutor.execute(this::rebuild);
+        }
+
+        private void remove(EntryEvent<SiriObjectStorageKey, T> event) {
+            expiryIndex.remove(event.getKey());
+            removeFromLinked(event.getKey(), linkedMaps);
+        }
     }
 }
@@ -16,6 +16,7 @@
 package no.rutebanken.anshar.data;
 
 import com.hazelcast.map.IMap;
+import com.hazelcast.ringbuffer.Ringbuffer;
 import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.data.collections.ExtendedHazelcastService;
 import no.rutebanken.anshar.data.util.TimingTracer;
@@ -33,7 +34,6 @@ import uk.org.siri.siri21.Siri;
 import uk.org.siri.siri21.SituationVersion;
 
 import javax.annotation.PostConstruct;
-import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
@@ -57,7 +57,7 @@ public class Situations extends SiriRepository<PtSituationElement> {
 
     @Autowired
     @Qualifier("getSxChecksumMap")
-    private IMap<SiriObjectStorageKey,String> checksumCache;
+    private IMap<SiriObjectStorageKey,Long> checksumCache;
 
     @Autowired
     @Qualifier("getSituationChangesMap")
@@ -66,7 +66,11 @@ public class Situations extends SiriRepository<PtSituationElement> {
 
     @Autowired
     @Qualifier("getLastSxUpdateRequest")
-    private IMap<String, Instant> lastUpdateRequested;
+    private IMap<String, Long> lastUpdateRequested;
+
+    @Autowired
+    @Qualifier("getSituationChangeLog")
+    private Ringbuffer<Collection<SiriObjectStorageKey>> changeLog;
 
     @Autowired
     private SiriObjectFactory siriObjectFactory;
@@ -83,11 +87,13 @@ public class Situations extends SiriRepository<PtSituationElement> {
 
     @PostConstruct
     private void initializeUpdateCommitter() {
-        super.initBufferCommitter(hazelcastService, lastUpdateRequested, changesMap, configuration.getChangeBufferCommitFrequency());
+        super.initBufferCommitter(hazelcastService, lastUpdateRequested, changesMap, changeLog, configuration.getChangeBufferCommitFrequency());
 
         enableCache(situationElements);
 
-        linkEntriesTtl(situationElements, changesMap, checksumCache);
+        createCleanupJob(hazelcastService, situationElements, configuration.getCleanupIntervalSeconds(), -1, checksumCache);
+
+        trackLocalDatasetSize(situationElements);
     }
 
     /**
@@ -120,24 +126,9 @@ public class Situations extends SiriRepository<PtSituationElement> {
     }
 
 
-    public Map<String, Integer> getLocalDatasetSize() {
-        Map<String, Integer> sizeMap = new HashMap<>();
-        long t1 = System.currentTimeMillis();
-        situationElements.localKeySet().forEach(key -> {
-            String datasetId = key.getCodespaceId();
-
-            Integer count = sizeMap.getOrDefault(datasetId, 0);
-            sizeMap.put(datasetId, count+1);
-        });
-        logger.debug("Calculating data-distribution (SX) took {} ms: {}", (System.currentTimeMillis()-t1), sizeMap);
-        return sizeMap;
-    }
-
 
     public Integer getDatasetSize(String datasetId) {
-        return Math.toIntExact(situationElements.keySet().stream()
-                .filter(key -> datasetId.equals(key.getCodespaceId()))
-                .count());
+        return situationElements.keySet(createHzCodespacePredicate(datasetId)).size();
     }
 
     @Override
@@ -174,11 +165,11 @@ public class Situations extends SiriRepository<PtSituationElement> {
         }
 
         // Get all relevant ids
-        Set<SiriObjectStorageKey> allIds = new HashSet<>();
-        Set<SiriObjectStorageKey> idSet = changesMap.getOrDefault(requestorId, allIds);
+        TrackedChanges trackedChanges = getTrackedChanges(isAdHocRequest ? null : requestorId);
+        Set<SiriObjectStorageKey> idSet = trackedChanges.getChanges();
 
-        if (idSet == allIds) {
-            idSet.addAll(situationElements.keySet());
+        if (idSet == null) {
+            idSet = new HashSet<>(situationElements.keySet());
         }
 
         //Filter by datasetId
@@ -210,7 +201,7 @@ public class Situations extends SiriRepository<PtSituationElement> {
             siri.getServiceDelivery().setRequestMessageRef(msgRef);
 
             //Update change-tracker
-            updateChangeTrackers(lastUpdateRequested, changesMap, requestorId, idSet, trackingPeriodMinutes, TimeUnit.MINUTES);
+            updateChangeTrackers(requestorId, idSet, trackedChanges.getNextSequence(), trackingPeriodMinutes, TimeUnit.MINUTES);
 
             logger.info("Returning {}, {} left for requestorRef {}", sizeLimitedIds.size(), idSet.size(), requestorId);
         }
@@ -235,8 +226,12 @@ public class Situations extends SiriRepository<PtSituationElement> {
     public Collection<PtSituationElement> getAllUpdates(String requestorId, String datasetId) {
         if (requestorId != null) {
 
-            Set<SiriObjectStorageKey> idSet = changesMap.get(requestorId);
-            lastUpdateRequested.set(requestorId, Instant.now(), configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
+            TrackedChanges trackedChanges = getTrackedChanges(requestorId);
+            Set<SiriObjectStorageKey> idSet = trackedChanges.getChanges();
+
+            // All changes are returned, or not relevant for the requested dataset
+            updateChangeTrackers(requestorId, new HashSet<>(), trackedChanges.getNextSequence(), configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
+
             if (idSet != null) {
                 Set<SiriObjectStorageKey> datasetFilteredIdSet = new HashSet<>();
 
@@ -245,26 +240,14 @@ public class Situations extends SiriRepository<PtSituationElement> {
                 } else {
                     datasetFilteredIdSet.addAll(idSet);
                 }
-                Collection<PtSituationElement> changes = situationElements.getAll(datasetFilteredIdSet).values();
 
-                // Data may have been updated
-                Set<SiriObjectStorageKey> existingSet = changesMap.get(requestorId);
-                if (existingSet == null) {
-                    existingSet = new HashSet<>();
-                }
-                //Remove returned ids
-                existingSet.removeAll(idSet);
-
-                updateChangeTrackers(lastUpdateRequested, changesMap, requestorId, existingSet, configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
+                Collection<PtSituationElement> changes = situationElements.getAll(datasetFilteredIdSet).values();
 
                 logger.info("Returning {} changes to requestorRef {}", changes.size(), requestorId);
                 return changes;
-            } else {
-                logger.info("Returning all to requestorRef {}", requestorId);
             }
 
-            updateChangeTrackers(lastUpdateRequested, changesMap, requestorId, new HashSet<>(), configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
-
+            logger.info("Returning all to requestorRef {}", requestorId);
         }
 
         return getAll(datasetId);
@@ -297,7 +280,7 @@ public class Situations extends SiriRepository<PtSituationElement> {
 
     public Collection<PtSituationElement> addAll(String datasetId, List<PtSituationElement> sxList) {
         Map<SiriObjectStorageKey, PtSituationElement> changes = new HashMap<>();
-        Map<SiriObjectStorageKey, String> checksumTmp = new HashMap<>();
+        Map<SiriObjectStorageKey, Long> checksumTmp = new HashMap<>();
 
         AtomicInteger alreadyExpiredCounter = new AtomicInteger(0);
         AtomicInteger ignoredCounter = new AtomicInteger(0);
@@ -329,20 +312,15 @@ public class Situations extends SiriRepository<PtSituationElement> {
 
             SiriObjectStorageKey key = createKey(datasetId, situation);
             timingTracer.mark("createKey");
-            String currentChecksum = null;
-            try {
-                currentChecksum = getChecksum(situation);
-                timingTracer.mark("getChecksum");
-            } catch (Exception e) {
-                //Ignore - data will be updated
-            }
+            long currentChecksum = getChecksum(situation);
+            timingTracer.mark("getChecksum");
 
-            String existingChecksum = checksumCache.get(key);
+            Long existingChecksum = checksumCache.get(key);
             timingTracer.mark("checksumCache.get");
             boolean updated;
             if (existingChecksum != null && situationElements.containsKey(key)) { // Checksum not compared if actual situation does not exist
                 //Exists - compare values
-                updated =  !(currentChecksum.equals(existingChecksum));
+                updated = currentChecksum != existingChecksum;
 
                 if (updated) { // Ignore if data is unchanged
                     // Compare "Version" - if it exists
@@ -15,7 +15,10 @@
 
 package no.rutebanken.anshar.data;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.hazelcast.map.IMap;
+import com.hazelcast.ringbuffer.Ringbuffer;
 import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.data.collections.ExtendedHazelcastService;
 import no.rutebanken.anshar.data.util.TimingTracer;
@@ -38,7 +41,6 @@ import uk.org.siri.siri21.VehicleRef;
 
 import javax.annotation.PostConstruct;
 import java.time.Duration;
-import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
@@ -67,13 +69,21 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
     @Qualifier("getVehicleChangesMap")
     private IMap<String, Set<SiriObjectStorageKey>> changesMap;
 
-    @Autowired
-    @Qualifier("getVmChecksumMap")
-    private IMap<SiriObjectStorageKey,String> checksumCache;
+    /**
+     * Checksums of the locally cached activities - keyed by instance (weak keys use identity), so entries are
+     * recalculated when the cache is updated, and released together with the replaced activity.
+     */
+    private final Cache<VehicleActivityStructure, Long> existingChecksums = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build();
 
     @Autowired
     @Qualifier("getLastVmUpdateRequest")
-    private IMap<String, Instant> lastUpdateRequested;
+    private IMap<String, Long> lastUpdateRequested;
+
+    @Autowired
+    @Qualifier("getVehicleChangeLog")
+    private Ringbuffer<Collection<SiriObjectStorageKey>> changeLog;
 
     @Autowired
     private SiriObjectFactory siriObjectFactory;
@@ -108,11 +118,13 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
 
     @PostConstruct
     private void initializeUpdateCommitter() {
-        super.initBufferCommitter(hazelcastService, lastUpdateRequested, changesMap, configuration.getChangeBufferCommitFrequency());
+        super.initBufferCommitter(hazelcastService, lastUpdateRequested, changesMap, changeLog, configuration.getChangeBufferCommitFrequency());
 
         enableCache(monitoredVehicles);
 
-        createCleanupJob(monitoredVehicles, changesMap, configuration.getCleanupIntervalSeconds(), maxValidityMillis);
+        createCleanupJob(hazelcastService, monitoredVehicles, configuration.getCleanupIntervalSeconds(), maxValidityMillis);
+
+        trackLocalDatasetSize(monitoredVehicles);
     }
 
     /**
@@ -143,24 +155,9 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
         return sizeMap;
     }
 
-    public Map<String, Integer> getLocalDatasetSize() {
-        Map<String, Integer> sizeMap = new HashMap<>();
-        long t1 = System.currentTimeMillis();
-        monitoredVehicles.localKeySet().forEach(key -> {
-            String datasetId = key.getCodespaceId();
-
-            Integer count = sizeMap.getOrDefault(datasetId, 0);
-            sizeMap.put(datasetId, count+1);
-        });
-        logger.debug("Calculating data-distribution (VM) took {} ms: {}", (System.currentTimeMillis()-t1), sizeMap);
-        return sizeMap;
-    }
-
 
     public Integer getDatasetSize(String datasetId) {
-        return Math.toIntExact(monitoredVehicles.keySet().stream()
-                .filter(key -> datasetId.equals(key.getCodespaceId()))
-                .count());
+        return monitoredVehicles.keySet(createHzCodespacePredicate(datasetId)).size();
     }
 
     @Override
@@ -198,8 +195,12 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
     public Collection<VehicleActivityStructure> getAllUpdates(String requestorId, String datasetId) {
         if (requestorId != null) {
 
-            Set<SiriObjectStorageKey> idSet = changesMap.get(requestorId);
-            lastUpdateRequested.set(requestorId, Instant.now(), configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
+            TrackedChanges trackedChanges = getTrackedChanges(requestorId);
+            Set<SiriObjectStorageKey> idSet = trackedChanges.getChanges();
+
+            // All changes are returned, or not relevant for the requested dataset
+            updateChangeTrackers(requestorId, new HashSet<>(), trackedChanges.getNextSequence(), configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
+
             if (idSet != null) {
                 Set<SiriObjectStorageKey> datasetFilteredIdSet = new HashSet<>();
 
@@ -211,24 +212,11 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
 
                 Collection<VehicleActivityStructure> changes = monitoredVehicles.getAll(datasetFilteredIdSet).values();
 
-                Set<SiriObjectStorageKey> existingSet = changesMap.get(requestorId);
-                if (existingSet == null) {
-                    existingSet = new HashSet<>();
-                }
-
-                //Remove returned ids
-                existingSet.removeAll(idSet);
-
-                updateChangeTrackers(lastUpdateRequested, changesMap, requestorId, existingSet, configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
-
                 logger.info("Returning {} changes to requestorRef {}", changes.size(), requestorId);
                 return changes;
-            } else {
-
-                logger.info("Returning all to requestorRef {}", requestorId);
-                updateChangeTrackers(lastUpdateRequested, changesMap, requestorId, new HashSet<>(), configuration.getTrackingPeriodMinutes(), TimeUnit.MINUTES);
-
             }
+
+            logger.info("Returning all to requestorRef {}", requestorId);
         }
 
         return getAll(datasetId);
@@ -260,11 +248,11 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
         }
 
         // Get all relevant ids
-        Set<SiriObjectStorageKey> allIds = new HashSet<>();
-        Set<SiriObjectStorageKey> idSet = changesMap.getOrDefault(requestorId, allIds);
+        TrackedChanges trackedChanges = getTrackedChanges(isAdHocRequest ? null : requestorId);
+        Set<SiriObjectStorageKey> idSet = trackedChanges.getChanges();
 
-        if (idSet == allIds) {
-            idSet.addAll(monitoredVehicles.keySet());
+        if (idSet == null) {
+            idSet = new HashSet<>(monitoredVehicles.keySet());
         }
 
         Set<SiriObjectStorageKey> requestedIds = filterIdsByDataset(idSet, excludedDatasetIds, datasetId);
@@ -288,7 +276,7 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
 
 
             //Update change-tracker
-            updateChangeTrackers(lastUpdateRequested, changesMap, requestorId, idSet, trackingPeriodMinutes, TimeUnit.MINUTES);
+            updateChangeTrackers(requestorId, idSet, trackedChanges.getNextSequence(), trackingPeriodMinutes, TimeUnit.MINUTES);
 
 
             MessageRefStructure msgRef = new MessageRefStructure();
@@ -358,13 +346,13 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
                         timingTracer.mark("remove.extensions");
                     }
 
-                    String currentChecksum = calculateChecksum(activity);
+                    long currentChecksum = calculateChecksum(activity);
                     timingTracer.mark("calculateChecksum.updated");
 
                     VehicleActivityStructure existing = cache.get(key);
                     timingTracer.mark("getExisting");
 
-                    String existingChecksum = calculateChecksum(existing);
+                    Long existingChecksum = getExistingChecksum(existing);
 
                     timingTracer.mark("calculateChecksum.current");
 
@@ -457,26 +445,25 @@ public class VehicleActivities extends SiriRepository<VehicleActivityStructure>
         }
     }
 
-    private static boolean isUpdated(String currentChecksum, String existingChecksum) {
-        return currentChecksum == null || !currentChecksum.equals(existingChecksum);
+    private static boolean isUpdated(Long existingChecksum, long currentChecksum) {
+        return existingChecksum == null || existingChecksum != currentChecksum;
     }
 
-    private static String calculateChecksum(VehicleActivityStructure vehicleActivityStructure) {
-        String existingChecksum = null;
-        if (vehicleActivityStructure != null) {
-            ZonedDateTime validUntilTime = vehicleActivityStructure.getValidUntilTime();
-            try {
-                // Calculate checksum without "ValidUntilTime" - thus ignoring "fake" updates where only validity is updated
-                vehicleActivityStructure.setValidUntilTime(null);
-                existingChecksum = getChecksum(vehicleActivityStructure);
-            } catch (Exception e) {
-                //Ignore - data will be updated
-            } finally {
-                //Set original ValidUntilTime back
-                vehicleActivityStructure.setValidUntilTime(validUntilTime);
-            }
+    private Long getExistingChecksum(VehicleActivityStructure existing) {
+        if (existing == null) {
+            return null;
+        }
+        Long checksum = existingChecksums.getIfPresent(existing);
+        if (checksum == null) {
+            checksum = calculateChecksum(existing);
+            existingChecksums.put(existing, checksum);
         }
-        return existingChecksum;
+        return checksum;
+    }
+
+    private static long calculateChecksum(VehicleActivityStructure vehicleActivityStructure) {
+        // Calculate checksum without "ValidUntilTime" - thus ignoring "fake" updates where only validity is updated
+        return getChecksum(vehicleActivityStructure, "validUntilTime");
     }
 
     public VehicleActivityStructure add(String datasetId, VehicleActivityStructure activity) {
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.data.collections;
+
+import com.hazelcast.map.EntryProcessor;
+
+import java.math.BigInteger;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Entry processors updating counters and timestamps atomically on the member owning the key - i.e. without
+ * the lost updates of a get followed by a set, and with a single roundtrip.
+ */
+public final class CounterEntryProcessors {
+
+    private CounterEntryProcessors() {
+    }
+
+    public static <K> EntryProcessor<K, Integer, Integer> addToInteger(int delta) {
+        return new AddToInteger<>(delta);
+    }
+
+    public static <K> EntryProcessor<K, Long, Long> addToLong(long delta) {
+        return new AddToLong<>(delta);
+    }
+
+    public static <K> EntryProcessor<K, BigInteger, BigInteger> addToBigInteger(long delta) {
+        return new AddToBigInteger<>(delta);
+    }
+
+    /**
+     * Sets the timestamp unless the current value is later
+     */
+    public static <K> EntryProcessor<K, Instant, Instant> latest(Instant timestamp) {
+        return new Latest<>(timestamp);
+    }
+
+    private static class AddToInteger<K> implements EntryProcessor<K, Integer, Integer> {
+        private final int delta;
+
+        private AddToInteger(int delta) {
+            this.delta = delta;
+        }
+
+        @Override
+        public Integer process(Map.Entry<K, Integer> entry) {
+            Integer value = entry.getValue();
+            Integer updated = (value != null ? value : 0) + delta;
+            entry.setValue(updated);
+            return updated;
+        }
+    }
+
+    private static class AddToLong<K> implements EntryProcessor<K, Long, Long> {
+        private final long delta;
+
+        private AddToLong(long delta) {
+            this.delta = delta;
+        }
+
+        @Override
+        public Long process(Map.Entry<K, Long> entry) {
+            Long value = entry.getValue();
+            Long updated = (value != null ? value : 0L) + delta;
+            entry.setValue(updated);
+            return updated;
+        }
+    }
+
+    private static class AddToBigInteger<K> implements EntryProcessor<K, BigInteger, BigInteger> {
+        private final long delta;
+
+        private AddToBigInteger(long delta) {
+            this.delta = delta;
+        }
+
+        @Override
+        public BigInteger process(Map.Entry<K, BigInteger> entry) {
+            BigInteger value = entry.getValue();
+            BigInteger updated = (value != null ? value : BigInteger.ZERO).add(BigInteger.valueOf(delta));
+            entry.setValue(updated);
+            return updated;
+        }
+    }
+
+    private static class Latest<K> implements EntryProcessor<K, Instant, Instant> {
+        private final Instant timestamp;
+
+        private Latest(Instant timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public Instant process(Map.Entry<K, Instant> entry) {
+            Instant value = entry.getValue();
+            if (value == null || value.isBefore(timestamp)) {
+                entry.setValue(timestamp);
+                return timestamp;
+            }
+            return value;
+        }
+    }
+}
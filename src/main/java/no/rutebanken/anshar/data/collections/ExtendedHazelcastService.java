@@ -23,15 +23,18 @@ import com.hazelcast.collection.ISet;
 import com.hazelcast.config.EvictionConfig;
 import com.hazelcast.config.EvictionPolicy;
 import com.hazelcast.config.InMemoryFormat;
+import com.hazelcast.config.IndexType;
 import com.hazelcast.config.MapConfig;
 import com.hazelcast.config.MaxSizePolicy;
 import com.hazelcast.config.NearCacheConfig;
+import com.hazelcast.config.RingbufferConfig;
 import com.hazelcast.config.SerializerConfig;
 import com.hazelcast.core.DistributedObject;
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.LifecycleEvent;
 import com.hazelcast.map.IMap;
 import com.hazelcast.replicatedmap.ReplicatedMap;
+import com.hazelcast.ringbuffer.Ringbuffer;
 import no.rutebanken.anshar.data.RequestorRefStats;
 import no.rutebanken.anshar.data.SiriObjectStorageKey;
 import no.rutebanken.anshar.routes.outbound.OutboundSubscriptionSetup;
@@ -68,6 +71,12 @@ public class ExtendedHazelcastService extends HazelCastService {
 
     private Logger logger = LoggerFactory.getLogger(ExtendedHazelcastService.class);
 
+    @Value("${anshar.outbound.polling.tracking.period.minutes:30}")
+    private int trackingPeriodMinutes;
+
+    @Value("${anshar.tracking.change.log.capacity:10000}")
+    private int changeLogCapacity;
+
     public ExtendedHazelcastService(@Autowired KubernetesService kubernetesService,
                                     @Value("${entur.hazelcast.backup.count.sync:2}") int backupCountSync) {
         super(kubernetesService);
@@ -136,7 +145,9 @@ public class ExtendedHazelcastService extends HazelCastService {
 
     @Bean
     public IMap<SiriObjectStorageKey, PtSituationElement> getSituationsMap(){
-        return hazelcast.getMap("anshar.sx");
+        IMap<SiriObjectStorageKey, PtSituationElement> map = hazelcast.getMap("anshar.sx");
+        addKeyIndexes(map);
+        return map;
     }
 
     @Bean
@@ -144,9 +155,20 @@ public class ExtendedHazelcastService extends HazelCastService {
         return hazelcast.getMap("anshar.sx.changes");
     }
 
+    @Bean
+    public Ringbuffer<Collection<SiriObjectStorageKey>> getSituationChangeLog() {
+        return getChangeLog("anshar.sx.changelog");
+    }
+
     @Bean
     public IMap<SiriObjectStorageKey, EstimatedVehicleJourney> getEstimatedTimetablesMap(){
-        return hazelcast.getMap("anshar.et");
+        IMap<SiriObjectStorageKey, EstimatedVehicleJourney> map = hazelcast.getMap("anshar.et");
+        addKeyIndexes(map);
+
+        // Used when fetching all monitored/cancelled journeys - avoids deserializing every ET on each request
+        map.addIndex(IndexType.HASH, "monitored");
+        map.addIndex(IndexType.HASH, "cancellation");
+        return map;
     }
 
     @Bean
@@ -155,33 +177,47 @@ public class ExtendedHazelcastService extends HazelCastService {
     }
 
     @Bean
-    public IMap<SiriObjectStorageKey, String> getIdForPatternChangesMap() {
-        return hazelcast.getMap("anshar.et.index.pattern");
+    public Ringbuffer<Collection<SiriObjectStorageKey>> getEstimatedTimetableChangeLog() {
+        return getChangeLog("anshar.et.changelog");
     }
 
     @Bean
-    public IMap<SiriObjectStorageKey, String> getSxChecksumMap() {
-        return hazelcast.getMap("anshar.sx.checksum.cache");
+    public IMap<SiriObjectStorageKey, String> getIdForPatternChangesMap() {
+        return hazelcast.getMap("anshar.et.index.pattern");
     }
 
     @Bean
-    public IMap<SiriObjectStorageKey, String> getEtChecksumMap() {
-        return hazelcast.getMap("anshar.et.checksum.cache");
+    public IMap<SiriObjectStorageKey, Long> getSxChecksumMap() {
+        return hazelcast.getMap("anshar.sx.checksum");
     }
 
     @Bean
-    public IMap<SiriObjectStorageKey, String> getVmChecksumMap() {
-        return hazelcast.getMap("anshar.vm.checksum.cache");
+    public IMap<SiriObjectStorageKey, Long> getEtChecksumMap() {
+        return hazelcast.getMap("anshar.et.checksum");
     }
 
     @Bean
     public IMap<SiriObjectStorageKey, ZonedDateTime> getIdStartTimeMap() {
-        return hazelcast.getMap("anshar.et.index.startTime");
+        IMap<SiriObjectStorageKey, ZonedDateTime> map = hazelcast.getMap("anshar.et.index.startTime");
+
+        // Range-queries on start time when resolving previewInterval
+        map.addIndex(IndexType.SORTED, "this");
+        return map;
     }
 
     @Bean
     public IMap<SiriObjectStorageKey, VehicleActivityStructure> getVehiclesMap(){
-        return hazelcast.getMap("anshar.vm");
+        IMap<SiriObjectStorageKey, VehicleActivityStructure> map = hazelcast.getMap("anshar.vm");
+        addKeyIndexes(map);
+        return map;
+    }
+
+    /**
+     * Indexes codespace and lineRef of the key, so that lookups per dataset/line does not require a full scan
+     */
+    private static void addKeyIndexes(IMap<SiriObjectStorageKey, ?> map) {
+        map.addIndex(IndexType.HASH, SiriObjectStorageKey.CODESPACE_ID_ATTRIBUTE);
+        map.addIndex(IndexType.HASH, SiriObjectStorageKey.NORMALIZED_LINE_REF_ATTRIBUTE);
     }
 
     @Bean
@@ -189,6 +225,24 @@ public class ExtendedHazelcastService extends HazelCastService {
         return hazelcast.getMap("anshar.vm.changes");
     }
 
+    @Bean
+    public Ringbuffer<Collection<SiriObjectStorageKey>> getVehicleChangeLog() {
+        return getChangeLog("anshar.vm.changelog");
+    }
+
+    /**
+     * Cluster-wide log of committed changes - one item per commit, sequence-numbers are assigned by the ringbuffer.
+     *
+     * Items are kept for the tracking-period, as requestors that have not polled within that period are no longer
+     * tracked anyway. Requestors that fall further behind than the capacity will get a full resync.
+     */
+    private Ringbuffer<Collection<SiriObjectStorageKey>> getChangeLog(String name) {
+        hazelcast.getConfig().addRingBufferConfig(new RingbufferConfig(name)
+                .setCapacity(changeLogCapacity)
+                .setTimeToLiveSeconds(trackingPeriodMinutes * 60));
+        return hazelcast.getRingbuffer(name);
+    }
+
     @Bean
     public ReplicatedMap<String,SubscriptionSetup> getSubscriptionsMap() {
         return hazelcast.getReplicatedMap("anshar.subscriptions.active");
@@ -217,18 +271,18 @@ public class ExtendedHazelcastService extends HazelCastService {
 
 
     @Bean
-    public IMap<String, Instant> getLastEtUpdateRequest() {
-        return hazelcast.getMap("anshar.activity.last.et.update.request");
+    public IMap<String, Long> getLastEtUpdateRequest() {
+        return hazelcast.getMap("anshar.activity.last.et.update.sequence");
     }
 
     @Bean
-    public IMap<String, Instant> getLastSxUpdateRequest() {
-        return hazelcast.getMap("anshar.activity.last.sx.update.request");
+    public IMap<String, Long> getLastSxUpdateRequest() {
+        return hazelcast.getMap("anshar.activity.last.sx.update.sequence");
     }
 
     @Bean
-    public IMap<String, Instant> getLastVmUpdateRequest() {
-        return hazelcast.getMap("anshar.activity.last.vm.update.request");
+    public IMap<String, Long> getLastVmUpdateRequest() {
+        return hazelcast.getMap("anshar.activity.last.vm.update.sequence");
     }
 
     @Bean
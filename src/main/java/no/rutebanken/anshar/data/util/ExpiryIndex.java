@@ -0,0 +1,124 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.data.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Node-local timing wheel keeping track of when keys expire.
+ *
+ * Expiry times are rounded up to the next tick of the given resolution, and keys are grouped in one bucket per
+ * tick. Polling for expired keys only touches the buckets that are due, so the cost of a cleanup pass is
+ * proportional to the number of expired keys - not to the total number of keys.
+ *
+ * @param <K> Key type
+ */
+public class ExpiryIndex<K> {
+
+    private final long resolutionMillis;
+
+    private final NavigableMap<Long, Set<K>> buckets = new TreeMap<>();
+
+    private final Map<K, Long> tickByKey = new HashMap<>();
+
+    public ExpiryIndex(long resolutionMillis) {
+        if (resolutionMillis <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive, was " + resolutionMillis);
+        }
+        this.resolutionMillis = resolutionMillis;
+    }
+
+    /**
+     * Schedules - or reschedules - expiry of the given key
+     *
+     * @param key
+     * @param expiryMillis Absolute expiry time in epoch millis
+     */
+    public synchronized void schedule(K key, long expiryMillis) {
+        long tick = Math.floorDiv(expiryMillis, resolutionMillis);
+        if (Math.floorMod(expiryMillis, resolutionMillis) != 0) {
+            tick++;
+        }
+        Long previousTick = tickByKey.put(key, tick);
+        if (previousTick != null) {
+            if (previousTick == tick) {
+                return;
+            }
+            removeFromBucket(previousTick, key);
+        }
+        buckets.computeIfAbsent(tick, t -> new HashSet<>()).add(key);
+    }
+
+    public synchronized void remove(K key) {
+        Long tick = tickByKey.remove(key);
+        if (tick != null) {
+            removeFromBucket(tick, key);
+        }
+    }
+
+    /**
+     * Removes and returns all keys that have expired at the given time
+     *
+     * @param nowMillis Current time in epoch millis
+     * @return Expired keys
+     */
+    public synchronized List<K> pollExpired(long nowMillis) {
+        List<K> expired = new ArrayList<>();
+        NavigableMap<Long, Set<K>> due = buckets.headMap(Math.floorDiv(nowMillis, resolutionMillis), true);
+        for (Iterator<Set<K>> it = due.values().iterator(); it.hasNext(); ) {
+            Set<K> keys = it.next();
+            for (K key : keys) {
+                tickByKey.remove(key);
+            }
+            expired.addAll(keys);
+            it.remove();
+        }
+        return expired;
+    }
+
+    /**
+     * Removes all keys not matching the given predicate - e.g. keys no longer owned by this node
+     */
+    public synchronized void retainAll(Predicate<K> predicate) {
+        for (Iterator<Map.Entry<K, Long>> it = tickByKey.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<K, Long> entry = it.next();
+            if (!predicate.test(entry.getKey())) {
+                removeFromBucket(entry.getValue(), entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return tickByKey.size();
+    }
+
+    private void removeFromBucket(long tick, K key) {
+        Set<K> keys = buckets.get(tick);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            buckets.remove(tick);
+        }
+    }
+}
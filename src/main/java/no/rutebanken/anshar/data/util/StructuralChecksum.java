@@ -0,0 +1,309 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.data.util;
+
+import jakarta.xml.bind.JAXBElement;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Calculates a 64-bit checksum of an object-tree (typically JAXB-generated SIRI-objects) by walking all fields in a
+ * fixed order and mixing the values into a 64-bit state (Murmur3/xxHash-style multiply-rotate rounds).
+ *
+ * Replaces MD5 over Java-serialization: no intermediate byte[] or Strings are created for the common value-types,
+ * and fields can be ignored without altering the object.
+ *
+ * Field-accessors are resolved once per class, and the result is stable across JVMs for the same class-versions.
+ * The checksum is used for change-detection only - not for security.
+ */
+public final class StructuralChecksum {
+
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long SEED = 0x27D4EB2F165667C5L;
+
+    private static final Map<Class<?>, ClassLayout> layoutCache = new ConcurrentHashMap<>();
+
+    // Type-markers - separates e.g. null from empty string, and a list from its elements
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int NUMBER = 2;
+    private static final int BOOLEAN = 3;
+    private static final int ENUM = 4;
+    private static final int VALUE = 5;
+    private static final int COLLECTION = 6;
+    private static final int MAP = 7;
+    private static final int JAXB_ELEMENT = 8;
+    private static final int DOM_NODE = 9;
+    private static final int BYTES = 10;
+    private static final int OBJECT = 11;
+    private static final int TIMESTAMP = 12;
+
+    private long state = SEED;
+
+    private StructuralChecksum() {
+    }
+
+    /**
+     * @param object Object to calculate checksum for
+     * @param ignoredFields Names of fields on the root-object that are excluded from the checksum
+     * @return checksum
+     */
+    public static long checksum(Object object, Set<String> ignoredFields) {
+        StructuralChecksum checksum = new StructuralChecksum();
+        if (object == null) {
+            checksum.mix(NULL);
+        } else {
+            checksum.putObjectFields(object, ignoredFields);
+        }
+        return checksum.finish();
+    }
+
+    public static long checksum(Object object) {
+        return checksum(object, Set.of());
+    }
+
+    private void mix(long value) {
+        state ^= Long.rotateLeft(value * PRIME_2, 31) * PRIME_1;
+        state = Long.rotateLeft(state, 27) * PRIME_1 + PRIME_3;
+    }
+
+    private long finish() {
+        long h = state;
+        h ^= h >>> 33;
+        h *= PRIME_2;
+        h ^= h >>> 29;
+        h *= PRIME_3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private void putString(int type, String value) {
+        int length = value.length();
+        mix(((long) type << 32) | length);
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            mix(((long) value.charAt(i) << 48) |
+                    ((long) value.charAt(i + 1) << 32) |
+                    ((long) value.charAt(i + 2) << 16) |
+                    value.charAt(i + 3));
+        }
+        long remaining = 0;
+        for (; i < length; i++) {
+            remaining = (remaining << 16) | value.charAt(i);
+        }
+        mix(remaining);
+    }
+
+    private void put(Object value) {
+        if (value == null) {
+            mix(NULL);
+        } else if (value instanceof String) {
+            putString(STRING, (String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            mix(NUMBER);
+            mix(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            mix(((Boolean) value) ? BOOLEAN << 1 | 1 : BOOLEAN << 1);
+        } else if (value instanceof Enum) {
+            putString(ENUM, ((Enum<?>) value).name());
+        } else if (value instanceof ZonedDateTime) {
+            ZonedDateTime timestamp = (ZonedDateTime) value;
+            mix(TIMESTAMP);
+            mix(timestamp.toEpochSecond());
+            mix(timestamp.getNano());
+            putString(VALUE, timestamp.getZone().getId());
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            mix(((long) COLLECTION << 32) | collection.size());
+            for (Object o : collection) {
+                put(o);
+            }
+        } else if (value instanceof Map) {
+            putMap((Map<?, ?>) value);
+        } else if (value instanceof JAXBElement) {
+            JAXBElement<?> element = (JAXBElement<?>) value;
+            putString(JAXB_ELEMENT, String.valueOf(element.getName()));
+            mix(element.isNil() ? 1 : 0);
+            put(element.getValue());
+        } else if (value instanceof Node) {
+            putNode((Node) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            mix(((long) BYTES << 32) | bytes.length);
+            for (byte b : bytes) {
+                mix(b);
+            }
+        } else if (isValueType(value.getClass())) {
+            // Numbers, timestamps, durations, QNames etc. - all have a canonical string-representation
+            putString(value instanceof Number ? NUMBER : VALUE, value.toString());
+        } else {
+            putObjectFields(value, Set.of());
+        }
+    }
+
+    private void putObjectFields(Object object, Set<String> ignoredFields) {
+        ClassLayout layout = layoutFor(object.getClass());
+        mix(layout.classNameHash);
+        for (FieldAccessor field : layout.fields) {
+            if (ignoredFields.isEmpty() || !ignoredFields.contains(field.name)) {
+                put(field.get(object));
+            }
+        }
+    }
+
+    /**
+     * Map-entries are unordered - entries are hashed separately and combined with a commutative operation
+     */
+    private void putMap(Map<?, ?> map) {
+        long combined = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            StructuralChecksum entryChecksum = new StructuralChecksum();
+            entryChecksum.put(entry.getKey());
+            entryChecksum.put(entry.getValue());
+            combined += entryChecksum.finish();
+        }
+        mix(((long) MAP << 32) | map.size());
+        mix(combined);
+    }
+
+    private void putNode(Node node) {
+        mix(((long) DOM_NODE << 32) | node.getNodeType());
+        put(node.getNamespaceURI());
+        put(node.getLocalName() != null ? node.getLocalName() : node.getNodeName());
+        put(node.getNodeValue());
+
+        NamedNodeMap attributes = node.getAttributes();
+        if (attributes != null) {
+            long combined = 0;
+            int count = 0;
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Node attribute = attributes.item(i);
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                    // Namespace-declarations depend on how the XML was serialized, not on the content
+                    continue;
+                }
+                StructuralChecksum attributeChecksum = new StructuralChecksum();
+                attributeChecksum.putNode(attribute);
+                combined += attributeChecksum.finish();
+                count++;
+            }
+            mix(count);
+            mix(combined);
+        }
+
+        NodeList children = node.getChildNodes();
+        mix(children.getLength());
+        for (int i = 0; i < children.getLength(); i++) {
+            putNode(children.item(i));
+        }
+    }
+
+    private static boolean isValueType(Class<?> clazz) {
+        String name = clazz.getName();
+        return Number.class.isAssignableFrom(clazz) ||
+                clazz == Character.class ||
+                name.startsWith("java.") ||
+                name.startsWith("javax.");
+    }
+
+    private static ClassLayout layoutFor(Class<?> clazz) {
+        ClassLayout layout = layoutCache.get(clazz);
+        if (layout == null) {
+            StructuralChecksum classNameChecksum = new StructuralChecksum();
+            classNameChecksum.putString(OBJECT, clazz.getName());
+
+            layout = new ClassLayout(classNameChecksum.finish(), resolveFields(clazz));
+            layoutCache.putIfAbsent(clazz, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Instance-fields of the class and all superclasses, sorted by declaring class and name to get a fixed order
+     */
+    private static List<FieldAccessor> resolveFields(Class<?> clazz) {
+        List<FieldAccessor> accessors = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+
+        for (Class<?> c : hierarchy) {
+            List<Field> declaredFields = new ArrayList<>(List.of(c.getDeclaredFields()));
+            declaredFields.sort(Comparator.comparing(Field::getName));
+            for (Field field : declaredFields) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    accessors.add(new FieldAccessor(field.getName(), lookup.unreflectGetter(field)));
+                } catch (Exception e) {
+                    throw new IllegalStateException("Unable to access field " + field + " for checksum", e);
+                }
+            }
+        }
+        return List.copyOf(accessors);
+    }
+
+    private static final class ClassLayout {
+        private final long classNameHash;
+        private final List<FieldAccessor> fields;
+
+        private ClassLayout(long classNameHash, List<FieldAccessor> fields) {
+            this.classNameHash = classNameHash;
+            this.fields = fields;
+        }
+    }
+
+    private static final class FieldAccessor {
+        private final String name;
+        private final MethodHandle getter;
+
+        private FieldAccessor(String name, MethodHandle getter) {
+            this.name = name;
+            this.getter = getter.asType(getter.type().changeReturnType(Object.class).changeParameterType(0, Object.class));
+        }
+
+        private Object get(Object obj) {
+            try {
+                return getter.invokeExact(obj);
+            } catch (Throwable t) {
+                throw new IllegalStateException("Unable to read field " + name, t);
+            }
+        }
+    }
+}
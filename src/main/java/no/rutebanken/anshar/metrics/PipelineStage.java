@@ -0,0 +1,28 @@
+package no.rutebanken.anshar.metrics;
+
+/**
+ * Stages of the SIRI-pipeline, from data is received until it is pushed to subscribers
+ */
+public enum PipelineStage {
+    RECEIVE("receive"),
+    XSLT("xslt"),
+    PARSE("parse"),
+    VALUE_TRANSFORM("transform"),
+    POST_PROCESS("postprocess"),
+    REPOSITORY("repository"),
+    COMMIT("commit"),
+    OUTBOUND_FILTER("filter"),
+    SERIALIZE("serialize"),
+    PUSH("push"),
+    ;
+
+    private final String label;
+
+    PipelineStage(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
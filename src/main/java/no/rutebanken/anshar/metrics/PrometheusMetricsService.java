@@ -16,14 +16,18 @@
 package no.rutebanken.anshar.metrics;
 
 import com.hazelcast.replicatedmap.ReplicatedMap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.ImmutableTag;
 import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
 import io.micrometer.prometheus.PrometheusConfig;
 import io.micrometer.prometheus.PrometheusMeterRegistry;
 import no.rutebanken.anshar.data.EstimatedTimetables;
 import no.rutebanken.anshar.data.Situations;
 import no.rutebanken.anshar.data.VehicleActivities;
+import no.rutebanken.anshar.routes.outbound.OutboundSubscriptionExecutor;
 import no.rutebanken.anshar.routes.siri.transformer.ApplicationContextHolder;
 import no.rutebanken.anshar.routes.siri.transformer.MappingNames;
 import no.rutebanken.anshar.routes.validation.ValidationType;
@@ -40,12 +44,15 @@ import uk.org.siri.siri21.SituationExchangeDeliveryStructure;
 import uk.org.siri.siri21.VehicleMonitoringDeliveryStructure;
 
 import javax.annotation.PreDestroy;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static no.rutebanken.anshar.subscription.SubscriptionSetup.SubscriptionMode.AVRO_PUBSUB;
 
@@ -83,6 +90,33 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
     private static final String SUBSCRIPTION_OUTBOUND_COUNTER_NAME = METRICS_PREFIX + "subscription.outbound";
     private static final String SUBSCRIPTION_OUTBOUND_CONCURRENT_REQUESTS = METRICS_PREFIX + "concurrent.outbound.requests";
     private static final String SUBSCRIPTION_OUTBOUND_QUEUE = METRICS_PREFIX + "concurrent.outbound.queue";
+    private static final String OUTBOUND_RENDER_CACHE_COUNTER_NAME = METRICS_PREFIX + "outbound.render.cache";
+    private static final String OUTBOUND_RENDER_CACHE_HIT_RATIO_NAME = METRICS_PREFIX + "outbound.render.cache.hit.ratio";
+    private static final String RESULT_TAG_NAME = "result";
+    private static final String REST_RESPONSE_SNAPSHOT_COUNTER_NAME = METRICS_PREFIX + "rest.response.snapshot";
+    private static final String RESOURCE_TAG_NAME = "resource";
+    private static final String OUTBOUND_QUEUE_DISCARDED_COUNTER_NAME = METRICS_PREFIX + "outbound.queue.discarded";
+    private static final String OUTBOUND_QUEUE_WAIT_TIMER_NAME = METRICS_PREFIX + "outbound.queue.wait";
+    private static final String REASON_TAG_NAME = "reason";
+    private static final String SUBSCRIPTION_ACTIVITY_FLUSH_LAG_NAME = METRICS_PREFIX + "subscription.activity.flush.lag.millis";
+    private static final String PIPELINE_STAGE_TIMER_NAME = METRICS_PREFIX + "pipeline.stage";
+    private static final String PIPELINE_STAGE_TAG_NAME = "stage";
+
+    /*
+     * Fixed histogram-buckets for pipeline-stages - the default percentile-histogram has ~70 buckets per timer, which
+     * is too many per stage, data type and codespace
+     */
+    private static final Duration[] PIPELINE_STAGE_BUCKETS = {
+            Duration.ofMillis(1), Duration.ofMillis(5), Duration.ofMillis(10), Duration.ofMillis(25),
+            Duration.ofMillis(50), Duration.ofMillis(100), Duration.ofMillis(250), Duration.ofMillis(500),
+            Duration.ofSeconds(1), Duration.ofMillis(2500), Duration.ofSeconds(5), Duration.ofSeconds(10),
+            Duration.ofSeconds(30), Duration.ofSeconds(60)
+    };
+
+    /**
+     * Codespace-tag for pipeline-stages that are not specific to a single codespace
+     */
+    public static final String ALL_CODESPACES = "all";
 
     private static final String DATA_MAPPING_COUNTER_NAME = METRICS_PREFIX + "data.mapping";
 
@@ -93,9 +127,28 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
     private static final String DATA_VALIDATION_COUNTER = METRICS_PREFIX + "data.validation";
     private static final String DATA_VALIDATION_RESULT_COUNTER = METRICS_PREFIX + "data.validation.result";
 
+    private static final String[] INCOMING_DATA_COUNTER_NAMES = {
+            DATA_TOTAL_COUNTER_NAME, DATA_SUCCESS_COUNTER_NAME, DATA_EXPIRED_COUNTER_NAME, DATA_IGNORED_COUNTER_NAME
+    };
+
+    /*
+     * Meters for the hot paths, per dataType-ordinal and agency/codespace, indexed by the ordinal of the counted enum -
+     * so that counting is a map lookup and an increment, without building tags or looking up the meter in the registry.
+     */
+    private final List<ConcurrentMap<String, Counter[]>> incomingDataCounters = createMeterCache();
+    private final List<ConcurrentMap<String, Counter[]>> dataMappingCounters = createMeterCache();
+    private final List<ConcurrentMap<String, Counter[]>> siriContentCounters = createMeterCache();
+    private final List<ConcurrentMap<String, Timer[]>> pipelineStageTimers = createMeterCache();
+
     @Value("${anshar.metrics.include.failing.subscriptions:false}")
     private boolean includeSubscriptionFailingMetrics;
-    private Map<String, ExecutorService> outboundThreadFactoryMap;
+
+    /*
+     * Gauges read live values, and are only registered the first time a dataset/subscription is seen
+     */
+    private final Set<String> registeredDatasetGauges = ConcurrentHashMap.newKeySet();
+    private final Set<String> registeredSubscriptionGauges = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, List<Meter>> outboundQueueGauges = new ConcurrentHashMap<>();
 
     public PrometheusMetricsService() {
         super(PrometheusConfig.DEFAULT);
@@ -108,28 +161,80 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
 
     public void registerIncomingData(SiriDataType dataType, String agencyId, long total, long updated, long expired, long ignored) {
 
-        List<Tag> counterTags = new ArrayList<>();
-        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
-        counterTags.add(new ImmutableTag(AGENCY_TAG_NAME, agencyId));
+        Counter[] counters = cachedCounters(incomingDataCounters, dataType, agencyId, INCOMING_DATA_COUNTER_NAMES.length);
+        for (int i = 0; i < INCOMING_DATA_COUNTER_NAMES.length; i++) {
+            if (counters[i] == null) {
+                List<Tag> counterTags = new ArrayList<>();
+                counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
+                counterTags.add(new ImmutableTag(AGENCY_TAG_NAME, agencyId));
+                counters[i] = counter(INCOMING_DATA_COUNTER_NAMES[i], counterTags);
+            }
+        }
 
-        counter(DATA_TOTAL_COUNTER_NAME,   counterTags).increment(total);
-        counter(DATA_SUCCESS_COUNTER_NAME, counterTags).increment(updated);
-        counter(DATA_EXPIRED_COUNTER_NAME, counterTags).increment(expired);
-        counter(DATA_IGNORED_COUNTER_NAME, counterTags).increment(ignored);
+        counters[0].increment(total);
+        counters[1].increment(updated);
+        counters[2].increment(expired);
+        counters[3].increment(ignored);
     }
 
     public void registerDataMapping(SiriDataType dataType, String agencyId, MappingNames mappingName, int mappedCount) {
 
-        List<Tag> counterTags = new ArrayList<>();
-        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
-        counterTags.add(new ImmutableTag(AGENCY_TAG_NAME, agencyId));
-        counterTags.add(new ImmutableTag(MAPPING_NAME_TAG, mappingName.toString()));
-        counterTags.add(new ImmutableTag(MAPPING_ID_TAG, mappingName.name()));
+        Counter[] counters = cachedCounters(dataMappingCounters, dataType, agencyId, MappingNames.values().length);
+        Counter counter = counters[mappingName.ordinal()];
+        if (counter == null) {
+            List<Tag> counterTags = new ArrayList<>();
+            counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
+            counterTags.add(new ImmutableTag(AGENCY_TAG_NAME, agencyId));
+            counterTags.add(new ImmutableTag(MAPPING_NAME_TAG, mappingName.toString()));
+            counterTags.add(new ImmutableTag(MAPPING_ID_TAG, mappingName.name()));
 
-        counter(DATA_MAPPING_COUNTER_NAME, counterTags).increment(mappedCount);
+            counter = counter(DATA_MAPPING_COUNTER_NAME, counterTags);
+            counters[mappingName.ordinal()] = counter;
+        }
+        counter.increment(mappedCount);
     }
 
     public void registerSiriContent(SiriDataType dataType, String agencyId, String serviceJourneyId, SiriContent content) {
+        if (serviceJourneyId != null) {
+            // Unbounded number of journeys - not cached
+            siriContentCounter(dataType, agencyId, serviceJourneyId, content).increment();
+            return;
+        }
+        Counter[] counters = cachedCounters(siriContentCounters, dataType, agencyId, SiriContent.values().length);
+        Counter counter = counters[content.ordinal()];
+        if (counter == null) {
+            counter = siriContentCounter(dataType, agencyId, null, content);
+            counters[content.ordinal()] = counter;
+        }
+        counter.increment();
+    }
+
+    /**
+     * Returns the cached counters for the given dataType and agency, indexed by the ordinal of the counted enum.
+     * Unset counters are resolved by the caller - resolving the same meter twice is harmless.
+     */
+    private static Counter[] cachedCounters(List<ConcurrentMap<String, Counter[]>> cache, SiriDataType dataType, String agencyId, int size) {
+        if (agencyId == null) {
+            // Not cached - resolved on every call
+            return new Counter[size];
+        }
+        ConcurrentMap<String, Counter[]> agencyCounters = cache.get(dataType.ordinal());
+        Counter[] counters = agencyCounters.get(agencyId);
+        if (counters == null) {
+            counters = agencyCounters.computeIfAbsent(agencyId, k -> new Counter[size]);
+        }
+        return counters;
+    }
+
+    private static <M> List<ConcurrentMap<String, M[]>> createMeterCache() {
+        List<ConcurrentMap<String, M[]>> cache = new ArrayList<>();
+        for (int i = 0; i < SiriDataType.values().length; i++) {
+            cache.add(new ConcurrentHashMap<>());
+        }
+        return cache;
+    }
+
+    private Counter siriContentCounter(SiriDataType dataType, String agencyId, String serviceJourneyId, SiriContent content) {
         List<Tag> counterTags = new ArrayList<>();
         counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
         if (agencyId != null) {
@@ -142,7 +247,7 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
         counterTags.add(new ImmutableTag(SIRI_CONTENT_LABEL_TAG, content.getLabel()));
         counterTags.add(new ImmutableTag(SIRI_CONTENT_GROUP_TAG, content.getGroup().name()));
 
-        counter(SIRI_CONTENT_COUNTER_NAME, counterTags).increment();
+        return counter(SIRI_CONTENT_COUNTER_NAME, counterTags);
     }
 
     public void registerAckedKafkaRecord(String topic) {
@@ -161,7 +266,27 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
     }
 
     public void countOutgoingData(Siri siri, SubscriptionSetup.SubscriptionMode mode) {
-        SiriDataType dataType = null;
+        if (siri != null && siri.getServiceDelivery() != null) {
+            SiriDataType dataType = null;
+            if (siri.getServiceDelivery().getEstimatedTimetableDeliveries() != null &&
+                    !siri.getServiceDelivery().getEstimatedTimetableDeliveries().isEmpty()) {
+                dataType = SiriDataType.ESTIMATED_TIMETABLE;
+            } else if (siri.getServiceDelivery().getVehicleMonitoringDeliveries() != null &&
+                        !siri.getServiceDelivery().getVehicleMonitoringDeliveries().isEmpty()) {
+                dataType = SiriDataType.VEHICLE_MONITORING;
+            } else if (siri.getServiceDelivery().getSituationExchangeDeliveries() != null &&
+                        !siri.getServiceDelivery().getSituationExchangeDeliveries().isEmpty()) {
+                dataType = SiriDataType.SITUATION_EXCHANGE;
+            }
+            countOutgoingData(dataType, mode, getObjectCount(siri));
+        }
+
+    }
+
+    /**
+     * @return Number of ET/VM/SX-elements in the first delivery of the ServiceDelivery
+     */
+    public static int getObjectCount(Siri siri) {
         int count = 0;
         if (siri != null && siri.getServiceDelivery() != null) {
             if (siri.getServiceDelivery().getEstimatedTimetableDeliveries() != null &&
@@ -171,8 +296,6 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
                         !timetableDeliveryStructure.getEstimatedJourneyVersionFrames().isEmpty()) {
                     EstimatedVersionFrameStructure estimatedVersionFrameStructure = timetableDeliveryStructure.getEstimatedJourneyVersionFrames().get(0);
                     if (estimatedVersionFrameStructure != null &&  estimatedVersionFrameStructure.getEstimatedVehicleJourneies() != null) {
-
-                        dataType = SiriDataType.ESTIMATED_TIMETABLE;
                         count = estimatedVersionFrameStructure.getEstimatedVehicleJourneies().size();
                     }
                 }
@@ -180,20 +303,38 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
                         !siri.getServiceDelivery().getVehicleMonitoringDeliveries().isEmpty()) {
                 VehicleMonitoringDeliveryStructure deliveryStructure = siri.getServiceDelivery().getVehicleMonitoringDeliveries().get(0);
                 if (deliveryStructure != null) {
-                    dataType = SiriDataType.VEHICLE_MONITORING;
                     count = deliveryStructure.getVehicleActivities().size();
                 }
             } else if (siri.getServiceDelivery().getSituationExchangeDeliveries() != null &&
                         !siri.getServiceDelivery().getSituationExchangeDeliveries().isEmpty()) {
                 SituationExchangeDeliveryStructure deliveryStructure = siri.getServiceDelivery().getSituationExchangeDeliveries().get(0);
                 if (deliveryStructure != null && deliveryStructure.getSituations() != null) {
-                    dataType = SiriDataType.SITUATION_EXCHANGE;
                     count = deliveryStructure.getSituations().getPtSituationElements().size();
                 }
             }
-            countOutgoingData(dataType, mode, count);
         }
+        return count;
+    }
 
+    /**
+     * Registers a response served from a pre-rendered snapshot, or rendered to create one
+     */
+    public void registerRestResponseSnapshot(String resource, boolean hit) {
+        counter(REST_RESPONSE_SNAPSHOT_COUNTER_NAME, List.of(new ImmutableTag(RESOURCE_TAG_NAME, resource), new ImmutableTag(RESULT_TAG_NAME, hit ? "hit" : "miss"))).increment();
+    }
+
+    /**
+     * Registers reuse of rendered payloads for a single push to multiple subscriptions
+     */
+    public void registerOutboundPayloadCache(SiriDataType dataType, int hits, int misses) {
+        String dataTypeName = dataType != null ? dataType.name() : "UNKNOWN";
+        counter(OUTBOUND_RENDER_CACHE_COUNTER_NAME, List.of(new ImmutableTag(DATATYPE_TAG_NAME, dataTypeName), new ImmutableTag(RESULT_TAG_NAME, "hit"))).increment(hits);
+        counter(OUTBOUND_RENDER_CACHE_COUNTER_NAME, List.of(new ImmutableTag(DATATYPE_TAG_NAME, dataTypeName), new ImmutableTag(RESULT_TAG_NAME, "miss"))).increment(misses);
+
+        if (hits + misses > 0) {
+            summary(OUTBOUND_RENDER_CACHE_HIT_RATIO_NAME, List.of(new ImmutableTag(DATATYPE_TAG_NAME, dataTypeName)))
+                    .record((double) hits / (hits + misses));
+        }
     }
 
     public void addValidationMetrics(
@@ -220,7 +361,7 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
         counter(DATA_VALIDATION_RESULT_COUNTER, counterTags).increment();
     }
 
-    private void countOutgoingData(SiriDataType dataType, SubscriptionSetup.SubscriptionMode mode, long objectCount) {
+    public void countOutgoingData(SiriDataType dataType, SubscriptionSetup.SubscriptionMode mode, long objectCount) {
         if (dataType != null && objectCount > 0) {
             List<Tag> counterTags = new ArrayList<>();
             counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
@@ -241,18 +382,43 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
         counter(SUBSCRIPTION_OUTBOUND_COUNTER_NAME, counterTags).increment(1);
     }
 
-    final Map<String, Integer> gaugeValues = new HashMap<>();
-
-    public void gaugeDataset(SiriDataType subscriptionType, String agencyId, Integer count) {
+    /**
+     * Registers a gauge for the number of elements per codespace owned by this node - once, as it reads the live
+     * counter maintained by the repository
+     */
+    private void gaugeDatasets(SiriDataType dataType, Map<String, AtomicLong> localDatasetSize) {
+        for (Map.Entry<String, AtomicLong> entry : localDatasetSize.entrySet()) {
+            if (registeredDatasetGauges.add(dataType.name() + ":" + entry.getKey())) {
+                List<Tag> counterTags = new ArrayList<>();
+                counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType.name()));
+                counterTags.add(new ImmutableTag(AGENCY_TAG_NAME, entry.getKey()));
 
-        List<Tag> counterTags = new ArrayList<>();
-        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, subscriptionType.name()));
-        counterTags.add(new ImmutableTag(AGENCY_TAG_NAME, agencyId));
+                gauge(DATA_COUNTER_NAME, counterTags, entry.getValue());
+            }
+        }
+    }
 
-        String key = "" + subscriptionType + agencyId;
-        gaugeValues.put(key, count);
+    /**
+     * Registers gauges for the number of running and pending pushes for an outbound subscription
+     */
+    public void gaugeOutboundQueue(String subscriptionId, OutboundSubscriptionExecutor executor) {
+        List<Tag> counterTags = List.of(new ImmutableTag("subscriptionId", subscriptionId));
+
+        outboundQueueGauges.put(subscriptionId, List.of(
+                Gauge.builder(SUBSCRIPTION_OUTBOUND_CONCURRENT_REQUESTS, executor, e -> e.getActiveCount(subscriptionId))
+                        .tags(counterTags)
+                        .register(this),
+                Gauge.builder(SUBSCRIPTION_OUTBOUND_QUEUE, executor, e -> e.getQueueDepth(subscriptionId))
+                        .tags(counterTags)
+                        .register(this)
+        ));
+    }
 
-        gauge(DATA_COUNTER_NAME, counterTags, key, value -> gaugeValues.get(key));
+    public void removeOutboundQueueGauges(String subscriptionId) {
+        List<Meter> gauges = outboundQueueGauges.remove(subscriptionId);
+        if (gauges != null) {
+            gauges.forEach(this::remove);
+        }
     }
 
     @Override
@@ -261,49 +427,29 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
         return super.scrape();
     }
 
+    /**
+     * Registers gauges for datasets and subscriptions that have appeared since the previous scrape. All gauges read
+     * live values, so the cost does not depend on the amount of data stored.
+     */
     public void update() {
 
-        for (Meter meter : getMeters()) {
-            if (DATA_COUNTER_NAME.equals(meter.getId().getName())) {
-                this.remove(meter);
-            }
-            if (SUBSCRIPTION_OUTBOUND_CONCURRENT_REQUESTS.equals(meter.getId().getName())) {
-                this.remove(meter);
-            }
-            if (SUBSCRIPTION_OUTBOUND_QUEUE.equals(meter.getId().getName())) {
-                this.remove(meter);
-            }
-        }
-
-        EstimatedTimetables estimatedTimetables = ApplicationContextHolder.getContext().getBean(EstimatedTimetables.class);
-        Map<String, Integer> datasetSize = estimatedTimetables.getLocalDatasetSize();
-        for (Map.Entry<String, Integer> entry : datasetSize.entrySet()) {
-            gaugeDataset(SiriDataType.ESTIMATED_TIMETABLE, entry.getKey(), entry.getValue());
-        }
+        gaugeDatasets(SiriDataType.ESTIMATED_TIMETABLE,
+                ApplicationContextHolder.getContext().getBean(EstimatedTimetables.class).getLocalDatasetSizeCounters());
 
-        Situations situations = ApplicationContextHolder.getContext().getBean(Situations.class);
-        datasetSize = situations.getLocalDatasetSize();
-        for (Map.Entry<String, Integer> entry : datasetSize.entrySet()) {
-            gaugeDataset(SiriDataType.SITUATION_EXCHANGE, entry.getKey(), entry.getValue());
-        }
+        gaugeDatasets(SiriDataType.SITUATION_EXCHANGE,
+                ApplicationContextHolder.getContext().getBean(Situations.class).getLocalDatasetSizeCounters());
 
-        VehicleActivities vehicleActivities = ApplicationContextHolder.getContext().getBean(VehicleActivities.class);
-        datasetSize = vehicleActivities.getLocalDatasetSize();
-        for (Map.Entry<String, Integer> entry : datasetSize.entrySet()) {
-            gaugeDataset(SiriDataType.VEHICLE_MONITORING, entry.getKey(), entry.getValue());
-        }
+        gaugeDatasets(SiriDataType.VEHICLE_MONITORING,
+                ApplicationContextHolder.getContext().getBean(VehicleActivities.class).getLocalDatasetSizeCounters());
 
-        for (Map.Entry<String, ExecutorService> entry : outboundThreadFactoryMap.entrySet()) {
-            List<Tag> counterTags = new ArrayList<>();
-            counterTags.add(new ImmutableTag("subscriptionId", entry.getKey()));
-            ThreadPoolExecutor executor = (ThreadPoolExecutor) entry.getValue();
-            gauge(SUBSCRIPTION_OUTBOUND_CONCURRENT_REQUESTS, counterTags, executor.getActiveCount());
-            gauge(SUBSCRIPTION_OUTBOUND_QUEUE, counterTags, executor.getQueue().size());
-        }
+        gauge(SUBSCRIPTION_ACTIVITY_FLUSH_LAG_NAME, List.of(), manager, SubscriptionManager::getActivityFlushLag);
 
         if (includeSubscriptionFailingMetrics) {
             ReplicatedMap<String, SubscriptionSetup> subscriptions = manager.subscriptions;
             for (SubscriptionSetup subscription : subscriptions.values()) {
+                if (!registeredSubscriptionGauges.add(subscription.getSubscriptionId())) {
+                    continue;
+                }
 
                 SiriDataType subscriptionType = subscription.getSubscriptionType();
 
@@ -352,7 +498,57 @@ public class PrometheusMetricsService extends PrometheusMeterRegistry {
         return 0;
     }
 
-    public void registerOutboundThreadFactoryMap(Map<String, ExecutorService> threadFactoryMap) {
-        this.outboundThreadFactoryMap = threadFactoryMap;
+    /**
+     * Registers time spent in a stage of the SIRI-pipeline - published as a histogram, so that percentiles (e.g. p50/p99)
+     * can be calculated per stage, data type and codespace, and aggregated across them
+     *
+     * @param codespace Codespace the data belongs to - null if not specific to a single codespace
+     */
+    public void recordPipelineStage(PipelineStage stage, SiriDataType dataType, String codespace, long durationNanos) {
+        if (dataType == null) {
+            pipelineStageTimer(stage, "UNKNOWN", codespace).record(durationNanos, TimeUnit.NANOSECONDS);
+            return;
+        }
+        ConcurrentMap<String, Timer[]> codespaceTimers = pipelineStageTimers.get(dataType.ordinal());
+        String codespaceKey = codespace != null ? codespace : ALL_CODESPACES;
+        Timer[] timers = codespaceTimers.get(codespaceKey);
+        if (timers == null) {
+            timers = codespaceTimers.computeIfAbsent(codespaceKey, k -> new Timer[PipelineStage.values().length]);
+        }
+        Timer timer = timers[stage.ordinal()];
+        if (timer == null) {
+            timer = pipelineStageTimer(stage, dataType.name(), codespace);
+            timers[stage.ordinal()] = timer;
+        }
+        timer.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer pipelineStageTimer(PipelineStage stage, String dataType, String codespace) {
+        return Timer.builder(PIPELINE_STAGE_TIMER_NAME)
+                .tag(PIPELINE_STAGE_TAG_NAME, stage.getLabel())
+                .tag(DATATYPE_TAG_NAME, dataType)
+                .tag(CODESPACE_TAG_NAME, codespace != null ? codespace : ALL_CODESPACES)
+                .serviceLevelObjectives(PIPELINE_STAGE_BUCKETS)
+                .register(this);
+    }
+
+    /**
+     * Registers time an outbound push has been waiting in the subscription-queue
+     */
+    public void registerOutboundQueueWait(SiriDataType dataType, long waitNanos) {
+        timer(OUTBOUND_QUEUE_WAIT_TIMER_NAME, List.of(new ImmutableTag(DATATYPE_TAG_NAME, dataType != null ? dataType.name() : "UNKNOWN")))
+                .record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registers outbound push that was never sent - because the queue was full, the data was superseded by a later
+     * push, or the subscription was terminated
+     */
+    public void registerOutboundQueueDiscarded(SiriDataType dataType, String subscriptionId, String reason) {
+        List<Tag> counterTags = new ArrayList<>();
+        counterTags.add(new ImmutableTag(DATATYPE_TAG_NAME, dataType != null ? dataType.name() : "UNKNOWN"));
+        counterTags.add(new ImmutableTag("subscriptionId", subscriptionId));
+        counterTags.add(new ImmutableTag(REASON_TAG_NAME, reason));
+        counter(OUTBOUND_QUEUE_DISCARDED_COUNTER_NAME, counterTags).increment();
     }
 }
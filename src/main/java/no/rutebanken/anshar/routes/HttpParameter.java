@@ -36,6 +36,7 @@ public class HttpParameter {
     public static final String PARAM_PATH           = "CamelHttpPath";
     public static final String INTERNAL_SIRI_DATA_TYPE           = "InternalSiriDatatype";
     public static final String INTERNAL_PUBLISH_TO_KAFKA_FOR_APC_ENRICHMENT           = "InternalEnrichWithApc";
+    public static final String INTERNAL_SIRI_PAYLOAD_SIZE           = "InternalSiriPayloadSize";
 
     public static List<String> getParameterValuesAsList(Message msg, String headerName) {
         String excludedDatasetIds = msg.getHeader(headerName, String.class);
@@ -46,4 +47,68 @@ public class HttpParameter {
         }
         return excludedIdList;
     }
+
+    /**
+     * @param acceptEncoding Value of the Accept-Encoding request-header
+     * @return true if gzip is accepted - explicitly, or through wildcard - with a non-zero quality
+     */
+    public static boolean isGzipAccepted(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            boolean accepted = !isZeroQuality(parts);
+
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                return accepted;
+            }
+            if (name.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    private static boolean isZeroQuality(String[] codingParts) {
+        for (int i = 1; i < codingParts.length; i++) {
+            String parameter = codingParts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Weak comparison as specified for If-None-Match
+     *
+     * @param ifNoneMatch Value of the If-None-Match request-header
+     * @param etag Current ETag of the resource
+     * @return true if the client already has the current version
+     */
+    public static boolean isEtagMatching(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,196 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pre-rendered (serialized, and optionally compressed) responses for the cached SIRI Lite-endpoints.
+ *
+ * A snapshot is keyed by everything that determines the bytes - resource, query-parameters, format, SIRI-version
+ * and content-coding - and is valid for a single version of the underlying data. While the version is unchanged, all
+ * requests for the same representation are served from the same byte[], and concurrent requests for a stale or
+ * missing snapshot wait for a single render instead of all rendering the same data.
+ *
+ * Snapshots are weighed by size, and evicted when unused.
+ */
+@Service
+public class RenderedResponseCache {
+
+    @Autowired
+    private PrometheusMetricsService metricsService;
+
+    @Value("${anshar.rest.response.snapshot.max.size.mb:256}")
+    private long maxSizeMb;
+
+    @Value("${anshar.rest.response.snapshot.expiry.seconds:300}")
+    private long expirySeconds;
+
+    private Cache<String, SnapshotEntry> snapshots;
+
+    public RenderedResponseCache() {
+    }
+
+    RenderedResponseCache(PrometheusMetricsService metricsService, long maxSizeMb, long expirySeconds) {
+        this.metricsService = metricsService;
+        this.maxSizeMb = maxSizeMb;
+        this.expirySeconds = expirySeconds;
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        snapshots = CacheBuilder.newBuilder()
+                // Single segment - weight-limit applies to all snapshots, not per segment
+                .concurrencyLevel(1)
+                .maximumWeight(maxSizeMb * 1024 * 1024)
+                .weigher((String key, SnapshotEntry entry) -> entry.getWeight())
+                .expireAfterAccess(expirySeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Returns the snapshot for the given key - rendering it if no snapshot exists for the given version or later.
+     *
+     * @param resource Name of the requested resource - used for metrics
+     * @param key Identifies the representation
+     * @param version Current version of the data the response is created from
+     * @param renderer Creates the snapshot - only invoked by one caller at a time per key
+     */
+    public Snapshot get(String resource, String key, long version, Renderer renderer) throws Exception {
+        while (true) {
+            SnapshotEntry existing = snapshots.getIfPresent(key);
+            if (existing != null && existing.version >= version) {
+                try {
+                    Snapshot snapshot = existing.snapshot.get();
+                    registerResult(resource, true);
+                    return snapshot;
+                } catch (ExecutionException e) {
+                    // Rendering failed - the failed entry is removed by the renderer, try again
+                    snapshots.asMap().remove(key, existing);
+                    continue;
+                }
+            }
+
+            SnapshotEntry created = new SnapshotEntry(version);
+            boolean added;
+            if (existing == null) {
+                added = snapshots.asMap().putIfAbsent(key, created) == null;
+            } else {
+                added = snapshots.asMap().replace(key, existing, created);
+            }
+            if (!added) {
+                // Another caller started rendering first
+                continue;
+            }
+
+            try {
+                Snapshot snapshot = renderer.render();
+                created.snapshot.complete(snapshot);
+                // Re-inserted to update the weight with the rendered size
+                snapshots.asMap().replace(key, created, created);
+                registerResult(resource, false);
+                return snapshot;
+            } catch (Exception | Error e) {
+                snapshots.asMap().remove(key, created);
+                created.snapshot.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        snapshots.invalidateAll();
+    }
+
+    long size() {
+        snapshots.cleanUp();
+        return snapshots.size();
+    }
+
+    private void registerResult(String resource, boolean hit) {
+        if (metricsService != null) {
+            metricsService.registerRestResponseSnapshot(resource, hit);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Renderer {
+        Snapshot render() throws Exception;
+    }
+
+    public static final class Snapshot {
+        private final long version;
+        private final byte[] body;
+        private final String contentType;
+        private final boolean gzip;
+        private final int objectCount;
+
+        public Snapshot(long version, byte[] body, String contentType, boolean gzip, int objectCount) {
+            this.version = version;
+            this.body = body;
+            this.contentType = contentType;
+            this.gzip = gzip;
+            this.objectCount = objectCount;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public boolean isGzip() {
+            return gzip;
+        }
+
+        public int getObjectCount() {
+            return objectCount;
+        }
+    }
+
+    private static final class SnapshotEntry {
+        private final long version;
+        private final CompletableFuture<Snapshot> snapshot = new CompletableFuture<>();
+
+        private SnapshotEntry(long version) {
+            this.version = version;
+        }
+
+        private int getWeight() {
+            if (snapshot.isDone() && !snapshot.isCompletedExceptionally()) {
+                return snapshot.join().body.length;
+            }
+            return 0;
+        }
+    }
+}
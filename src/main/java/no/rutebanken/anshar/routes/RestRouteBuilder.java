@@ -21,7 +21,10 @@ import jakarta.ws.rs.core.MediaType;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.UnmarshalException;
 import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.metrics.PipelineStage;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.subscription.SubscriptionSetup;
 import org.apache.camel.Exchange;
 import org.apache.camel.InvalidPayloadException;
 import org.apache.camel.LoggingLevel;
@@ -45,22 +48,43 @@ import uk.org.siri.siri21.Siri;
 import uk.org.siri.siri21.VehicleModesEnumeration;
 
 import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.ConnectException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 
 import static no.rutebanken.anshar.routes.HttpParameter.SIRI_VERSION_HEADER_NAME;
+import static no.rutebanken.anshar.routes.HttpParameter.isEtagMatching;
+import static no.rutebanken.anshar.routes.HttpParameter.isGzipAccepted;
 
 public class RestRouteBuilder extends RouteBuilder {
 
     private static final Logger logger = LoggerFactory.getLogger(RestRouteBuilder.class);
 
+    /**
+     * Identifies this instance in ETags - versions are node-local
+     */
+    private static final String INSTANCE_TAG = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    /**
+     * Exchange-property holding the start (System.nanoTime) of the pipeline-stage being timed
+     */
+    private static final String PIPELINE_STAGE_START = "AnsharPipelineStageStart";
+
     protected Namespaces ns = new Namespaces("siri", "http://www.siri.org.uk/siri")
             .add("xsd", "http://www.w3.org/2001/XMLSchema");
 
+    @Value("${anshar.rest.response.gzip.enabled:true}")
+    protected boolean gzipEnabled;
+
 
     @Value("${anshar.data.handler.baseurl.vm:}")
     protected String vmHandlerBaseUrl;
@@ -361,6 +385,28 @@ public class RestRouteBuilder extends RouteBuilder {
         return false;
     }
 
+    /**
+     * Starts timing a pipeline-stage - a stage already started is kept, so that a stage may span multiple steps
+     */
+    protected static void startPipelineStage(Exchange e) {
+        if (e.getProperty(PIPELINE_STAGE_START) == null) {
+            e.setProperty(PIPELINE_STAGE_START, System.nanoTime());
+        }
+    }
+
+    /**
+     * Records the time since the stage was started - ignored if no stage has been started on the exchange
+     */
+    protected static void recordPipelineStage(Exchange e, PipelineStage stage, PrometheusMetricsService metrics, SubscriptionSetup subscriptionSetup) {
+        Long start = e.getProperty(PIPELINE_STAGE_START, Long.class);
+        if (start != null) {
+            e.removeProperty(PIPELINE_STAGE_START);
+            if (subscriptionSetup != null) {
+                metrics.recordPipelineStage(stage, subscriptionSetup.getSubscriptionType(), subscriptionSetup.getDatasetId(), System.nanoTime() - start);
+            }
+        }
+    }
+
     protected String getSubscriptionIdFromPath(String path) {
         if (configuration.getIncomingPathPattern().startsWith("/")) {
             if (!path.startsWith("/")) {
@@ -400,8 +446,128 @@ public class RestRouteBuilder extends RouteBuilder {
 
         return values;
     }
+    /**
+     * Sets a strong ETag on the response, and checks it against If-None-Match. If the client already has the current
+     * version, the response is completed as 304 Not Modified - and no data needs to be fetched or serialized.
+     *
+     * Only valid for responses that are fully determined by the request and the version - not for requestor-specific
+     * change-tracking.
+     *
+     * @param resource Name of the requested resource
+     * @param version Current version of the data the response is created from
+     * @return true if the response is completed as 304 Not Modified
+     */
+    protected boolean isNotModified(Exchange p, HttpServletResponse out, String resource, long version) {
+        final String etag = createEtag(p, resource, version);
+
+        out.setHeader(HttpHeaders.ETAG, etag);
+
+        if (isEtagMatching(p.getIn().getHeader(HttpHeaders.IF_NONE_MATCH, String.class), etag)) {
+            setVaryHeader(out);
+            p.getMessage().setHeader(Exchange.HTTP_RESPONSE_CODE, HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    private String createEtag(Exchange p, String resource, long version) {
+        // Strong ETags differ per content-coding
+        return "\"" + INSTANCE_TAG + "-" + Long.toHexString(version) + "-" +
+                Integer.toHexString(getRepresentation(p, resource).hashCode()) + (isGzipResponse(p) ? "-gzip" : "") + "\"";
+    }
+
+    /**
+     * @return Everything in the request that determines the bytes of the response
+     */
+    private String getRepresentation(Exchange p, String resource) {
+        return resource + "|" +
+                p.getIn().getHeader(Exchange.HTTP_QUERY, String.class) + "|" +
+                p.getIn().getHeader(HttpHeaders.CONTENT_TYPE, String.class) + "|" +
+                p.getIn().getHeader(HttpHeaders.ACCEPT, String.class) + "|" +
+                p.getIn().getHeader(SIRI_VERSION_HEADER_NAME, String.class);
+    }
+
+    /**
+     * Returns the pre-rendered response for the request, rendering it if the snapshot is missing or older than the
+     * given version. Same restrictions as for isNotModified apply.
+     *
+     * @param responseSupplier Creates the response - only invoked when the response needs to be rendered
+     */
+    protected RenderedResponseCache.Snapshot getSnapshot(Exchange p, RenderedResponseCache cache, String resource, long version,
+                                                         ResponseSupplier responseSupplier) throws Exception {
+        final boolean gzip = isGzipResponse(p);
+        final String key = getRepresentation(p, resource) + (gzip ? "|gzip" : "");
+
+        return cache.get(resource, key, version, () -> {
+            Siri response = responseSupplier.get();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if (gzip) {
+                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(bytes, GZIP_BUFFER_SIZE);
+                streamOutput(p, response, gzipOutputStream);
+                gzipOutputStream.finish();
+            } else {
+                streamOutput(p, response, bytes);
+            }
+            return new RenderedResponseCache.Snapshot(version,
+                    bytes.toByteArray(),
+                    p.getMessage().getHeader(HttpHeaders.CONTENT_TYPE, String.class),
+                    gzip,
+                    PrometheusMetricsService.getObjectCount(response)
+            );
+        });
+    }
+
+    /**
+     * Writes a pre-rendered response to the servlet output stream
+     */
+    protected void writeSnapshot(Exchange p, HttpServletResponse out, String resource, RenderedResponseCache.Snapshot snapshot) throws IOException {
+        // Snapshot may have been rendered from a later version than the one already set
+        out.setHeader(HttpHeaders.ETAG, createEtag(p, resource, snapshot.getVersion()));
+        setVaryHeader(out);
+        if (snapshot.isGzip()) {
+            out.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        if (snapshot.getContentType() != null) {
+            p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, snapshot.getContentType());
+        }
+        out.getOutputStream().write(snapshot.getBody());
+    }
+
+    @FunctionalInterface
+    protected interface ResponseSupplier {
+        Siri get() throws Exception;
+    }
+
+    private boolean isGzipResponse(Exchange p) {
+        return gzipEnabled && isGzipAccepted(p.getIn().getHeader(HttpHeaders.ACCEPT_ENCODING, String.class));
+    }
+
+    private void setVaryHeader(HttpServletResponse out) {
+        if (gzipEnabled) {
+            out.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+    }
+
+    /**
+     * Streams response to the servlet output stream - gzip-compressed if accepted by the client
+     */
     protected void streamOutput(Exchange p, Siri response, HttpServletResponse out) throws IOException, JAXBException, XMLStreamException {
 
+        setVaryHeader(out);
+        if (isGzipResponse(p)) {
+            // Content-Encoding is set on the servlet-response only - Camel would otherwise compress the body again
+            out.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(out.getOutputStream(), GZIP_BUFFER_SIZE);
+            streamOutput(p, response, gzipOutputStream);
+            gzipOutputStream.finish();
+        } else {
+            streamOutput(p, response, out.getOutputStream());
+        }
+    }
+
+    private void streamOutput(Exchange p, Siri response, OutputStream outputStream) throws IOException, JAXBException, XMLStreamException {
+
         boolean siri21Version = false;
         if ("2.1".equals(p.getIn().getHeader(SIRI_VERSION_HEADER_NAME))) {
             siri21Version = true;
@@ -411,11 +577,11 @@ public class RestRouteBuilder extends RouteBuilder {
             MediaType.APPLICATION_JSON.equals(p.getIn().getHeader(HttpHeaders.ACCEPT))) {
             p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
             if (siri21Version) {
-                SiriJson.toJson(response, out.getOutputStream());
+                SiriJson.toJson(response, outputStream);
             } else {
                 org.rutebanken.siri20.util.SiriJson.toJson(
                         downgradeSiriVersion(response),
-                        out.getOutputStream()
+                        outputStream
                 );
             }
         }
@@ -425,7 +591,7 @@ public class RestRouteBuilder extends RouteBuilder {
                 final SiriRecord siriRecord = Jaxb2AvroConverter.convert(response);
 
                 p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, "application/avro");
-                SiriRecord.getEncoder().encode(siriRecord, out.getOutputStream());
+                SiriRecord.getEncoder().encode(siriRecord, outputStream);
 
             } catch (NullPointerException npe) {
                 File file = new File("ET-" + System.currentTimeMillis() + ".xml");
@@ -440,7 +606,7 @@ public class RestRouteBuilder extends RouteBuilder {
 
                 p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
 
-                out.getOutputStream().write(siriRecord.toString().getBytes());
+                outputStream.write(siriRecord.toString().getBytes());
 
             } catch (NullPointerException npe) {
                 File file = new File("ET-" + System.currentTimeMillis() + ".xml");
@@ -451,12 +617,12 @@ public class RestRouteBuilder extends RouteBuilder {
         else {
             p.getMessage().setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_XML);
             if (siri21Version) {
-                SiriXml.toXml(response, null, out.getOutputStream());
+                SiriXml.toXml(response, null, outputStream);
             } else {
                 org.rutebanken.siri20.util.SiriXml.toXml(
                         downgradeSiriVersion(response),
                         null,
-                        out.getOutputStream()
+                        outputStream
                 );
             }
         }
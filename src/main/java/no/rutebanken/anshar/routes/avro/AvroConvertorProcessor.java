@@ -17,6 +17,7 @@ import org.entur.avro.realtime.siri.model.VehicleActivityRecord;
 import org.entur.avro.realtime.siri.model.VehicleMonitoringDeliveryRecord;
 import org.entur.siri21.util.SiriXml;
 import org.springframework.stereotype.Component;
+import uk.org.siri.siri21.Siri;
 
 import java.util.Map;
 
@@ -27,14 +28,25 @@ public class AvroConvertorProcessor implements Processor {
 
     private static final String HEADER_LINE_REF = "lineRef";
 
+    /**
+     * Converts a split Siri-message - i.e. a single journey/activity/situation - to the corresponding Avro-record.
+     * Split messages are converted directly from JAXB, XML-messages are parsed first.
+     */
     @Override
     public void process(Exchange exchange) throws Exception {
 
-        String body = exchange.getIn().getBody(String.class);
+        Object body = exchange.getIn().getBody();
 
         String codespaceId = exchange.getIn().getHeader(CODESPACE_ID_KAFKA_HEADER_NAME, String.class);
 
-        SiriRecord siriRecord = Converter.jaxb2Avro(SiriXml.parseXml(body));
+        Siri siri;
+        if (body instanceof Siri) {
+            siri = (Siri) body;
+        } else {
+            siri = SiriXml.parseXml(exchange.getIn().getBody(String.class));
+        }
+
+        SiriRecord siriRecord = Converter.jaxb2Avro(siri);
 
         Message out = exchange.getMessage();
         if (siriRecord.getServiceDelivery() != null) {
@@ -23,6 +23,12 @@ public interface BlobStoreRepository {
 
     void uploadBlob(String objectName, byte[] bytes);
 
+    /**
+     * Uploads the blob while reading the stream - the stream is read until end, but not closed. If reading the stream
+     * fails, no blob is stored with the given name
+     */
+    void uploadBlob(String objectName, InputStream inputStream);
+
     void setStorage(Storage storage);
 
     void setContainerName(String containerName);
@@ -16,7 +16,6 @@
 package no.rutebanken.anshar.routes.export.file;
 
 import com.google.cloud.storage.Storage;
-import org.apache.camel.Header;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,10 +23,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
-import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
 
 @Service
 public class BlobStoreService {
@@ -50,11 +46,6 @@ public class BlobStoreService {
 		repository.setContainerName(containerName);
 	}
 
-	public void uploadBlob(@Header(value = RealtimeDataFileUploader.ZIP_FILE_PATH) String path) throws IOException {
-		File f = new File(path);
-		repository.uploadBlob(f.getName(), Files.readAllBytes(f.toPath()));
-	}
-
 	public void uploadBlob(String name, byte[] data) {
 		uploadBlob(name, data);
 	}
@@ -65,6 +56,10 @@ public class BlobStoreService {
 		}
 	}
 
+	public void uploadBlob(String name, InputStream inputStream) {
+		repository.uploadBlob(name, inputStream);
+	}
+
 	public InputStream getBlob(String name) {
 		return repository.getBlob(name);
 	}
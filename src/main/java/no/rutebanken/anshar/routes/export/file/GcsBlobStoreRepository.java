@@ -15,6 +15,8 @@
 
 package no.rutebanken.anshar.routes.export.file;
 
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import org.rutebanken.helper.gcp.BlobStoreHelper;
 import org.slf4j.Logger;
@@ -24,6 +26,7 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Repository;
 
 import java.io.InputStream;
+import java.util.UUID;
 
 @Repository
 @Profile("gcs-blobstore")
@@ -31,6 +34,8 @@ public class GcsBlobStoreRepository implements BlobStoreRepository {
 
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
     private Storage storage;
 
     @Value("${blobstore.gcs.container.name}")
@@ -53,6 +58,26 @@ public class GcsBlobStoreRepository implements BlobStoreRepository {
         BlobStoreHelper.uploadBlob(storage, containerName, name, bytes, false);
     }
 
+    /**
+     * Closing the write-channel finalizes the upload - also when reading the stream fails. The stream is therefore
+     * uploaded to a temporary blob, which is only copied to the given name when the whole stream has been read.
+     */
+    @Override
+    public void uploadBlob(String name, InputStream inputStream) {
+        logger.info("Uploading stream {} to container {}", name, containerName);
+        String temporaryName = name + ".part-" + UUID.randomUUID();
+        try {
+            BlobStoreHelper.uploadBlobWithRetry(storage, containerName, temporaryName, inputStream, false);
+            // Server-side copy of the single source-blob
+            storage.compose(Storage.ComposeRequest.newBuilder()
+                    .addSource(temporaryName)
+                    .setTarget(BlobInfo.newBuilder(containerName, name).setContentType(CONTENT_TYPE).build())
+                    .build());
+        } finally {
+            storage.delete(BlobId.of(containerName, temporaryName));
+        }
+    }
+
     @Override
     public InputStream getBlob(String name) {
         logger.info("Downloading file {} from container {} and storage: {}", name, containerName, storage);
@@ -21,9 +21,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Repository;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Repository
 @Profile("in-memory-blobstore")
@@ -31,9 +36,21 @@ public class InMemoryBlobStoreRepository implements BlobStoreRepository {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+
     @Override
     public void uploadBlob(String objectName, byte[] bytes) {
-        logger.info("blob with name {}, size {} ignored for in-memory-blobstore", objectName, bytes.length);
+        logger.info("blob with name {}, size {} kept in in-memory-blobstore", objectName, bytes.length);
+        blobs.put(objectName, bytes);
+    }
+
+    @Override
+    public void uploadBlob(String objectName, InputStream inputStream) {
+        try {
+            uploadBlob(objectName, inputStream.readAllBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read blob " + objectName, e);
+        }
     }
 
     @Override
@@ -48,6 +65,10 @@ public class InMemoryBlobStoreRepository implements BlobStoreRepository {
 
     @Override
     public InputStream getBlob(String name) {
+        byte[] blob = blobs.get(name);
+        if (blob != null) {
+            return new ByteArrayInputStream(blob);
+        }
         try {
             return new FileInputStream(name);
         } catch (FileNotFoundException e) {
@@ -0,0 +1,286 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.export.file;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import no.rutebanken.anshar.data.EstimatedTimetables;
+import no.rutebanken.anshar.data.Situations;
+import no.rutebanken.anshar.data.VehicleActivities;
+import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
+import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.routes.siri.transformer.SiriValueTransformer;
+import no.rutebanken.anshar.routes.siri.transformer.ValueAdapter;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import no.rutebanken.anshar.subscription.helpers.MappingAdapterPresets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.Siri;
+import uk.org.siri.siri21.VehicleActivityStructure;
+
+import javax.annotation.PreDestroy;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.dom.DOMResult;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams snapshots of the current datasets as zipped SIRI-XML directly to the blob store.
+ *
+ * Data is read from the repositories one page at a time, and each element is marshalled straight into the zip-stream,
+ * so neither the complete dataset nor the resulting file is held in memory or written to disk.
+ */
+@Component
+public class SnapshotExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotExporter.class);
+
+    private static final String SIRI_NAMESPACE = "http://www.siri.org.uk/siri";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final JAXBContext jaxbContext;
+
+    static {
+        try {
+            jaxbContext = JAXBContext.newInstance(Siri.class);
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Failed to create JAXBContext for SIRI", e);
+        }
+    }
+
+    private final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+
+    private final ExecutorService writerExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("snapshot-export-%d").setDaemon(true).build());
+
+    @Value("${anshar.export.snapshot.page.size:1000}")
+    private int pageSize = 1000;
+
+    @Autowired
+    private EstimatedTimetables estimatedTimetables;
+
+    @Autowired
+    private Situations situations;
+
+    @Autowired
+    private VehicleActivities vehicleActivities;
+
+    @Autowired
+    private SiriObjectFactory siriObjectFactory;
+
+    @Autowired
+    private MappingAdapterPresets mappingAdapterPresets;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @PreDestroy
+    void shutdown() {
+        writerExecutor.shutdownNow();
+    }
+
+    /**
+     * Uploads a zip-file with one SIRI-XML file per data type, while it is being written
+     */
+    public void export(String name, SiriDataType... dataTypes) throws IOException {
+        final PipedInputStream pipedInput = new PipedInputStream(BUFFER_SIZE);
+        final PipedOutputStream pipedOutput = new PipedOutputStream(pipedInput);
+        final AtomicReference<Exception> writeFailure = new AtomicReference<>();
+
+        writerExecutor.execute(() -> {
+            try {
+                writeZip(pipedOutput, dataTypes);
+            } catch (Exception e) {
+                writeFailure.set(e);
+            } finally {
+                try {
+                    pipedOutput.close();
+                } catch (IOException e) {
+                    // Reader has already given up
+                }
+            }
+        });
+
+        // Fails the upload instead of ending a truncated file if writing failed
+        try (InputStream in = new FilterInputStream(pipedInput) {
+            @Override
+            public int read() throws IOException {
+                return checkWriteFailure(super.read());
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return checkWriteFailure(super.read(b, off, len));
+            }
+
+            private int checkWriteFailure(int result) throws IOException {
+                if (result == -1 && writeFailure.get() != null) {
+                    throw new IOException("Writing snapshot " + name + " failed", writeFailure.get());
+                }
+                return result;
+            }
+        }) {
+            blobStoreService.uploadBlob(name, in);
+        }
+        logger.info("Uploaded snapshot {}", name);
+    }
+
+    void writeZip(OutputStream out, SiriDataType... dataTypes) throws IOException, JAXBException, XMLStreamException {
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        for (SiriDataType dataType : dataTypes) {
+            zip.putNextEntry(new ZipEntry(getFileName(dataType)));
+
+            XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(zip, StandardCharsets.UTF_8.name());
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            writeDelivery(writer, dataType);
+            writer.writeEndDocument();
+            writer.close();
+
+            zip.closeEntry();
+        }
+        zip.finish();
+        zip.flush();
+    }
+
+    private void writeDelivery(XMLStreamWriter writer, SiriDataType dataType) throws JAXBException, XMLStreamException {
+        List<ValueAdapter> adapters = mappingAdapterPresets.getOutboundAdapters(dataType, OutboundIdMappingPolicy.DEFAULT);
+        switch (dataType) {
+            case ESTIMATED_TIMETABLE -> writeDelivery(writer, estimatedTimetables.getAllPaged(pageSize), adapters,
+                    siriObjectFactory::createETServiceDelivery,
+                    siri -> siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                            .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies(),
+                    "EstimatedJourneyVersionFrame", "EstimatedVehicleJourney", EstimatedVehicleJourney.class);
+            case SITUATION_EXCHANGE -> writeDelivery(writer, situations.getAllPaged(pageSize), adapters,
+                    siriObjectFactory::createSXServiceDelivery,
+                    siri -> siri.getServiceDelivery().getSituationExchangeDeliveries().get(0)
+                            .getSituations().getPtSituationElements(),
+                    "Situations", "PtSituationElement", PtSituationElement.class);
+            case VEHICLE_MONITORING -> writeDelivery(writer, vehicleActivities.getAllPaged(pageSize), adapters,
+                    siriObjectFactory::createVMServiceDelivery,
+                    siri -> siri.getServiceDelivery().getVehicleMonitoringDeliveries().get(0).getVehicleActivities(),
+                    "VehicleMonitoringDelivery", "VehicleActivity", VehicleActivityStructure.class);
+            default -> throw new IllegalArgumentException("Export of " + dataType + " is not supported");
+        }
+    }
+
+    /**
+     * Writes the (empty) delivery created by the factory, and all pages of elements into its container-element
+     */
+    private <T> void writeDelivery(XMLStreamWriter writer, Iterable<Collection<T>> pages, List<ValueAdapter> adapters,
+                                   Function<Collection<T>, Siri> deliveryFactory, Function<Siri, List<T>> elements,
+                                   String containerElement, String elementName, Class<T> elementClass)
+            throws JAXBException, XMLStreamException {
+
+        DOMResult envelope = new DOMResult();
+        jaxbContext.createMarshaller().marshal(deliveryFactory.apply(List.of()), envelope);
+
+        Marshaller fragmentMarshaller = jaxbContext.createMarshaller();
+        fragmentMarshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        QName elementQName = new QName(SIRI_NAMESPACE, elementName);
+
+        writer.setDefaultNamespace(SIRI_NAMESPACE);
+        boolean written = writeEnvelope(writer, envelope.getNode().getFirstChild(), true, containerElement, () -> {
+            for (Collection<T> page : pages) {
+                Siri transformed = SiriValueTransformer.transform(deliveryFactory.apply(page), adapters, false, true);
+                for (T element : elements.apply(transformed)) {
+                    fragmentMarshaller.marshal(new JAXBElement<>(elementQName, elementClass, element), writer);
+                }
+            }
+        });
+        if (!written) {
+            throw new IllegalStateException("Element " + containerElement + " not found in delivery");
+        }
+    }
+
+    /**
+     * Copies the marshalled envelope to the writer, and writes the content when the container-element is reached
+     *
+     * @return true if the container-element was found
+     */
+    private boolean writeEnvelope(XMLStreamWriter writer, Node element, boolean root, String containerElement,
+                                  ContentWriter content) throws JAXBException, XMLStreamException {
+        writer.writeStartElement("", element.getLocalName(), SIRI_NAMESPACE);
+        if (root) {
+            writer.writeDefaultNamespace(SIRI_NAMESPACE);
+        }
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                writer.writeAttribute(attribute.getLocalName(), attribute.getValue());
+            }
+        }
+
+        boolean written = false;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                written |= writeEnvelope(writer, child, false, containerElement, content);
+            } else if (child.getNodeType() == Node.TEXT_NODE) {
+                writer.writeCharacters(child.getNodeValue());
+            }
+        }
+        if (!written && containerElement.equals(element.getLocalName())) {
+            content.write();
+            written = true;
+        }
+        writer.writeEndElement();
+        return written;
+    }
+
+    private static String getFileName(SiriDataType dataType) {
+        return switch (dataType) {
+            case ESTIMATED_TIMETABLE -> "ET.xml";
+            case SITUATION_EXCHANGE -> "SX.xml";
+            case VEHICLE_MONITORING -> "VM.xml";
+            default -> dataType.name() + ".xml";
+        };
+    }
+
+    @FunctionalInterface
+    private interface ContentWriter {
+        void write() throws JAXBException, XMLStreamException;
+    }
+}
@@ -15,9 +15,15 @@
 
 package no.rutebanken.anshar.routes.health;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hazelcast.core.HazelcastInstanceNotActiveException;
+import com.hazelcast.map.EntryProcessor;
 import com.hazelcast.map.IMap;
+import no.rutebanken.anshar.data.collections.CounterEntryProcessors;
 import no.rutebanken.anshar.data.collections.HealthCheckKey;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.routes.siri.transformer.ApplicationContextHolder;
+import no.rutebanken.anshar.routes.siri.transformer.MappingNames;
 import no.rutebanken.anshar.subscription.SiriDataType;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -30,11 +36,19 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @SuppressWarnings("unchecked")
 @Service
@@ -57,6 +71,41 @@ public class HealthManager {
     @Value("${anshar.healthcheck.interval.seconds}")
     private int healthCheckInterval = 30;
 
+    @Value("${anshar.health.flush.interval.millis:1000}")
+    private long flushInterval = 1000;
+
+    /*
+     * Node-local changes to unmapped ids, applied to the shared map in batches:
+     * datasetId -> type -> id -> true if unmapped, false if since mapped
+     */
+    private final ConcurrentMap<String, ConcurrentMap<SiriDataType, ConcurrentMap<String, Boolean>>> pendingUnmappedIds = new ConcurrentHashMap<>();
+
+    // Node-local counts of data mappings, registered as metrics in batches
+    private final ConcurrentMap<DataMappingKey, LongAdder> pendingDataMappings = new ConcurrentHashMap<>();
+
+    private PrometheusMetricsService metricsService;
+
+    // Last time data was received on this node, and the value last written to the shared map
+    private volatile Instant lastDataReceived;
+    private Instant flushedDataReceived;
+
+    private ScheduledExecutorService flushExecutor;
+
+    @PostConstruct
+    void startFlushing() {
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("health-flush-%d").setDaemon(true).build());
+        flushExecutor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stopFlushing() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+        }
+        flush();
+    }
+
     public boolean isHazelcastAlive() {
         try {
             healthCheckMap.set(HealthCheckKey.NODE_LIVENESS_CHECK, Instant.now());
@@ -75,13 +124,25 @@ public class HealthManager {
         return healthCheckMap.get(HealthCheckKey.SERVER_START_TIME);
     }
 
+    /**
+     * Registers incoming data - kept locally, and written to the shared map in the next batch
+     */
     public void dataReceived() {
-        healthCheckMap.set(HealthCheckKey.HEALTH_CHECK_INCOMING_DATA, Instant.now());
+        lastDataReceived = Instant.now();
+    }
+
+    private Instant getLastDataReceived() {
+        Instant local = lastDataReceived;
+        Instant shared = healthCheckMap.get(HealthCheckKey.HEALTH_CHECK_INCOMING_DATA);
+        if (local == null || (shared != null && shared.isAfter(local))) {
+            return shared;
+        }
+        return local;
     }
 
 
     public boolean isReceivingData() {
-        Instant lastReceivedData = healthCheckMap.get(HealthCheckKey.HEALTH_CHECK_INCOMING_DATA);
+        Instant lastReceivedData = getLastDataReceived();
         if (lastReceivedData != null) {
             long lastReceivedMillis = lastReceivedData.toEpochMilli();
 
@@ -95,7 +156,7 @@ public class HealthManager {
     }
 
     public long getSecondsSinceDataReceived() {
-        Instant lastReceivedData = healthCheckMap.get(HealthCheckKey.HEALTH_CHECK_INCOMING_DATA);
+        Instant lastReceivedData = getLastDataReceived();
         if (lastReceivedData != null) {
             long lastReceivedMillis = lastReceivedData.toEpochMilli();
 
@@ -105,10 +166,12 @@ public class HealthManager {
     }
 
     public Map<SiriDataType, Set<String>> getUnmappedIds(String datasetId) {
+        flushUnmappedIds(datasetId);
         return unmappedIds.getOrDefault(datasetId, new HashMap<>());
     }
 
     public Map<SiriDataType, Set<String>> clearUnmappedIds(String datasetId) {
+        pendingUnmappedIds.remove(datasetId);
         return unmappedIds.remove(datasetId);
     }
 
@@ -140,23 +203,132 @@ public class HealthManager {
         return result;
     }
 
+    /**
+     * Registers id as unmapped - kept locally, and applied to the shared map in the next batch
+     */
     public void addUnmappedId(SiriDataType type, String datasetId, String id) {
-        Map<SiriDataType, Set<String>> unmappedIds = getUnmappedIds(datasetId);
+        pendingChanges(datasetId, type).put(id, Boolean.TRUE);
+    }
 
-        Set<String> ids = unmappedIds.getOrDefault(type, new HashSet<>());
-        ids.add(id);
-        unmappedIds.put(type, ids);
+    /**
+     * Registers previously unmapped id as mapped - kept locally, and applied to the shared map in the next batch
+     */
+    public void removeUnmappedId(SiriDataType type, String datasetId, String id) {
+        pendingChanges(datasetId, type).put(id, Boolean.FALSE);
+    }
 
-        this.unmappedIds.set(datasetId, unmappedIds);
+    /**
+     * Counts a data mapping - counts are aggregated locally, and registered as metrics in the next batch
+     */
+    public void registerDataMapping(SiriDataType type, String datasetId, MappingNames mappingName) {
+        pendingDataMappings.computeIfAbsent(new DataMappingKey(type, datasetId, mappingName), k -> new LongAdder()).increment();
     }
 
-    public void removeUnmappedId(SiriDataType type, String datasetId, String id) {
-        Map<SiriDataType, Set<String>> unmappedIds = getUnmappedIds(datasetId);
+    private ConcurrentMap<String, Boolean> pendingChanges(String datasetId, SiriDataType type) {
+        return pendingUnmappedIds
+                .computeIfAbsent(datasetId, d -> new ConcurrentHashMap<>())
+                .computeIfAbsent(type, t -> new ConcurrentHashMap<>());
+    }
+
+    synchronized void flush() {
+        try {
+            for (String datasetId : pendingUnmappedIds.keySet()) {
+                flushUnmappedIds(datasetId);
+            }
+            flushDataMappings();
+            flushDataReceived();
+        } catch (RuntimeException e) {
+            logger.warn("Flushing health data failed - will retry", e);
+        }
+    }
 
-        Set<String> ids = unmappedIds.getOrDefault(type, new HashSet<>());
-        ids.remove(id);
-        unmappedIds.put(type, ids);
+    /**
+     * Applies all local changes for the dataset atomically, with a single entry processor
+     */
+    private synchronized void flushUnmappedIds(String datasetId) {
+        ConcurrentMap<SiriDataType, ConcurrentMap<String, Boolean>> pending = pendingUnmappedIds.get(datasetId);
+        if (pending == null || pending.values().stream().allMatch(Map::isEmpty)) {
+            return;
+        }
+
+        Map<SiriDataType, Map<String, Boolean>> changes = new HashMap<>();
+        for (Map.Entry<SiriDataType, ConcurrentMap<String, Boolean>> entry : pending.entrySet()) {
+            Map<String, Boolean> typeChanges = new HashMap<>();
+            for (String id : entry.getValue().keySet()) {
+                Boolean unmapped = entry.getValue().remove(id);
+                if (unmapped != null) {
+                    typeChanges.put(id, unmapped);
+                }
+            }
+            if (!typeChanges.isEmpty()) {
+                changes.put(entry.getKey(), typeChanges);
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        try {
+            unmappedIds.executeOnKey(datasetId, new UnmappedIdsUpdate(changes));
+        } catch (RuntimeException e) {
+            // Put changes back unless newer changes have been registered meanwhile
+            changes.forEach((type, typeChanges) -> typeChanges.forEach(pendingChanges(datasetId, type)::putIfAbsent));
+            throw e;
+        }
+    }
+
+    private void flushDataReceived() {
+        Instant dataReceived = lastDataReceived;
+        if (dataReceived != null && !dataReceived.equals(flushedDataReceived)) {
+            healthCheckMap.executeOnKey(HealthCheckKey.HEALTH_CHECK_INCOMING_DATA, CounterEntryProcessors.latest(dataReceived));
+            flushedDataReceived = dataReceived;
+        }
+    }
+
+    private void flushDataMappings() {
+        if (pendingDataMappings.isEmpty()) {
+            return;
+        }
+        if (metricsService == null) {
+            metricsService = ApplicationContextHolder.getContext().getBean(PrometheusMetricsService.class);
+        }
+        pendingDataMappings.forEach((key, count) -> {
+            long mappedCount = count.sumThenReset();
+            if (mappedCount > 0) {
+                metricsService.registerDataMapping(key.type(), key.datasetId(), key.mappingName(), (int) mappedCount);
+            }
+        });
+    }
+
+    /**
+     * Adds/removes unmapped ids on the member owning the dataset - so concurrent flushes from other nodes are not lost
+     */
+    private static class UnmappedIdsUpdate implements EntryProcessor<String, Map<SiriDataType, Set<String>>, Void> {
+        private final Map<SiriDataType, Map<String, Boolean>> changes;
+
+        private UnmappedIdsUpdate(Map<SiriDataType, Map<String, Boolean>> changes) {
+            this.changes = changes;
+        }
+
+        @Override
+        public Void process(Map.Entry<String, Map<SiriDataType, Set<String>>> entry) {
+            Map<SiriDataType, Set<String>> datasetUnmappedIds = entry.getValue() != null ? new HashMap<>(entry.getValue()) : new HashMap<>();
+            changes.forEach((type, typeChanges) -> {
+                Set<String> ids = new HashSet<>(datasetUnmappedIds.getOrDefault(type, Set.of()));
+                typeChanges.forEach((id, unmapped) -> {
+                    if (unmapped) {
+                        ids.add(id);
+                    } else {
+                        ids.remove(id);
+                    }
+                });
+                datasetUnmappedIds.put(type, ids);
+            });
+            entry.setValue(datasetUnmappedIds);
+            return null;
+        }
+    }
 
-        this.unmappedIds.set(datasetId, unmappedIds);
+    private record DataMappingKey(SiriDataType type, String datasetId, MappingNames mappingName) {
     }
 }
@@ -1,9 +1,11 @@
 package no.rutebanken.anshar.routes.kafka;
 
 import no.rutebanken.anshar.config.AnsharConfiguration;
+import org.entur.siri21.util.SiriXml;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import uk.org.siri.siri21.Siri;
 
 import java.util.Map;
 
@@ -40,6 +42,13 @@ public class KafkaEnrichmentRoute extends KafkaConfig {
                     .to("log:kafka-producer:" + getClass().getSimpleName() + "?showAll=true&multiline=true")
                     .setHeader("topic", simple(kafkaEnrichEtTopic))
                     .removeHeader(INTERNAL_PUBLISH_TO_KAFKA_FOR_APC_ENRICHMENT)
+                    .process(p -> {
+                        // Enrichment-topic expects XML
+                        Object body = p.getIn().getBody();
+                        if (body instanceof Siri) {
+                            p.getIn().setBody(SiriXml.toXml((Siri) body));
+                        }
+                    })
                     .to("xslt-saxon:xsl/split.xsl")
                     .split().tokenizeXML("Siri").streaming()
                     .to(kafkaProducerConfig)
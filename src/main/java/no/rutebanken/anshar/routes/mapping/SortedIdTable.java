@@ -0,0 +1,223 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.mapping;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable, sorted table of ids - optionally with a mapped value per id.
+ *
+ * Ids are stored as UTF-8 in a single byte-array, sorted by code point, and looked up by binary search directly
+ * against the bytes - lookups do not allocate. Mapped values are dictionary-encoded, so each distinct value is
+ * stored once no matter how many ids map to it.
+ */
+public final class SortedIdTable {
+
+    public static final SortedIdTable EMPTY = builder().build();
+
+    private final byte[] ids;
+    private final int[] offsets;
+    private final String[] dictionary;
+    private final int[] values;
+
+    private SortedIdTable(byte[] ids, int[] offsets, String[] dictionary, int[] values) {
+        this.ids = ids;
+        this.offsets = offsets;
+        this.dictionary = dictionary;
+        this.values = values;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean contains(String id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * @return Value mapped for the given id, or null if id is unknown or has no value
+     */
+    public String get(String id) {
+        int index = indexOf(id);
+        return index >= 0 ? valueAt(index) : null;
+    }
+
+    private String valueAt(int index) {
+        if (values == null || values[index] < 0) {
+            return null;
+        }
+        return dictionary[values[index]];
+    }
+
+    private int indexOf(String id) {
+        if (id == null) {
+            return -1;
+        }
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compare(offsets[mid], offsets[mid + 1], id);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the UTF-8 encoded id in ids[start, end) with the given id, by code point
+     */
+    private int compare(int start, int end, String id) {
+        int position = start;
+        int index = 0;
+        int length = id.length();
+        while (position < end && index < length) {
+            int codePoint;
+            int b = ids[position] & 0xFF;
+            if (b < 0x80) {
+                codePoint = b;
+                position++;
+            } else if (b < 0xE0) {
+                codePoint = ((b & 0x1F) << 6) | (ids[position + 1] & 0x3F);
+                position += 2;
+            } else if (b < 0xF0) {
+                codePoint = ((b & 0x0F) << 12) | ((ids[position + 1] & 0x3F) << 6) | (ids[position + 2] & 0x3F);
+                position += 3;
+            } else {
+                codePoint = ((b & 0x07) << 18) | ((ids[position + 1] & 0x3F) << 12) | ((ids[position + 2] & 0x3F) << 6) | (ids[position + 3] & 0x3F);
+                position += 4;
+            }
+            int other = id.codePointAt(index);
+            if (codePoint != other) {
+                return codePoint < other ? -1 : 1;
+            }
+            index += Character.charCount(other);
+        }
+        if (position < end) {
+            return 1;
+        }
+        return index < length ? -1 : 0;
+    }
+
+    private static int compareCodePoints(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return ca < cb ? -1 : 1;
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    /**
+     * Collects ids while streaming the source data - adding the same id again replaces its value.
+     */
+    public static final class Builder {
+
+        private final Map<String, String> entries = new HashMap<>();
+        private final Map<String, String> distinctValues = new HashMap<>();
+        private boolean hasValues;
+
+        private Builder() {
+        }
+
+        public Builder add(String id) {
+            entries.putIfAbsent(id, null);
+            return this;
+        }
+
+        public Builder put(String id, String value) {
+            if (value != null) {
+                hasValues = true;
+                // Values are typically shared by many ids
+                value = distinctValues.computeIfAbsent(value, v -> v);
+            }
+            entries.put(id, value);
+            return this;
+        }
+
+        public Builder putAll(SortedIdTable table) {
+            for (int i = 0; i < table.size(); i++) {
+                String id = new String(table.ids, table.offsets[i], table.offsets[i + 1] - table.offsets[i], StandardCharsets.UTF_8);
+                String value = table.valueAt(i);
+                if (value != null) {
+                    put(id, value);
+                } else {
+                    add(id);
+                }
+            }
+            return this;
+        }
+
+        public Builder putAll(Map<String, String> mappings) {
+            mappings.forEach(this::put);
+            return this;
+        }
+
+        public int size() {
+            return entries.size();
+        }
+
+        public SortedIdTable build() {
+            String[] sortedIds = entries.keySet().toArray(new String[0]);
+            Arrays.sort(sortedIds, SortedIdTable::compareCodePoints);
+
+            String[] dictionary = distinctValues.keySet().toArray(new String[0]);
+            Arrays.sort(dictionary, Comparator.naturalOrder());
+            Map<String, Integer> dictionaryIndex = new HashMap<>();
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionaryIndex.put(dictionary[i], i);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int[] offsets = new int[sortedIds.length + 1];
+            int[] values = hasValues ? new int[sortedIds.length] : null;
+            for (int i = 0; i < sortedIds.length; i++) {
+                bytes.writeBytes(sortedIds[i].getBytes(StandardCharsets.UTF_8));
+                offsets[i + 1] = bytes.size();
+                if (values != null) {
+                    String value = entries.get(sortedIds[i]);
+                    values[i] = value != null ? dictionaryIndex.get(value) : -1;
+                }
+            }
+            return new SortedIdTable(bytes.toByteArray(), offsets, dictionary, values);
+        }
+    }
+}
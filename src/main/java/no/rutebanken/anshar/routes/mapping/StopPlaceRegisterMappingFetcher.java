@@ -15,7 +15,9 @@
 
 package no.rutebanken.anshar.routes.mapping;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import no.rutebanken.anshar.routes.export.file.BlobStoreService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,11 +28,12 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 @Service
 public class StopPlaceRegisterMappingFetcher {
@@ -40,52 +43,99 @@ public class StopPlaceRegisterMappingFetcher {
     @Autowired
     BlobStoreService blobStoreService;
 
-    public Map<String, Collection<String>> fetchStopPlaceQuayJson(String name) {
+    /**
+     * Streams the StopPlace/Quay-json ({"stopPlaceId": ["quayId", ...], ...}) and adds all ids to the builder
+     *
+     * @return number of ids added
+     */
+    public int fetchStopPlaceQuayIds(String name, SortedIdTable.Builder builder) {
+        int stopsCounter = 0;
+        int quayCounter = 0;
         if (name != null && !name.isEmpty()) {
             final InputStream json = blobStoreService.getBlob(name);
-
-            ObjectMapper mapper = new ObjectMapper();
-            try {
-                return mapper.readValue(json, HashMap.class);
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (json != null) {
+                try (JsonParser parser = new JsonFactory().createParser(json)) {
+                    if (parser.nextToken() == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            // Add StopPlace-id
+                            builder.add(parser.getCurrentName());
+                            stopsCounter++;
+
+                            //Add quay-ids
+                            if (parser.nextToken() == JsonToken.START_ARRAY) {
+                                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                                    builder.add(parser.getText());
+                                    quayCounter++;
+                                }
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.error("Could not parse StopPlace/Quay-data from {}", name, e);
+                    return 0;
+                }
             }
         }
-        return new HashMap<>();
+        logger.info("Fetched stops and quay data - {} stops, {} quays", stopsCounter, quayCounter);
+        return stopsCounter + quayCounter;
     }
 
     public Map<String, String> fetchStopPlaceMapping(String name) {
-
         Map<String, String> stopPlaceMappings = new HashMap<>();
+        readStopPlaceMapping(name, stopPlaceMappings::containsKey, stopPlaceMappings::put);
+        return stopPlaceMappings;
+    }
+
+    /**
+     * Streams the mapping-file (one "id,generatedId" per line) into the builder
+     *
+     * @return number of mappings read
+     */
+    public int fetchStopPlaceMapping(String name, SortedIdTable.Builder builder) {
+        Set<String> ids = new HashSet<>();
+        return readStopPlaceMapping(name, id -> !ids.add(id), builder::put);
+    }
+
+    private int readStopPlaceMapping(String name, Predicate<String> isDuplicate, BiConsumer<String, String> consumer) {
         if (name != null && !name.isEmpty()) {
 
             long t1 = System.currentTimeMillis();
 
-            AtomicInteger duplicates = new AtomicInteger(0);
-
             final InputStream blob = blobStoreService.getBlob(name);
 
             if (blob != null) {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(blob));
-
-                reader.lines().forEach(line -> {
-                    StringTokenizer tokenizer = new StringTokenizer(line, ",");
-                    String id = tokenizer.nextToken();
-                    String generatedId = tokenizer.nextToken();
-
-                    if (stopPlaceMappings.containsKey(id)) {
-                        duplicates.incrementAndGet();
+                int mappings = 0;
+                int duplicates = 0;
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(blob))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int separator = line.indexOf(',');
+                        if (separator < 0) {
+                            continue;
+                        }
+                        int end = line.indexOf(',', separator + 1);
+                        String id = line.substring(0, separator);
+                        String generatedId = line.substring(separator + 1, end < 0 ? line.length() : end);
+
+                        if (isDuplicate.test(id)) {
+                            duplicates++;
+                        }
+                        consumer.accept(id, generatedId);
+                        mappings++;
                     }
-                    stopPlaceMappings.put(id, generatedId);
-                });
+                } catch (IOException e) {
+                    logger.error("Could not read mapping data from {}", name, e);
+                }
 
                 long t2 = System.currentTimeMillis();
 
-                logger.info("Fetched mapping data - {} mappings, found {} duplicates. [fetched:{}ms]", stopPlaceMappings.size(), duplicates.get(), (t2 - t1));
-                return stopPlaceMappings;
+                logger.info("Fetched mapping data - {} mappings, found {} duplicates. [fetched:{}ms]", mappings, duplicates, (t2 - t1));
+                return mappings;
             }
         }
         logger.error("Filename is null or empty. Not possible to fetch mapping-file from GCS: {}", name);
-        return stopPlaceMappings;
+        return 0;
     }
 }
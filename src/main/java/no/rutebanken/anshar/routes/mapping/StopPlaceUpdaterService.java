@@ -24,11 +24,7 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -41,9 +37,10 @@ public class StopPlaceUpdaterService {
 
     private static final Object LOCK = new Object();
 
-    private transient final ConcurrentMap<String, String> stopPlaceMappings = new ConcurrentHashMap<>();
+    // Immutable tables - replaced as a whole on every update
+    private transient volatile SortedIdTable stopPlaceMappings = SortedIdTable.EMPTY;
 
-    private transient final Set<String> validNsrIds = new HashSet<>();
+    private transient volatile SortedIdTable validNsrIds = SortedIdTable.EMPTY;
 
     @Autowired
     private StopPlaceRegisterMappingFetcher stopPlaceRegisterMappingFetcher;
@@ -68,7 +65,8 @@ public class StopPlaceUpdaterService {
     private boolean loadMappingData;
 
     public String get(String id) {
-        if (stopPlaceMappings.isEmpty()) {
+        SortedIdTable mappings = stopPlaceMappings;
+        if (mappings.isEmpty()) {
             // Avoid multiple calls at the same time.
             // Could have used a timed lock here.
             synchronized (LOCK) {
@@ -76,9 +74,10 @@ public class StopPlaceUpdaterService {
                 if (stopPlaceMappings.isEmpty()) {
                     updateIdMapping();
                 }
+                mappings = stopPlaceMappings;
             }
         }
-        return stopPlaceMappings.get(id);
+        return mappings.get(id);
     }
 
     /**
@@ -87,7 +86,8 @@ public class StopPlaceUpdaterService {
      * @return
      */
     public boolean isKnownId(String id) {
-        return validNsrIds.isEmpty() || validNsrIds.contains(id);
+        SortedIdTable ids = validNsrIds;
+        return ids.isEmpty() || ids.contains(id);
     }
 
     @PostConstruct
@@ -112,39 +112,29 @@ public class StopPlaceUpdaterService {
         if (loadMappingData) {
             // re-entrant
             synchronized (LOCK) {
-                updateStopPlaceMapping(quayMappingPath);
-                updateStopPlaceMapping(stopPlaceMappingPath);
+                updateStopPlaceMapping(quayMappingPath, stopPlaceMappingPath);
                 updateStopPlacesAndQuays(stopPlaceQuayJsonPath);
             }
         }
     }
 
-    private void updateStopPlaceMapping(String mappingUrl) {
-        logger.info("Fetching mapping data - start. Fetching mapping-data from {}", mappingUrl);
-
-        stopPlaceMappings.putAll(stopPlaceRegisterMappingFetcher.fetchStopPlaceMapping(mappingUrl));
-        logger.info("Fetching mapping data - done.");
+    private void updateStopPlaceMapping(String... mappingUrls) {
+        // Previously fetched mappings are kept, updated values replace them
+        SortedIdTable.Builder builder = SortedIdTable.builder().putAll(stopPlaceMappings);
+        for (String mappingUrl : mappingUrls) {
+            logger.info("Fetching mapping data - start. Fetching mapping-data from {}", mappingUrl);
+            stopPlaceRegisterMappingFetcher.fetchStopPlaceMapping(mappingUrl, builder);
+            logger.info("Fetching mapping data - done.");
+        }
+        stopPlaceMappings = builder.build();
     }
 
     private void updateStopPlacesAndQuays(String url) {
         logger.info("Fetching stops and quay data - start. Fetching mapping-data from {}", url);
-        final Map<String, Collection<String>> stopQuayMap = stopPlaceRegisterMappingFetcher.fetchStopPlaceQuayJson(url);
-        if (!stopQuayMap.isEmpty()) {
-            validNsrIds.clear();
-
-            int stopsCounter = stopQuayMap.size();
-            int quayCounter = 0;
-            for (String s : stopQuayMap.keySet()) {
-                // Add StopPlace-id
-                validNsrIds.add(s);
-
-                //Add quay-ids
-                final Collection<String> quayIds = stopQuayMap.get(s);
-                quayCounter += quayIds.size();
-                validNsrIds.addAll(quayIds);
-            }
-
-            logger.info("Fetching stops and quay data - done. Found {} stops, {} quays", stopsCounter, quayCounter);
+        SortedIdTable.Builder builder = SortedIdTable.builder();
+        if (stopPlaceRegisterMappingFetcher.fetchStopPlaceQuayIds(url, builder) > 0) {
+            validNsrIds = builder.build();
+            logger.info("Fetching stops and quay data - done. Found {} ids", validNsrIds.size());
         } else {
             logger.info("Fetching stops and quay data - done. No stops found");
         }
@@ -153,11 +143,17 @@ public class StopPlaceUpdaterService {
 
     //Called from tests
     public void addStopPlaceMappings(Map<String, String> stopPlaceMap) {
-        this.stopPlaceMappings.putAll(stopPlaceMap);
+        synchronized (LOCK) {
+            stopPlaceMappings = SortedIdTable.builder().putAll(stopPlaceMappings).putAll(stopPlaceMap).build();
+        }
     }
 
     //Called from tests
     public void addStopQuays(Collection<String> stopQuays) {
-        this.validNsrIds.addAll(stopQuays);
+        synchronized (LOCK) {
+            SortedIdTable.Builder builder = SortedIdTable.builder().putAll(validNsrIds);
+            stopQuays.forEach(builder::add);
+            validNsrIds = builder.build();
+        }
     }
 }
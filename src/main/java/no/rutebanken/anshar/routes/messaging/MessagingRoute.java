@@ -1,11 +1,14 @@
 package no.rutebanken.anshar.routes.messaging;
 
 import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.metrics.PipelineStage;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.CamelRouteNames;
 import no.rutebanken.anshar.routes.RestRouteBuilder;
 import no.rutebanken.anshar.routes.admin.AdminRouteHelper;
+import no.rutebanken.anshar.routes.protobuf.ProtobufConverterRoute;
 import no.rutebanken.anshar.routes.siri.handlers.SiriHandler;
+import no.rutebanken.anshar.routes.siri.helpers.SiriPayloadHelper;
 import no.rutebanken.anshar.routes.siri.transformer.SiriValueTransformer;
 import no.rutebanken.anshar.routes.validation.SiriXmlValidator;
 import no.rutebanken.anshar.subscription.SiriDataType;
@@ -14,6 +17,7 @@ import no.rutebanken.anshar.subscription.SubscriptionSetup;
 import org.apache.camel.Exchange;
 import org.apache.camel.Predicate;
 import org.apache.camel.Processor;
+import org.apache.camel.builder.PredicateBuilder;
 import org.apache.camel.component.google.pubsub.GooglePubsubConstants;
 import org.apache.camel.util.CaseInsensitiveMap;
 import org.entur.siri21.util.SiriXml;
@@ -26,6 +30,7 @@ import java.util.Map;
 
 import static no.rutebanken.anshar.routes.HttpParameter.INTERNAL_PUBLISH_TO_KAFKA_FOR_APC_ENRICHMENT;
 import static no.rutebanken.anshar.routes.HttpParameter.INTERNAL_SIRI_DATA_TYPE;
+import static no.rutebanken.anshar.routes.HttpParameter.INTERNAL_SIRI_PAYLOAD_SIZE;
 import static no.rutebanken.anshar.routes.HttpParameter.PARAM_SUBSCRIPTION_ID;
 import static no.rutebanken.anshar.routes.HttpParameter.PARAM_USE_ORIGINAL_ID;
 import static no.rutebanken.anshar.routes.siri.Siri20RequestHandlerRoute.TRANSFORM_SOAP;
@@ -115,7 +120,7 @@ public class MessagingRoute extends RestRouteBuilder {
                         .end()
                     .end()
                 .end()
-                .removeHeaders("*", "subscriptionId", "breadcrumbId", "target_topic", "correlationId")
+                .removeHeaders("*", "subscriptionId", "breadcrumbId", "target_topic", "correlationId", INTERNAL_SIRI_PAYLOAD_SIZE)
                 .process(p -> {
                     p.getMessage().setHeader(INTERNAL_PUBLISH_TO_KAFKA_FOR_APC_ENRICHMENT, enrichSiriData(p));
                 })
@@ -138,11 +143,35 @@ public class MessagingRoute extends RestRouteBuilder {
                     .endChoice()
                     .otherwise()
                         .log("Sending split data to topic ${header.target_topic}")
-                        .to("xslt-saxon:xsl/split.xsl")
-                        .split().tokenizeXML("Siri").streaming()
-                        .to("direct:compress.jaxb")
-                        .toD("${header.target_topic}")
+                        .to("direct:split.siri")
+                    .end()
+            ;
+
+            from("direct:split.siri")
+                    .choice()
+                        .when(body().isInstanceOf(Siri.class))
+                            .split(method(SiriPayloadHelper.class, "splitServiceDelivery"))
+                                .process(p -> {
+                                    // Distribute size of original payload to keep statistics comparable
+                                    Integer payloadSize = p.getIn().getHeader(INTERNAL_SIRI_PAYLOAD_SIZE, Integer.class);
+                                    Integer splitSize = p.getProperty(Exchange.SPLIT_SIZE, Integer.class);
+                                    if (payloadSize != null && splitSize != null && splitSize > 0) {
+                                        p.getIn().setHeader(INTERNAL_SIRI_PAYLOAD_SIZE, payloadSize / splitSize);
+                                    }
+                                })
+                                .to("direct:compress.jaxb")
+                                .toD("${header.target_topic}")
+                            .end()
+                        .endChoice()
+                        .otherwise()
+                            .to("xslt-saxon:xsl/split.xsl")
+                            .split().tokenizeXML("Siri").streaming()
+                                .to("direct:compress.jaxb")
+                                .toD("${header.target_topic}")
+                            .end()
+                        .endChoice()
                     .end()
+                    .routeId("incoming.split.siri")
             ;
         } else {
 
@@ -161,22 +190,32 @@ public class MessagingRoute extends RestRouteBuilder {
             ;
         }
 
+        // Payload is already plain SIRI 2.x - neither SOAP- nor version-transformation is needed
+        Predicate isSiri20Payload = exchange -> SiriPayloadHelper.isSiri20Payload(exchange.getIn().getBody(String.class));
+
         from("direct:transform.siri")
                 .to("direct:set.mdc.subscriptionId")
                 .choice()
-                    .when(header(TRANSFORM_SOAP).isEqualTo(simple(TRANSFORM_SOAP)))
+                    .when(PredicateBuilder.and(header(TRANSFORM_SOAP).isEqualTo(simple(TRANSFORM_SOAP)), PredicateBuilder.not(isSiri20Payload)))
                     .log("Transforming SOAP")
+                    .process(p -> startPipelineStage(p))
                     .to("xslt-saxon:xsl/siri_soap_raw.xsl?allowStAX=false&resultHandlerFactory=#streamResultHandlerFactory") // Extract SOAP version and convert to raw SIRI
                 .endChoice()
                 .end()
                 .choice()
-                    .when(header(TRANSFORM_VERSION).isEqualTo(simple(TRANSFORM_VERSION)))
+                    .when(PredicateBuilder.and(header(TRANSFORM_VERSION).isEqualTo(simple(TRANSFORM_VERSION)), PredicateBuilder.not(isSiri20Payload)))
                     .log("Transforming version")
+                    .process(p -> startPipelineStage(p))
                     .to("xslt-saxon:xsl/siri_14_20.xsl?allowStAX=false&resultHandlerFactory=#streamResultHandlerFactory") // Convert from v1.4 to 2.0
                 .endChoice()
                 .end()
+                .process(p -> recordPipelineStage(p, PipelineStage.XSLT, metrics, subscriptionManager.get(p.getIn().getHeader("subscriptionId", String.class))))
                 .to("direct:process.mapping")
-                .to("direct:format.xml")
+                .choice()
+                    .when(body().isInstanceOf(String.class))
+                    .to("direct:format.xml")
+                .endChoice()
+                .end()
                 .to("direct:clear.mdc.subscriptionId")
         ;
 
@@ -184,13 +223,28 @@ public class MessagingRoute extends RestRouteBuilder {
         from("direct:process.mapping")
                 .to("direct:set.mdc.subscriptionId")
                 .process(p -> {
-                    SubscriptionSetup subscriptionSetup = subscriptionManager.get(p.getIn().getHeader("subscriptionId", String.class));
-                    Siri originalInput = siriXmlValidator.parseXml(subscriptionSetup, p.getIn().getBody(String.class));
+                    String subscriptionId = p.getIn().getHeader("subscriptionId", String.class);
+                    SubscriptionSetup subscriptionSetup = subscriptionManager.get(subscriptionId);
+                    String xml = p.getIn().getBody(String.class);
+                    if (configuration.isSingleParseIngest()) {
+                        // Encoding-errors are otherwise fixed when the XML is put on the queue
+                        xml = ProtobufConverterRoute.fixEncodingErrorsInXml(xml, subscriptionId);
+                    }
+                    long t1 = System.nanoTime();
+                    Siri originalInput = siriXmlValidator.parseXml(subscriptionSetup, xml);
+                    metrics.recordPipelineStage(PipelineStage.PARSE, subscriptionSetup.getSubscriptionType(), subscriptionSetup.getDatasetId(), System.nanoTime() - t1);
 
-                    Siri incoming = SiriValueTransformer.transform(originalInput, subscriptionSetup.getMappingAdapters(), false, true);
+                    Siri incoming = SiriValueTransformer.transform(originalInput, subscriptionSetup.getMappingAdapters(), false, true,
+                            (stage, nanos) -> metrics.recordPipelineStage(stage, subscriptionSetup.getSubscriptionType(), subscriptionSetup.getDatasetId(), nanos));
 
                     p.getMessage().setHeaders(p.getIn().getHeaders());
-                    p.getMessage().setBody(SiriXml.toXml(incoming));
+                    if (configuration.isSingleParseIngest() && incoming != null && incoming.getServiceDelivery() != null) {
+                        // Deliveries are put on the queue as parsed objects - other messages are still routed as XML
+                        p.getMessage().setHeader(INTERNAL_SIRI_PAYLOAD_SIZE, xml.length());
+                        p.getMessage().setBody(incoming);
+                    } else {
+                        p.getMessage().setBody(SiriXml.toXml(incoming));
+                    }
                 })
                 .to("direct:clear.mdc.subscriptionId")
         ;
@@ -258,6 +312,14 @@ public class MessagingRoute extends RestRouteBuilder {
                     String subscriptionId = p.getIn().getHeader("subscriptionId", String.class);
                     String datasetId = null;
 
+                    Object body = p.getIn().getBody();
+                    if (body instanceof Siri) {
+                        // Already parsed and mapped
+                        Integer payloadSize = p.getIn().getHeader(INTERNAL_SIRI_PAYLOAD_SIZE, Integer.class);
+                        handler.handleIncomingSiri(subscriptionId, (Siri) body, payloadSize != null ? payloadSize : 0);
+                        return;
+                    }
+
                     InputStream xml = p.getIn().getBody(InputStream.class);
                     String useOriginalId = p.getIn().getHeader(PARAM_USE_ORIGINAL_ID, String.class);
                     String clientTrackingName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
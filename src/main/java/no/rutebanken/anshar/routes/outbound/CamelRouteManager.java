@@ -15,8 +15,8 @@
 
 package no.rutebanken.anshar.routes.outbound;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import jakarta.xml.bind.JAXBException;
+import no.rutebanken.anshar.metrics.PipelineStage;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.siri.transformer.SiriValueTransformer;
 import no.rutebanken.anshar.subscription.SubscriptionSetup;
@@ -30,32 +30,26 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import uk.org.siri.siri21.EstimatedTimetableDeliveryStructure;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.EstimatedVersionFrameStructure;
 import uk.org.siri.siri21.ServiceDelivery;
 import uk.org.siri.siri21.Siri;
 import uk.org.siri.siri21.SituationExchangeDeliveryStructure;
 import uk.org.siri.siri21.SubscriptionRefStructure;
+import uk.org.siri.siri21.VehicleActivityStructure;
 import uk.org.siri.siri21.VehicleMonitoringDeliveryStructure;
 
-import javax.annotation.PostConstruct;
 import javax.xml.stream.XMLStreamException;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.SocketException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static no.rutebanken.anshar.routes.RestRouteBuilder.downgradeSiriVersion;
 
@@ -75,19 +69,11 @@ public class CamelRouteManager {
     @Value("${anshar.default.max.elements.per.delivery:1000}")
     private int maximumSizePerDelivery;
 
-    @Value("${anshar.default.max.threads.per.outbound.subscription:5}")
-    private int maximumThreadsPerOutboundSubscription;
-
-    private static final HttpClient httpClient = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_1_1)
-            .connectTimeout(Duration.ofSeconds(2))
-            .build();
-
+    @Autowired
+    private OutboundSubscriptionExecutor outboundExecutor;
 
-    @PostConstruct
-    private void initThreadMetrics() {
-        metricsService.registerOutboundThreadFactoryMap(threadFactoryMap);
-    }
+    @Autowired
+    private OutboundPushClient pushClient;
 
     /**
      * Splits SIRI-data if applicable, and pushes data to external subscription
@@ -95,85 +81,220 @@ public class CamelRouteManager {
      * @param subscriptionRequest
      */
     void pushSiriData(Siri payload, OutboundSubscriptionSetup subscriptionRequest, boolean logBody) {
+        pushSiriData(payload, List.of(subscriptionRequest), logBody, true);
+    }
+
+    /**
+     * Pushes the same SIRI-data to multiple subscriptions - subscriptions with identical filter, id-mapping and
+     * SIRI-version share the transformed and serialized payload.
+     * @param payload
+     * @param recipients
+     * @param payloadShared True if the payload is also used elsewhere, and must not be altered by the push
+     */
+    void pushSiriData(Siri payload, List<OutboundSubscriptionSetup> recipients, boolean logBody, boolean payloadShared) {
+        OutboundPayloadCache payloadCache = OutboundPayloadCache.create(recipients, this::getDeliverySize, payloadShared);
+        Set<String> supersedeKeys = resolveSupersedeKeys(payload);
+        for (OutboundSubscriptionSetup recipient : recipients) {
+            pushSiriData(payload, recipient, logBody, payloadCache, supersedeKeys);
+        }
+    }
+
+    private void pushSiriData(Siri payload, OutboundSubscriptionSetup subscriptionRequest, boolean logBody,
+                              OutboundPayloadCache payloadCache, Set<String> supersedeKeys) {
         String consumerAddress = subscriptionRequest.getAddress();
         if (consumerAddress == null) {
             logger.info("ConsumerAddress is null - ignoring data.");
+            completePush(subscriptionRequest, payloadCache);
             return;
         }
         final String breadcrumbId = MDC.get("camel.breadcrumbId");
         final String subscriptionId = subscriptionRequest.getSubscriptionId();
 
-        ExecutorService executorService = getOrCreateExecutorService(subscriptionRequest);
-        executorService.execute(() -> {
+        outboundExecutor.submit(subscriptionRequest,
+                () -> pushToSubscription(payload, subscriptionRequest, logBody, payloadCache, breadcrumbId),
+                () -> completePush(subscriptionRequest, payloadCache),
+                supersedeKeys);
+    }
 
-            try {
-                MDC.put("camel.breadcrumbId", breadcrumbId);
-                MDC.put("subscriptionId", subscriptionId);
-                if (!subscriptionManager.subscriptions.containsKey(subscriptionId)) {
-                    // Short circuit if subscription has been terminated while waiting
-                    return;
-                }
+    /**
+     * Posts all deliveries to the subscription, one at a time
+     *
+     * @return future completed when all deliveries have been posted, or posting failed
+     */
+    private CompletableFuture<Void> pushToSubscription(Siri payload, OutboundSubscriptionSetup subscriptionRequest, boolean logBody,
+                                                       OutboundPayloadCache payloadCache, String breadcrumbId) {
+        final String subscriptionId = subscriptionRequest.getSubscriptionId();
+        try {
+            MDC.put("camel.breadcrumbId", breadcrumbId);
+            MDC.put("subscriptionId", subscriptionId);
+            if (!subscriptionManager.subscriptions.containsKey(subscriptionId)) {
+                // Short circuit if subscription has been terminated while waiting
+                completePush(subscriptionRequest, payloadCache);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            int deliverySize = getDeliverySize(subscriptionRequest);
+
+            OutboundPayloadCache.SplitDeliveries splitDeliveries = payloadCache.getSplitDeliveries(
+                    subscriptionRequest.getFilterMap(),
+                    deliverySize,
+                    () -> {
+                        long t1 = System.nanoTime();
+                        Siri filteredPayload = SiriHelper.filterSiriPayload(payload, subscriptionRequest.getFilterMap());
+                        OutboundPayloadCache.SplitDeliveries split = new OutboundPayloadCache.SplitDeliveries(filteredPayload, siriHelper.splitDeliveries(filteredPayload, deliverySize));
+                        metricsService.recordPipelineStage(PipelineStage.OUTBOUND_FILTER, subscriptionRequest.getSubscriptionType(),
+                                subscriptionRequest.getDatasetId(), System.nanoTime() - t1);
+                        return split;
+                    });
+
+            metricsService.countOutgoingData(splitDeliveries.getFilteredPayload(), SubscriptionSetup.SubscriptionMode.SUBSCRIBE);
 
-                Siri filteredPayload = SiriHelper.filterSiriPayload(payload, subscriptionRequest.getFilterMap());
+            List<Siri> splitSiri = splitDeliveries.getDeliveries();
 
-                metricsService.countOutgoingData(filteredPayload, SubscriptionSetup.SubscriptionMode.SUBSCRIBE);
+            if (splitSiri.size() > 1) {
+                logger.info("Object split into {} deliveries for subscription {}.", splitSiri.size(), subscriptionRequest);
+            }
 
-                int deliverySize = this.maximumSizePerDelivery;
-                if (subscriptionRequest.getDatasetId() != null) {
-                    deliverySize = Integer.MAX_VALUE;
+            CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+            for (int i = 0; i < splitSiri.size(); i++) {
+                final Siri siri = splitSiri.get(i);
+                final int splitIndex = i;
+                result = result
+                        .thenCompose(ignored -> postDataToSubscription(siri, splitIndex, subscriptionRequest, logBody, payloadCache, breadcrumbId))
+                        .thenAccept(responseCode -> withMdc(breadcrumbId, subscriptionId, () -> handleResponseCode(subscriptionRequest, responseCode)));
+            }
+            return result.handle((ignored, throwable) -> {
+                if (throwable != null) {
+                    withMdc(breadcrumbId, subscriptionId, () -> handlePushFailure(subscriptionRequest, throwable));
                 }
+                completePush(subscriptionRequest, payloadCache);
+                return null;
+            });
+        } catch (Exception e) {
+            handlePushFailure(subscriptionRequest, e);
+            completePush(subscriptionRequest, payloadCache);
+            return CompletableFuture.completedFuture(null);
+        } finally {
+            MDC.remove("camel.breadcrumbId");
+            MDC.remove("subscriptionId");
+        }
+    }
+
+    private void handleResponseCode(OutboundSubscriptionSetup subscriptionRequest, int responseCode) {
+        final String subscriptionId = subscriptionRequest.getSubscriptionId();
+        metricsService.markPostToSubscription(subscriptionRequest.getSubscriptionType(),
+                SubscriptionSetup.SubscriptionMode.SUBSCRIBE,
+                subscriptionId,
+                responseCode);
+
+        if (responseCode != 200) {
+            logger.info("Failed to push data for subscription {}: {}", subscriptionRequest, responseCode);
+            subscriptionManager.pushFailedForSubscription(subscriptionId);
+        } else {
+            subscriptionManager.clearFailTracker(subscriptionId);
+        }
+    }
 
-                List<Siri> splitSiri = siriHelper.splitDeliveries(filteredPayload, deliverySize);
+    private void handlePushFailure(OutboundSubscriptionSetup subscriptionRequest, Throwable t) {
+        final String subscriptionId = subscriptionRequest.getSubscriptionId();
+        Throwable e = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        logger.info("Failed to push data for subscription {}: {}", subscriptionRequest, e.toString());
 
-                if (splitSiri.size() > 1) {
-                    logger.info("Object split into {} deliveries for subscription {}.", splitSiri.size(), subscriptionRequest);
+        int statusCode = -1;
+        if (e instanceof SocketException || e.getCause() instanceof SocketException) {
+            logger.info("Recipient is unreachable - ignoring");
+        } else {
+            String msg = e.getMessage();
+            if (e.getCause() != null) {
+                msg = e.getCause().getMessage();
+                if (e.getCause() instanceof HttpOperationFailedException) {
+                    statusCode = ((HttpOperationFailedException) e.getCause()).getStatusCode();
                 }
+            }
+            logger.info("Exception caught when pushing SIRI-data: {}", msg);
+        }
+        subscriptionManager.pushFailedForSubscription(subscriptionId);
 
-                for (Siri siri : splitSiri) {
-                    addSubscriptionRefToServiceDelivery(siri, subscriptionId);
-                    int responseCode = postDataToSubscription(siri, subscriptionRequest, logBody);
+        metricsService.markPostToSubscription(subscriptionRequest.getSubscriptionType(),
+                SubscriptionSetup.SubscriptionMode.SUBSCRIBE,
+                subscriptionId,
+                statusCode);
 
-                    metricsService.markPostToSubscription(subscriptionRequest.getSubscriptionType(),
-                            SubscriptionSetup.SubscriptionMode.SUBSCRIBE,
-                            subscriptionId,
-                            responseCode);
+        removeDeadSubscriptionQueues(subscriptionManager);
+    }
 
-                    if (responseCode != 200) {
-                        logger.info("Failed to push data for subscription {}: {}", subscriptionRequest, responseCode);
-                        subscriptionManager.pushFailedForSubscription(subscriptionId);
-                    } else {
-                        subscriptionManager.clearFailTracker(subscriptionId);
+    /**
+     * Callbacks are invoked by the http-client threads - MDC is set for logging
+     */
+    private static void withMdc(String breadcrumbId, String subscriptionId, Runnable runnable) {
+        try {
+            MDC.put("camel.breadcrumbId", breadcrumbId);
+            MDC.put("subscriptionId", subscriptionId);
+            runnable.run();
+        } finally {
+            MDC.remove("camel.breadcrumbId");
+            MDC.remove("subscriptionId");
+        }
+    }
+
+    /**
+     * Identifies the ET/VM-elements in the payload - a pending push is superseded by a later push containing the
+     * same elements.
+     *
+     * @return keys, or null if payload can not be superseded
+     */
+    static Set<String> resolveSupersedeKeys(Siri payload) {
+        ServiceDelivery serviceDelivery = payload.getServiceDelivery();
+        if (serviceDelivery == null) {
+            return null;
+        }
+        Set<String> keys = new HashSet<>();
+        for (EstimatedTimetableDeliveryStructure delivery : serviceDelivery.getEstimatedTimetableDeliveries()) {
+            for (EstimatedVersionFrameStructure frame : delivery.getEstimatedJourneyVersionFrames()) {
+                for (EstimatedVehicleJourney journey : frame.getEstimatedVehicleJourneies()) {
+                    String key = null;
+                    if (journey.getFramedVehicleJourneyRef() != null && journey.getFramedVehicleJourneyRef().getDataFrameRef() != null) {
+                        key = "ET:" + journey.getFramedVehicleJourneyRef().getDataFrameRef().getValue() + ":" +
+                                journey.getFramedVehicleJourneyRef().getDatedVehicleJourneyRef();
+                    } else if (journey.getDatedVehicleJourneyRef() != null) {
+                        key = "ET:" + journey.getDatedVehicleJourneyRef().getValue();
                     }
-                }
-            } catch (Exception e) {
-                logger.info("Failed to push data for subscription {}: {}", subscriptionRequest, e.toString());
-
-                int statusCode = -1;
-                if (e.getCause() instanceof SocketException) {
-                    logger.info("Recipient is unreachable - ignoring");
-                } else {
-                    String msg = e.getMessage();
-                    if (e.getCause() != null) {
-                        msg = e.getCause().getMessage();
-                        if (e.getCause() instanceof HttpOperationFailedException) {
-                            statusCode = ((HttpOperationFailedException) e.getCause()).getStatusCode();
-                        }
+                    if (key == null) {
+                        return null;
                     }
-                    logger.info("Exception caught when pushing SIRI-data: {}", msg);
+                    keys.add(key);
                 }
-                subscriptionManager.pushFailedForSubscription(subscriptionId);
+            }
+        }
+        for (VehicleMonitoringDeliveryStructure delivery : serviceDelivery.getVehicleMonitoringDeliveries()) {
+            for (VehicleActivityStructure activity : delivery.getVehicleActivities()) {
+                VehicleActivityStructure.MonitoredVehicleJourney journey = activity.getMonitoredVehicleJourney();
+                if (journey == null || journey.getVehicleRef() == null) {
+                    return null;
+                }
+                String key = "VM:" + journey.getVehicleRef().getValue();
+                if (journey.getVehicleJourneyRef() != null) {
+                    key += ":" + journey.getVehicleJourneyRef().getValue();
+                } else if (journey.getFramedVehicleJourneyRef() != null) {
+                    key += ":" + journey.getFramedVehicleJourneyRef().getDatedVehicleJourneyRef();
+                }
+                keys.add(key);
+            }
+        }
+        return keys.isEmpty() ? null : keys;
+    }
 
-                metricsService.markPostToSubscription(subscriptionRequest.getSubscriptionType(),
-                        SubscriptionSetup.SubscriptionMode.SUBSCRIBE,
-                        subscriptionId,
-                        statusCode);
+    private int getDeliverySize(OutboundSubscriptionSetup subscriptionRequest) {
+        if (subscriptionRequest.getDatasetId() != null) {
+            return Integer.MAX_VALUE;
+        }
+        return this.maximumSizePerDelivery;
+    }
 
-                removeDeadSubscriptionExecutors(subscriptionManager);
-            } finally {
-                MDC.remove("camel.breadcrumbId");
-                MDC.remove("subscriptionId");
-            }
-        });
+    private void completePush(OutboundSubscriptionSetup subscriptionRequest, OutboundPayloadCache payloadCache) {
+        if (payloadCache.recipientCompleted()) {
+            metricsService.registerOutboundPayloadCache(subscriptionRequest.getSubscriptionType(), payloadCache.getHits(), payloadCache.getMisses());
+        }
     }
 
     private static void addSubscriptionRefToServiceDelivery(Siri siri, String subscriptionId) {
@@ -205,130 +326,104 @@ public class CamelRouteManager {
         }
     }
 
-    Map<String, ExecutorService> threadFactoryMap = new HashMap<>();
-    private ExecutorService getOrCreateExecutorService(OutboundSubscriptionSetup subscriptionRequest) {
-
-        final String subscriptionId = subscriptionRequest.getSubscriptionId();
-        if (!threadFactoryMap.containsKey(subscriptionId)) {
-            ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat("outbound-"+subscriptionId).build();
-
-            //Specifying RejectedExecutionHandler as DiscardOldestPolicy to avoid blocking the thread
-            ThreadPoolExecutor executor = new ThreadPoolExecutor(
-                    maximumThreadsPerOutboundSubscription,
-                    maximumThreadsPerOutboundSubscription,
-                    0L,
-                    TimeUnit.MILLISECONDS,
-                    new LinkedBlockingQueue<>(),
-                    factory,
-                    new ThreadPoolExecutor.DiscardOldestPolicy()
-            );
-
-            threadFactoryMap.put(subscriptionId, executor);
-        }
-
-        return threadFactoryMap.get(subscriptionId);
-    }
-
-
     /**
-     * Clean up dead ExecutorServices
+     * Clean up queues for terminated subscriptions
      * @param subscriptionManager
      */
-    private void removeDeadSubscriptionExecutors(ServerSubscriptionManager subscriptionManager) {
-        List<String> idsToRemove = new ArrayList<>();
-        for (String id : threadFactoryMap.keySet()) {
+    private void removeDeadSubscriptionQueues(ServerSubscriptionManager subscriptionManager) {
+        for (String id : new ArrayList<>(outboundExecutor.getSubscriptionIds())) {
             if (!subscriptionManager.subscriptions.containsKey(id)) {
-                final ExecutorService service = threadFactoryMap.get(id);
-                idsToRemove.add(id);
-                // Force shutdown since outbound subscription has been stopped
-                if (service != null) {
-                    service.shutdownNow();
-                }
-            }
-        }
-        if (!idsToRemove.isEmpty()) {
-            for (String id : idsToRemove) {
-                logger.info("Remove executor for subscription {}", id);
-                threadFactoryMap.remove(id);
+                outboundExecutor.removeSubscription(id);
             }
         }
     }
 
-    private int postDataToSubscription(Siri payload, OutboundSubscriptionSetup subscription, boolean logBody) {
+    private CompletableFuture<Integer> postDataToSubscription(Siri payload, int splitIndex, OutboundSubscriptionSetup subscription, boolean logBody,
+                                                          OutboundPayloadCache payloadCache, String breadcrumbId) {
 
         if (serviceDeliveryContainsData(payload)) {
             long t1 = System.currentTimeMillis();
             logger.debug("Posting to subscription {}", subscription.getSubscriptionId());
 
-            Siri transformed = SiriValueTransformer.transform(
-                    payload,
-                    subscription.getValueAdapters(),
-                    false,
-                    false);
+            OutboundPayloadCache.RenderedPayload rendered = payloadCache.getRenderedPayload(
+                    subscription,
+                    getDeliverySize(subscription),
+                    splitIndex,
+                    () -> renderPayload(payload, subscription, payloadCache)
+            );
 
-            if (logBody) {
-                try {
-                    logger.info("SIRI Payload: {}", SiriXml.toXml(transformed));
-                } catch (JAXBException e) {
-                    //Ignore
-                }
-            }
+            final byte[] xml = rendered.getXml(subscription.getSubscriptionId());
+            String siriContentType = rendered.getSiriContentType();
 
-            String siriContentType = "data";
-            if (transformed.getServiceDelivery() == null) {
-                siriContentType = "heartbeat";
-            }
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            try {
-                serializeSiriObject(subscription.getSiriVersion(), transformed, out);
-            } catch (Throwable e) {
-                logger.info("Failed to serialize SIRI-xml - retrying once, {}", e.toString());
-                try {
-                    serializeSiriObject(subscription.getSiriVersion(), transformed, out);
-                } catch (Throwable ex) {
-                    logger.warn("Retry failed to serialize SIRI-xml, {}", ex.toString());
-                    throw new RuntimeException(e);
-                }
-                logger.info("Retry succeeded to serialize SIRI-xml");
+            if (logBody) {
+                logger.info("SIRI Payload: {}", new String(xml, StandardCharsets.UTF_8));
             }
 
-            HttpRequest post = HttpRequest.newBuilder()
-                    .uri(URI.create(subscription.getAddress()))
-                    .header("subscriptionId", subscription.getSubscriptionId())
-                    .header("Content-Type", "application/xml")
-                    .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(out.toByteArray())))
-                    .build();
-            int responseCode;
-            try {
-                responseCode = httpClient.send(post, HttpResponse.BodyHandlers.discarding()).statusCode();
-            } catch (Exception e) {
-                logger.info("Failed to post {} to subscription {} - retrying, {}", siriContentType, subscription, e.toString());
-                // Retry once
-                try {
-                    responseCode = httpClient.send(post, HttpResponse.BodyHandlers.discarding()).statusCode();
-                } catch (Exception ex) {
-                    logger.info("Retry failed to post {} to subscription {}, {}", siriContentType, subscription, ex.toString());
-                    throw new RuntimeException(e);
-                }
-            }
+            long postStart = System.nanoTime();
+            return pushClient.post(subscription.getAddress(), subscription.getSubscriptionId(), xml)
+                    // Failed posts are timed as well
+                    .whenComplete((responseCode, throwable) -> metricsService.recordPipelineStage(PipelineStage.PUSH,
+                            subscription.getSubscriptionType(), subscription.getDatasetId(), System.nanoTime() - postStart))
+                    .thenApply(responseCode -> {
+                        withMdc(breadcrumbId, subscription.getSubscriptionId(), () -> {
+                            if (responseCode == 200) {
+                                subscriptionManager.clearFailTracker(subscription.getSubscriptionId());
+                            }
+
+                            logger.info("Pushed {} to subscription {} took {} ms, got responseCode {}",
+                                    siriContentType,
+                                    subscription.getSubscriptionId(),
+                                    System.currentTimeMillis() - t1,
+                                    responseCode
+                            );
+                        });
+                        return responseCode;
+                    });
+        }
+        return CompletableFuture.completedFuture(-1);
+    }
 
-            if (responseCode == 200) {
-                subscriptionManager.clearFailTracker(subscription.getSubscriptionId());
-            }
+    /**
+     * Transforms and serializes payload for the subscription - SubscriptionRef is set to a placeholder that is
+     * replaced per subscription
+     */
+    private OutboundPayloadCache.RenderedPayload renderPayload(Siri payload, OutboundSubscriptionSetup subscription, OutboundPayloadCache payloadCache) {
+        Siri siri = payloadCache.getTransformablePayload(payload);
+        if (OutboundPayloadCache.hasSubscriptionRef(subscription.getSubscriptionId())) {
+            addSubscriptionRefToServiceDelivery(siri, OutboundPayloadCache.SUBSCRIPTION_REF_PLACEHOLDER);
+        }
 
-            logger.info("Pushed {} to subscription {} took {} ms, got responseCode {}",
-                    siriContentType,
-                    subscription.getSubscriptionId(),
-                    System.currentTimeMillis() - t1,
-                    responseCode
-            );
+        Siri transformed = SiriValueTransformer.transform(
+                siri,
+                subscription.getValueAdapters(),
+                false,
+                false);
 
-            return responseCode;
+        String siriContentType = "data";
+        if (transformed.getServiceDelivery() == null) {
+            siriContentType = "heartbeat";
+        }
+        long t1 = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            serializeSiriObject(subscription.getSiriVersion(), transformed, out);
+        } catch (Throwable e) {
+            logger.info("Failed to serialize SIRI-xml - retrying once, {}", e.toString());
+            out.reset();
+            try {
+                serializeSiriObject(subscription.getSiriVersion(), transformed, out);
+            } catch (Throwable ex) {
+                logger.warn("Retry failed to serialize SIRI-xml, {}", ex.toString());
+                throw new RuntimeException(e);
+            }
+            logger.info("Retry succeeded to serialize SIRI-xml");
         }
-        return -1;
+        metricsService.recordPipelineStage(PipelineStage.SERIALIZE, subscription.getSubscriptionType(),
+                subscription.getDatasetId(), System.nanoTime() - t1);
+        return new OutboundPayloadCache.RenderedPayload(out.toByteArray(), siriContentType);
     }
 
-    private static void serializeSiriObject(SiriValidator.Version version, Siri transformed, ByteArrayOutputStream out) throws JAXBException, IOException, XMLStreamException {
+    static void serializeSiriObject(SiriValidator.Version version, Siri transformed, ByteArrayOutputStream out) throws JAXBException, IOException, XMLStreamException {
         if (version == SiriValidator.Version.VERSION_2_1) {
             SiriXml.toXml(transformed, null, out);
         } else {
@@ -0,0 +1,307 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
+import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import org.entur.siri.validator.SiriValidator;
+import uk.org.siri.siri21.Siri;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Rendered payloads for a single push to a set of outbound subscriptions.
+ *
+ * Subscribers with the same filter, delivery-size, id-mapping-policy and SIRI-version receive identical XML - apart
+ * from the SubscriptionRef. Filtering/splitting is done once per (filter, delivery-size), and transformation and
+ * serialization once per (filter, delivery-size, id-mapping-policy, SIRI-version, split-index). The SubscriptionRef
+ * is rendered as a placeholder that is replaced per subscriber.
+ *
+ * Instances are shared between the executors of all recipients, and discarded when the push is completed.
+ */
+final class OutboundPayloadCache {
+
+    /**
+     * Only letters/digits - serialized as-is, and will not occur in actual data
+     */
+    static final String SUBSCRIPTION_REF_PLACEHOLDER = "ANSHARSUBSCRIPTIONREF" + UUID.randomUUID().toString().replace("-", "");
+
+    private static final byte[] PLACEHOLDER_BYTES = SUBSCRIPTION_REF_PLACEHOLDER.getBytes(StandardCharsets.UTF_8);
+
+    private final Map<SplitKey, SplitDeliveries> splitCache = new ConcurrentHashMap<>();
+
+    private final Map<RenderKey, RenderedPayload> renderCache = new ConcurrentHashMap<>();
+
+    private final boolean transformInPlace;
+
+    private final AtomicInteger pendingRecipients;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param recipientCount   Number of recipients that will call {@link #recipientCompleted()}
+     * @param transformInPlace True if all recipients share a single rendering, and the payload is not used by
+     *                         anyone else - i.e. the payload may be altered by the transformation
+     */
+    OutboundPayloadCache(int recipientCount, boolean transformInPlace) {
+        this.pendingRecipients = new AtomicInteger(recipientCount);
+        this.transformInPlace = transformInPlace;
+    }
+
+    /**
+     * @param recipients    All subscriptions the payload will be pushed to
+     * @param deliverySize  Resolves maximum number of elements per delivery for a subscription
+     * @param payloadShared True if the payload - or the elements in it - are also used outside this push, e.g. by
+     *                      a topic-producer. Filtered payloads share the matching elements with the original.
+     */
+    static OutboundPayloadCache create(Collection<OutboundSubscriptionSetup> recipients, ToIntFunction<OutboundSubscriptionSetup> deliverySize,
+                                       boolean payloadShared) {
+        Set<RenderKey> renderings = new HashSet<>();
+        for (OutboundSubscriptionSetup recipient : recipients) {
+            renderings.add(new RenderKey(
+                    new SplitKey(recipient.getFilterMap(), deliverySize.applyAsInt(recipient)),
+                    recipient.getOutboundIdMappingPolicy(),
+                    recipient.getSiriVersion(),
+                    0,
+                    recipient.getSubscriptionId()
+            ));
+        }
+        return new OutboundPayloadCache(recipients.size(), !payloadShared && renderings.size() <= 1);
+    }
+
+    static boolean hasSubscriptionRef(String subscriptionId) {
+        return subscriptionId != null && !subscriptionId.isEmpty();
+    }
+
+    boolean isTransformInPlace() {
+        return transformInPlace;
+    }
+
+    /**
+     * @return Payload that may be altered by the transformation for a single rendering - copied unless the
+     *         transformation can be done in place
+     */
+    Siri getTransformablePayload(Siri payload) {
+        return transformInPlace ? payload : SiriObjectFactory.deepCopy(payload);
+    }
+
+    SplitDeliveries getSplitDeliveries(Map<Class, Set<String>> filterMap, int deliverySize, Supplier<SplitDeliveries> splitter) {
+        return splitCache.computeIfAbsent(new SplitKey(filterMap, deliverySize), k -> splitter.get());
+    }
+
+    RenderedPayload getRenderedPayload(OutboundSubscriptionSetup subscription, int deliverySize, int splitIndex,
+                                       Supplier<RenderedPayload> renderer) {
+        RenderKey key = new RenderKey(
+                new SplitKey(subscription.getFilterMap(), deliverySize),
+                subscription.getOutboundIdMappingPolicy(),
+                subscription.getSiriVersion(),
+                splitIndex,
+                subscription.getSubscriptionId()
+        );
+        RenderedPayload rendered = renderCache.get(key);
+        if (rendered != null) {
+            hits.incrementAndGet();
+            return rendered;
+        }
+        // Concurrent recipients with the same key wait for the first one to finish rendering
+        boolean[] created = new boolean[1];
+        rendered = renderCache.computeIfAbsent(key, k -> {
+            created[0] = true;
+            return renderer.get();
+        });
+        if (created[0]) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return rendered;
+    }
+
+    /**
+     * @return true when the last recipient has completed
+     */
+    boolean recipientCompleted() {
+        return pendingRecipients.decrementAndGet() == 0;
+    }
+
+    int getHits() {
+        return hits.get();
+    }
+
+    int getMisses() {
+        return misses.get();
+    }
+
+    static final class SplitDeliveries {
+        private final Siri filteredPayload;
+        private final List<Siri> deliveries;
+
+        SplitDeliveries(Siri filteredPayload, List<Siri> deliveries) {
+            this.filteredPayload = filteredPayload;
+            this.deliveries = deliveries;
+        }
+
+        Siri getFilteredPayload() {
+            return filteredPayload;
+        }
+
+        List<Siri> getDeliveries() {
+            return deliveries;
+        }
+    }
+
+    /**
+     * Serialized XML, with the offsets of the SubscriptionRef-placeholder
+     */
+    static final class RenderedPayload {
+        private final byte[] xml;
+        private final int[] placeholderOffsets;
+        private final String siriContentType;
+
+        RenderedPayload(byte[] xml, String siriContentType) {
+            this.xml = xml;
+            this.siriContentType = siriContentType;
+            this.placeholderOffsets = findPlaceholders(xml);
+        }
+
+        String getSiriContentType() {
+            return siriContentType;
+        }
+
+        /**
+         * @return XML with placeholder replaced by the provided subscriptionId - the shared array if there is nothing to replace
+         */
+        byte[] getXml(String subscriptionId) {
+            if (placeholderOffsets.length == 0) {
+                return xml;
+            }
+            byte[] replacement = escapeXml(subscriptionId).getBytes(StandardCharsets.UTF_8);
+            byte[] result = new byte[xml.length + placeholderOffsets.length * (replacement.length - PLACEHOLDER_BYTES.length)];
+
+            int source = 0;
+            int target = 0;
+            for (int offset : placeholderOffsets) {
+                int length = offset - source;
+                System.arraycopy(xml, source, result, target, length);
+                target += length;
+                System.arraycopy(replacement, 0, result, target, replacement.length);
+                target += replacement.length;
+                source = offset + PLACEHOLDER_BYTES.length;
+            }
+            System.arraycopy(xml, source, result, target, xml.length - source);
+            return result;
+        }
+
+        private static int[] findPlaceholders(byte[] xml) {
+            List<Integer> offsets = new ArrayList<>();
+            byte first = PLACEHOLDER_BYTES[0];
+            int last = xml.length - PLACEHOLDER_BYTES.length;
+            for (int i = 0; i <= last; i++) {
+                if (xml[i] == first && Arrays.equals(xml, i, i + PLACEHOLDER_BYTES.length, PLACEHOLDER_BYTES, 0, PLACEHOLDER_BYTES.length)) {
+                    offsets.add(i);
+                    i += PLACEHOLDER_BYTES.length - 1;
+                }
+            }
+            return offsets.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private static String escapeXml(String value) {
+            if (value.indexOf('&') < 0 && value.indexOf('<') < 0 && value.indexOf('>') < 0) {
+                return value;
+            }
+            return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        }
+    }
+
+    private static final class SplitKey {
+        private final Map<Class, Set<String>> filterMap;
+        private final int deliverySize;
+
+        private SplitKey(Map<Class, Set<String>> filterMap, int deliverySize) {
+            this.filterMap = filterMap != null ? filterMap : Map.of();
+            this.deliverySize = deliverySize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SplitKey)) return false;
+            SplitKey that = (SplitKey) o;
+            return deliverySize == that.deliverySize && filterMap.equals(that.filterMap);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(filterMap, deliverySize);
+        }
+    }
+
+    private static final class RenderKey {
+        private final SplitKey splitKey;
+        private final OutboundIdMappingPolicy outboundIdMappingPolicy;
+        private final SiriValidator.Version siriVersion;
+        private final int splitIndex;
+        private final boolean withSubscriptionRef;
+
+        /**
+         * Value-adapters are unknown when policy is not set - rendering is then only reused by the same subscription
+         */
+        private final String unsharedSubscriptionId;
+
+        private RenderKey(SplitKey splitKey, OutboundIdMappingPolicy outboundIdMappingPolicy, SiriValidator.Version siriVersion,
+                          int splitIndex, String subscriptionId) {
+            this.splitKey = splitKey;
+            this.outboundIdMappingPolicy = outboundIdMappingPolicy;
+            this.siriVersion = siriVersion;
+            this.splitIndex = splitIndex;
+            this.withSubscriptionRef = hasSubscriptionRef(subscriptionId);
+            this.unsharedSubscriptionId = outboundIdMappingPolicy == null ? subscriptionId : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RenderKey)) return false;
+            RenderKey that = (RenderKey) o;
+            return splitIndex == that.splitIndex &&
+                    withSubscriptionRef == that.withSubscriptionRef &&
+                    outboundIdMappingPolicy == that.outboundIdMappingPolicy &&
+                    siriVersion == that.siriVersion &&
+                    splitKey.equals(that.splitKey) &&
+                    Objects.equals(unsharedSubscriptionId, that.unsharedSubscriptionId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(splitKey, outboundIdMappingPolicy, siriVersion, splitIndex, withSubscriptionRef, unsharedSubscriptionId);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Non-blocking HTTP-client for pushing data to outbound subscriptions.
+ *
+ * - Requests are sent asynchronously - no thread is occupied while waiting for the recipient
+ * - HTTP/2 is negotiated for https-recipients, HTTP/1.1 is used for plain http unless h2c is enabled
+ * - Concurrent requests per host are limited, pending requests wait in a queue per host
+ * - Failed requests (connection errors, 429 and 503) are retried with exponential backoff
+ * - Request bodies are optionally gzip-compressed
+ */
+@Service
+public class OutboundPushClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundPushClient.class);
+
+    @Value("${anshar.outbound.http.client.threads:4}")
+    private int clientThreads;
+
+    @Value("${anshar.outbound.http.connect.timeout.ms:2000}")
+    private long connectTimeoutMs;
+
+    @Value("${anshar.outbound.http.request.timeout.ms:30000}")
+    private long requestTimeoutMs;
+
+    @Value("${anshar.outbound.http2.cleartext.enabled:false}")
+    private boolean http2CleartextEnabled;
+
+    @Value("${anshar.outbound.max.concurrent.requests.per.host:20}")
+    private int maxConcurrentRequestsPerHost;
+
+    @Value("${anshar.outbound.push.max.retries:1}")
+    private int maxRetries;
+
+    @Value("${anshar.outbound.push.retry.initial.backoff.ms:250}")
+    private long initialBackoffMs;
+
+    @Value("${anshar.outbound.push.gzip.enabled:false}")
+    private boolean gzipEnabled;
+
+    private final Map<String, HostLimiter> hostLimiters = new ConcurrentHashMap<>();
+
+    private ExecutorService clientExecutor;
+
+    private HttpClient httpClient;
+
+    public OutboundPushClient() {
+    }
+
+    OutboundPushClient(int maxConcurrentRequestsPerHost, int maxRetries, long initialBackoffMs, boolean gzipEnabled) {
+        this.clientThreads = 2;
+        this.connectTimeoutMs = 2000;
+        this.requestTimeoutMs = 30000;
+        this.maxConcurrentRequestsPerHost = maxConcurrentRequestsPerHost;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMs = initialBackoffMs;
+        this.gzipEnabled = gzipEnabled;
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        clientExecutor = Executors.newFixedThreadPool(clientThreads,
+                new ThreadFactoryBuilder().setNameFormat("outbound-http-%d").setDaemon(true).build());
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(clientExecutor)
+                .build();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        clientExecutor.shutdownNow();
+    }
+
+    /**
+     * POSTs xml to the subscription
+     *
+     * @return Future completed with the HTTP status code, or exceptionally if the request failed after retries
+     */
+    public CompletableFuture<Integer> post(String address, String subscriptionId, byte[] xml) {
+        final URI uri = URI.create(address);
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(Duration.ofMillis(requestTimeoutMs))
+                .header("subscriptionId", subscriptionId)
+                .header("Content-Type", "application/xml");
+
+        if (!http2CleartextEnabled && "http".equalsIgnoreCase(uri.getScheme())) {
+            // Avoid h2c upgrade-attempts to recipients that may not support it
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+
+        if (gzipEnabled) {
+            builder.header("Content-Encoding", "gzip");
+            builder.POST(HttpRequest.BodyPublishers.ofByteArray(gzip(xml)));
+        } else {
+            builder.POST(HttpRequest.BodyPublishers.ofByteArray(xml));
+        }
+        final HttpRequest request = builder.build();
+
+        HostLimiter limiter = hostLimiters.computeIfAbsent(uri.getHost() + ":" + uri.getPort(),
+                host -> new HostLimiter(maxConcurrentRequestsPerHost, clientExecutor));
+
+        return limiter.submit(() -> sendWithRetry(request, 0));
+    }
+
+    private CompletableFuture<Integer> sendWithRetry(HttpRequest request, int attempt) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, throwable) -> {
+                    if (attempt < maxRetries && isRetryable(response, throwable)) {
+                        long backoff = backoffMillis(attempt);
+                        logger.info("Push to {} failed - retrying in {} ms, {}", request.uri(), backoff,
+                                throwable != null ? throwable.toString() : "responseCode " + response.statusCode());
+                        return CompletableFuture.supplyAsync(() -> null,
+                                        CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS, clientExecutor))
+                                .thenCompose(ignored -> sendWithRetry(request, attempt + 1));
+                    }
+                    if (throwable != null) {
+                        return CompletableFuture.<Integer>failedFuture(unwrap(throwable));
+                    }
+                    return CompletableFuture.completedFuture(response.statusCode());
+                })
+                .thenCompose(future -> future);
+    }
+
+    private static boolean isRetryable(HttpResponse<Void> response, Throwable throwable) {
+        if (throwable != null) {
+            return unwrap(throwable) instanceof IOException;
+        }
+        return response.statusCode() == 429 || response.statusCode() == 503;
+    }
+
+    /**
+     * Exponential backoff with jitter - initialBackoff * 2^attempt, +/- 20%
+     */
+    long backoffMillis(int attempt) {
+        long backoff = initialBackoffMs << Math.min(attempt, 10);
+        long jitter = backoff / 5;
+        return jitter > 0 ? backoff + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1) : backoff;
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            return throwable.getCause();
+        }
+        return throwable;
+    }
+
+    static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Limits concurrent requests to a single host - requests exceeding the limit are started on the executor when a
+     * running request completes, i.e. not on the thread completing it
+     */
+    static final class HostLimiter {
+        private final int maxConcurrent;
+        private final Executor executor;
+        private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+        private int running;
+
+        HostLimiter(int maxConcurrent, Executor executor) {
+            this.maxConcurrent = maxConcurrent;
+            this.executor = executor;
+        }
+
+        <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            Runnable start = () -> {
+                CompletableFuture<T> future;
+                try {
+                    future = request.get();
+                } catch (Throwable t) {
+                    future = CompletableFuture.failedFuture(t);
+                }
+                future.whenComplete((value, throwable) -> {
+                    release();
+                    if (throwable != null) {
+                        result.completeExceptionally(unwrap(throwable));
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            };
+
+            boolean startNow;
+            synchronized (this) {
+                startNow = running < maxConcurrent;
+                if (startNow) {
+                    running++;
+                } else {
+                    pending.addLast(start);
+                }
+            }
+            if (startNow) {
+                start.run();
+            }
+            return result;
+        }
+
+        private void release() {
+            Runnable next;
+            synchronized (this) {
+                next = pending.pollFirst();
+                if (next == null) {
+                    running--;
+                }
+            }
+            if (next != null) {
+                try {
+                    executor.execute(next);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down - the request fails when started
+                    next.run();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Executes outbound pushes on a single shared thread pool, with a bounded queue per subscription.
+ *
+ * - Each subscription has at most {@code maxQueuedPerSubscription} pending pushes - when full, the oldest pending
+ *   push is discarded. A slow recipient can therefore not cause unbounded heap growth.
+ * - Each subscription has at most {@code maxConcurrentPerSubscription} pushes in progress. A push is in progress
+ *   until the future returned by the task completes - waiting for the recipient does not occupy a thread.
+ * - Each subscription starts one push at a time before yielding - so a busy subscription can not starve the others.
+ * - Pending ET/VM pushes where all elements are also included in a later pending push (same journey/vehicle) are
+ *   superseded, and skipped.
+ *
+ * The shared pool also has a bounded queue - when that is full, the submitting thread runs the task itself, which
+ * throttles the producer.
+ */
+@Service
+public class OutboundSubscriptionExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundSubscriptionExecutor.class);
+
+    static final String DISCARD_REASON_OVERFLOW = "overflow";
+    static final String DISCARD_REASON_SUPERSEDED = "superseded";
+    static final String DISCARD_REASON_TERMINATED = "terminated";
+
+    @Autowired
+    private PrometheusMetricsService metricsService;
+
+    @Value("${anshar.outbound.executor.threads:50}")
+    private int threads;
+
+    @Value("${anshar.outbound.executor.queue.size:10000}")
+    private int executorQueueSize;
+
+    @Value("${anshar.default.max.threads.per.outbound.subscription:5}")
+    private int maxConcurrentPerSubscription;
+
+    @Value("${anshar.outbound.max.queued.per.subscription:100}")
+    private int maxQueuedPerSubscription;
+
+    private final Map<String, SubscriberQueue> subscriberQueues = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    public OutboundSubscriptionExecutor() {
+    }
+
+    OutboundSubscriptionExecutor(PrometheusMetricsService metricsService, int threads, int executorQueueSize,
+                                 int maxConcurrentPerSubscription, int maxQueuedPerSubscription) {
+        this.metricsService = metricsService;
+        this.threads = threads;
+        this.executorQueueSize = executorQueueSize;
+        this.maxConcurrentPerSubscription = maxConcurrentPerSubscription;
+        this.maxQueuedPerSubscription = maxQueuedPerSubscription;
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(executorQueueSize),
+                new ThreadFactoryBuilder().setNameFormat("outbound-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs task on the shared pool - not bound to a subscription
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Queues task for the subscription.
+     *
+     * @param subscription  Recipient
+     * @param task          Starts push - returns future completed when the push is done
+     * @param onDiscard     Called instead of task if the task is discarded
+     * @param supersedeKeys Identifies the elements in the push - null if the push can not be superseded
+     */
+    void submit(OutboundSubscriptionSetup subscription, Supplier<CompletionStage<?>> task, Runnable onDiscard, Collection<String> supersedeKeys) {
+        final String subscriptionId = subscription.getSubscriptionId();
+        SubscriberQueue queue = subscriberQueues.computeIfAbsent(subscriptionId, id -> {
+            if (metricsService != null) {
+                metricsService.gaugeOutboundQueue(id, this);
+            }
+            return new SubscriberQueue(id, subscription.getSubscriptionType());
+        });
+
+        QueuedTask discarded = null;
+        boolean schedule = false;
+        boolean rejected = false;
+        synchronized (queue) {
+            if (queue.closed) {
+                rejected = true;
+            } else {
+                long sequence = ++queue.sequence;
+                if (supersedeKeys != null) {
+                    for (String key : supersedeKeys) {
+                        queue.latestSequence.put(key, sequence);
+                    }
+                }
+                if (queue.tasks.size() >= maxQueuedPerSubscription) {
+                    discarded = queue.tasks.pollFirst();
+                    queue.release(discarded);
+                }
+                queue.tasks.addLast(new QueuedTask(task, onDiscard, supersedeKeys, sequence, System.nanoTime()));
+                if (queue.running < maxConcurrentPerSubscription) {
+                    queue.running++;
+                    schedule = true;
+                }
+            }
+        }
+
+        if (rejected) {
+            discard(queue, new QueuedTask(task, onDiscard, null, 0, 0), DISCARD_REASON_TERMINATED);
+        }
+        if (discarded != null) {
+            logger.info("Outbound queue for subscription {} is full - discarding oldest update", subscriptionId);
+            discard(queue, discarded, DISCARD_REASON_OVERFLOW);
+        }
+        if (schedule) {
+            executor.execute(() -> runNext(queue));
+        }
+    }
+
+    /**
+     * Starts next pending task for the subscription
+     */
+    private void runNext(SubscriberQueue queue) {
+        QueuedTask task;
+        boolean superseded;
+        synchronized (queue) {
+            task = queue.tasks.pollFirst();
+            if (task == null) {
+                queue.running--;
+                return;
+            }
+            superseded = queue.isSuperseded(task);
+            queue.release(task);
+        }
+
+        if (superseded) {
+            discard(queue, task, DISCARD_REASON_SUPERSEDED);
+            taskCompleted(queue);
+            return;
+        }
+
+        if (metricsService != null) {
+            metricsService.registerOutboundQueueWait(queue.dataType, System.nanoTime() - task.enqueuedNanos);
+        }
+        CompletionStage<?> result;
+        try {
+            result = task.task.get();
+        } catch (Throwable t) {
+            logger.warn("Outbound push for subscription {} failed", queue.subscriptionId, t);
+            result = CompletableFuture.completedFuture(null);
+        }
+        result.whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                logger.warn("Outbound push for subscription {} failed", queue.subscriptionId, throwable);
+            }
+            taskCompleted(queue);
+        });
+    }
+
+    /**
+     * Starts next pending task on the shared pool, or releases the slot if nothing is pending
+     */
+    private void taskCompleted(SubscriberQueue queue) {
+        synchronized (queue) {
+            if (queue.tasks.isEmpty()) {
+                queue.running--;
+                return;
+            }
+        }
+        executor.execute(() -> runNext(queue));
+    }
+
+    /**
+     * Discards all pending tasks for the subscription - called when subscription is terminated
+     */
+    void removeSubscription(String subscriptionId) {
+        SubscriberQueue queue = subscriberQueues.remove(subscriptionId);
+        if (queue == null) {
+            return;
+        }
+        if (metricsService != null) {
+            metricsService.removeOutboundQueueGauges(subscriptionId);
+        }
+        ArrayDeque<QueuedTask> pending;
+        synchronized (queue) {
+            queue.closed = true;
+            pending = new ArrayDeque<>(queue.tasks);
+            queue.tasks.clear();
+            queue.latestSequence.clear();
+        }
+        logger.info("Remove outbound queue for subscription {}, discarding {} pending updates", subscriptionId, pending.size());
+        for (QueuedTask task : pending) {
+            discard(queue, task, DISCARD_REASON_TERMINATED);
+        }
+    }
+
+    Collection<String> getSubscriptionIds() {
+        return subscriberQueues.keySet();
+    }
+
+    private void discard(SubscriberQueue queue, QueuedTask task, String reason) {
+        if (metricsService != null) {
+            metricsService.registerOutboundQueueDiscarded(queue.dataType, queue.subscriptionId, reason);
+        }
+        try {
+            task.onDiscard.run();
+        } catch (Throwable t) {
+            logger.warn("Cleanup of discarded outbound push for subscription {} failed", queue.subscriptionId, t);
+        }
+    }
+
+    /**
+     * @return Number of pending pushes per subscription
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new HashMap<>();
+        for (SubscriberQueue queue : subscriberQueues.values()) {
+            synchronized (queue) {
+                depths.put(queue.subscriptionId, queue.tasks.size());
+            }
+        }
+        return depths;
+    }
+
+    /**
+     * @return Number of running pushes per subscription
+     */
+    public Map<String, Integer> getActiveCounts() {
+        Map<String, Integer> active = new HashMap<>();
+        for (SubscriberQueue queue : subscriberQueues.values()) {
+            synchronized (queue) {
+                active.put(queue.subscriptionId, queue.running);
+            }
+        }
+        return active;
+    }
+
+    /**
+     * @return Number of pending pushes for the subscription
+     */
+    public int getQueueDepth(String subscriptionId) {
+        SubscriberQueue queue = subscriberQueues.get(subscriptionId);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.tasks.size();
+        }
+    }
+
+    /**
+     * @return Number of running pushes for the subscription
+     */
+    public int getActiveCount(String subscriptionId) {
+        SubscriberQueue queue = subscriberQueues.get(subscriptionId);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.running;
+        }
+    }
+
+    private static final class SubscriberQueue {
+        private final String subscriptionId;
+        private final SiriDataType dataType;
+        private final ArrayDeque<QueuedTask> tasks = new ArrayDeque<>();
+
+        /**
+         * Sequence of the latest pending task for each element-key
+         */
+        private final Map<String, Long> latestSequence = new HashMap<>();
+        private long sequence;
+        private int running;
+        private boolean closed;
+
+        private SubscriberQueue(String subscriptionId, SiriDataType dataType) {
+            this.subscriptionId = subscriptionId;
+            this.dataType = dataType;
+        }
+
+        private boolean isSuperseded(QueuedTask task) {
+            if (task.supersedeKeys == null || task.supersedeKeys.isEmpty()) {
+                return false;
+            }
+            for (String key : task.supersedeKeys) {
+                Long latest = latestSequence.get(key);
+                if (latest == null || latest <= task.sequence) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void release(QueuedTask task) {
+            if (task.supersedeKeys != null) {
+                for (String key : task.supersedeKeys) {
+                    latestSequence.remove(key, task.sequence);
+                }
+            }
+        }
+    }
+
+    private static final class QueuedTask {
+        private final Supplier<CompletionStage<?>> task;
+        private final Runnable onDiscard;
+        private final Collection<String> supersedeKeys;
+        private final long sequence;
+        private final long enqueuedNanos;
+
+        private QueuedTask(Supplier<CompletionStage<?>> task, Runnable onDiscard, Collection<String> supersedeKeys, long sequence, long enqueuedNanos) {
+            this.task = task;
+            this.onDiscard = onDiscard;
+            this.supersedeKeys = supersedeKeys;
+            this.sequence = sequence;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
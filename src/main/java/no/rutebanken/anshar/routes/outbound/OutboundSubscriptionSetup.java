@@ -15,6 +15,7 @@
 
 package no.rutebanken.anshar.routes.outbound;
 
+import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
 import no.rutebanken.anshar.routes.siri.transformer.ValueAdapter;
 import no.rutebanken.anshar.subscription.SiriDataType;
 import org.entur.siri.validator.SiriValidator;
@@ -36,6 +37,7 @@ public class OutboundSubscriptionSetup implements Serializable {
     private int timeToLive;
     private Map<Class, Set<String>> filterMap;
     private final List<ValueAdapter> valueAdapters;
+    private OutboundIdMappingPolicy outboundIdMappingPolicy;
     private final String subscriptionId;
     private String requestorRef;
     private ZonedDateTime initialTerminationTime;
@@ -45,7 +47,7 @@ public class OutboundSubscriptionSetup implements Serializable {
 
     public OutboundSubscriptionSetup(ZonedDateTime requestTimestamp, SiriDataType subscriptionType, String address, long heartbeatInterval,
                                      long changeBeforeUpdates, Map<Class, Set<String>> filterMap, List<ValueAdapter> valueAdapters,
-                                     String subscriptionId, String requestorRef, ZonedDateTime initialTerminationTime, String datasetId, String clientTrackingName,
+                                     OutboundIdMappingPolicy outboundIdMappingPolicy, String subscriptionId, String requestorRef, ZonedDateTime initialTerminationTime, String datasetId, String clientTrackingName,
                                      SiriValidator.Version siriVersion) {
         this.requestTimestamp = requestTimestamp;
         this.subscriptionType = subscriptionType;
@@ -54,6 +56,7 @@ public class OutboundSubscriptionSetup implements Serializable {
         this.changeBeforeUpdates = changeBeforeUpdates;
         this.filterMap = filterMap;
         this.valueAdapters = valueAdapters;
+        this.outboundIdMappingPolicy = outboundIdMappingPolicy;
         this.subscriptionId = subscriptionId;
         this.requestorRef = requestorRef;
         this.initialTerminationTime = initialTerminationTime;
@@ -122,6 +125,13 @@ public class OutboundSubscriptionSetup implements Serializable {
         return valueAdapters;
     }
 
+    /**
+     * @return Policy the value-adapters are created from - null if not known
+     */
+    public OutboundIdMappingPolicy getOutboundIdMappingPolicy() {
+        return outboundIdMappingPolicy;
+    }
+
     public String getClientTrackingName() {
         return clientTrackingName;
     }
@@ -16,6 +16,11 @@
 package no.rutebanken.anshar.routes.outbound;
 
 import com.hazelcast.map.IMap;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryExpiredListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
 import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
 import no.rutebanken.anshar.subscription.SiriDataType;
@@ -44,6 +49,7 @@ import uk.org.siri.siri21.SubscriptionRequest;
 import uk.org.siri.siri21.VehicleActivityStructure;
 import uk.org.siri.siri21.VehicleMonitoringSubscriptionStructure;
 
+import javax.annotation.PostConstruct;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
@@ -52,9 +58,6 @@ import java.time.format.DateTimeFormatter;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
 
 import static java.time.temporal.ChronoUnit.MILLIS;
 import static no.rutebanken.anshar.routes.kafka.KafkaConfig.CODESPACE_ID_KAFKA_HEADER_NAME;
@@ -103,7 +106,8 @@ public class ServerSubscriptionManager {
     @Autowired
     private MappingAdapterPresets mappingAdapterPresets;
 
-    ExecutorService outboundSenderExecutorService = Executors.newFixedThreadPool(100);
+    @Autowired
+    private OutboundSubscriptionExecutor outboundExecutor;
 
     @Produce(value = "direct:send.to.pubsub.topic.estimated_timetable")
     protected ProducerTemplate siriEtTopicProducer;
@@ -120,6 +124,31 @@ public class ServerSubscriptionManager {
     @Autowired
     private SiriHelper siriHelper;
 
+    /**
+     * Node-local index of all outbound subscriptions in the cluster - used to find recipients of updates
+     */
+    private final SubscriptionRoutingIndex routingIndex = new SubscriptionRoutingIndex();
+
+    @PostConstruct
+    private void initializeRoutingIndex() {
+        // Subscriptions may be added/terminated by any node
+        subscriptions.addEntryListener((EntryAddedListener<String, OutboundSubscriptionSetup>) event ->
+                routingIndex.add(event.getValue()), true);
+        subscriptions.addEntryListener((EntryUpdatedListener<String, OutboundSubscriptionSetup>) event ->
+                routingIndex.add(event.getValue()), true);
+        subscriptions.addEntryListener((EntryRemovedListener<String, OutboundSubscriptionSetup>) event ->
+                routingIndex.remove(event.getKey()), false);
+        subscriptions.addEntryListener((EntryExpiredListener<String, OutboundSubscriptionSetup>) event ->
+                routingIndex.remove(event.getKey()), false);
+        subscriptions.addEntryListener((EntryEvictedListener<String, OutboundSubscriptionSetup>) event ->
+                routingIndex.remove(event.getKey()), false);
+
+        for (OutboundSubscriptionSetup subscription : subscriptions.values()) {
+            routingIndex.add(subscription);
+        }
+        logger.info("Initialized routing-index with {} outbound subscriptions", routingIndex.size());
+    }
+
 
     public Collection getSubscriptions() {
         return Collections.unmodifiableCollection(subscriptions.values());
@@ -223,6 +252,7 @@ public class ServerSubscriptionManager {
                 getChangeBeforeUpdates(subscriptionRequest),
                 siriHelper.getFilter(subscriptionRequest),
                 mappingAdapterPresets.getOutboundAdapters(outboundIdMappingPolicy),
+                outboundIdMappingPolicy,
                 findSubscriptionIdentifier(subscriptionRequest),
                 findSubscriberIdentifier(subscriptionRequest),
                 findInitialTerminationTime(subscriptionRequest),
@@ -321,12 +351,14 @@ public class ServerSubscriptionManager {
 
     private void addSubscription(OutboundSubscriptionSetup subscription) {
         subscriptions.put(subscription.getSubscriptionId(), subscription);
+        routingIndex.add(subscription);
     }
 
     private OutboundSubscriptionSetup removeSubscription(String subscriptionId) {
         logger.info("Removing subscription {}", subscriptionId);
         failTrackerMap.delete(subscriptionId);
         heartbeatTimestampMap.remove(subscriptionId);
+        routingIndex.remove(subscriptionId);
         return subscriptions.remove(subscriptionId);
     }
 
@@ -421,13 +453,13 @@ public class ServerSubscriptionManager {
 
         switch (datatype) {
             case ESTIMATED_TIMETABLE:
-                outboundSenderExecutorService.execute(() -> pushUpdatedEstimatedTimetables(updates, datasetId, breadcrumbId));
+                outboundExecutor.execute(() -> pushUpdatedEstimatedTimetables(updates, datasetId, breadcrumbId));
                 break;
             case SITUATION_EXCHANGE:
-                outboundSenderExecutorService.execute(() -> pushUpdatedSituations(updates, datasetId, breadcrumbId));
+                outboundExecutor.execute(() -> pushUpdatedSituations(updates, datasetId, breadcrumbId));
                 break;
             case VEHICLE_MONITORING:
-                outboundSenderExecutorService.execute(() -> pushUpdatedVehicleActivities(updates, datasetId, breadcrumbId));
+                outboundExecutor.execute(() -> pushUpdatedVehicleActivities(updates, datasetId, breadcrumbId));
                 break;
             default:
                 // Ignore
@@ -449,29 +481,12 @@ public class ServerSubscriptionManager {
             siriVmTopicProducer.asyncRequestBodyAndHeader(siriVmTopicProducer.getDefaultEndpoint(), delivery, CODESPACE_ID_KAFKA_HEADER_NAME, datasetId);
         }
 
-        final List<OutboundSubscriptionSetup> recipients = subscriptions
-            .values()
-            .stream()
-            .filter(subscriptionRequest -> (
-                    subscriptionRequest.getSubscriptionType().equals(SiriDataType.VEHICLE_MONITORING)
-                        && (
-                        subscriptionRequest.getDatasetId() == null || (
-                            subscriptionRequest
-                                .getDatasetId()
-                                .equals(datasetId)
-                        )
-                    )
-                )
-
-            )
-            .collect(Collectors.toList());
+        final List<OutboundSubscriptionSetup> recipients = routingIndex.findVehicleActivityRecipients(datasetId, addedOrUpdated);
 
         if (!recipients.isEmpty()) {
             logger.info("Pushing {} VM updates to {} outbound subscriptions", addedOrUpdated.size(), recipients.size());
 
-            for (OutboundSubscriptionSetup recipient : recipients) {
-                camelRouteManager.pushSiriData(delivery, recipient, false);
-            }
+            camelRouteManager.pushSiriData(delivery, recipients, false, pushToVmTopicEnabled);
         }
 
         MDC.remove("camel.breadcrumbId");
@@ -492,29 +507,12 @@ public class ServerSubscriptionManager {
             siriSxTopicProducer.asyncRequestBodyAndHeader(siriSxTopicProducer.getDefaultEndpoint(), delivery, CODESPACE_ID_KAFKA_HEADER_NAME, datasetId);
         }
 
-        final List<OutboundSubscriptionSetup> recipients = subscriptions
-            .values()
-            .stream()
-            .filter(subscriptionRequest -> (
-                    subscriptionRequest.getSubscriptionType().equals(SiriDataType.SITUATION_EXCHANGE)
-                        && (
-                        subscriptionRequest.getDatasetId() == null || (
-                            subscriptionRequest
-                                .getDatasetId()
-                                .equals(datasetId)
-                        )
-                    )
-                )
-
-            )
-            .collect(Collectors.toList());
+        final List<OutboundSubscriptionSetup> recipients = routingIndex.findSituationRecipients(datasetId, addedOrUpdated);
 
         if (!recipients.isEmpty()) {
             logger.info("Pushing {} SX updates to {} outbound subscriptions", addedOrUpdated.size(), recipients.size());
 
-            for (OutboundSubscriptionSetup recipient : recipients) {
-                camelRouteManager.pushSiriData(delivery, recipient, false);
-            }
+            camelRouteManager.pushSiriData(delivery, recipients, false, pushToSxTopicEnabled);
         }
 
         MDC.remove("camel.breadcrumbId");
@@ -534,29 +532,12 @@ public class ServerSubscriptionManager {
             siriEtTopicProducer.asyncRequestBodyAndHeader(siriEtTopicProducer.getDefaultEndpoint(), delivery, CODESPACE_ID_KAFKA_HEADER_NAME, datasetId);
         }
 
-        final List<OutboundSubscriptionSetup> recipients = subscriptions
-            .values()
-            .stream()
-            .filter(subscriptionRequest -> (
-                    subscriptionRequest.getSubscriptionType().equals(SiriDataType.ESTIMATED_TIMETABLE)
-                        && (
-                        subscriptionRequest.getDatasetId() == null || (
-                            subscriptionRequest
-                                .getDatasetId()
-                                .equals(datasetId)
-                        )
-                    )
-                )
-
-            )
-            .collect(Collectors.toList());
+        final List<OutboundSubscriptionSetup> recipients = routingIndex.findEstimatedTimetableRecipients(datasetId, addedOrUpdated);
 
         if (!recipients.isEmpty()) {
             logger.info("Pushing {} ET updates to {} outbound subscriptions", addedOrUpdated.size(), recipients.size());
 
-            for (OutboundSubscriptionSetup recipient : recipients) {
-                camelRouteManager.pushSiriData(delivery, recipient, false);
-            }
+            camelRouteManager.pushSiriData(delivery, recipients, false, pushToEtTopicEnabled);
         }
         MDC.remove("camel.breadcrumbId");
     }
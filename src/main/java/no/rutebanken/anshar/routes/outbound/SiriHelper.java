@@ -34,6 +34,7 @@ import uk.org.siri.siri21.EstimatedVersionFrameStructure;
 import uk.org.siri.siri21.LineDirectionStructure;
 import uk.org.siri.siri21.LineRef;
 import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.ServiceDelivery;
 import uk.org.siri.siri21.Siri;
 import uk.org.siri.siri21.SituationExchangeDeliveryStructure;
 import uk.org.siri.siri21.SituationExchangeRequestStructure;
@@ -257,7 +258,7 @@ public class SiriHelper {
 
             Siri filtered;
             try {
-                filtered = SiriObjectFactory.deepCopy(siri);
+                filtered = copyDeliveryStructure(siri);
             } catch (Exception e) {
                 return siri;
             }
@@ -273,6 +274,33 @@ public class SiriHelper {
         return siri;
     }
 
+    /*
+     * Copies the objects containing the lists that are filtered - the matching elements are shared with the original.
+     * Elements are copied later only if needed, i.e. the cost of filtering depends on the number of matches, not the
+     * size of the delivery.
+     */
+    private static Siri copyDeliveryStructure(Siri siri) {
+        Siri copy = SiriObjectFactory.shallowCopy(siri);
+        ServiceDelivery serviceDelivery = SiriObjectFactory.shallowCopy(siri.getServiceDelivery());
+        copy.setServiceDelivery(serviceDelivery);
+
+        List<VehicleMonitoringDeliveryStructure> vmDeliveries = serviceDelivery.getVehicleMonitoringDeliveries();
+        vmDeliveries.replaceAll(SiriObjectFactory::shallowCopy);
+
+        List<EstimatedTimetableDeliveryStructure> etDeliveries = serviceDelivery.getEstimatedTimetableDeliveries();
+        etDeliveries.replaceAll(SiriObjectFactory::shallowCopy);
+        for (EstimatedTimetableDeliveryStructure etDelivery : etDeliveries) {
+            etDelivery.getEstimatedJourneyVersionFrames().replaceAll(SiriObjectFactory::shallowCopy);
+        }
+
+        List<SituationExchangeDeliveryStructure> sxDeliveries = serviceDelivery.getSituationExchangeDeliveries();
+        sxDeliveries.replaceAll(SiriObjectFactory::shallowCopy);
+        for (SituationExchangeDeliveryStructure sxDelivery : sxDeliveries) {
+            sxDelivery.setSituations(SiriObjectFactory.shallowCopy(sxDelivery.getSituations()));
+        }
+        return copy;
+    }
+
     /*
      * Filters elements with 1 - one - possible match per element
      */
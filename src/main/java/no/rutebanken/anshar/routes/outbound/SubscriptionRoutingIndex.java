@@ -0,0 +1,217 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.subscription.SiriDataType;
+import uk.org.siri.siri21.AffectedLineStructure;
+import uk.org.siri.siri21.AffectsScopeStructure;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.LineRef;
+import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.VehicleActivityStructure;
+import uk.org.siri.siri21.VehicleRef;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index from (SiriDataType, datasetId, lineRef, vehicleRef) to outbound subscriptions.
+ *
+ * A subscription is indexed once per combination of the values in its filter, with null as wildcard for datasetId,
+ * lineRef or vehicleRef that are not filtered on. Finding the recipients of an update then only requires a few
+ * lookups per element, instead of testing every subscription - and subscriptions without any matching elements
+ * are not pushed to at all.
+ *
+ * Matching follows {@link SiriHelper#filterSiriPayload}: VM/ET match both lineRef- and vehicleRef-filter, SX match
+ * the lineRef-filter on any of the affected lines.
+ */
+final class SubscriptionRoutingIndex {
+
+    private final Map<RouteKey, Set<String>> routes = new ConcurrentHashMap<>();
+
+    private final Map<String, OutboundSubscriptionSetup> subscriptionsById = new ConcurrentHashMap<>();
+
+    private final Map<String, List<RouteKey>> routeKeysById = new ConcurrentHashMap<>();
+
+    synchronized void add(OutboundSubscriptionSetup subscription) {
+        remove(subscription.getSubscriptionId());
+
+        Map<Class, Set<String>> filterMap = subscription.getFilterMap() != null ? subscription.getFilterMap() : Map.of();
+        List<RouteKey> keys = new ArrayList<>();
+        for (String lineRef : valuesOrWildcard(filterMap.get(LineRef.class))) {
+            for (String vehicleRef : valuesOrWildcard(filterMap.get(VehicleRef.class))) {
+                keys.add(new RouteKey(subscription.getSubscriptionType(), subscription.getDatasetId(), lineRef, vehicleRef));
+            }
+        }
+        for (RouteKey key : keys) {
+            routes.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(subscription.getSubscriptionId());
+        }
+        routeKeysById.put(subscription.getSubscriptionId(), keys);
+        subscriptionsById.put(subscription.getSubscriptionId(), subscription);
+    }
+
+    synchronized void remove(String subscriptionId) {
+        subscriptionsById.remove(subscriptionId);
+        List<RouteKey> keys = routeKeysById.remove(subscriptionId);
+        if (keys != null) {
+            for (RouteKey key : keys) {
+                Set<String> ids = routes.get(key);
+                if (ids != null && ids.remove(subscriptionId) && ids.isEmpty()) {
+                    routes.remove(key);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return subscriptionsById.size();
+    }
+
+    List<OutboundSubscriptionSetup> findVehicleActivityRecipients(String datasetId, List<VehicleActivityStructure> vehicleActivities) {
+        Set<String> recipients = new LinkedHashSet<>();
+        for (VehicleActivityStructure vehicleActivity : vehicleActivities) {
+            VehicleActivityStructure.MonitoredVehicleJourney journey = vehicleActivity.getMonitoredVehicleJourney();
+            String lineRef = null;
+            String vehicleRef = null;
+            if (journey != null) {
+                lineRef = journey.getLineRef() != null ? journey.getLineRef().getValue() : null;
+                vehicleRef = journey.getVehicleRef() != null ? journey.getVehicleRef().getValue() : null;
+            }
+            addRecipients(SiriDataType.VEHICLE_MONITORING, datasetId, lineRef, vehicleRef, recipients);
+        }
+        return resolve(recipients);
+    }
+
+    List<OutboundSubscriptionSetup> findEstimatedTimetableRecipients(String datasetId, List<EstimatedVehicleJourney> journeys) {
+        Set<String> recipients = new LinkedHashSet<>();
+        for (EstimatedVehicleJourney journey : journeys) {
+            String lineRef = journey.getLineRef() != null ? journey.getLineRef().getValue() : null;
+            String vehicleRef = journey.getVehicleRef() != null ? journey.getVehicleRef().getValue() : null;
+            addRecipients(SiriDataType.ESTIMATED_TIMETABLE, datasetId, lineRef, vehicleRef, recipients);
+        }
+        return resolve(recipients);
+    }
+
+    List<OutboundSubscriptionSetup> findSituationRecipients(String datasetId, List<PtSituationElement> situations) {
+        Set<String> recipients = new LinkedHashSet<>();
+        if (!situations.isEmpty()) {
+            // Subscriptions without lineRef-filter receive all situations
+            addRecipients(SiriDataType.SITUATION_EXCHANGE, datasetId, null, null, recipients);
+        }
+        for (PtSituationElement situation : situations) {
+            if (situation.getAffects() != null &&
+                    situation.getAffects().getNetworks() != null &&
+                    situation.getAffects().getNetworks().getAffectedNetworks() != null) {
+                for (AffectsScopeStructure.Networks.AffectedNetwork affectedNetwork : situation.getAffects().getNetworks().getAffectedNetworks()) {
+                    if (affectedNetwork.getAffectedLines() != null) {
+                        for (AffectedLineStructure affectedLine : affectedNetwork.getAffectedLines()) {
+                            if (affectedLine.getLineRef() != null) {
+                                String lineRef = affectedLine.getLineRef().getValue();
+                                addRecipient(SiriDataType.SITUATION_EXCHANGE, datasetId, lineRef, null, recipients);
+                                if (datasetId != null) {
+                                    addRecipient(SiriDataType.SITUATION_EXCHANGE, null, lineRef, null, recipients);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return resolve(recipients);
+    }
+
+    /**
+     * Adds subscriptions matching an element - with or without filter on datasetId, lineRef and vehicleRef
+     */
+    private void addRecipients(SiriDataType type, String datasetId, String lineRef, String vehicleRef, Set<String> recipients) {
+        addDatasetRecipients(type, datasetId, lineRef, vehicleRef, recipients);
+        if (datasetId != null) {
+            addDatasetRecipients(type, null, lineRef, vehicleRef, recipients);
+        }
+    }
+
+    private void addDatasetRecipients(SiriDataType type, String datasetId, String lineRef, String vehicleRef, Set<String> recipients) {
+        addRecipient(type, datasetId, null, null, recipients);
+        if (lineRef != null) {
+            addRecipient(type, datasetId, lineRef, null, recipients);
+        }
+        if (vehicleRef != null) {
+            addRecipient(type, datasetId, null, vehicleRef, recipients);
+            if (lineRef != null) {
+                addRecipient(type, datasetId, lineRef, vehicleRef, recipients);
+            }
+        }
+    }
+
+    private void addRecipient(SiriDataType type, String datasetId, String lineRef, String vehicleRef, Set<String> recipients) {
+        Set<String> ids = routes.get(new RouteKey(type, datasetId, lineRef, vehicleRef));
+        if (ids != null) {
+            recipients.addAll(ids);
+        }
+    }
+
+    private List<OutboundSubscriptionSetup> resolve(Set<String> subscriptionIds) {
+        List<OutboundSubscriptionSetup> subscriptions = new ArrayList<>(subscriptionIds.size());
+        for (String subscriptionId : subscriptionIds) {
+            OutboundSubscriptionSetup subscription = subscriptionsById.get(subscriptionId);
+            if (subscription != null) {
+                subscriptions.add(subscription);
+            }
+        }
+        return subscriptions;
+    }
+
+    private static Set<String> valuesOrWildcard(Set<String> values) {
+        if (values == null || values.isEmpty()) {
+            return Collections.singleton(null);
+        }
+        return values;
+    }
+
+    private static final class RouteKey {
+        private final SiriDataType type;
+        private final String datasetId;
+        private final String lineRef;
+        private final String vehicleRef;
+
+        private RouteKey(SiriDataType type, String datasetId, String lineRef, String vehicleRef) {
+            this.type = type;
+            this.datasetId = datasetId;
+            this.lineRef = lineRef;
+            this.vehicleRef = vehicleRef;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RouteKey)) return false;
+            RouteKey that = (RouteKey) o;
+            return type == that.type && Objects.equals(datasetId, that.datasetId) &&
+                    Objects.equals(lineRef, that.lineRef) && Objects.equals(vehicleRef, that.vehicleRef);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, datasetId, lineRef, vehicleRef);
+        }
+    }
+}
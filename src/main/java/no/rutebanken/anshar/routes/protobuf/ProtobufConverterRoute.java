@@ -2,13 +2,18 @@ package no.rutebanken.anshar.routes.protobuf;
 
 import no.rutebanken.anshar.data.collections.KryoSerializer;
 import org.apache.camel.builder.RouteBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import uk.org.siri.siri21.Siri;
 
 import static org.apache.camel.Exchange.CONTENT_LENGTH;
 
 @Service
 public class ProtobufConverterRoute extends RouteBuilder {
 
+    private static final Logger logger = LoggerFactory.getLogger(ProtobufConverterRoute.class);
+
     KryoSerializer kryoSerializer = new KryoSerializer();
 
     @Override
@@ -16,21 +21,33 @@ public class ProtobufConverterRoute extends RouteBuilder {
 
 
         from("direct:compress.jaxb")
-                .setBody(body().convertToString())
-                .process(p -> {
-                    final String body = fixEncodingErrorsInXml(p.getIn().getBody(String.class), p.getIn().getHeader("subscriptionId", String.class));
-                    p.getOut().setBody(body);
-                    p.getOut().setHeaders(p.getIn().getHeaders());
-                    p.getOut().setHeader(CONTENT_LENGTH, body.getBytes().length);
-                })
-                .bean(kryoSerializer, "write")
+                .choice()
+                    .when(body().isInstanceOf(Siri.class))
+                        // Already parsed and mapped - serialized as-is, encoding-errors are fixed before parsing
+                        .bean(kryoSerializer, "write")
+                    .endChoice()
+                    .otherwise()
+                        .setBody(body().convertToString())
+                        .process(p -> {
+                            final String body = fixEncodingErrorsInXml(p.getIn().getBody(String.class), p.getIn().getHeader("subscriptionId", String.class));
+                            p.getOut().setBody(body);
+                            p.getOut().setHeaders(p.getIn().getHeaders());
+                            p.getOut().setHeader(CONTENT_LENGTH, body.getBytes().length);
+                        })
+                        .bean(kryoSerializer, "write")
+                    .endChoice()
+                .end()
         ;
 
         from("direct:decompress.jaxb")
                 .bean(kryoSerializer, "read")
                 .process(p -> {
-                    final String body = p.getIn().getBody(String.class);
-                    p.getOut().setBody(body);
+                    final Object body = p.getIn().getBody();
+                    if (body instanceof Siri) {
+                        p.getOut().setBody(body);
+                    } else {
+                        p.getOut().setBody(p.getIn().getBody(String.class));
+                    }
                     p.getOut().setHeaders(p.getIn().getHeaders());
                 })
         ;
@@ -40,12 +57,12 @@ public class ProtobufConverterRoute extends RouteBuilder {
     /*
      * Temporarily replaces characters when receiving data created by wrong encoding - KOLDATA-479
      */
-    private String fixEncodingErrorsInXml(String body, String subscriptionId) {
+    public static String fixEncodingErrorsInXml(String body, String subscriptionId) {
 
         if (body == null) {
             // This should never happen (!), keeping it for now, but should be removed
             body = "";
-            log.warn("Body is null!!!");
+            logger.warn("Body is null!!!");
         }
 
         boolean replacedChars = false;
@@ -75,7 +92,7 @@ public class ProtobufConverterRoute extends RouteBuilder {
         }
 
         if (replacedChars) {
-            log.info("Fixed encoding errors for subscriptionId: {}", subscriptionId);
+            logger.info("Fixed encoding errors for subscriptionId: {}", subscriptionId);
         }
 
         return body;
@@ -1,8 +1,8 @@
 package no.rutebanken.anshar.routes.pubsub;
 
 import no.rutebanken.anshar.routes.avro.AvroConvertorProcessor;
+import no.rutebanken.anshar.routes.siri.helpers.SiriPayloadHelper;
 import org.apache.camel.builder.RouteBuilder;
-import org.entur.avro.realtime.siri.model.SiriRecord;
 import org.entur.siri21.util.SiriXml;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -11,9 +11,6 @@ import uk.org.siri.siri21.Siri;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import static org.entur.avro.realtime.siri.converter.Converter.avro2Jaxb;
-import static org.entur.avro.realtime.siri.converter.Converter.jaxb2Avro;
-
 @Service
 public class PubsubTopicRoute extends RouteBuilder {
 
@@ -36,13 +33,14 @@ public class PubsubTopicRoute extends RouteBuilder {
 
             /**
              * Splits SIRI ET-ServiceDelivery into singular messages (i.e. one ET-message per ServiceDelivery), converts
-             * message to protobuf, and posts to Cloud Pubsub
+             * message to Avro, and posts to Cloud Pubsub
+             *
+             * Split in-memory - the Siri-object is converted directly to Avro without an XML round trip
              */
             from("direct:send.to.pubsub.topic.estimated_timetable")
                     .to("direct:siri.transform.data")
                     .choice().when(body().isNotNull())
-                        .to("xslt-saxon:xsl/split.xsl")
-                        .split().tokenizeXML("Siri").streaming()
+                        .split(method(SiriPayloadHelper.class, "splitServiceDelivery")).streaming()
                         .wireTap("direct:publish.et.avro")        // Publish as Avro
                         .to("direct:publish.et.xml")        // Publish as XML
                     .end()
@@ -50,39 +48,24 @@ public class PubsubTopicRoute extends RouteBuilder {
 
             /**
              * Splits SIRI VM-ServiceDelivery into singular messages (i.e. one VM-message per ServiceDelivery), converts
-             * message to protobuf, and posts to Cloud Pubsub
+             * message to Avro, and posts to Cloud Pubsub
              */
             from("direct:send.to.pubsub.topic.vehicle_monitoring")
                     .to("direct:siri.transform.data")
                     .choice().when(body().isNotNull())
-                        .process(p -> {
-                            try {
-                                p.getMessage().setBody(SiriXml.toXml(p.getIn().getBody(Siri.class)));
-                            } catch (NullPointerException e) {
-                                try {
-                                    SiriRecord siriRecord = jaxb2Avro(p.getIn().getBody(Siri.class));
-                                    Siri siri = avro2Jaxb(siriRecord);
-                                    p.getMessage().setBody(SiriXml.toXml(siri));
-                                } catch (NullPointerException e2) {
-                                    log.error("Caught NullPointerException twice - giving up.", e2);
-                                }
-                            }
-                        })
-                        .to("xslt-saxon:xsl/split.xsl")
-                        .split().tokenizeXML("Siri").streaming()
+                        .split(method(SiriPayloadHelper.class, "splitServiceDelivery")).streaming()
                         .to("direct:publish.vm.avro")// Publish as Avro
                     .end()
             ;
 
             /**
              * Splits SIRI SX-ServiceDelivery into singular messages (i.e. one SX-message per ServiceDelivery), converts
-             * message to protobuf, and posts to Cloud Pubsub
+             * message to Avro, and posts to Cloud Pubsub
              */
             from("direct:send.to.pubsub.topic.situation_exchange")
                     .to("direct:siri.transform.data")
                     .choice().when(body().isNotNull())
-                        .to("xslt-saxon:xsl/split.xsl")
-                        .split().tokenizeXML("Siri").streaming()
+                        .split(method(SiriPayloadHelper.class, "splitServiceDelivery")).streaming()
                         .wireTap("direct:publish.sx.avro")// Publish as Avro
                         .to("direct:publish.sx.xml")        // Publish as XML
                     .end()
@@ -90,6 +73,7 @@ public class PubsubTopicRoute extends RouteBuilder {
 
             if (etTopicXml != null) {
                 from("direct:publish.et.xml")
+                        .process(p -> p.getMessage().setBody(SiriXml.toXml(p.getIn().getBody(Siri.class))))
                         .to(etTopicXml)
                 ;
             } else {
@@ -106,6 +90,7 @@ public class PubsubTopicRoute extends RouteBuilder {
 
             if (sxTopicXml != null) {
                 from("direct:publish.sx.xml")
+                        .process(p -> p.getMessage().setBody(SiriXml.toXml(p.getIn().getBody(Siri.class))))
                         .to(sxTopicXml)
                 ;
             } else {
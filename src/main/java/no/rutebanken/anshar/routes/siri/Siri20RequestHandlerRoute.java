@@ -18,6 +18,8 @@ package no.rutebanken.anshar.routes.siri;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.xml.bind.JAXBException;
 import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.metrics.PipelineStage;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.RestRouteBuilder;
 import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
 import no.rutebanken.anshar.routes.siri.handlers.SiriHandler;
@@ -62,6 +64,9 @@ public class Siri20RequestHandlerRoute extends RestRouteBuilder {
     @Autowired
     private SiriHandler handler;
 
+    @Autowired
+    private PrometheusMetricsService metrics;
+
     @Autowired
     private AnsharConfiguration configuration;
 
@@ -156,8 +161,10 @@ public class Siri20RequestHandlerRoute extends RestRouteBuilder {
 
         from("direct:async.process.request")
             .to("direct:set.mdc.subscriptionId")
+            .process(p -> startPipelineStage(p))
             .convertBodyTo(String.class)
             .process(p -> {
+                recordPipelineStage(p, PipelineStage.RECEIVE, metrics, getSubscriptionSetup(p));
                 p.getMessage().setBody(p.getIn().getBody());
                 p.getMessage().setHeaders(p.getIn().getHeaders());
                 p.getMessage().setHeader(INTERNAL_SIRI_DATA_TYPE, getSubscriptionDataType(p));
@@ -342,11 +349,7 @@ public class Siri20RequestHandlerRoute extends RestRouteBuilder {
     }
 
     private String getSubscriptionDataType(Exchange e) {
-        String subscriptionId = e.getIn().getHeader(PARAM_SUBSCRIPTION_ID, String.class);
-        if (subscriptionId == null || subscriptionId.isEmpty()) {
-            return null;
-        }
-        SubscriptionSetup subscriptionSetup = subscriptionManager.get(subscriptionId);
+        SubscriptionSetup subscriptionSetup = getSubscriptionSetup(e);
 
         if (subscriptionSetup == null) {
             return null;
@@ -354,6 +357,14 @@ public class Siri20RequestHandlerRoute extends RestRouteBuilder {
         return subscriptionSetup.getSubscriptionType().name();
     }
 
+    private SubscriptionSetup getSubscriptionSetup(Exchange e) {
+        String subscriptionId = e.getIn().getHeader(PARAM_SUBSCRIPTION_ID, String.class);
+        if (subscriptionId == null || subscriptionId.isEmpty()) {
+            return null;
+        }
+        return subscriptionManager.get(subscriptionId);
+    }
+
     private boolean subscriptionExistsAndIsActive(Exchange e) {
         String subscriptionId = e.getIn().getHeader(PARAM_SUBSCRIPTION_ID, String.class);
         if (subscriptionId == null || subscriptionId.isEmpty()) {
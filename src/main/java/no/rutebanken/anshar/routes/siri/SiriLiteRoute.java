@@ -22,6 +22,7 @@ import no.rutebanken.anshar.data.EstimatedTimetables;
 import no.rutebanken.anshar.data.Situations;
 import no.rutebanken.anshar.data.VehicleActivities;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
+import no.rutebanken.anshar.routes.RenderedResponseCache;
 import no.rutebanken.anshar.routes.RestRouteBuilder;
 import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
 import no.rutebanken.anshar.routes.siri.handlers.SiriHandler;
@@ -75,6 +76,9 @@ public class SiriLiteRoute extends RestRouteBuilder {
     @Autowired
     private MappingAdapterPresets mappingAdapterPresets;
 
+    @Autowired
+    private RenderedResponseCache renderedResponseCache;
+
     @Override
     public void configure() throws Exception {
         super.configure();
@@ -267,6 +271,11 @@ public class SiriLiteRoute extends RestRouteBuilder {
                 .when(e -> isTrackingHeaderAcceptable(e))
                 .process(p -> {
 
+                    HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                    if (isNotModified(p, out, "et-monitored", estimatedTimetables.getCacheVersion())) {
+                        logger.info("Monitored ET-data not modified");
+                        return;
+                    }
 
                     logger.info("Fetching monitored ET-data");
                     Siri response = siriObjectFactory.createETServiceDelivery(estimatedTimetables.getAllMonitored());
@@ -281,7 +290,6 @@ public class SiriLiteRoute extends RestRouteBuilder {
 
                     metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
 
-                    HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
                     logger.info("Streaming monitored ET-data");
                     streamOutput(p, response, out);
                     logger.info("Done processing monitored ET-data");
@@ -302,22 +310,30 @@ public class SiriLiteRoute extends RestRouteBuilder {
                         String datasetId = p.getIn().getHeader(PARAM_DATASET_ID, String.class);
                         String clientTrackingName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
 
-                        logger.info("Fetching cached SX-data");
-                        Siri response = siriObjectFactory.createSXServiceDelivery(situations.getAllCachedUpdates(requestorId,
-                            datasetId, clientTrackingName
-                        ));
+                        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                        if (requestorId == null) {
+                            final long version = situations.getCacheVersion();
+                            if (isNotModified(p, out, "sx-cache", version)) {
+                                logger.info("Cached SX-data not modified");
+                                return;
+                            }
 
-                        List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
-                                                                                        SiriDataType.SITUATION_EXCHANGE,
-                                                                                        OutboundIdMappingPolicy.DEFAULT
-                                                                                    );
+                            logger.info("Fetching pre-rendered SX-data");
+                            RenderedResponseCache.Snapshot snapshot = getSnapshot(p, renderedResponseCache, "sx-cache", version,
+                                    () -> createCachedSxResponse(null, datasetId, clientTrackingName)
+                            );
 
-                        logger.info("Transforming cached SX-data");
-                        response = SiriValueTransformer.transform(response, outboundAdapters, false, false);
+                            metrics.countOutgoingData(SiriDataType.SITUATION_EXCHANGE, SubscriptionSetup.SubscriptionMode.LITE, snapshot.getObjectCount());
 
-                        metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+                            logger.info("Streaming pre-rendered SX-data");
+                            writeSnapshot(p, out, "sx-cache", snapshot);
+                            logger.info("Done processing cached SX-data");
+                            return;
+                        }
 
-                        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                        Siri response = createCachedSxResponse(requestorId, datasetId, clientTrackingName);
+
+                        metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
 
                         logger.info("Streaming cached SX-data");
                         streamOutput(p, response, out);
@@ -341,35 +357,32 @@ public class SiriLiteRoute extends RestRouteBuilder {
                         String lineRef = p.getIn().getHeader(PARAM_LINE_REF, String.class);
                         String clientTrackingName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
 
-                        logger.info("Fetching cached VM-data");
-                        final Collection<VehicleActivityStructure> cachedUpdates = vehicleActivities
-                            .getAllCachedUpdates(requestorId, datasetId, lineRef, clientTrackingName, maxSize);
                         List<String> excludedIdList = getParameterValuesAsList(p.getIn(), PARAM_EXCLUDED_DATASET_ID);
 
-                        if (excludedIdList != null && !excludedIdList.isEmpty()) {
-                            cachedUpdates.removeIf(vehicle -> {
-                                if (vehicle.getMonitoredVehicleJourney() != null &&
-                                    vehicle.getMonitoredVehicleJourney().getDataSource() != null) {
-                                    // Return 'true' if codespaceId should be excluded
-                                    return excludedIdList.contains(vehicle.getMonitoredVehicleJourney().getDataSource());
-                                }
-                                return false;
-                            });
-                        }
+                        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                        if (requestorId == null) {
+                            final long version = vehicleActivities.getCacheVersion();
+                            if (isNotModified(p, out, "vm-cache", version)) {
+                                logger.info("Cached VM-data not modified");
+                                return;
+                            }
 
-                        Siri response = siriObjectFactory.createVMServiceDelivery(cachedUpdates);
+                            logger.info("Fetching pre-rendered VM-data");
+                            RenderedResponseCache.Snapshot snapshot = getSnapshot(p, renderedResponseCache, "vm-cache", version,
+                                    () -> createCachedVmResponse(null, datasetId, lineRef, clientTrackingName, maxSize, excludedIdList)
+                            );
 
-                        List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
-                                                                                        SiriDataType.VEHICLE_MONITORING,
-                                                                                        OutboundIdMappingPolicy.DEFAULT
-                                                                                    );
+                            metrics.countOutgoingData(SiriDataType.VEHICLE_MONITORING, SubscriptionSetup.SubscriptionMode.LITE, snapshot.getObjectCount());
 
-                        logger.info("Transforming cached VM-data");
-                        response = SiriValueTransformer.transform(response, outboundAdapters, false, false);
+                            logger.info("Streaming pre-rendered VM-data");
+                            writeSnapshot(p, out, "vm-cache", snapshot);
+                            logger.info("Done processing cached VM-data");
+                            return;
+                        }
 
-                        metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+                        Siri response = createCachedVmResponse(requestorId, datasetId, lineRef, clientTrackingName, maxSize, excludedIdList);
 
-                        HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                        metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
 
                         logger.info("Streaming cached VM-data");
                         streamOutput(p, response, out);
@@ -393,6 +406,12 @@ public class SiriLiteRoute extends RestRouteBuilder {
                     String lineRef = p.getIn().getHeader(PARAM_LINE_REF, String.class);
                     String clientTrackingName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
 
+                    HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                    if (requestorId == null && isNotModified(p, out, "et", estimatedTimetables.getCacheVersion())) {
+                        logger.info("Cached ET-data not modified");
+                        return;
+                    }
+
                     logger.info("Fetching cached ET-data");
                     Siri response = siriObjectFactory.createETServiceDelivery(estimatedTimetables.getAllCachedUpdates(requestorId,
                             datasetId, lineRef, clientTrackingName, maxSize
@@ -408,8 +427,6 @@ public class SiriLiteRoute extends RestRouteBuilder {
 
                     metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
 
-                    HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
-
                     logger.info("Streaming cached ET-data");
                     streamOutput(p, response, out);
                     logger.info("Done processing cached ET-data");
@@ -432,22 +449,29 @@ public class SiriLiteRoute extends RestRouteBuilder {
 
                 String clientTrackingName = p.getIn().getHeader(configuration.getTrackingHeaderName(), String.class);
 
-                Siri response = siriObjectFactory.createETServiceDelivery(estimatedTimetables.getAllCachedUpdates(null, null, clientTrackingName));
+                HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                final long version = estimatedTimetables.getCacheVersion();
+                if (isNotModified(p, out, "et-monitored-cache", version)) {
+                    logger.info("Cached ET-data not modified");
+                    return;
+                }
 
-                List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
-                    SiriDataType.ESTIMATED_TIMETABLE,
-                    OutboundIdMappingPolicy.DEFAULT
-                );
+                RenderedResponseCache.Snapshot snapshot = getSnapshot(p, renderedResponseCache, "et-monitored-cache", version, () -> {
+                    Siri response = siriObjectFactory.createETServiceDelivery(estimatedTimetables.getAllCachedUpdates(null, null, clientTrackingName));
 
-                logger.info("Transforming cached ET-data");
-                response = SiriValueTransformer.transform(response, outboundAdapters, false, true);
+                    List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
+                        SiriDataType.ESTIMATED_TIMETABLE,
+                        OutboundIdMappingPolicy.DEFAULT
+                    );
 
-                metrics.countOutgoingData(response, SubscriptionSetup.SubscriptionMode.LITE);
+                    logger.info("Transforming cached ET-data");
+                    return SiriValueTransformer.transform(response, outboundAdapters, false, true);
+                });
 
-                HttpServletResponse out = p.getIn().getBody(HttpServletResponse.class);
+                metrics.countOutgoingData(SiriDataType.ESTIMATED_TIMETABLE, SubscriptionSetup.SubscriptionMode.LITE, snapshot.getObjectCount());
 
-                logger.info("Streaming cached ET-data");
-                streamOutput(p, response, out);
+                logger.info("Streaming pre-rendered ET-data");
+                writeSnapshot(p, out, "et-monitored-cache", snapshot);
                 logger.info("Done processing cached ET-data");
             })
             .log("RequestTracer - Request done (ET)")
@@ -457,6 +481,49 @@ public class SiriLiteRoute extends RestRouteBuilder {
         ;
     }
 
+    private Siri createCachedSxResponse(String requestorId, String datasetId, String clientTrackingName) {
+        logger.info("Fetching cached SX-data");
+        Siri response = siriObjectFactory.createSXServiceDelivery(situations.getAllCachedUpdates(requestorId,
+            datasetId, clientTrackingName
+        ));
+
+        List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
+                                                                        SiriDataType.SITUATION_EXCHANGE,
+                                                                        OutboundIdMappingPolicy.DEFAULT
+                                                                    );
+
+        logger.info("Transforming cached SX-data");
+        return SiriValueTransformer.transform(response, outboundAdapters, false, false);
+    }
+
+    private Siri createCachedVmResponse(String requestorId, String datasetId, String lineRef, String clientTrackingName,
+                                        Integer maxSize, List<String> excludedIdList) {
+        logger.info("Fetching cached VM-data");
+        final Collection<VehicleActivityStructure> cachedUpdates = vehicleActivities
+            .getAllCachedUpdates(requestorId, datasetId, lineRef, clientTrackingName, maxSize);
+
+        if (excludedIdList != null && !excludedIdList.isEmpty()) {
+            cachedUpdates.removeIf(vehicle -> {
+                if (vehicle.getMonitoredVehicleJourney() != null &&
+                    vehicle.getMonitoredVehicleJourney().getDataSource() != null) {
+                    // Return 'true' if codespaceId should be excluded
+                    return excludedIdList.contains(vehicle.getMonitoredVehicleJourney().getDataSource());
+                }
+                return false;
+            });
+        }
+
+        Siri response = siriObjectFactory.createVMServiceDelivery(cachedUpdates);
+
+        List<ValueAdapter> outboundAdapters = mappingAdapterPresets.getOutboundAdapters(
+                                                                        SiriDataType.VEHICLE_MONITORING,
+                                                                        OutboundIdMappingPolicy.DEFAULT
+                                                                    );
+
+        logger.info("Transforming cached VM-data");
+        return SiriValueTransformer.transform(response, outboundAdapters, false, false);
+    }
+
     /**
      * If http-parameter requestorId is not provided in request, it will be generated based on
      * client IP and requested resource for uniqueness
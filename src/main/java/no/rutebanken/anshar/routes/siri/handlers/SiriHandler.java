@@ -21,6 +21,7 @@ import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.data.EstimatedTimetables;
 import no.rutebanken.anshar.data.Situations;
 import no.rutebanken.anshar.data.VehicleActivities;
+import no.rutebanken.anshar.metrics.PipelineStage;
 import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.health.HealthManager;
 import no.rutebanken.anshar.routes.outbound.ServerSubscriptionManager;
@@ -68,6 +69,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static no.rutebanken.anshar.routes.siri.transformer.impl.OutboundIdAdapter.getOriginalId;
 
@@ -339,11 +341,14 @@ public class SiriHandler {
             } catch (IOException e) {
                 receivedBytes = 0;
             }
-            long t1 = System.currentTimeMillis();
+            long t1 = System.nanoTime();
             Siri incoming = SiriXml.parseXml(xml);
 
+            long parseNanos = System.nanoTime() - t1;
+            metrics.recordPipelineStage(PipelineStage.PARSE, subscriptionSetup.getSubscriptionType(), subscriptionSetup.getDatasetId(), parseNanos);
+
             // log slow parsing
-            long duration = System.currentTimeMillis() - t1;
+            long duration = TimeUnit.NANOSECONDS.toMillis(parseNanos);
             if(duration <= 50) {
                 if(logger.isDebugEnabled()) {
                     logger.debug("Parsing XML took {} ms, {} bytes", duration, receivedBytes);
@@ -355,83 +360,109 @@ public class SiriHandler {
                 return;
             }
 
-            if (incoming.getHeartbeatNotification() != null) {
-                subscriptionManager.touchSubscription(subscriptionId);
-                logger.info("Heartbeat - {}", subscriptionSetup);
-            } else if (incoming.getCheckStatusResponse() != null) {
-                logger.info("Incoming CheckStatusResponse [{}], reporting ServiceStartedTime: {}", subscriptionSetup, incoming.getCheckStatusResponse().getServiceStartedTime());
-                subscriptionManager.touchSubscription(subscriptionId, incoming.getCheckStatusResponse().getServiceStartedTime());
-            } else if (incoming.getSubscriptionResponse() != null) {
-                SubscriptionResponseStructure subscriptionResponse = incoming.getSubscriptionResponse();
-                subscriptionResponse.getResponseStatuses().forEach(responseStatus -> {
-                    if (responseStatus.isStatus() == null || responseStatus.isStatus()) {
-
-                        // If no status is provided it is handled as "true"
-                        subscriptionManager.activatePendingSubscription(subscriptionId);
-                    }
-                });
+            processSiriClientRequest(subscriptionId, subscriptionSetup, incoming, receivedBytes);
+        } else {
+            logger.debug("ServiceDelivery for invalid subscriptionId [{}] ignored.", subscriptionId);
+        }
+    }
 
-            } else if (incoming.getTerminateSubscriptionResponse() != null) {
-                TerminateSubscriptionResponseStructure terminateSubscriptionResponse = incoming.getTerminateSubscriptionResponse();
+    /**
+     * Handling incoming data from external servers that has already been parsed and mapped
+     *
+     * @param subscriptionId
+     * @param incoming      Parsed SIRI-data
+     * @param receivedBytes Size of the original payload - used for statistics
+     */
+    public void handleIncomingSiri(String subscriptionId, Siri incoming, int receivedBytes) {
+        SubscriptionSetup subscriptionSetup = subscriptionManager.get(subscriptionId);
 
-                logger.info("Subscription terminated {}", subscriptionSetup);
+        if (subscriptionSetup != null) {
+            if (incoming != null) {
+                processSiriClientRequest(subscriptionId, subscriptionSetup, incoming, receivedBytes);
+            }
+        } else {
+            logger.debug("ServiceDelivery for invalid subscriptionId [{}] ignored.", subscriptionId);
+        }
+    }
 
-            } else if (incoming.getDataReadyNotification() != null) {
-                //Handled using camel routing
-            } else if (incoming.getServiceDelivery() != null) {
-                boolean deliveryContainsData = false;
-                healthManager.dataReceived();
-                List addedOrUpdated = new ArrayList();
-                SiriDataType subscriptionType = subscriptionSetup.getSubscriptionType();
+    private void processSiriClientRequest(String subscriptionId, SubscriptionSetup subscriptionSetup, Siri incoming, int receivedBytes) {
+        if (incoming.getHeartbeatNotification() != null) {
+            subscriptionManager.touchSubscription(subscriptionId);
+            logger.info("Heartbeat - {}", subscriptionSetup);
+        } else if (incoming.getCheckStatusResponse() != null) {
+            logger.info("Incoming CheckStatusResponse [{}], reporting ServiceStartedTime: {}", subscriptionSetup, incoming.getCheckStatusResponse().getServiceStartedTime());
+            subscriptionManager.touchSubscription(subscriptionId, incoming.getCheckStatusResponse().getServiceStartedTime());
+        } else if (incoming.getSubscriptionResponse() != null) {
+            SubscriptionResponseStructure subscriptionResponse = incoming.getSubscriptionResponse();
+            subscriptionResponse.getResponseStatuses().forEach(responseStatus -> {
+                if (responseStatus.isStatus() == null || responseStatus.isStatus()) {
+
+                    // If no status is provided it is handled as "true"
+                    subscriptionManager.activatePendingSubscription(subscriptionId);
+                }
+            });
 
-                if (subscriptionType.equals(SiriDataType.SITUATION_EXCHANGE)) {
-                    List<SituationExchangeDeliveryStructure> situationExchangeDeliveries = incoming.getServiceDelivery().getSituationExchangeDeliveries();
-                    logger.info("Got SX-delivery: Subscription [{}]", subscriptionSetup);
+        } else if (incoming.getTerminateSubscriptionResponse() != null) {
+            TerminateSubscriptionResponseStructure terminateSubscriptionResponse = incoming.getTerminateSubscriptionResponse();
 
-                    addedOrUpdated = handlePtSituations(situationExchangeDeliveries, subscriptionSetup);
+            logger.info("Subscription terminated {}", subscriptionSetup);
 
-                    logger.info("Active SX-elements: {}, current delivery: {}, {}", situations.getSize(), addedOrUpdated.size(), subscriptionSetup);
-                } else if (subscriptionType.equals(SiriDataType.VEHICLE_MONITORING)) {
+        } else if (incoming.getDataReadyNotification() != null) {
+            //Handled using camel routing
+        } else if (incoming.getServiceDelivery() != null) {
+            boolean deliveryContainsData = false;
+            healthManager.dataReceived();
+            List addedOrUpdated = new ArrayList();
+            SiriDataType subscriptionType = subscriptionSetup.getSubscriptionType();
+            long t1 = System.nanoTime();
 
-                    List<VehicleMonitoringDeliveryStructure> vehicleMonitoringDeliveries = incoming.getServiceDelivery().getVehicleMonitoringDeliveries();
-                    logger.info("Got VM-delivery: Subscription [{}] {}", subscriptionSetup, subscriptionSetup.forwardPositionData() ? "- Position only":"");
+            if (subscriptionType.equals(SiriDataType.SITUATION_EXCHANGE)) {
+                List<SituationExchangeDeliveryStructure> situationExchangeDeliveries = incoming.getServiceDelivery().getSituationExchangeDeliveries();
+                logger.info("Got SX-delivery: Subscription [{}]", subscriptionSetup);
 
-                    addedOrUpdated = handleVehicleActivities(vehicleMonitoringDeliveries, subscriptionSetup);
+                addedOrUpdated = handlePtSituations(situationExchangeDeliveries, subscriptionSetup);
 
+                logger.info("Active SX-elements: {}, current delivery: {}, {}", situations.getSize(), addedOrUpdated.size(), subscriptionSetup);
+            } else if (subscriptionType.equals(SiriDataType.VEHICLE_MONITORING)) {
 
-                    logger.info("Active VM-elements: {}, current delivery: {}, {}", vehicleActivities.getSize(), addedOrUpdated.size(), subscriptionSetup);
-                } else if (subscriptionType.equals(SiriDataType.ESTIMATED_TIMETABLE)) {
-                    List<EstimatedTimetableDeliveryStructure> estimatedTimetableDeliveries = incoming.getServiceDelivery().getEstimatedTimetableDeliveries();
-                    logger.info("Got ET-delivery: Subscription {}", subscriptionSetup);
+                List<VehicleMonitoringDeliveryStructure> vehicleMonitoringDeliveries = incoming.getServiceDelivery().getVehicleMonitoringDeliveries();
+                logger.info("Got VM-delivery: Subscription [{}] {}", subscriptionSetup, subscriptionSetup.forwardPositionData() ? "- Position only":"");
 
-                    addedOrUpdated = handleEstimatedTimetables(estimatedTimetableDeliveries, subscriptionSetup);
+                addedOrUpdated = handleVehicleActivities(vehicleMonitoringDeliveries, subscriptionSetup);
 
-                    logger.info("Active ET-elements: {}, current delivery: {}, {}", estimatedTimetables.getSize(), addedOrUpdated.size(), subscriptionSetup);
-                }
 
-                deliveryContainsData = deliveryContainsData || (!addedOrUpdated.isEmpty());
+                logger.info("Active VM-elements: {}, current delivery: {}, {}", vehicleActivities.getSize(), addedOrUpdated.size(), subscriptionSetup);
+            } else if (subscriptionType.equals(SiriDataType.ESTIMATED_TIMETABLE)) {
+                List<EstimatedTimetableDeliveryStructure> estimatedTimetableDeliveries = incoming.getServiceDelivery().getEstimatedTimetableDeliveries();
+                logger.info("Got ET-delivery: Subscription {}", subscriptionSetup);
 
-                if (!subscriptionSetup.isUseProvidedCodespaceId()) {
-                    // Subscription is not separated on provided codespaceId, push updates to all subscribers
-                    serverSubscriptionManager.pushUpdatesAsync(subscriptionType, addedOrUpdated, subscriptionSetup.getDatasetId());
-                }
+                addedOrUpdated = handleEstimatedTimetables(estimatedTimetableDeliveries, subscriptionSetup);
 
-                subscriptionManager.incrementObjectCounter(subscriptionSetup, addedOrUpdated.size());
+                logger.info("Active ET-elements: {}, current delivery: {}, {}", estimatedTimetables.getSize(), addedOrUpdated.size(), subscriptionSetup);
+            }
 
-                if (deliveryContainsData) {
-                    subscriptionManager.dataReceived(subscriptionId, receivedBytes);
-                } else {
-                    subscriptionManager.touchSubscription(subscriptionId);
-                }
+            metrics.recordPipelineStage(PipelineStage.REPOSITORY, subscriptionType, subscriptionSetup.getDatasetId(), System.nanoTime() - t1);
+
+            deliveryContainsData = deliveryContainsData || (!addedOrUpdated.isEmpty());
+
+            if (!subscriptionSetup.isUseProvidedCodespaceId()) {
+                // Subscription is not separated on provided codespaceId, push updates to all subscribers
+                serverSubscriptionManager.pushUpdatesAsync(subscriptionType, addedOrUpdated, subscriptionSetup.getDatasetId());
+            }
+
+            subscriptionManager.incrementObjectCounter(subscriptionSetup, addedOrUpdated.size());
+
+            if (deliveryContainsData) {
+                subscriptionManager.dataReceived(subscriptionId, receivedBytes);
             } else {
-                try {
-                    logger.info("Unsupported SIRI-request:" + SiriXml.toXml(incoming));
-                } catch (JAXBException e) {
-                    //Ignore
-                }
+                subscriptionManager.touchSubscription(subscriptionId);
             }
         } else {
-            logger.debug("ServiceDelivery for invalid subscriptionId [{}] ignored.", subscriptionId);
+            try {
+                logger.info("Unsupported SIRI-request:" + SiriXml.toXml(incoming));
+            } catch (JAXBException e) {
+                //Ignore
+            }
         }
     }
 
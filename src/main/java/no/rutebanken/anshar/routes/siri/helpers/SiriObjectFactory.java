@@ -72,14 +72,22 @@ import uk.org.siri.siri21.VehicleRef;
 
 import javax.annotation.Nonnull;
 import javax.xml.namespace.QName;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class SiriObjectFactory {
@@ -88,6 +96,8 @@ public class SiriObjectFactory {
 
     private static final KryoPool kryoPool;
 
+    private static final Map<Class<?>, ShallowCopier> shallowCopiers = new ConcurrentHashMap<>();
+
     static {
     	KryoFactory factory = () -> {
             Kryo kryo = new Kryo();
@@ -642,4 +652,72 @@ public class SiriObjectFactory {
         	kryoPool.release(kryo);
         }
     }
+
+    /**
+     * Creates a shallow copy of provided object - all fields refer to the same objects as the original, except lists
+     * which are copied to new lists. Elements may then be added/removed from lists in the copy without altering the
+     * original.
+     *
+     * @param object
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T shallowCopy(T object) {
+        if (object == null) {
+            return null;
+        }
+        ShallowCopier copier = shallowCopiers.get(object.getClass());
+        if (copier == null) {
+            copier = new ShallowCopier(object.getClass());
+            shallowCopiers.putIfAbsent(object.getClass(), copier);
+        }
+        return (T) copier.copy(object);
+    }
+
+    /**
+     * Constructor and field-accessors resolved once per class
+     */
+    private static final class ShallowCopier {
+        private final MethodHandle constructor;
+        private final List<MethodHandle> getters = new ArrayList<>();
+        private final List<MethodHandle> setters = new ArrayList<>();
+        private final List<Boolean> listFields = new ArrayList<>();
+
+        private ShallowCopier(Class<?> clazz) {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            try {
+                constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Object.class));
+                for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers())) {
+                            continue;
+                        }
+                        field.setAccessible(true);
+                        getters.add(lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class)));
+                        setters.add(lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class)));
+                        listFields.add(List.class.isAssignableFrom(field.getType()));
+                    }
+                }
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Unable to create shallow copy of " + clazz, e);
+            }
+        }
+
+        private Object copy(Object original) {
+            try {
+                Object copy = constructor.invokeExact();
+                for (int i = 0; i < getters.size(); i++) {
+                    Object value = getters.get(i).invokeExact(original);
+                    if (value != null && listFields.get(i)) {
+                        value = new ArrayList<>((List<?>) value);
+                    }
+                    setters.get(i).invokeExact(copy, value);
+                }
+                return copy;
+            } catch (Throwable t) {
+                throw new IllegalStateException("Unable to create shallow copy of " + original.getClass(), t);
+            }
+        }
+    }
 }
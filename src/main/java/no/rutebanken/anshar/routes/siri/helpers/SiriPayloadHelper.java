@@ -0,0 +1,173 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.helpers;
+
+import uk.org.siri.siri21.EstimatedTimetableDeliveryStructure;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.EstimatedVersionFrameStructure;
+import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.ServiceDelivery;
+import uk.org.siri.siri21.Siri;
+import uk.org.siri.siri21.SituationExchangeDeliveryStructure;
+import uk.org.siri.siri21.VehicleActivityStructure;
+import uk.org.siri.siri21.VehicleMonitoringDeliveryStructure;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for the ingest-pipeline - inspecting incoming payloads before deciding which transformations are needed,
+ * and splitting parsed deliveries without serializing them back to XML.
+ */
+public final class SiriPayloadHelper {
+
+    private static final String SIRI_NAMESPACE = "http://www.siri.org.uk/siri";
+
+    private static final String SPLIT_SIRI_VERSION = "2.0";
+
+    private static final XMLInputFactory xmlInputFactory;
+
+    static {
+        xmlInputFactory = XMLInputFactory.newFactory();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private SiriPayloadHelper() {
+    }
+
+    /**
+     * Returns true if the payload is a plain (non-SOAP) Siri-document with version 2.x - i.e. it can be parsed
+     * directly without any XSLT-transformation.
+     *
+     * Only the root element is read.
+     */
+    public static boolean isSiri20Payload(String xml) {
+        if (xml == null) {
+            return false;
+        }
+        XMLStreamReader reader = null;
+        try {
+            reader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    if (!"Siri".equals(reader.getLocalName()) || !SIRI_NAMESPACE.equals(reader.getNamespaceURI())) {
+                        return false;
+                    }
+                    String version = reader.getAttributeValue(XMLConstants.NULL_NS_URI, "version");
+                    return version != null && version.startsWith("2.");
+                }
+            }
+        } catch (XMLStreamException e) {
+            // Not parseable - let the regular pipeline handle/report it
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    //Ignore
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits a ServiceDelivery into one Siri-object per EstimatedVehicleJourney, VehicleActivity and
+     * PtSituationElement. Produces the same structure as xsl/split.xsl.
+     *
+     * @return Split Siri-objects, or empty list if the payload does not contain a ServiceDelivery
+     */
+    public static List<Siri> splitServiceDelivery(Siri siri) {
+        List<Siri> result = new ArrayList<>();
+        if (siri == null || siri.getServiceDelivery() == null) {
+            return result;
+        }
+        ServiceDelivery serviceDelivery = siri.getServiceDelivery();
+
+        for (EstimatedTimetableDeliveryStructure delivery : serviceDelivery.getEstimatedTimetableDeliveries()) {
+            for (EstimatedVersionFrameStructure frame : delivery.getEstimatedJourneyVersionFrames()) {
+                for (EstimatedVehicleJourney journey : frame.getEstimatedVehicleJourneies()) {
+                    EstimatedVersionFrameStructure splitFrame = new EstimatedVersionFrameStructure();
+                    splitFrame.setRecordedAtTime(frame.getRecordedAtTime());
+                    splitFrame.getEstimatedVehicleJourneies().add(journey);
+
+                    EstimatedTimetableDeliveryStructure splitDelivery = new EstimatedTimetableDeliveryStructure();
+                    splitDelivery.setVersion(SPLIT_SIRI_VERSION);
+                    splitDelivery.setResponseTimestamp(delivery.getResponseTimestamp());
+                    splitDelivery.getEstimatedJourneyVersionFrames().add(splitFrame);
+
+                    ServiceDelivery splitServiceDelivery = createServiceDelivery(serviceDelivery);
+                    splitServiceDelivery.getEstimatedTimetableDeliveries().add(splitDelivery);
+                    result.add(createSiri(splitServiceDelivery));
+                }
+            }
+        }
+
+        for (VehicleMonitoringDeliveryStructure delivery : serviceDelivery.getVehicleMonitoringDeliveries()) {
+            for (VehicleActivityStructure activity : delivery.getVehicleActivities()) {
+                VehicleMonitoringDeliveryStructure splitDelivery = new VehicleMonitoringDeliveryStructure();
+                splitDelivery.setVersion(SPLIT_SIRI_VERSION);
+                splitDelivery.setResponseTimestamp(delivery.getResponseTimestamp());
+                splitDelivery.getVehicleActivities().add(activity);
+
+                ServiceDelivery splitServiceDelivery = createServiceDelivery(serviceDelivery);
+                splitServiceDelivery.getVehicleMonitoringDeliveries().add(splitDelivery);
+                result.add(createSiri(splitServiceDelivery));
+            }
+        }
+
+        for (SituationExchangeDeliveryStructure delivery : serviceDelivery.getSituationExchangeDeliveries()) {
+            if (delivery.getSituations() == null) {
+                continue;
+            }
+            for (PtSituationElement situation : delivery.getSituations().getPtSituationElements()) {
+                SituationExchangeDeliveryStructure.Situations situations = new SituationExchangeDeliveryStructure.Situations();
+                situations.getPtSituationElements().add(situation);
+
+                SituationExchangeDeliveryStructure splitDelivery = new SituationExchangeDeliveryStructure();
+                splitDelivery.setVersion(SPLIT_SIRI_VERSION);
+                splitDelivery.setResponseTimestamp(delivery.getResponseTimestamp());
+                splitDelivery.setSituations(situations);
+
+                ServiceDelivery splitServiceDelivery = createServiceDelivery(serviceDelivery);
+                splitServiceDelivery.getSituationExchangeDeliveries().add(splitDelivery);
+                result.add(createSiri(splitServiceDelivery));
+            }
+        }
+        return result;
+    }
+
+    private static ServiceDelivery createServiceDelivery(ServiceDelivery original) {
+        ServiceDelivery serviceDelivery = new ServiceDelivery();
+        serviceDelivery.setResponseTimestamp(original.getResponseTimestamp());
+        serviceDelivery.setProducerRef(original.getProducerRef());
+        return serviceDelivery;
+    }
+
+    private static Siri createSiri(ServiceDelivery serviceDelivery) {
+        Siri siri = new Siri();
+        siri.setVersion(SPLIT_SIRI_VERSION);
+        siri.setServiceDelivery(serviceDelivery);
+        return siri;
+    }
+}
@@ -77,7 +77,7 @@ public class NetexParserProcessor {
     private Map<String, List<StopTime>> tripStops = new HashMap<>();
     private Map<String, Set<String>> trainNumberTrips = new HashMap<>();
     private Map<String, List<ServiceDate>> tripDates = new HashMap<>();
-    private static Map<String, String> parentStops = new HashMap<>();
+    private Map<String, String> parentStops = new HashMap<>();
     private Map<String, LocationStructure> locations = new HashMap<>();
     private Map<String, AllVehicleModesOfTransportEnumeration> modes = new HashMap<>();
 
@@ -15,11 +15,7 @@
 
 package no.rutebanken.anshar.routes.siri.processor.routedata;
 
-import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
-import org.rutebanken.netex.model.DatedServiceJourney;
-import org.rutebanken.netex.model.LocationStructure;
-import org.rutebanken.netex.model.OperatingDay;
-import org.rutebanken.netex.model.ServiceAlterationEnumeration;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -35,11 +31,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -61,6 +63,13 @@ public class NetexUpdaterService {
     @Value("${anshar.startup.load.mapping.data:true}")
     private boolean loadMappingData;
 
+    @Value("${anshar.netex.parser.threads:4}")
+    private int parserThreads;
+
+    //Index is written here after each update, and loaded on startup
+    @Value("${anshar.netex.snapshot.file:${java.io.tmpdir}/anshar-netex-route-data.bin}")
+    private String snapshotFile;
+
     private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
 
     // Kept non-configurable since this whole adapter is a temporary hack - ROR-326/ROR-329
@@ -72,77 +81,62 @@ public class NetexUpdaterService {
         "https://storage.googleapis.com/marduk-production/tiamat/CurrentAndFuture_latest.zip"
     };
 
-    private static Map<String, List<StopTime>> tripStops = new HashMap<>();
-    private static Map<String, Set<String>> trainNumberTrips = new HashMap<>();
-    private static Map<String, List<ServiceDate>> tripDates = new HashMap<>();
-    private static Map<String, String> parentStops = new HashMap<>();
-    private static Map<String, String> quayPublicCodes = new HashMap<>();
-    private static Map<String, List<DatedServiceJourney>> datedServiceJourneysForTrip = new HashMap<>();
-    private static Map<String, OperatingDay> operatingDayRefs = new HashMap<>();
+    private static volatile RouteData routeData = RouteData.EMPTY;
+
+    //public for testing-purposes
+    public static RouteData getRouteData() {
+        return routeData;
+    }
 
     //public for testing-purposes
-    public static Map<String, LocationStructure> locations = new HashMap<>();
-    public static Map<String, AllVehicleModesOfTransportEnumeration> modes = new HashMap<>();
+    public static void setRouteData(RouteData data) {
+        routeData = data;
+    }
 
     public static boolean isStopIdOrParentMatch(String stop1, String stop2) {
-        return stop1.equals(stop2) || parentStops.get(stop2).equals(parentStops.get(stop1));
+        RouteData data = routeData;
+        return stop1.equals(stop2) || data.getParentStop(stop2).equals(data.getParentStop(stop1));
     }
 
     static Map<String, String> getParentStops() {
-        return parentStops;
+        return routeData.getParentStops();
     }
 
     public static List<StopTime> getStopTimes(String serviceJourneyId) {
-        return tripStops.get(serviceJourneyId);
+        return routeData.getStopTimes(serviceJourneyId);
     }
 
     public static List<ServiceDate> getServiceDates(String serviceJourneyId) {
-        return tripDates.get(serviceJourneyId);
+        return routeData.getServiceDates(serviceJourneyId);
     }
 
+    /**
+     * @return Ids of the ServiceJourneys with the given train number - a new set, callers may modify it
+     */
     public static Set<String> getServiceJourney(String trainNumber) {
-        return trainNumberTrips.get(trainNumber);
+        return routeData.getServiceJourneys(trainNumber);
     }
 
     public static String getPublicCode(String quayRef) {
         if (quayRef != null) {
-            return quayPublicCodes.get(quayRef);
+            return routeData.getPublicCode(quayRef);
         }
         return null;
     }
 
     public static boolean isKnownTrainNr(String trainNumber) {
-        return trainNumberTrips.containsKey(trainNumber);
+        return routeData.isKnownTrainNumber(trainNumber);
     }
 
     public static boolean isDsjCancelled(String serviceJourneyId, ServiceDate serviceDate) {
         if (serviceJourneyId != null) {
-            if (datedServiceJourneysForTrip.containsKey(serviceJourneyId)) {
-                List<DatedServiceJourney> datedServiceJourneys = datedServiceJourneysForTrip.get(serviceJourneyId);
-                for (DatedServiceJourney dsj : datedServiceJourneys) {
-
-                    OperatingDay operatingDay = operatingDayRefs.get(dsj.getOperatingDayRef().getRef());
-                    if (isSameDate(operatingDay, serviceDate)) {
-                        return dsj.getServiceAlteration() != null && (
-                                dsj.getServiceAlteration() == ServiceAlterationEnumeration.CANCELLATION ||
-                                dsj.getServiceAlteration() == ServiceAlterationEnumeration.REPLACED
-                                );
-                    }
-                }
-            }
+            return routeData.isDsjCancelled(serviceJourneyId, serviceDate);
         }
         return false;
     }
 
-    private static boolean isSameDate(OperatingDay operatingDay, ServiceDate serviceDate) {
-        return (
-                operatingDay.getCalendarDate().getYear() == serviceDate.year &&
-                operatingDay.getCalendarDate().getMonthValue() == serviceDate.month &&
-                operatingDay.getCalendarDate().getDayOfMonth() == serviceDate.day);
-    }
-
     public static boolean serviceJourneyIdExists(String serviceJourneyId) {
-        return serviceJourneyId != null && tripStops.containsKey(serviceJourneyId);
+        return serviceJourneyId != null && routeData.hasStopTimes(serviceJourneyId);
     }
 
     @PostConstruct
@@ -153,23 +147,45 @@ public class NetexUpdaterService {
         }
 
         logger.info("Starting the NeTEx updater service");
-        int initialDelay = 0;
+        long initialDelay = 0;
+        long updateFrequency = FREQUENCY_TIME_UNIT.toMinutes(UPDATE_FREQUENCY);
 
-        if (delayStartupForInitialization) {
+        Path snapshot = getSnapshotPath();
+        if (snapshot != null && Files.exists(snapshot)) {
+            try {
+                long t1 = System.currentTimeMillis();
+                routeData = RouteData.read(snapshot);
+                long age = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - Files.getLastModifiedTime(snapshot).toMillis());
+                initialDelay = Math.max(0, updateFrequency - age);
+                logger.info("Loaded NeTEx snapshot {} ({} bytes, {} minutes old) in {} ms", snapshot,
+                        routeData.getSizeInBytes(), age, (System.currentTimeMillis() - t1));
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Could not load NeTEx snapshot {} - reading NeTEx", snapshot, e);
+            }
+        }
+
+        if (routeData == RouteData.EMPTY && delayStartupForInitialization) {
             //Initialize data synchronous
             logger.info("Loading NeTEx before continuing.");
             initializeNetexData();
-            initialDelay = UPDATE_FREQUENCY;
+            initialDelay = updateFrequency;
         }
 
         executor.scheduleWithFixedDelay(() -> initializeNetexData(),
                 initialDelay,
-                UPDATE_FREQUENCY,
-                FREQUENCY_TIME_UNIT);
+                updateFrequency,
+                TimeUnit.MINUTES);
+
+    }
 
+    private Path getSnapshotPath() {
+        if (snapshotFile == null || snapshotFile.isBlank()) {
+            return null;
+        }
+        return Paths.get(snapshotFile);
     }
 
-    private static void initializeNetexData() {
+    private void initializeNetexData() {
         long t1 = System.currentTimeMillis();
         logger.info("Updating NeTEx-data - start");
 
@@ -185,7 +201,8 @@ public class NetexUpdaterService {
                 }
             }
 
-             update(paths);
+            RouteData data = read(parserThreads, paths);
+            routeData = writeSnapshot(data);
 
         } finally {
             cleanup(paths);
@@ -209,34 +226,60 @@ public class NetexUpdaterService {
     }
 
     public static void update(String... paths) {
-        logger.info("Reading {} NeTEx files", paths.length);
+        routeData = read(Math.min(paths.length, Runtime.getRuntime().availableProcessors()), paths);
+    }
+
+    /**
+     * Parses the NeTEx-files concurrently into partial indexes, and merges them in the given order - later files
+     * take precedence, as when files are read one at a time.
+     */
+    static RouteData read(int threads, String... paths) {
+        logger.info("Reading {} NeTEx files with {} threads", paths.length, threads);
         long start = System.currentTimeMillis();
-        Map<String, List<StopTime>> tmpTripStops = new HashMap<>();
-        Map<String, Set<String>> tmpTrainNumberTrips = new HashMap<>();
-        Map<String, List<DatedServiceJourney>> tmpDatedServiceJourneysForTrip = new HashMap<>();
-        Map<String, List<ServiceDate>> tmpTripDates = new HashMap<>();
-        Map<String, String> tmpParentStops = new HashMap<>();
-        Map<String, String> tmpQuayPublicCodes = new HashMap<>();
-        Map<String, LocationStructure> tmpLocations = new HashMap<>();
-        Map<String, AllVehicleModesOfTransportEnumeration> tmpModes = new HashMap<>();
-        Map<String, OperatingDay> tmpOperatingDayRefs = new HashMap<>();
 
-        for (String path : paths) {
-            readNeTEx(path, tmpTripStops, tmpTrainNumberTrips, tmpDatedServiceJourneysForTrip, tmpTripDates, tmpParentStops, tmpQuayPublicCodes,
-                tmpLocations, tmpModes, tmpOperatingDayRefs);
+        ExecutorService parserExecutor = Executors.newFixedThreadPool(Math.max(1, threads),
+                new ThreadFactoryBuilder().setNameFormat("netex-parser-%d").setDaemon(true).build());
+        try {
+            List<Future<RouteData.Builder>> partialIndexes = new ArrayList<>(paths.length);
+            for (String path : paths) {
+                partialIndexes.add(parserExecutor.submit(() -> readNeTEx(path)));
+            }
+
+            RouteData.Builder builder = RouteData.builder();
+            for (Future<RouteData.Builder> partialIndex : partialIndexes) {
+                builder.putAll(partialIndex.get());
+            }
+
+            RouteData data = builder.build();
+            logger.info("Read and merged {} NeTEx files in {} ms - {} ids, {} bytes", paths.length,
+                    (System.currentTimeMillis() - start), data.getStringCount(), data.getSizeInBytes());
+            return data;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading NeTEx", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not read NeTEx", e.getCause());
+        } finally {
+            parserExecutor.shutdownNow();
         }
+    }
 
-        // Swapping updated data
-        tripStops = tmpTripStops;
-        trainNumberTrips = tmpTrainNumberTrips;
-        datedServiceJourneysForTrip = tmpDatedServiceJourneysForTrip;
-        tripDates = tmpTripDates;
-        parentStops = tmpParentStops;
-        quayPublicCodes = tmpQuayPublicCodes;
-        locations = tmpLocations;
-        modes = tmpModes;
-        operatingDayRefs = tmpOperatingDayRefs;
-        logger.info("Read and merged {} NeTEx files in {} ms", paths.length, (System.currentTimeMillis()-start));
+    /**
+     * Writes the index to the snapshot-file, and returns the memory-mapped snapshot - or the given index if the
+     * snapshot could not be written.
+     */
+    private RouteData writeSnapshot(RouteData data) {
+        Path snapshot = getSnapshotPath();
+        if (snapshot != null) {
+            try {
+                data.writeTo(snapshot);
+                logger.info("Wrote NeTEx snapshot {}", snapshot);
+                return RouteData.read(snapshot);
+            } catch (IOException e) {
+                logger.warn("Could not write NeTEx snapshot {}", snapshot, e);
+            }
+        }
+        return data;
     }
 
     private static String readUrl(String url) {
@@ -279,40 +322,25 @@ public class NetexUpdaterService {
         return null;
     }
 
-    private static void readNeTEx(
-            String path, Map<String, List<StopTime>> tripStops,
-            Map<String, Set<String>> trainNumberTrips,
-            Map<String, List<DatedServiceJourney>> datedServiceJourneysForTrip,
-            Map<String, List<ServiceDate>> tripDates,
-            Map<String, String> parentStops, Map<String, String> quayPublicCodes,
-            Map<String, LocationStructure> locations, Map<String, AllVehicleModesOfTransportEnumeration> tmpModes,
-            Map<String, OperatingDay> operatingDayRefs) {
+    private static RouteData.Builder readNeTEx(String path) {
+        RouteData.Builder builder = RouteData.builder();
         try {
-
+            long start = System.currentTimeMillis();
             NetexParserProcessor netexProcessor = new NetexParserProcessor();
             netexProcessor.loadFiles(new File(path));
-            tripStops.putAll(netexProcessor.getTripStops());
-
-            for (String trainNumber : netexProcessor.getTrainNumberTrips().keySet()) {
-                if (!trainNumberTrips.containsKey(trainNumber)) {
-                    trainNumberTrips.put(trainNumber, netexProcessor.getTrainNumberTrips().get(trainNumber));
-                } else {
-                    trainNumberTrips.get(trainNumber).addAll(netexProcessor.getTrainNumberTrips().get(trainNumber));
-                }
-            }
-
-            datedServiceJourneysForTrip.putAll(netexProcessor.getDatedServiceJourneyForServiceJourneyId());
-            operatingDayRefs.putAll(netexProcessor.getOperatingDayRefs());
-            tripDates.putAll(netexProcessor.getTripDates());
-            parentStops.putAll(netexProcessor.getParentStops());
-            quayPublicCodes.putAll(netexProcessor.getPublicCodeByQuayId());
-            locations.putAll(netexProcessor.getLocations());
-            tmpModes.putAll(netexProcessor.getModes());
+            netexProcessor.getTripStops().forEach(builder::putStopTimes);
+            netexProcessor.getTrainNumberTrips().forEach(builder::addTrainNumberTrips);
+            netexProcessor.getDatedServiceJourneyForServiceJourneyId().forEach(builder::putDatedServiceJourneys);
+            netexProcessor.getOperatingDayRefs().forEach(builder::putOperatingDay);
+            netexProcessor.getTripDates().forEach(builder::putServiceDates);
+            netexProcessor.getParentStops().forEach(builder::putParentStop);
+            netexProcessor.getPublicCodeByQuayId().forEach(builder::putPublicCode);
+            netexProcessor.getLocations().forEach(builder::putLocation);
+            netexProcessor.getModes().forEach(builder::putMode);
+            logger.info("Read NeTEx file {} in {} ms", path, (System.currentTimeMillis() - start));
         } catch (IOException e) {
             logger.error("Could not load NeTEx file from path {}", path);
         }
+        return builder;
     }
-
-
-
 }
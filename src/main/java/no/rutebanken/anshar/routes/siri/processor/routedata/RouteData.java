@@ -0,0 +1,832 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
+import org.rutebanken.netex.model.DatedServiceJourney;
+import org.rutebanken.netex.model.LocationStructure;
+import org.rutebanken.netex.model.OperatingDay;
+import org.rutebanken.netex.model.ServiceAlterationEnumeration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Immutable, compact index of the route data read from NeTEx.
+ *
+ * All ids and codes are stored once in a string dictionary, and all other data are primitive arrays indexed by
+ * string id - one-to-many relations as CSR-style adjacency lists (offsets per id into a shared values array).
+ *
+ * The index is a single flat binary layout, so the same bytes can be written to a snapshot file and memory-mapped
+ * on startup - only the dictionary itself is decoded to the heap.
+ */
+public final class RouteData {
+
+    private static final int MAGIC = 0x414E5244; // "ANRD"
+    private static final int FORMAT_VERSION = 2;
+
+    private static final int NOT_SET = -1;
+
+    private static final byte HAS_STOP_TIMES = 1;
+    private static final byte HAS_TRAIN_TRIPS = 2;
+    private static final byte HAS_SERVICE_DATES = 4;
+    private static final byte HAS_LOCATION = 8;
+
+    static final RouteData EMPTY = builder().build();
+
+    private final ByteBuffer buffer;
+
+    private final String[] strings;
+    private final IntBuffer hashTable;
+    private final int hashMask;
+
+    private final ByteBuffer flags;
+    private final IntBuffer parentStops;
+    private final IntBuffer publicCodes;
+    private final ByteBuffer modes;
+    private final AllVehicleModesOfTransportEnumeration[] modeTable;
+    private final DoubleBuffer latitudes;
+    private final DoubleBuffer longitudes;
+    private final int locationCount;
+
+    private final IntBuffer stopTimeOffsets;
+    private final IntBuffer stopTimeStops;
+    private final IntBuffer stopTimeSequences;
+    private final IntBuffer stopTimeArrivals;
+    private final IntBuffer stopTimeDepartures;
+
+    private final IntBuffer trainTripOffsets;
+    private final IntBuffer trainTrips;
+
+    private final IntBuffer serviceDateOffsets;
+    private final IntBuffer serviceDates;
+
+    // DatedServiceJourneys are indexed by (ServiceJourney, operating day) in a separate hash table
+    private final IntBuffer datedServiceJourneyOwners;
+    private final IntBuffer datedServiceJourneyDates;
+    private final IntBuffer datedServiceJourneyIds;
+    private final ByteBuffer datedServiceJourneyCancellations;
+    private final IntBuffer datedServiceJourneyHashTable;
+    private final int datedServiceJourneyHashMask;
+
+    private RouteData(ByteBuffer buffer) {
+        this.buffer = buffer;
+        Sections sections = new Sections(buffer);
+
+        if (sections.readInt() != MAGIC || sections.readInt() != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown route data format");
+        }
+        int stringCount = sections.readInt();
+        int hashCapacity = sections.readInt();
+        int modeCount = sections.readInt();
+        int datedServiceJourneyCount = sections.readInt();
+        int datedServiceJourneyHashCapacity = sections.readInt();
+        locationCount = sections.readInt();
+
+        IntBuffer stringOffsets = sections.ints(stringCount + 1);
+        ByteBuffer utf8 = sections.bytes(stringOffsets.get(stringCount));
+        strings = new String[stringCount];
+        byte[] stringBytes = new byte[utf8.remaining()];
+        utf8.get(stringBytes);
+        for (int i = 0; i < stringCount; i++) {
+            int offset = stringOffsets.get(i);
+            strings[i] = new String(stringBytes, offset, stringOffsets.get(i + 1) - offset, StandardCharsets.UTF_8);
+        }
+
+        hashTable = sections.ints(hashCapacity);
+        hashMask = hashCapacity - 1;
+
+        IntBuffer modeNames = sections.ints(modeCount);
+        modeTable = new AllVehicleModesOfTransportEnumeration[modeCount + 1];
+        for (int i = 0; i < modeCount; i++) {
+            modeTable[i + 1] = AllVehicleModesOfTransportEnumeration.valueOf(strings[modeNames.get(i)]);
+        }
+
+        flags = sections.bytes(stringCount);
+        modes = sections.bytes(stringCount);
+        parentStops = sections.ints(stringCount);
+        publicCodes = sections.ints(stringCount);
+        latitudes = sections.doubles(stringCount);
+        longitudes = sections.doubles(stringCount);
+
+        stopTimeOffsets = sections.ints(stringCount + 1);
+        int stopTimeCount = stopTimeOffsets.get(stringCount);
+        stopTimeStops = sections.ints(stopTimeCount);
+        stopTimeSequences = sections.ints(stopTimeCount);
+        stopTimeArrivals = sections.ints(stopTimeCount);
+        stopTimeDepartures = sections.ints(stopTimeCount);
+
+        trainTripOffsets = sections.ints(stringCount + 1);
+        trainTrips = sections.ints(trainTripOffsets.get(stringCount));
+
+        serviceDateOffsets = sections.ints(stringCount + 1);
+        serviceDates = sections.ints(serviceDateOffsets.get(stringCount));
+
+        datedServiceJourneyOwners = sections.ints(datedServiceJourneyCount);
+        datedServiceJourneyDates = sections.ints(datedServiceJourneyCount);
+        datedServiceJourneyIds = sections.ints(datedServiceJourneyCount);
+        datedServiceJourneyCancellations = sections.bytes(datedServiceJourneyCount);
+        datedServiceJourneyHashTable = sections.ints(datedServiceJourneyHashCapacity);
+        datedServiceJourneyHashMask = datedServiceJourneyHashCapacity - 1;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Memory-maps a snapshot written by {@link #writeTo(Path)}
+     */
+    public static RouteData read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new RouteData(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the index to a snapshot file - the file is replaced atomically
+     */
+    public void writeTo(Path file) throws IOException {
+        Path tmpFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+                ByteBuffer data = buffer.duplicate().clear();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(false);
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * @return Size of the index, excluding the decoded string dictionary
+     */
+    public long getSizeInBytes() {
+        return buffer.capacity();
+    }
+
+    public int getStringCount() {
+        return strings.length;
+    }
+
+    public List<StopTime> getStopTimes(String serviceJourneyId) {
+        int id = indexOf(serviceJourneyId);
+        if (!hasFlag(id, HAS_STOP_TIMES)) {
+            return null;
+        }
+        int start = stopTimeOffsets.get(id);
+        int end = stopTimeOffsets.get(id + 1);
+        List<StopTime> stopTimes = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            stopTimes.add(new StopTime(stringOrNull(stopTimeStops.get(i)),
+                    stopTimeSequences.get(i),
+                    stopTimeArrivals.get(i),
+                    stopTimeDepartures.get(i)
+            ));
+        }
+        return stopTimes;
+    }
+
+    public boolean hasStopTimes(String serviceJourneyId) {
+        return hasFlag(indexOf(serviceJourneyId), HAS_STOP_TIMES);
+    }
+
+    /**
+     * @return Ids of the ServiceJourneys with the given train number, or null if train number is unknown. Returned
+     * set is a copy, and may be modified.
+     */
+    public Set<String> getServiceJourneys(String trainNumber) {
+        int id = indexOf(trainNumber);
+        if (!hasFlag(id, HAS_TRAIN_TRIPS)) {
+            return null;
+        }
+        int start = trainTripOffsets.get(id);
+        int end = trainTripOffsets.get(id + 1);
+        Set<String> serviceJourneys = new HashSet<>();
+        for (int i = start; i < end; i++) {
+            serviceJourneys.add(strings[trainTrips.get(i)]);
+        }
+        return serviceJourneys;
+    }
+
+    public boolean isKnownTrainNumber(String trainNumber) {
+        return hasFlag(indexOf(trainNumber), HAS_TRAIN_TRIPS);
+    }
+
+    public List<ServiceDate> getServiceDates(String serviceJourneyId) {
+        int id = indexOf(serviceJourneyId);
+        if (!hasFlag(id, HAS_SERVICE_DATES)) {
+            return null;
+        }
+        int start = serviceDateOffsets.get(id);
+        int end = serviceDateOffsets.get(id + 1);
+        List<ServiceDate> dates = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            dates.add(toServiceDate(serviceDates.get(i)));
+        }
+        return dates;
+    }
+
+    /**
+     * @return true if the first DatedServiceJourney for the ServiceJourney on the given date is cancelled or replaced
+     */
+    public boolean isDsjCancelled(String serviceJourneyId, ServiceDate serviceDate) {
+        int index = datedServiceJourneyIndex(serviceJourneyId, serviceDate);
+        return index != NOT_SET && datedServiceJourneyCancellations.get(index) != 0;
+    }
+
+    /**
+     * @return Id of the first DatedServiceJourney for the ServiceJourney on the given date, or null if not found
+     */
+    public String getDatedServiceJourneyId(String serviceJourneyId, ServiceDate serviceDate) {
+        int index = datedServiceJourneyIndex(serviceJourneyId, serviceDate);
+        return index != NOT_SET ? stringOrNull(datedServiceJourneyIds.get(index)) : null;
+    }
+
+    private int datedServiceJourneyIndex(String serviceJourneyId, ServiceDate serviceDate) {
+        int id = indexOf(serviceJourneyId);
+        if (id == NOT_SET || serviceDate == null) {
+            return NOT_SET;
+        }
+        int date = toInt(serviceDate);
+        int index = datedServiceJourneyHash(id, date) & datedServiceJourneyHashMask;
+        while (true) {
+            int entry = datedServiceJourneyHashTable.get(index);
+            if (entry == 0) {
+                return NOT_SET;
+            }
+            if (datedServiceJourneyOwners.get(entry - 1) == id && datedServiceJourneyDates.get(entry - 1) == date) {
+                return entry - 1;
+            }
+            index = (index + 1) & datedServiceJourneyHashMask;
+        }
+    }
+
+    public String getParentStop(String stopId) {
+        int id = indexOf(stopId);
+        return id != NOT_SET ? stringOrNull(parentStops.get(id)) : null;
+    }
+
+    public String getPublicCode(String quayId) {
+        int id = indexOf(quayId);
+        return id != NOT_SET ? stringOrNull(publicCodes.get(id)) : null;
+    }
+
+    public AllVehicleModesOfTransportEnumeration getMode(String stopId) {
+        int id = indexOf(stopId);
+        return id != NOT_SET ? modeTable[modes.get(id)] : null;
+    }
+
+    public boolean hasLocations() {
+        return locationCount > 0;
+    }
+
+    public boolean hasLocation(String stopId) {
+        return hasFlag(indexOf(stopId), HAS_LOCATION);
+    }
+
+    public double getLatitude(String stopId) {
+        return hasLocation(stopId) ? latitudes.get(indexOf(stopId)) : Double.NaN;
+    }
+
+    public double getLongitude(String stopId) {
+        return hasLocation(stopId) ? longitudes.get(indexOf(stopId)) : Double.NaN;
+    }
+
+    /**
+     * @return All quay-/stop place-ids with their parent stop place - creates a new map
+     */
+    public Map<String, String> getParentStops() {
+        Map<String, String> result = new HashMap<>();
+        for (int id = 0; id < strings.length; id++) {
+            int parent = parentStops.get(id);
+            if (parent != NOT_SET) {
+                result.put(strings[id], strings[parent]);
+            }
+        }
+        return result;
+    }
+
+    private int indexOf(String value) {
+        if (value == null) {
+            return NOT_SET;
+        }
+        int index = spread(value.hashCode()) & hashMask;
+        while (true) {
+            int entry = hashTable.get(index);
+            if (entry == 0) {
+                return NOT_SET;
+            }
+            if (strings[entry - 1].equals(value)) {
+                return entry - 1;
+            }
+            index = (index + 1) & hashMask;
+        }
+    }
+
+    private boolean hasFlag(int id, byte flag) {
+        return id != NOT_SET && (flags.get(id) & flag) != 0;
+    }
+
+    private String stringOrNull(int id) {
+        return id != NOT_SET ? strings[id] : null;
+    }
+
+    private static int datedServiceJourneyHash(int serviceJourney, int date) {
+        return spread(serviceJourney * 0x9E3779B1 + date);
+    }
+
+    private static int capacityFor(int size) {
+        return Integer.highestOneBit(Math.max(1, size * 2 - 1)) << 1;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int toInt(ServiceDate date) {
+        return date.year * 10000 + date.month * 100 + date.day;
+    }
+
+    private static int toInt(LocalDateTime date) {
+        return date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+
+    private static ServiceDate toServiceDate(int date) {
+        return new ServiceDate(date / 10000, (date / 100) % 100, date % 100);
+    }
+
+    /**
+     * Reads consecutive sections - each section starts at an 8-byte boundary
+     */
+    private static final class Sections {
+        private final ByteBuffer buffer;
+        private int position;
+
+        private Sections(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private int readInt() {
+            int value = buffer.getInt(position);
+            position += Integer.BYTES;
+            return value;
+        }
+
+        private IntBuffer ints(int count) {
+            return slice(count * Integer.BYTES).asIntBuffer();
+        }
+
+        private DoubleBuffer doubles(int count) {
+            return slice(count * Double.BYTES).asDoubleBuffer();
+        }
+
+        private ByteBuffer bytes(int count) {
+            return slice(count);
+        }
+
+        private ByteBuffer slice(int length) {
+            position = align(position);
+            ByteBuffer slice = buffer.slice(position, length);
+            position += length;
+            return slice;
+        }
+    }
+
+    private static int align(int position) {
+        return (position + 7) & ~7;
+    }
+
+    /**
+     * Collects route data with the same semantics as the maps previously used - later puts for the same id replace
+     * earlier ones, trips for the same train number are merged.
+     */
+    public static final class Builder {
+
+        private final Map<String, List<StopTime>> stopTimes = new HashMap<>();
+        private final Map<String, Set<String>> trainNumberTrips = new HashMap<>();
+        private final Map<String, List<ServiceDate>> serviceDates = new HashMap<>();
+        private final Map<String, List<DatedServiceJourney>> datedServiceJourneys = new HashMap<>();
+        private final Map<String, OperatingDay> operatingDays = new HashMap<>();
+        private final Map<String, String> parentStops = new HashMap<>();
+        private final Map<String, String> publicCodes = new HashMap<>();
+        private final Map<String, LocationStructure> locations = new HashMap<>();
+        private final Map<String, AllVehicleModesOfTransportEnumeration> modes = new HashMap<>();
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder putStopTimes(String serviceJourneyId, List<StopTime> stopTimes) {
+            this.stopTimes.put(serviceJourneyId, stopTimes);
+            return this;
+        }
+
+        public Builder addTrainNumberTrips(String trainNumber, Collection<String> serviceJourneyIds) {
+            trainNumberTrips.computeIfAbsent(trainNumber, t -> new LinkedHashSet<>()).addAll(serviceJourneyIds);
+            return this;
+        }
+
+        public Builder putServiceDates(String serviceJourneyId, List<ServiceDate> dates) {
+            serviceDates.put(serviceJourneyId, dates);
+            return this;
+        }
+
+        public Builder putDatedServiceJourneys(String serviceJourneyId, List<DatedServiceJourney> datedServiceJourneys) {
+            this.datedServiceJourneys.put(serviceJourneyId, datedServiceJourneys);
+            return this;
+        }
+
+        public Builder putOperatingDay(String operatingDayId, OperatingDay operatingDay) {
+            operatingDays.put(operatingDayId, operatingDay);
+            return this;
+        }
+
+        public Builder putParentStop(String stopId, String parentStopId) {
+            parentStops.put(stopId, parentStopId);
+            return this;
+        }
+
+        public Builder putPublicCode(String quayId, String publicCode) {
+            publicCodes.put(quayId, publicCode);
+            return this;
+        }
+
+        public Builder putLocation(String stopId, LocationStructure location) {
+            locations.put(stopId, location);
+            return this;
+        }
+
+        public Builder putMode(String stopId, AllVehicleModesOfTransportEnumeration mode) {
+            modes.put(stopId, mode);
+            return this;
+        }
+
+        /**
+         * Merges a partial index into this one - the other builder's data takes precedence, as if its puts were
+         * made after the puts on this builder.
+         */
+        public Builder putAll(Builder other) {
+            stopTimes.putAll(other.stopTimes);
+            other.trainNumberTrips.forEach(this::addTrainNumberTrips);
+            serviceDates.putAll(other.serviceDates);
+            datedServiceJourneys.putAll(other.datedServiceJourneys);
+            operatingDays.putAll(other.operatingDays);
+            parentStops.putAll(other.parentStops);
+            publicCodes.putAll(other.publicCodes);
+            locations.putAll(other.locations);
+            modes.putAll(other.modes);
+            return this;
+        }
+
+        public RouteData build() {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                write(bytes);
+                return new RouteData(ByteBuffer.wrap(bytes.toByteArray()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to build route data", e);
+            }
+        }
+
+        private void write(OutputStream outputStream) throws IOException {
+            stopTimes.forEach((serviceJourneyId, times) -> {
+                id(serviceJourneyId);
+                times.forEach(stopTime -> id(stopTime.getStopId()));
+            });
+            trainNumberTrips.forEach((trainNumber, trips) -> {
+                id(trainNumber);
+                trips.forEach(this::id);
+            });
+            serviceDates.keySet().forEach(this::id);
+            datedServiceJourneys.forEach((serviceJourneyId, journeys) -> {
+                id(serviceJourneyId);
+                journeys.stream().map(DatedServiceJourney::getId).filter(Objects::nonNull).forEach(this::id);
+            });
+            parentStops.forEach((stopId, parentStopId) -> {
+                id(stopId);
+                id(parentStopId);
+            });
+            publicCodes.forEach((quayId, publicCode) -> {
+                id(quayId);
+                id(publicCode);
+            });
+            locations.keySet().forEach(this::id);
+            List<AllVehicleModesOfTransportEnumeration> modeList = new ArrayList<>();
+            modes.forEach((stopId, mode) -> {
+                id(stopId);
+                if (mode != null && !modeList.contains(mode)) {
+                    modeList.add(mode);
+                    id(mode.name());
+                }
+            });
+
+            int stringCount = strings.size();
+            byte[] flags = new byte[stringCount];
+            byte[] modeIndexes = new byte[stringCount];
+            int[] parents = filled(stringCount);
+            int[] codes = filled(stringCount);
+            double[] latitudes = new double[stringCount];
+            double[] longitudes = new double[stringCount];
+            int locationCount = 0;
+
+            int[] stopTimeOffsets = new int[stringCount + 1];
+            int[] trainTripOffsets = new int[stringCount + 1];
+            int[] serviceDateOffsets = new int[stringCount + 1];
+            IntList stopTimeStops = new IntList();
+            IntList stopTimeSequences = new IntList();
+            IntList stopTimeArrivals = new IntList();
+            IntList stopTimeDepartures = new IntList();
+            IntList trainTrips = new IntList();
+            IntList dates = new IntList();
+            IntList datedServiceJourneyOwners = new IntList();
+            IntList datedServiceJourneyDates = new IntList();
+            IntList datedServiceJourneyIds = new IntList();
+            IntList datedServiceJourneyCancellations = new IntList();
+
+            for (int id = 0; id < stringCount; id++) {
+                String value = strings.get(id);
+
+                List<StopTime> times = stopTimes.get(value);
+                if (times != null) {
+                    flags[id] |= HAS_STOP_TIMES;
+                    for (StopTime stopTime : times) {
+                        stopTimeStops.add(stopTime.getStopId() != null ? ids.get(stopTime.getStopId()) : NOT_SET);
+                        stopTimeSequences.add(stopTime.getStopSequence());
+                        stopTimeArrivals.add(stopTime.getArrivalTime());
+                        stopTimeDepartures.add(stopTime.getDepartureTime());
+                    }
+                }
+                stopTimeOffsets[id + 1] = stopTimeStops.size();
+
+                Set<String> trips = trainNumberTrips.get(value);
+                if (trips != null) {
+                    flags[id] |= HAS_TRAIN_TRIPS;
+                    trips.forEach(trip -> trainTrips.add(ids.get(trip)));
+                }
+                trainTripOffsets[id + 1] = trainTrips.size();
+
+                List<ServiceDate> journeyDates = serviceDates.get(value);
+                if (journeyDates != null) {
+                    flags[id] |= HAS_SERVICE_DATES;
+                    journeyDates.forEach(date -> dates.add(toInt(date)));
+                }
+                serviceDateOffsets[id + 1] = dates.size();
+
+                List<DatedServiceJourney> journeys = datedServiceJourneys.get(value);
+                if (journeys != null) {
+                    for (DatedServiceJourney dsj : journeys) {
+                        OperatingDay operatingDay = dsj.getOperatingDayRef() != null ?
+                                operatingDays.get(dsj.getOperatingDayRef().getRef()) : null;
+                        if (operatingDay != null && operatingDay.getCalendarDate() != null) {
+                            datedServiceJourneyOwners.add(id);
+                            datedServiceJourneyDates.add(toInt(operatingDay.getCalendarDate()));
+                            datedServiceJourneyIds.add(dsj.getId() != null ? ids.get(dsj.getId()) : NOT_SET);
+                            datedServiceJourneyCancellations.add(isCancelled(dsj) ? 1 : 0);
+                        }
+                    }
+                }
+
+                String parent = parentStops.get(value);
+                if (parent != null) {
+                    parents[id] = ids.get(parent);
+                }
+                String publicCode = publicCodes.get(value);
+                if (publicCode != null) {
+                    codes[id] = ids.get(publicCode);
+                }
+                AllVehicleModesOfTransportEnumeration mode = modes.get(value);
+                if (mode != null) {
+                    modeIndexes[id] = (byte) (modeList.indexOf(mode) + 1);
+                }
+                LocationStructure location = locations.get(value);
+                if (location != null && location.getLatitude() != null && location.getLongitude() != null) {
+                    flags[id] |= HAS_LOCATION;
+                    latitudes[id] = location.getLatitude().doubleValue();
+                    longitudes[id] = location.getLongitude().doubleValue();
+                    locationCount++;
+                }
+            }
+
+            int[] stringOffsets = new int[stringCount + 1];
+            ByteArrayOutputStream utf8 = new ByteArrayOutputStream();
+            for (int id = 0; id < stringCount; id++) {
+                utf8.write(strings.get(id).getBytes(StandardCharsets.UTF_8));
+                stringOffsets[id + 1] = utf8.size();
+            }
+
+            int hashCapacity = capacityFor(stringCount);
+            int[] hashTable = new int[hashCapacity];
+            for (int id = 0; id < stringCount; id++) {
+                int index = spread(strings.get(id).hashCode()) & (hashCapacity - 1);
+                while (hashTable[index] != 0) {
+                    index = (index + 1) & (hashCapacity - 1);
+                }
+                hashTable[index] = id + 1;
+            }
+
+            // Only the first DatedServiceJourney per (ServiceJourney, operating day) is indexed
+            int datedServiceJourneyCount = datedServiceJourneyDates.size();
+            int datedServiceJourneyHashCapacity = capacityFor(datedServiceJourneyCount);
+            int[] datedServiceJourneyHashTable = new int[datedServiceJourneyHashCapacity];
+            for (int i = 0; i < datedServiceJourneyCount; i++) {
+                int owner = datedServiceJourneyOwners.get(i);
+                int date = datedServiceJourneyDates.get(i);
+                int index = datedServiceJourneyHash(owner, date) & (datedServiceJourneyHashCapacity - 1);
+                int entry;
+                while ((entry = datedServiceJourneyHashTable[index]) != 0 &&
+                        (datedServiceJourneyOwners.get(entry - 1) != owner || datedServiceJourneyDates.get(entry - 1) != date)) {
+                    index = (index + 1) & (datedServiceJourneyHashCapacity - 1);
+                }
+                if (entry == 0) {
+                    datedServiceJourneyHashTable[index] = i + 1;
+                }
+            }
+
+            int[] modeNames = new int[modeList.size()];
+            for (int i = 0; i < modeNames.length; i++) {
+                modeNames[i] = ids.get(modeList.get(i).name());
+            }
+
+            SectionWriter out = new SectionWriter(outputStream);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(stringCount);
+            out.writeInt(hashCapacity);
+            out.writeInt(modeNames.length);
+            out.writeInt(datedServiceJourneyCount);
+            out.writeInt(datedServiceJourneyHashCapacity);
+            out.writeInt(locationCount);
+
+            out.ints(stringOffsets);
+            out.bytes(utf8.toByteArray());
+            out.ints(hashTable);
+            out.ints(modeNames);
+
+            out.bytes(flags);
+            out.bytes(modeIndexes);
+            out.ints(parents);
+            out.ints(codes);
+            out.doubles(latitudes);
+            out.doubles(longitudes);
+
+            out.ints(stopTimeOffsets);
+            out.ints(stopTimeStops.toArray());
+            out.ints(stopTimeSequences.toArray());
+            out.ints(stopTimeArrivals.toArray());
+            out.ints(stopTimeDepartures.toArray());
+
+            out.ints(trainTripOffsets);
+            out.ints(trainTrips.toArray());
+
+            out.ints(serviceDateOffsets);
+            out.ints(dates.toArray());
+
+            out.ints(datedServiceJourneyOwners.toArray());
+            out.ints(datedServiceJourneyDates.toArray());
+            out.ints(datedServiceJourneyIds.toArray());
+            out.bytes(datedServiceJourneyCancellations.toByteArray());
+            out.ints(datedServiceJourneyHashTable);
+            out.flush();
+        }
+
+        private int id(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = strings.size();
+                ids.put(value, id);
+                strings.add(value);
+            }
+            return id;
+        }
+
+        private static boolean isCancelled(DatedServiceJourney dsj) {
+            return dsj.getServiceAlteration() == ServiceAlterationEnumeration.CANCELLATION ||
+                    dsj.getServiceAlteration() == ServiceAlterationEnumeration.REPLACED;
+        }
+
+        private static int[] filled(int length) {
+            int[] values = new int[length];
+            Arrays.fill(values, NOT_SET);
+            return values;
+        }
+    }
+
+    /**
+     * Writes consecutive sections - each section starts at an 8-byte boundary
+     */
+    private static final class SectionWriter {
+        private final DataOutputStream out;
+
+        private SectionWriter(OutputStream outputStream) {
+            this.out = new DataOutputStream(outputStream);
+        }
+
+        private void writeInt(int value) throws IOException {
+            out.writeInt(value);
+        }
+
+        private void ints(int[] values) throws IOException {
+            pad();
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+
+        private void doubles(double[] values) throws IOException {
+            pad();
+            for (double value : values) {
+                out.writeDouble(value);
+            }
+        }
+
+        private void bytes(byte[] values) throws IOException {
+            pad();
+            out.write(values);
+        }
+
+        private void pad() throws IOException {
+            int padding = align(out.size()) - out.size();
+            for (int i = 0; i < padding; i++) {
+                out.write(0);
+            }
+        }
+
+        private void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int get(int index) {
+            return values[index];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        private byte[] toByteArray() {
+            byte[] bytes = new byte[size];
+            for (int i = 0; i < size; i++) {
+                bytes[i] = (byte) values[i];
+            }
+            return bytes;
+        }
+    }
+}
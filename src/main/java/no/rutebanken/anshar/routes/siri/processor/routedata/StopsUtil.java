@@ -9,7 +9,6 @@ import org.geotools.geometry.jts.JTS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.locationtech.jts.geom.Coordinate;
 import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
-import org.rutebanken.netex.model.LocationStructure;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.org.siri.siri21.VehicleModesEnumeration;
@@ -19,8 +18,7 @@ import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.locations;
-import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.modes;
+import static no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService.getRouteData;
 
 public class StopsUtil {
 
@@ -44,12 +42,13 @@ public class StopsUtil {
                 private static double calculateOrthodromicDistance(Pair<String, String> fromAndTo) {
                     double distance = -1;
 
-                    final LocationStructure from = locations.get(fromAndTo.getLeft());
-                    final LocationStructure to = locations.get(fromAndTo.getRight());
+                    final RouteData routeData = getRouteData();
+                    final String from = fromAndTo.getLeft();
+                    final String to = fromAndTo.getRight();
 
-                    if (from != null && to!= null) {
-                        Coordinate fromCoord = new Coordinate(from.getLongitude().doubleValue(), from.getLatitude().doubleValue());
-                        Coordinate toCoord = new Coordinate(to.getLongitude().doubleValue(), to.getLatitude().doubleValue());
+                    if (routeData.hasLocation(from) && routeData.hasLocation(to)) {
+                        Coordinate fromCoord = new Coordinate(routeData.getLongitude(from), routeData.getLatitude(from));
+                        Coordinate toCoord = new Coordinate(routeData.getLongitude(to), routeData.getLatitude(to));
                         try {
                             distance = JTS.orthodromicDistance(
                                 fromCoord,
@@ -66,7 +65,7 @@ public class StopsUtil {
         ;
 
     public static boolean doesVehicleModeMatchStopMode(List<VehicleModesEnumeration> reportedModes, String stopRef) {
-        final AllVehicleModesOfTransportEnumeration stopMode = modes.get(stopRef);
+        final AllVehicleModesOfTransportEnumeration stopMode = getRouteData().getMode(stopRef);
         if (stopMode != null && reportedModes != null && reportedModes.size() == 1) {
             final VehicleModesEnumeration mode = reportedModes.get(0);
             switch (mode) {
@@ -98,7 +97,7 @@ public class StopsUtil {
     //public for testing-purposes
     public static double getDistance(String fromRef, String toRef) {
         try {
-            if (locations.isEmpty()) {
+            if (!getRouteData().hasLocations()) {
                 logger.warn("No locations available for distance calculation. Returning 1000.");
                 return 1000D; // Default distance if no locations are available
             }
@@ -0,0 +1,305 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.siri.transformer;
+
+import jakarta.xml.bind.annotation.XmlSeeAlso;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Pre-resolved accessors for a single SIRI-class and a single target-class (the class a ValueAdapter applies to).
+ *
+ * Only getters that return the target-class, or that lead to an object that may contain the target-class, are
+ * included - all other paths are pruned. Reachability is resolved from declared types, including subclasses listed
+ * in @XmlSeeAlso. Getters are bound once through LambdaMetafactory, so no reflective lookups are performed while
+ * transforming.
+ *
+ * Instances are immutable and cached per (class, target-class) - safe for concurrent use.
+ */
+final class SiriClassVisitor {
+
+    private static final String SIRI_PACKAGE_PREFIX = "uk.org.siri";
+
+    private static final List<String> methodsToIgnore = Collections.singletonList("getMonitoringError");
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private static final Map<Class<?>, Map<Class<?>, SiriClassVisitor>> visitorCache = new ConcurrentHashMap<>();
+
+    private static final Map<Class<?>, Map<Class<?>, Boolean>> reachabilityCache = new ConcurrentHashMap<>();
+
+    private static final Map<Class<?>, ValueAccessor> valueAccessorCache = new ConcurrentHashMap<>();
+
+    private final List<Function<Object, Object>> targetGetters;
+
+    private final List<Function<Object, Object>> childGetters;
+
+    private SiriClassVisitor(List<Function<Object, Object>> targetGetters, List<Function<Object, Object>> childGetters) {
+        this.targetGetters = targetGetters;
+        this.childGetters = childGetters;
+    }
+
+    /**
+     * @return Getters returning an instance of the target-class
+     */
+    List<Function<Object, Object>> getTargetGetters() {
+        return targetGetters;
+    }
+
+    /**
+     * @return Getters returning objects (or lists of objects) that may contain the target-class
+     */
+    List<Function<Object, Object>> getChildGetters() {
+        return childGetters;
+    }
+
+    static boolean isSiriClass(Class<?> clazz) {
+        return clazz.getName().startsWith(SIRI_PACKAGE_PREFIX);
+    }
+
+    static SiriClassVisitor forClass(Class<?> clazz, Class<?> targetClass) {
+        Map<Class<?>, SiriClassVisitor> visitors = visitorCache.computeIfAbsent(targetClass, t -> new ConcurrentHashMap<>());
+
+        SiriClassVisitor visitor = visitors.get(clazz);
+        if (visitor == null) {
+            // Not created inside computeIfAbsent as resolving reachability updates other caches
+            visitor = createVisitor(clazz, targetClass);
+            SiriClassVisitor existing = visitors.putIfAbsent(clazz, visitor);
+            if (existing != null) {
+                visitor = existing;
+            }
+        }
+        return visitor;
+    }
+
+    static ValueAccessor valueAccessor(Class<?> targetClass) {
+        ValueAccessor accessor = valueAccessorCache.get(targetClass);
+        if (accessor == null) {
+            accessor = new ValueAccessor(targetClass);
+            valueAccessorCache.putIfAbsent(targetClass, accessor);
+        }
+        return accessor;
+    }
+
+    private static SiriClassVisitor createVisitor(Class<?> clazz, Class<?> targetClass) {
+        List<Function<Object, Object>> targetGetters = new ArrayList<>();
+        List<Function<Object, Object>> childGetters = new ArrayList<>();
+
+        for (Method method : getterMethods(clazz)) {
+            if (method.getReturnType().equals(targetClass)) {
+                targetGetters.add(createGetter(method));
+            } else {
+                Class<?> childType = resolveChildType(method);
+                if (childType != null && isReachable(childType, targetClass)) {
+                    childGetters.add(createGetter(method));
+                }
+            }
+        }
+        return new SiriClassVisitor(List.copyOf(targetGetters), List.copyOf(childGetters));
+    }
+
+    /**
+     * Returns true if the target-class may be found in an object of the given type, or any of its subtypes
+     */
+    private static boolean isReachable(Class<?> type, Class<?> targetClass) {
+        Map<Class<?>, Boolean> reachable = reachabilityCache.computeIfAbsent(targetClass, t -> new ConcurrentHashMap<>());
+
+        Boolean cached = reachable.get(type);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Collect all types that can be visited from the given type
+        Map<Class<?>, Set<Class<?>>> edges = new HashMap<>();
+        Set<Class<?>> matches = new HashSet<>();
+        Deque<Class<?>> queue = new ArrayDeque<>();
+        queue.add(type);
+        while (!queue.isEmpty()) {
+            Class<?> current = queue.poll();
+            if (edges.containsKey(current) || reachable.containsKey(current)) {
+                continue;
+            }
+            Set<Class<?>> children = new HashSet<>();
+            edges.put(current, children);
+
+            if (current.isInterface()) {
+                // Implementations are unknown - assume data may be found
+                matches.add(current);
+                continue;
+            }
+
+            XmlSeeAlso subclasses = current.getAnnotation(XmlSeeAlso.class);
+            if (subclasses != null) {
+                for (Class<?> subclass : subclasses.value()) {
+                    if (isSiriClass(subclass)) {
+                        children.add(subclass);
+                    }
+                }
+            }
+
+            for (Method method : getterMethods(current)) {
+                if (method.getReturnType().equals(targetClass)) {
+                    matches.add(current);
+                } else {
+                    Class<?> childType = resolveChildType(method);
+                    if (childType != null) {
+                        children.add(childType);
+                    }
+                }
+            }
+            queue.addAll(children);
+        }
+
+        // Propagate matches backwards until nothing changes
+        Set<Class<?>> result = new HashSet<>(matches);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<Class<?>, Set<Class<?>>> entry : edges.entrySet()) {
+                if (result.contains(entry.getKey())) {
+                    continue;
+                }
+                for (Class<?> child : entry.getValue()) {
+                    if (result.contains(child) || Boolean.TRUE.equals(reachable.get(child))) {
+                        result.add(entry.getKey());
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (Class<?> visited : edges.keySet()) {
+            reachable.putIfAbsent(visited, result.contains(visited));
+        }
+        return reachable.get(type);
+    }
+
+    /**
+     * Resolves the SIRI-type returned by the getter - or the element-type of returned lists.
+     *
+     * @return SIRI-type that should be visited, or null if getter can not lead to SIRI-data
+     */
+    private static Class<?> resolveChildType(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (List.class.isAssignableFrom(returnType)) {
+            Type genericType = method.getGenericReturnType();
+            if (genericType instanceof ParameterizedType) {
+                Type elementType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+                if (elementType instanceof Class) {
+                    returnType = (Class<?>) elementType;
+                } else {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return isSiriClass(returnType) ? returnType : null;
+    }
+
+    private static List<Method> getterMethods(Class<?> clazz) {
+        List<Method> getterMethods = new ArrayList<>();
+        for (Method method : clazz.getMethods()) {
+            if (method.getParameterCount() == 0 &&
+                    !method.getReturnType().isPrimitive() &&
+                    !method.isBridge() &&
+                    !Modifier.isStatic(method.getModifiers()) &&
+                    !methodsToIgnore.contains(method.getName())) {
+                getterMethods.add(method);
+            }
+        }
+        return getterMethods;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> createGetter(Method method) {
+        try {
+            MethodHandle handle = lookup.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(lookup,
+                    "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    handle,
+                    handle.type());
+            return (Function<Object, Object>) site.getTarget().invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Unable to create getter for " + method, t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Object> createSetter(Method method) {
+        try {
+            MethodHandle handle = lookup.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(lookup,
+                    "accept",
+                    MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    handle,
+                    handle.type());
+            return (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Unable to create setter for " + method, t);
+        }
+    }
+
+    /**
+     * getValue()/setValue(String) for the class an adapter applies to
+     */
+    static final class ValueAccessor {
+
+        private final Function<Object, Object> getter;
+        private final BiConsumer<Object, Object> setter;
+
+        private ValueAccessor(Class<?> targetClass) {
+            try {
+                getter = createGetter(targetClass.getMethod("getValue"));
+                setter = createSetter(targetClass.getMethod("setValue", String.class));
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("Class " + targetClass + " does not have getValue/setValue", e);
+            }
+        }
+
+        String getValue(Object obj) {
+            return (String) getter.apply(obj);
+        }
+
+        void setValue(Object obj, String value) {
+            setter.accept(obj, value);
+        }
+    }
+}
@@ -15,10 +15,8 @@
 
 package no.rutebanken.anshar.routes.siri.transformer;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import jakarta.xml.bind.JAXBException;
+import no.rutebanken.anshar.metrics.PipelineStage;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
 import no.rutebanken.anshar.routes.siri.processor.PostProcessor;
 import no.rutebanken.anshar.routes.siri.transformer.impl.OutboundIdAdapter;
@@ -30,15 +28,11 @@ import uk.org.siri.siri21.Siri;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
 
 public class SiriValueTransformer {
 
@@ -46,28 +40,8 @@ public class SiriValueTransformer {
 
     private static final Logger logger = LoggerFactory.getLogger(SiriValueTransformer.class);
 
-    private static final Map<GetterKey, Set<Method>> cachedGettersForAdapter = new HashMap<>();
-
     private static Set<Class> onewayMappingList = Set.of(LineRef.class);
 
-    private static final LoadingCache<Class, List<Method>> getterMethodsCache = CacheBuilder.newBuilder()
-            .build(
-                    new CacheLoader<Class, List<Method>>() {
-                        public List<Method> load(Class clazz) {
-                            Method[] methods = clazz.getMethods();
-                            List<Method> getterMethods = new ArrayList<>();
-                            for (Method method : methods) {
-                                if (method.getParameterCount() == 0 &&
-                                        !("void".equals(method.getReturnType().getName()))) {
-                                    getterMethods.add(method);
-                                }
-                            }
-                            return getterMethods;
-                        }
-                    });
-
-    private static final List<String> methodsToIgnore = Collections.singletonList("getMonitoringError");
-
     /**
      *
      * @param xml
@@ -97,10 +71,18 @@ public class SiriValueTransformer {
      * @return Transformed SIRI-object
      */
     public static Siri transform(Siri siri, List<ValueAdapter> adapters, boolean deepCopyBeforeTransform, boolean detailedLogging) {
+        return transform(siri, adapters, deepCopyBeforeTransform, detailedLogging, null);
+    }
+
+    /**
+     * @param stageTimer Receives the time (nanos) spent applying valueAdapters and postProcessors - may be null
+     * @see #transform(Siri, List, boolean, boolean)
+     */
+    public static Siri transform(Siri siri, List<ValueAdapter> adapters, boolean deepCopyBeforeTransform, boolean detailedLogging,
+                                 ObjLongConsumer<PipelineStage> stageTimer) {
         if (siri == null) {
             return null;
         }
-        int cacheSize = cachedGettersForAdapter.size();
 
         if (detailedLogging) {
             logger.debug("SIRI Transform: starting");
@@ -151,6 +133,7 @@ public class SiriValueTransformer {
             if (detailedLogging) {
                 logger.debug("SIRI Transform: {} postProcessors added", postProcessors.size());
             }
+            long t1 = System.nanoTime();
             for (ValueAdapter a : valueAdapters) {
                 try {
                     applyAdapter(transformed, a);
@@ -167,6 +150,7 @@ public class SiriValueTransformer {
                 logger.debug("SIRI Transform: valueAdapters processed");
             }
 
+            long t2 = System.nanoTime();
             for (PostProcessor processor : postProcessors) {
                 try {
                     processor.process(transformed);
@@ -182,126 +166,90 @@ public class SiriValueTransformer {
             if (detailedLogging) {
                 logger.debug("SIRI Transform: postProcessors processed");
             }
-        }
-        if (cachedGettersForAdapter.size() > cacheSize) {
-            logger.info("Getter-cache size increased from {} to {}. Could indicate a memory leak.", cacheSize, cachedGettersForAdapter.size());
+
+            if (stageTimer != null) {
+                stageTimer.accept(PipelineStage.VALUE_TRANSFORM, t2 - t1);
+                stageTimer.accept(PipelineStage.POST_PROCESS, System.nanoTime() - t2);
+            }
         }
         return transformed;
     }
 
     /**
-     * Recursively applies ValueAdapter to all fields of the specified type within SIRI-packages.
+     * Applies ValueAdapter to all fields of the specified type within SIRI-packages.
      *
      * Uses getValue()/setValue(...) apply adapters
      *
      * @param obj
      * @param adapter
-     * @throws NoSuchMethodException
-     * @throws InvocationTargetException
-     * @throws IllegalAccessException
      */
-    private static void applyAdapter(Object obj, ValueAdapter adapter) throws Throwable {
+    private static void applyAdapter(Object obj, ValueAdapter adapter) {
+        Class<?> classToApply = adapter.getClassToApply();
+        if (classToApply == null) {
+            return;
+        }
+        applyAdapter(obj, adapter, classToApply, SiriClassVisitor.valueAccessor(classToApply));
+    }
+
+    /**
+     * Recursively visits the paths that may lead to the adapter's class - other paths are never visited.
+     */
+    private static void applyAdapter(Object obj, ValueAdapter adapter, Class<?> classToApply, SiriClassVisitor.ValueAccessor valueAccessor) {
 
         //Only apply to Siri-classes
-        if (obj != null && obj.getClass().getName().startsWith("uk.org.siri")) {
+        if (obj != null && SiriClassVisitor.isSiriClass(obj.getClass())) {
 
-            GetterKey getterKey = new GetterKey(obj.getClass(), adapter);
-            Set<Method> allMethods = cachedGettersForAdapter.get(getterKey);
+            SiriClassVisitor visitor = SiriClassVisitor.forClass(obj.getClass(), classToApply);
 
-            if (allMethods == null) {
-                allMethods = new HashSet<>();
-                allMethods.addAll(getterMethodsCache.get(obj.getClass()));
-            }
-            for (Method method : allMethods) {
-                if (methodsToIgnore.contains(method.getName())) {
-                    continue;
+            for (Function<Object, Object> getter : visitor.getTargetGetters()) {
+                Object previousValue = getter.apply(obj);
+                if (previousValue != null) {
+                    String value = valueAccessor.getValue(previousValue);
+                    if (value != null) {
+                        valueAccessor.setValue(previousValue, applyAdapter(value, adapter));
+                    }
                 }
+            }
 
-
-                if (method.getReturnType().equals(adapter.getClassToApply())) {
-
-                    Set<Method> methods = cachedGettersForAdapter.getOrDefault(getterKey, new HashSet<>());
-                    methods.add(method);
-                    cachedGettersForAdapter.put(getterKey, methods);
-
-                    Object previousValue = method.invoke(obj);
-                    if (previousValue != null) {
-                        String value = (String) previousValue.getClass().getMethod("getValue").invoke(previousValue);
-                        String alteredValue;
-
-                        String originalId = value;
-
-                        if (adapter instanceof OutboundIdAdapter) {
-                            alteredValue = adapter.apply(value);
-                        } else {
-                            if (value.contains(SEPARATOR)) {
-                                originalId = value.substring(0, value.indexOf(SEPARATOR));
-                                alteredValue = adapter.apply(value.substring(value.indexOf(SEPARATOR) + SEPARATOR.length()));
-                            } else {
-                                alteredValue = adapter.apply(value);
-                            }
-                            if (!originalId.equals(alteredValue) &&                     // No need to map already correct ids
-                                    !isOnewayMapping(adapter.getClassToApply())) {      // Check for oneway-mapping
-                                alteredValue = originalId + SEPARATOR + alteredValue;
-                            }
-                        }
-
-
-                        Method valueSetter = previousValue.getClass().getMethod("setValue", String.class);
-                        valueSetter.invoke(previousValue, alteredValue);
-                    }
-                } else {
-                    Object currentValue = method.invoke(obj);
-                    if (currentValue != null) {
-                        if (currentValue instanceof List) {
-                            List list = (List) currentValue;
-                            for (Object o : list) {
-                                applyAdapter(o, adapter);
-                            }
-                        } else {
-                            applyAdapter(currentValue, adapter);
+            for (Function<Object, Object> getter : visitor.getChildGetters()) {
+                Object currentValue = getter.apply(obj);
+                if (currentValue != null) {
+                    if (currentValue instanceof List) {
+                        List list = (List) currentValue;
+                        for (Object o : list) {
+                            applyAdapter(o, adapter, classToApply, valueAccessor);
                         }
+                    } else {
+                        applyAdapter(currentValue, adapter, classToApply, valueAccessor);
                     }
                 }
             }
         }
     }
 
-    private static boolean isOnewayMapping(Class classToApply) {
-        return onewayMappingList.contains(classToApply);
-    }
-
-    private static class GetterKey {
-        private final ValueAdapter adapter;
-        private final Class clazz;
+    private static String applyAdapter(String value, ValueAdapter adapter) {
+        String alteredValue;
 
-        public GetterKey(Class clazz, ValueAdapter adapter) {
-            this.clazz = clazz;
-            this.adapter = adapter;
-        }
+        String originalId = value;
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) {
-                return true;
-            }
-            if (o == null || getClass() != o.getClass()) {
-                return false;
+        if (adapter instanceof OutboundIdAdapter) {
+            alteredValue = adapter.apply(value);
+        } else {
+            if (value.contains(SEPARATOR)) {
+                originalId = value.substring(0, value.indexOf(SEPARATOR));
+                alteredValue = adapter.apply(value.substring(value.indexOf(SEPARATOR) + SEPARATOR.length()));
+            } else {
+                alteredValue = adapter.apply(value);
             }
-
-            GetterKey getterKey = (GetterKey) o;
-
-            if (adapter != null ? !adapter.equals(getterKey.adapter) : getterKey.adapter != null) {
-                return false;
+            if (!originalId.equals(alteredValue) &&                     // No need to map already correct ids
+                    !isOnewayMapping(adapter.getClassToApply())) {      // Check for oneway-mapping
+                alteredValue = originalId + SEPARATOR + alteredValue;
             }
-            return clazz != null ? clazz.equals(getterKey.clazz) : getterKey.clazz == null;
         }
+        return alteredValue;
+    }
 
-        @Override
-        public int hashCode() {
-            int result = adapter != null ? adapter.hashCode() : 0;
-            result = 31 * result + (clazz != null ? clazz.hashCode() : 0);
-            return result;
-        }
+    private static boolean isOnewayMapping(Class classToApply) {
+        return onewayMappingList.contains(classToApply);
     }
 }
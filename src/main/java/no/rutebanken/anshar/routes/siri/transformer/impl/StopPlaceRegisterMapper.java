@@ -24,9 +24,9 @@ import no.rutebanken.anshar.subscription.SiriDataType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static no.rutebanken.anshar.routes.siri.transformer.MappingNames.INVALID_NSR_ID;
 import static no.rutebanken.anshar.routes.siri.transformer.MappingNames.ORIGINAL_ID_TO_NSR;
@@ -37,10 +37,15 @@ public class StopPlaceRegisterMapper extends ValueAdapter {
 
     private static HealthManager healthManager;
 
+    private static StopPlaceUpdaterService stopPlaceService;
+
     private final List<String> prefixes;
     private final String datatype;
 
-    private static final Set<String> unmappedAlreadyAdded = new HashSet<>();
+    // Complete id-prefixes - i.e. "<prefix>:<datatype>:" - resolved once
+    private final String[] completeIdPrefixes;
+
+    private static final Set<String> unmappedAlreadyAdded = ConcurrentHashMap.newKeySet();
 
     private final String datasetId;
     private final SiriDataType type;
@@ -56,61 +61,55 @@ public class StopPlaceRegisterMapper extends ValueAdapter {
         this.datasetId = datasetId;
         this.prefixes = prefixes;
         this.datatype = datatype;
+        this.completeIdPrefixes = prefixes != null ? prefixes.stream().map(prefix -> prefix + ":" + datatype + ":").toArray(String[]::new) : new String[0];
     }
 
 
     public String apply(String id) {
-        StopPlaceUpdaterService stopPlaceService = ApplicationContextHolder.getContext().getBean(StopPlaceUpdaterService.class);
-
+        if (id == null) {
+            return null;
+        }
+        if (stopPlaceService == null) {
+            stopPlaceService = ApplicationContextHolder.getContext().getBean(StopPlaceUpdaterService.class);
+        }
         if (healthManager == null) {
             healthManager = ApplicationContextHolder.getContext().getBean(HealthManager.class);
         }
 
-        if (id == null || id.isEmpty() || id.startsWith("NSR:")) {
+        if (id.isEmpty() || id.startsWith("NSR:")) {
             if (!stopPlaceService.isKnownId(id)) {
                 if (unmappedAlreadyAdded.add(id)) {
                     if (metricsEnabled) {
-                        getMetricsService().registerDataMapping(type, datasetId, INVALID_NSR_ID, 1);
+                        healthManager.registerDataMapping(type, datasetId, INVALID_NSR_ID);
                     }
                     healthManager.addUnmappedId(type, datasetId, id);
                 }
-            } else if (unmappedAlreadyAdded.contains(id)) {
+            } else if (unmappedAlreadyAdded.remove(id)) {
                 healthManager.removeUnmappedId(type, datasetId, id);
-                unmappedAlreadyAdded.remove(id);
             }
             return id;
         }
 
         String mappedValue = null;
-
-        try {
-            if (stopPlaceService != null) {
-                if (prefixes != null && !prefixes.isEmpty()) {
-
-                    for (String prefix : prefixes) {
-                        mappedValue = stopPlaceService.get(createCompleteId(prefix, id, datatype));
-                        if (mappedValue != null) {
-                            if (metricsEnabled) {
-                                getMetricsService().registerDataMapping(type, datasetId, ORIGINAL_ID_TO_NSR, 1);
-                            }
-                            return mappedValue;
-                        }
-                    }
-                } else {
-                    mappedValue = stopPlaceService.get(id);
-                    if (mappedValue != null) {
-                        if (metricsEnabled) {
-                            getMetricsService().registerDataMapping(type, datasetId, ORIGINAL_ID_TO_NSR, 1);
-                        }
-                        return mappedValue;
-                    }
+        if (completeIdPrefixes.length > 0) {
+            for (String completeIdPrefix : completeIdPrefixes) {
+                mappedValue = stopPlaceService.get(id.startsWith(completeIdPrefix) ? id : completeIdPrefix.concat(id));
+                if (mappedValue != null) {
+                    break;
                 }
             }
-        } finally {
-            if (mappedValue != null && unmappedAlreadyAdded.contains(id)) {
+        } else {
+            mappedValue = stopPlaceService.get(id);
+        }
+
+        if (mappedValue != null) {
+            if (metricsEnabled) {
+                healthManager.registerDataMapping(type, datasetId, ORIGINAL_ID_TO_NSR);
+            }
+            if (unmappedAlreadyAdded.remove(id)) {
                 healthManager.removeUnmappedId(type, datasetId, id);
-                unmappedAlreadyAdded.remove(id);
             }
+            return mappedValue;
         }
 
         if (unmappedAlreadyAdded.add(id)) {
@@ -119,14 +118,6 @@ public class StopPlaceRegisterMapper extends ValueAdapter {
         return id;
     }
 
-    private String createCompleteId(String prefix, String id, String datatype) {
-        String nsrIdPrefix = new StringBuilder().append(prefix).append(":").append(datatype).append(":").toString();
-        if (id.startsWith(nsrIdPrefix)) {
-            return id;
-        }
-        return new StringBuilder().append(nsrIdPrefix).append(id).toString();
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
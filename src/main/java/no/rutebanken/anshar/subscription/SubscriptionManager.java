@@ -16,13 +16,14 @@
 package no.rutebanken.anshar.subscription;
 
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hazelcast.map.IMap;
 import com.hazelcast.replicatedmap.ReplicatedMap;
 import no.rutebanken.anshar.config.AnsharConfiguration;
+import no.rutebanken.anshar.data.collections.CounterEntryProcessors;
 import no.rutebanken.anshar.data.EstimatedTimetables;
 import no.rutebanken.anshar.data.RequestorRefRepository;
 import no.rutebanken.anshar.data.RequestorRefStats;
-import no.rutebanken.anshar.data.SiriObjectStorageKey;
 import no.rutebanken.anshar.data.Situations;
 import no.rutebanken.anshar.data.VehicleActivities;
 import no.rutebanken.anshar.routes.health.HealthManager;
@@ -38,6 +39,8 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.math.BigInteger;
 import java.time.Duration;
 import java.time.Instant;
@@ -52,6 +55,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
 import static no.rutebanken.anshar.subscription.SiriDataType.ESTIMATED_TIMETABLE;
@@ -117,19 +128,37 @@ public class SubscriptionManager {
     private VehicleActivities vm;
 
     @Autowired
-    @Qualifier("getSituationChangesMap")
-    private IMap<String, Set<SiriObjectStorageKey>> sxChanges;
+    private RequestorRefRepository requestorRefRepository;
 
-    @Autowired
-    @Qualifier("getEstimatedTimetableChangesMap")
-    private IMap<String, Set<SiriObjectStorageKey>> etChanges;
+    @Value("${anshar.subscriptions.activity.flush.interval.millis:1000}")
+    private long activityFlushInterval = 1000;
 
-    @Autowired
-    @Qualifier("getVehicleChangesMap")
-    private IMap<String, Set<SiriObjectStorageKey>> vmChanges;
+    /**
+     * Activity registered on this node, not yet written to the shared maps
+     */
+    private final ConcurrentMap<String, LocalActivity> localActivity = new ConcurrentHashMap<>();
 
-    @Autowired
-    private RequestorRefRepository requestorRefRepository;
+    /**
+     * Time (epoch millis) of the oldest activity not yet written to the shared maps - 0 if all is written
+     */
+    private final AtomicLong oldestUnflushedActivity = new AtomicLong();
+
+    private ScheduledExecutorService activityFlushExecutor;
+
+    @PostConstruct
+    void startActivityFlushing() {
+        activityFlushExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("subscription-activity-flush-%d").setDaemon(true).build());
+        activityFlushExecutor.scheduleWithFixedDelay(this::flushActivity, activityFlushInterval, activityFlushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stopActivityFlushing() {
+        if (activityFlushExecutor != null) {
+            activityFlushExecutor.shutdown();
+        }
+        flushActivity();
+    }
 
     public void addSubscription(String subscriptionId, SubscriptionSetup setup) {
 
@@ -154,6 +183,7 @@ public class SubscriptionManager {
             logger.info("Completely deleting subscription by request.");
             activatedTimestamp.remove(subscriptionId);
             lastActivity.remove(subscriptionId);
+            localActivity.remove(subscriptionId);
             hitcount.remove(subscriptionId);
             objectCounter.remove(subscriptionId);
         } else if (found) {
@@ -172,14 +202,16 @@ public class SubscriptionManager {
     }
     public boolean touchSubscription(String subscriptionId) {
         SubscriptionSetup setup = subscriptions.get(subscriptionId);
-        hit(subscriptionId);
+        LocalActivity activity = getLocalActivity(subscriptionId);
+        activity.hits.increment();
 
         boolean success = (setup != null);
 
         logger.info("Touched subscription {}, success:{}", setup, success);
         if (success) {
-            lastActivity.put(subscriptionId, Instant.now());
+            activity.lastActivity = Instant.now();
         }
+        activityRegistered();
 
         logStats();
         return success;
@@ -195,7 +227,7 @@ public class SubscriptionManager {
     public boolean touchSubscription(String subscriptionId, ZonedDateTime serviceStartedTime) {
         SubscriptionSetup setup = subscriptions.get(subscriptionId);
         if (setup != null && serviceStartedTime != null) {
-            Instant lastSubscriptionActivity = lastActivity.get(subscriptionId);
+            Instant lastSubscriptionActivity = getLastActivity(subscriptionId);
             if (lastSubscriptionActivity == null || serviceStartedTime.toInstant().isBefore(lastSubscriptionActivity)) {
                 logger.info("Remote Service startTime ({}) is before lastSubscriptionActivity ({}) for subscription [{}]",serviceStartedTime, lastSubscriptionActivity, setup);
                 return touchSubscription(subscriptionId);
@@ -218,6 +250,7 @@ public class SubscriptionManager {
     }
 
     public JSONObject getSubscriptionsForCodespace(String codespace) {
+        flushActivity();
         JSONObject jsonSubscriptions = new JSONObject();
         JSONArray filteredSubscriptions = new JSONArray();
 
@@ -236,17 +269,12 @@ public class SubscriptionManager {
         return jsonSubscriptions;
     }
 
-    private void hit(String subscriptionId) {
-        int counter = (hitcount.getOrDefault(subscriptionId, 0));
-        hitcount.set(subscriptionId, counter+1);
-    }
-
     public void incrementObjectCounter(SubscriptionSetup subscriptionSetup, int size) {
 
         String subscriptionId = subscriptionSetup.getSubscriptionId();
         if (subscriptionId != null) {
-            BigInteger counter = objectCounter.getOrDefault(subscriptionId, BigInteger.valueOf(0));
-            objectCounter.set(subscriptionId, counter.add(BigInteger.valueOf(size)));
+            getLocalActivity(subscriptionId).objects.add(size);
+            activityRegistered();
         }
     }
 
@@ -267,7 +295,7 @@ public class SubscriptionManager {
             lastActivity.put(subscriptionId, Instant.now());
             activatedTimestamp.set(subscriptionId, Instant.now());
             logger.info("Pending subscription {} activated", subscriptions.get(subscriptionId));
-            if (!dataReceived.containsKey(subscriptionId)) {
+            if (getLastDataReceived(subscriptionId) == null) {
                 dataReceived(subscriptionId);
             }
             if (!receivedBytes.containsKey(subscriptionId)) {
@@ -281,11 +309,27 @@ public class SubscriptionManager {
     }
 
     public boolean isNewSubscription(String subscriptionId) {
-        return lastActivity.get(subscriptionId) == null;
+        return getLastActivity(subscriptionId) == null;
     }
 
     public Instant getLastDataReceived(String subscriptionId) {
-        return dataReceived.get(subscriptionId);
+        LocalActivity activity = localActivity.get(subscriptionId);
+        return latest(activity != null ? activity.dataReceived : null, dataReceived.get(subscriptionId));
+    }
+
+    private Instant getLastActivity(String subscriptionId) {
+        LocalActivity activity = localActivity.get(subscriptionId);
+        return latest(activity != null ? activity.lastActivity : null, lastActivity.get(subscriptionId));
+    }
+
+    private static Instant latest(Instant a, Instant b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return a.isAfter(b) ? a : b;
     }
 
     void forceRestart(String subscriptionId) {
@@ -304,7 +348,7 @@ public class SubscriptionManager {
         return isSubscriptionHealthy(subscriptionId, HEALTHCHECK_INTERVAL_FACTOR);
     }
     private Boolean isSubscriptionHealthy(String subscriptionId, int healthCheckIntervalFactor) {
-        Instant instant = lastActivity.get(subscriptionId);
+        Instant instant = getLastActivity(subscriptionId);
 
         if (instant == null) {
             //Subscription has not had any activity, and may not have been started yet - flag as healthy
@@ -356,7 +400,12 @@ public class SubscriptionManager {
         return subscriptions.containsKey(subscriptionId);
     }
 
+    /**
+     * Includes all activity registered on this node - activity on other nodes may lag behind by up to one flush
+     * interval
+     */
     public JSONObject buildStats() {
+        flushActivity();
         logger.debug("Start building stats");
         JSONObject result = new JSONObject();
         JSONArray stats = new JSONArray();
@@ -409,15 +458,15 @@ public class SubscriptionManager {
 
         JSONObject etPolling = new JSONObject();
         etPolling.put("typeName", ""+ ESTIMATED_TIMETABLE);
-        etPolling.put("polling", getIdAndCount(etChanges, ESTIMATED_TIMETABLE));
+        etPolling.put("polling", getIdAndCount(et.getPendingChangeCounts(), ESTIMATED_TIMETABLE));
         logger.debug("Built ET polling stats");
         JSONObject vmPolling = new JSONObject();
         vmPolling.put("typeName", ""+ VEHICLE_MONITORING);
-        vmPolling.put("polling", getIdAndCount(vmChanges, VEHICLE_MONITORING));
+        vmPolling.put("polling", getIdAndCount(vm.getPendingChangeCounts(), VEHICLE_MONITORING));
         logger.debug("Built VM polling stats");
         JSONObject sxPolling = new JSONObject();
         sxPolling.put("typeName", ""+ SITUATION_EXCHANGE);
-        sxPolling.put("polling", getIdAndCount(sxChanges, SITUATION_EXCHANGE));
+        sxPolling.put("polling", getIdAndCount(sx.getPendingChangeCounts(), SITUATION_EXCHANGE));
         logger.debug("Built SX polling stats");
 
         pollingClients.add(etPolling);
@@ -453,12 +502,13 @@ public class SubscriptionManager {
         return result;
     }
 
-    private JSONArray getIdAndCount(Map<String, Set<SiriObjectStorageKey>> map, SiriDataType dataType) {
+    private JSONArray getIdAndCount(Map<String, Integer> pendingChangeCounts, SiriDataType dataType) {
         JSONArray count = new JSONArray();
-        for (String key : map.keySet()) {
+        for (Map.Entry<String, Integer> pendingChanges : pendingChangeCounts.entrySet()) {
+            String key = pendingChanges.getKey();
             JSONObject keyValue = new JSONObject();
             keyValue.put("id", key);
-            keyValue.put("count", map.getOrDefault(key, new HashSet<>()).size());
+            keyValue.put("count", pendingChanges.getValue());
 
             RequestorRefStats stats = requestorRefRepository.getStats(key, dataType);
             String clientTrackingName = "";
@@ -530,8 +580,8 @@ public class SubscriptionManager {
         }
         JSONObject obj = setup.toJSON();
         obj.put("activated",formatTimestamp(activatedTimestamp.get(setup.getSubscriptionId())));
-        obj.put("lastActivity",""+formatTimestamp(lastActivity.get(setup.getSubscriptionId())));
-        obj.put("lastDataReceived",""+formatTimestamp(dataReceived.get(setup.getSubscriptionId())));
+        obj.put("lastActivity",""+formatTimestamp(getLastActivity(setup.getSubscriptionId())));
+        obj.put("lastDataReceived",""+formatTimestamp(getLastDataReceived(setup.getSubscriptionId())));
         if (!setup.isActive()) {
             obj.put("status", "deactivated");
             obj.put("healthy",null);
@@ -539,7 +589,8 @@ public class SubscriptionManager {
         } else {
             obj.put("status", "active");
             obj.put("healthy", isSubscriptionHealthy(setup.getSubscriptionId()));
-            obj.put("flagAsNotReceivingData", (dataReceived.get(setup.getSubscriptionId()) != null && (dataReceived.get(setup.getSubscriptionId())).isBefore(Instant.now().minusSeconds(1800))));
+            Instant lastDataReceived = getLastDataReceived(setup.getSubscriptionId());
+            obj.put("flagAsNotReceivingData", (lastDataReceived != null && lastDataReceived.isBefore(Instant.now().minusSeconds(1800))));
         }
         obj.put("hitcount",hitcount.get(setup.getSubscriptionId()));
         obj.put("objectcount", objectCounter.get(setup.getSubscriptionId()));
@@ -662,7 +713,7 @@ public class SubscriptionManager {
             return true;
         }
         boolean isReceiving = true;
-        Instant lastDataReceived = dataReceived.get(subscriptionId);
+        Instant lastDataReceived = getLastDataReceived(subscriptionId);
         if (lastDataReceived != null) {
             isReceiving = (Instant.now().minusSeconds(allowedInactivitySeconds).isBefore(lastDataReceived));
         }
@@ -674,12 +725,105 @@ public class SubscriptionManager {
     }
     public void dataReceived(String subscriptionId, int receivedByteCount) {
         touchSubscription(subscriptionId);
-        dataReceived.put(subscriptionId, Instant.now());
 
+        LocalActivity activity = getLocalActivity(subscriptionId);
+        activity.dataReceived = Instant.now();
         if (receivedByteCount > 0) {
-            receivedBytes.set(subscriptionId,
-                    receivedBytes.getOrDefault(subscriptionId, 0L) + receivedByteCount);
+            activity.receivedBytes.add(receivedByteCount);
+        }
+        activityRegistered();
+    }
+
+    /**
+     * @return Milliseconds the oldest activity registered on this node has waited to be written to the shared maps
+     */
+    public long getActivityFlushLag() {
+        long oldest = oldestUnflushedActivity.get();
+        return oldest > 0 ? Math.max(0, System.currentTimeMillis() - oldest) : 0;
+    }
+
+    private LocalActivity getLocalActivity(String subscriptionId) {
+        LocalActivity activity = localActivity.get(subscriptionId);
+        if (activity == null) {
+            activity = localActivity.computeIfAbsent(subscriptionId, id -> new LocalActivity());
         }
+        return activity;
+    }
+
+    private void activityRegistered() {
+        if (oldestUnflushedActivity.get() == 0) {
+            oldestUnflushedActivity.compareAndSet(0, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Writes activity registered on this node to the shared maps - counters are added using entry processors,
+     * so concurrent updates from other nodes are not lost.
+     *
+     * Only local activity is written - activity on other nodes reaches the shared maps with their next scheduled
+     * flush, so the shared counters may lag behind by up to one flush interval.
+     */
+    synchronized void flushActivity() {
+        long oldest = oldestUnflushedActivity.getAndSet(0);
+        if (oldest == 0) {
+            return;
+        }
+        try {
+            for (Map.Entry<String, LocalActivity> entry : localActivity.entrySet()) {
+                flushActivity(entry.getKey(), entry.getValue());
+            }
+        } catch (RuntimeException e) {
+            oldestUnflushedActivity.accumulateAndGet(oldest, (current, previous) -> current == 0 ? previous : Math.min(current, previous));
+            logger.warn("Flushing subscription activity failed - will retry", e);
+        }
+    }
+
+    private void flushActivity(String subscriptionId, LocalActivity activity) {
+        flushCounter(activity.hits, count -> hitcount.executeOnKey(subscriptionId, CounterEntryProcessors.addToInteger((int) count)));
+        flushCounter(activity.objects, count -> objectCounter.executeOnKey(subscriptionId, CounterEntryProcessors.addToBigInteger(count)));
+        flushCounter(activity.receivedBytes, count -> receivedBytes.executeOnKey(subscriptionId, CounterEntryProcessors.addToLong(count)));
+
+        Instant lastActivityTime = activity.lastActivity;
+        if (lastActivityTime != null && !lastActivityTime.equals(activity.flushedLastActivity)) {
+            Instant shared = lastActivity.get(subscriptionId);
+            if (shared == null || shared.isBefore(lastActivityTime)) {
+                lastActivity.put(subscriptionId, lastActivityTime);
+            }
+            activity.flushedLastActivity = lastActivityTime;
+        }
+
+        Instant dataReceivedTime = activity.dataReceived;
+        if (dataReceivedTime != null && !dataReceivedTime.equals(activity.flushedDataReceived)) {
+            Instant shared = dataReceived.get(subscriptionId);
+            if (shared == null || shared.isBefore(dataReceivedTime)) {
+                dataReceived.put(subscriptionId, dataReceivedTime);
+            }
+            activity.flushedDataReceived = dataReceivedTime;
+        }
+    }
+
+    private static void flushCounter(LongAdder counter, LongConsumer flush) {
+        long count = counter.sumThenReset();
+        if (count != 0) {
+            try {
+                flush.accept(count);
+            } catch (RuntimeException e) {
+                counter.add(count);
+                throw e;
+            }
+        }
+    }
+
+    private static class LocalActivity {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder objects = new LongAdder();
+        private final LongAdder receivedBytes = new LongAdder();
+        private volatile Instant lastActivity;
+        private volatile Instant dataReceived;
+
+        // Timestamps last written to the shared maps - only accessed when flushing
+        private Instant flushedLastActivity;
+        private Instant flushedDataReceived;
     }
 
     /**
@@ -15,10 +15,13 @@
 
 package no.rutebanken.anshar.data;
 
+import com.hazelcast.map.IMap;
+import com.hazelcast.query.Predicates;
 import no.rutebanken.anshar.integration.SpringBootBaseTest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import uk.org.siri.siri21.EstimatedCall;
 import uk.org.siri.siri21.EstimatedVehicleJourney;
 import uk.org.siri.siri21.Extensions;
@@ -35,7 +38,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static no.rutebanken.anshar.helpers.SleepUtil.sleep;
 import static org.junit.Assert.assertNull;
@@ -50,6 +55,14 @@ public class EstimatedTimetablesTest extends SpringBootBaseTest {
     @Autowired
     private EstimatedTimetables estimatedTimetables;
 
+    @Autowired
+    @Qualifier("getEtChecksumMap")
+    private IMap<SiriObjectStorageKey, Long> checksumCache;
+
+    @Autowired
+    @Qualifier("getIdStartTimeMap")
+    private IMap<SiriObjectStorageKey, ZonedDateTime> idStartTimeMap;
+
     @BeforeEach
     public void init() {
         estimatedTimetables.clearAll();
@@ -182,6 +195,54 @@ public class EstimatedTimetablesTest extends SpringBootBaseTest {
         assertEquals(previousSize+4, estimatedTimetables.getAll().size());
     }
 
+    @Test
+    public void testRemainingUpdatesAreKeptAcrossCommits() {
+        estimatedTimetables.commitChanges();
+
+        String requestorId = "testRemainingUpdatesAreKeptAcrossCommits";
+        String otherRequestorId = "testRemainingUpdatesAreKeptAcrossCommits-other";
+
+        // Initial requests - start tracking changes
+        estimatedTimetables.getAllUpdates(requestorId, null);
+        estimatedTimetables.getAllUpdates(otherRequestorId, null);
+        sleep(50);
+
+        String datasetId = UUID.randomUUID().toString();
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney("1234-remaining", "4321", 0, 30, ZonedDateTime.now().plusHours(1), true));
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney("2345-remaining", "4321", 0, 30, ZonedDateTime.now().plusHours(1), true));
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney("3456-remaining", "4321", 0, 30, ZonedDateTime.now().plusHours(1), true));
+        estimatedTimetables.commitChanges();
+
+        Siri siri = estimatedTimetables.createServiceDelivery(requestorId, null, 2);
+        sleep(50);
+
+        assertTrue(siri.getServiceDelivery().isMoreData());
+        assertEquals(2, siri
+                .getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0)
+                .getEstimatedVehicleJourneies().size());
+
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney("4567-remaining", "4321", 0, 30, ZonedDateTime.now().plusHours(1), true));
+        estimatedTimetables.commitChanges();
+
+        // Remaining from previous request, and the new change
+        siri = estimatedTimetables.createServiceDelivery(requestorId, null, 10);
+        sleep(50);
+
+        assertFalse(siri.getServiceDelivery().isMoreData());
+        assertEquals(2, siri
+                .getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0)
+                .getEstimatedVehicleJourneies().size());
+
+        // Reading changes does not affect other requestors
+        assertEquals(4, estimatedTimetables.getAllUpdates(otherRequestorId, null).size());
+        sleep(50);
+
+        assertEquals(0, estimatedTimetables.getAllUpdates(requestorId, null).size());
+        assertEquals(0, estimatedTimetables.getAllUpdates(otherRequestorId, null).size());
+    }
+
     @Test
     public void testUpdatedJourney() {
         int previousSize = estimatedTimetables.getAll().size();
@@ -606,6 +667,21 @@ public class EstimatedTimetablesTest extends SpringBootBaseTest {
     }
 
 
+    @Test
+    public void testIndexedLookupByLineRefAndDataset() {
+        String lineRefValue = "TST:Line:Indexed";
+        estimatedTimetables.add("IDX", createEstimatedVehicleJourney(lineRefValue, "1234-indexed", 0, 10, ZonedDateTime.now().plusMinutes(5), true));
+        estimatedTimetables.add("IDX", createEstimatedVehicleJourney(lineRefValue, "2345-indexed", 0, 10, ZonedDateTime.now().plusMinutes(6), true));
+        estimatedTimetables.add("IDX", createEstimatedVehicleJourney("TST:Line:Other", "3456-indexed", 0, 10, ZonedDateTime.now().plusMinutes(7), true));
+
+        Siri serviceDelivery = estimatedTimetables.createServiceDelivery(lineRefValue.toUpperCase());
+        List<EstimatedVehicleJourney> journeys = serviceDelivery.getServiceDelivery().getEstimatedTimetableDeliveries().get(0).getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies();
+
+        assertEquals(2, journeys.size(), "LineRef-lookup should be case-insensitive");
+        assertEquals(3, estimatedTimetables.getDatasetSize("IDX"));
+    }
+
+
     private void assertExcludedId(String excludedDatasetId) {
         Siri serviceDelivery = estimatedTimetables.createServiceDelivery(null, null, null, Arrays.asList(excludedDatasetId), 100, -1);
 
@@ -618,6 +694,44 @@ public class EstimatedTimetablesTest extends SpringBootBaseTest {
     }
 
 
+    @Test
+    public void testExpiredJourneyIsRemovedWithLinkedEntries() {
+        String datasetId = "expiry-" + UUID.randomUUID();
+
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney("1234-expiry", "4321", 0, 30, ZonedDateTime.now().plusSeconds(2), true));
+        estimatedTimetables.add(datasetId, createEstimatedVehicleJourney("2345-expiry", "5432", 0, 30, ZonedDateTime.now().plusHours(1), true));
+
+        assertEquals(Set.of("1234-expiry", "2345-expiry"), getLineRefs(checksumCache, datasetId));
+        assertEquals(Set.of("1234-expiry", "2345-expiry"), getLineRefs(idStartTimeMap, datasetId));
+
+        // Expiry is indexed from local entry-events, and rounded up to the next second
+        long timeout = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < timeout && estimatedTimetables.getExpiryIndexSize() < 2) {
+            sleep(50);
+        }
+        sleep(3000);
+
+        assertEquals(1, estimatedTimetables.removeExpired());
+        assertEquals(1, estimatedTimetables.getAll(datasetId).size());
+
+        // Linked entries are removed from the entry-event
+        timeout = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < timeout &&
+                (getLineRefs(checksumCache, datasetId).size() > 1 || getLineRefs(idStartTimeMap, datasetId).size() > 1)) {
+            sleep(50);
+        }
+
+        assertEquals(Set.of("2345-expiry"), getLineRefs(checksumCache, datasetId));
+        assertEquals(Set.of("2345-expiry"), getLineRefs(idStartTimeMap, datasetId));
+    }
+
+    private Set<String> getLineRefs(IMap<SiriObjectStorageKey, ?> map, String datasetId) {
+        return map.keySet(Predicates.equal(SiriObjectStorageKey.CODESPACE_ID_ATTRIBUTE, datasetId))
+                .stream()
+                .map(SiriObjectStorageKey::getLineRef)
+                .collect(Collectors.toSet());
+    }
+
     private EstimatedVehicleJourney createEstimatedVehicleJourney(String lineRefValue, String vehicleRefValue, int startOrder, int callCount, ZonedDateTime arrival, Boolean isComplete) {
         return createEstimatedVehicleJourney(lineRefValue, vehicleRefValue, startOrder, callCount, arrival, arrival, isComplete);
     }
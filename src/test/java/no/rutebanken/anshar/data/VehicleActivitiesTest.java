@@ -19,6 +19,8 @@ import no.rutebanken.anshar.integration.SpringBootBaseTest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import uk.org.siri.siri21.CourseOfJourneyRefStructure;
 import uk.org.siri.siri21.LocationStructure;
@@ -29,6 +31,7 @@ import uk.org.siri.siri21.VehicleRef;
 
 import java.math.BigDecimal;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
@@ -41,6 +44,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class VehicleActivitiesTest extends SpringBootBaseTest {
 
+    private static final Logger logger = LoggerFactory.getLogger(VehicleActivitiesTest.class);
 
     @Autowired
     private VehicleActivities vehicleActivities;
@@ -209,6 +213,24 @@ public class VehicleActivitiesTest extends SpringBootBaseTest {
         assertEquals(previousSize+4, vehicleActivities.getAll().size());
     }
 
+    @Test
+    public void testPendingChangeCounts() {
+        String requestorId = "pending-" + UUID.randomUUID();
+
+        vehicleActivities.getAllUpdates(requestorId, null);
+        sleep(50);
+        assertEquals(0, vehicleActivities.getPendingChangeCounts().get(requestorId).intValue());
+
+        vehicleActivities.add("test", createVehicleActivityStructure(ZonedDateTime.now(), "pending-1234"));
+        sleep(1500);
+
+        assertTrue(vehicleActivities.getPendingChangeCounts().get(requestorId) > 0);
+
+        vehicleActivities.getAllUpdates(requestorId, null);
+        sleep(50);
+        assertEquals(0, vehicleActivities.getPendingChangeCounts().get(requestorId).intValue());
+    }
+
     @Test
     public void testGetUpdatesOnlyFromCache() {
         int previousSize = vehicleActivities.getAll().size();
@@ -242,6 +264,72 @@ public class VehicleActivitiesTest extends SpringBootBaseTest {
         assertEquals(previousSize+4, vehicleActivities.getAllCachedUpdates(null,null, null).size());
     }
 
+    @Test
+    public void testLocalDatasetSizeFollowsAddAndRemove() {
+        String datasetId = "size-" + UUID.randomUUID();
+
+        vehicleActivities.add(datasetId, createVehicleActivityStructure(ZonedDateTime.now(), UUID.randomUUID().toString()));
+        vehicleActivities.add(datasetId, createVehicleActivityStructure(ZonedDateTime.now(), UUID.randomUUID().toString()));
+        vehicleActivities.add(datasetId, createVehicleActivityStructure(ZonedDateTime.now(), UUID.randomUUID().toString()));
+
+        // Counters are updated from entry-events
+        assertLocalDatasetSize(datasetId, 3);
+
+        vehicleActivities.clearAllByDatasetId(datasetId);
+        assertLocalDatasetSize(datasetId, 0);
+    }
+
+    @Test
+    public void testCleanupRemovesOnlyExpiredVehicles() {
+        String datasetId = "cleanup-" + UUID.randomUUID();
+        int vehicleCount = 200_000;
+        int expiredCount = vehicleCount / 100;
+
+        ZonedDateTime now = ZonedDateTime.now();
+        List<VehicleActivityStructure> activities = new ArrayList<>();
+        for (int i = 0; i < vehicleCount; i++) {
+            VehicleActivityStructure activity = createVehicleActivityStructure(now, "cleanup-" + i);
+            if (i % 100 == 0) {
+                // Every 100th vehicle expires shortly
+                activity.setValidUntilTime(now.plusSeconds(2));
+            }
+            activities.add(activity);
+        }
+        vehicleActivities.addAll(datasetId, activities);
+        assertEquals(vehicleCount, vehicleActivities.getDatasetSize(datasetId).intValue());
+
+        // Expiry is indexed from local entry-events
+        long timeout = System.currentTimeMillis() + 60_000;
+        while (System.currentTimeMillis() < timeout && vehicleActivities.getExpiryIndexSize() < vehicleCount) {
+            sleep(50);
+        }
+        assertEquals(vehicleCount, vehicleActivities.getExpiryIndexSize());
+
+        // Expiry is rounded up to the next second
+        long expired = now.plusSeconds(3).toInstant().toEpochMilli();
+        while (System.currentTimeMillis() < expired) {
+            sleep(50);
+        }
+
+        long t1 = System.currentTimeMillis();
+        int removed = vehicleActivities.removeExpired();
+        logger.info("Cleanup pass removed {} of {} vehicles in {} ms", removed, vehicleCount, System.currentTimeMillis() - t1);
+
+        assertEquals(expiredCount, removed);
+        assertEquals(vehicleCount - expiredCount, vehicleActivities.getDatasetSize(datasetId).intValue());
+
+        vehicleActivities.clearAllByDatasetId(datasetId);
+    }
+
+    private void assertLocalDatasetSize(String datasetId, int expected) {
+        long timeout = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < timeout &&
+                vehicleActivities.getLocalDatasetSize().getOrDefault(datasetId, 0) != expected) {
+            sleep(50);
+        }
+        assertEquals(expected, vehicleActivities.getLocalDatasetSize().getOrDefault(datasetId, 0));
+    }
+
     private VehicleActivityStructure createVehicleActivityStructure(ZonedDateTime recordedAtTime, String vehicleReference) {
         VehicleActivityStructure element = new VehicleActivityStructure();
         element.setRecordedAtTime(recordedAtTime);
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.data.util;
+
+import no.rutebanken.anshar.data.SiriObjectStorageKey;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ExpiryIndexTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpiryIndexTest.class);
+
+    private final long now = 1_700_000_000_000L;
+
+    @Test
+    public void testOnlyExpiredKeysArePolled() {
+        ExpiryIndex<String> index = new ExpiryIndex<>(1000);
+        index.schedule("expired", now - 1);
+        index.schedule("expiresNow", now);
+        index.schedule("expiresLater", now + 1);
+
+        assertEquals(Set.of("expired", "expiresNow"), new HashSet<>(index.pollExpired(now)));
+        assertEquals(1, index.size());
+
+        assertTrue(index.pollExpired(now).isEmpty());
+        assertEquals(List.of("expiresLater"), index.pollExpired(now + 1000));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testRescheduleReplacesExpiry() {
+        ExpiryIndex<String> index = new ExpiryIndex<>(1000);
+        index.schedule("key", now);
+        index.schedule("key", now + 60_000);
+
+        assertTrue(index.pollExpired(now).isEmpty());
+        assertEquals(1, index.size());
+
+        index.schedule("key", now - 60_000);
+        assertEquals(List.of("key"), index.pollExpired(now));
+    }
+
+    @Test
+    public void testRemoveAndRetain() {
+        ExpiryIndex<String> index = new ExpiryIndex<>(1000);
+        index.schedule("removed", now);
+        index.schedule("owned", now);
+        index.schedule("migrated", now);
+
+        index.remove("removed");
+        index.retainAll(key -> !key.equals("migrated"));
+
+        assertEquals(1, index.size());
+        assertEquals(List.of("owned"), index.pollExpired(now));
+    }
+
+    @Test
+    public void testCleanupOnlyTouchesExpiredEntries() {
+        int vehicleCount = 200_000;
+        int expiredCount = vehicleCount / 100;
+
+        ExpiryIndex<SiriObjectStorageKey> index = new ExpiryIndex<>(1000);
+        for (int i = 0; i < vehicleCount; i++) {
+            SiriObjectStorageKey key = new SiriObjectStorageKey("TST", "TST:Line:" + (i % 500), "TST:Vehicle:" + i);
+            // Every 100th vehicle has expired, the rest expire within the next hour
+            long expiry = i % 100 == 0 ? now - (i % 60_000) : now + 1000 + (i % 3_600_000);
+            index.schedule(key, expiry);
+        }
+
+        long t1 = System.nanoTime();
+        List<SiriObjectStorageKey> expired = index.pollExpired(now);
+        long elapsedMicros = (System.nanoTime() - t1) / 1000;
+
+        logger.info("Polling {} expired of {} vehicles took {} µs", expired.size(), vehicleCount, elapsedMicros);
+
+        assertEquals(expiredCount, expired.size());
+        assertEquals(vehicleCount - expiredCount, index.size());
+        for (SiriObjectStorageKey key : expired) {
+            assertEquals(0, Integer.parseInt(key.getKey().substring("TST:Vehicle:".length())) % 100);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.data.util;
+
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.EstimatedCall;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.LineRef;
+import uk.org.siri.siri21.StopPointRefStructure;
+
+import java.math.BigInteger;
+import java.time.ZonedDateTime;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class StructuralChecksumTest {
+
+    private final ZonedDateTime time = ZonedDateTime.parse("2024-01-01T12:00:00+01:00");
+
+    @Test
+    public void testEqualObjectsHaveEqualChecksum() {
+        assertEquals(StructuralChecksum.checksum(createJourney("TST:Line:1", time)),
+                StructuralChecksum.checksum(createJourney("TST:Line:1", time)));
+    }
+
+    @Test
+    public void testChangedValueChangesChecksum() {
+        assertNotEquals(StructuralChecksum.checksum(createJourney("TST:Line:1", time)),
+                StructuralChecksum.checksum(createJourney("TST:Line:2", time)));
+
+        assertNotEquals(StructuralChecksum.checksum(createJourney("TST:Line:1", time)),
+                StructuralChecksum.checksum(createJourney("TST:Line:1", time.plusSeconds(1))));
+    }
+
+    @Test
+    public void testNullAndEmptyDiffers() {
+        EstimatedVehicleJourney withNull = createJourney("TST:Line:1", time);
+        EstimatedVehicleJourney withEmpty = createJourney("TST:Line:1", time);
+        withEmpty.setOperatorRef(null);
+        withEmpty.setDataSource("");
+
+        assertNotEquals(StructuralChecksum.checksum(withNull), StructuralChecksum.checksum(withEmpty));
+    }
+
+    @Test
+    public void testIgnoredFields() {
+        EstimatedVehicleJourney journey = createJourney("TST:Line:1", time);
+        journey.setRecordedAtTime(time);
+        long checksum = StructuralChecksum.checksum(journey, Set.of("recordedAtTime"));
+
+        journey.setRecordedAtTime(time.plusMinutes(1));
+        assertEquals(checksum, StructuralChecksum.checksum(journey, Set.of("recordedAtTime")));
+        assertNotEquals(checksum, StructuralChecksum.checksum(journey));
+    }
+
+    private EstimatedVehicleJourney createJourney(String lineRefValue, ZonedDateTime arrival) {
+        EstimatedVehicleJourney journey = new EstimatedVehicleJourney();
+        LineRef lineRef = new LineRef();
+        lineRef.setValue(lineRefValue);
+        journey.setLineRef(lineRef);
+
+        EstimatedVehicleJourney.EstimatedCalls estimatedCalls = new EstimatedVehicleJourney.EstimatedCalls();
+        for (int i = 0; i < 3; i++) {
+            StopPointRefStructure stopPointRef = new StopPointRefStructure();
+            stopPointRef.setValue("NSR:Quay:" + i);
+
+            EstimatedCall call = new EstimatedCall();
+            call.setStopPointRef(stopPointRef);
+            call.setOrder(BigInteger.valueOf(i));
+            call.setAimedArrivalTime(arrival);
+            call.setExpectedArrivalTime(arrival);
+            estimatedCalls.getEstimatedCalls().add(call);
+        }
+        journey.setEstimatedCalls(estimatedCalls);
+        return journey;
+    }
+}
@@ -40,6 +40,7 @@ import static no.rutebanken.anshar.helpers.SleepUtil.sleep;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasKey;
 import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 public class VMRequestResponseTest extends BaseHttpTest {
 
@@ -153,6 +154,54 @@ public class VMRequestResponseTest extends BaseHttpTest {
         ;
     }
 
+    @Test
+    public void testLiteVMCacheRequestIsCompressed() throws Exception {
+
+        given()
+                .when()
+                    .header("Accept-Encoding", "gzip")
+                    .get("anshar/rest/vm-cache")
+                .then()
+                    .statusCode(200)
+                    .header("Content-Encoding", "gzip")
+                    .rootPath("Siri.ServiceDelivery.VehicleMonitoringDelivery.VehicleActivity.MonitoredVehicleJourney")
+                        .body("VehicleRef", equalTo(vehicleReference))
+        ;
+    }
+
+    @Test
+    public void testLiteVMCacheRequestNotModified() throws Exception {
+
+        String etag = given()
+                .when()
+                    .get("anshar/rest/vm-cache")
+                .then()
+                    .statusCode(200)
+                    .extract().header("ETag");
+
+        assertNotNull(etag);
+
+        given()
+                .when()
+                    .header("If-None-Match", etag)
+                    .get("anshar/rest/vm-cache")
+                .then()
+                    .statusCode(304)
+        ;
+
+        repo.add(dataSource, createVehicleActivityStructure(ZonedDateTime.now(), "54321", dataSource));
+        sleep(250);
+
+        given()
+                .when()
+                    .header("If-None-Match", etag)
+                    .get("anshar/rest/vm-cache")
+                .then()
+                    .statusCode(200)
+                    .header("ETag", not(equalTo(etag)))
+        ;
+    }
+
     private VehicleActivityStructure createVehicleActivityStructure(ZonedDateTime recordedAtTime, String vehicleReference, String dataSource) {
         VehicleActivityStructure element = new VehicleActivityStructure();
         element.setRecordedAtTime(recordedAtTime);
@@ -19,6 +19,7 @@ import no.rutebanken.anshar.routes.outbound.SiriHelper;
 import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
 import uk.org.siri.siri21.LineRef;
 import uk.org.siri.siri21.Siri;
 import uk.org.siri.siri21.VehicleActivityStructure;
@@ -37,6 +38,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class SiriHelperTest {
@@ -185,6 +187,38 @@ public class SiriHelperTest {
         assertEquals(filteredSizeAfter, filteredSizeAfter2, "Filtered size does not match");
     }
 
+    @Test
+    public void testEtFilterDoesNotModifyOriginal() {
+        List<EstimatedVehicleJourney> etElements = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            EstimatedVehicleJourney journey = new EstimatedVehicleJourney();
+            LineRef lineRef = new LineRef();
+            lineRef.setValue("TST:Line:" + (i % 5));
+            journey.setLineRef(lineRef);
+            etElements.add(journey);
+        }
+
+        Siri siri = siriObjectFactory.createETServiceDelivery(etElements);
+
+        Map<Class, Set<String>> filter = new HashMap<>();
+        filter.put(LineRef.class, new HashSet<>(Arrays.asList("TST:Line:1")));
+
+        Siri filtered = SiriHelper.filterSiriPayload(siri, filter);
+
+        List<EstimatedVehicleJourney> original = siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies();
+        List<EstimatedVehicleJourney> matches = filtered.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies();
+
+        assertEquals(10, original.size(), "Original object has been modified");
+        assertEquals(2, matches.size());
+
+        // Matching elements are not copied
+        assertSame(etElements.get(1), matches.get(0));
+        assertSame(etElements.get(6), matches.get(1));
+        assertEquals(siri.getServiceDelivery().getResponseTimestamp(), filtered.getServiceDelivery().getResponseTimestamp());
+    }
+
     @Test
     public void testSplitDelivery(){
 
@@ -0,0 +1,59 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes;
+
+import org.junit.jupiter.api.Test;
+
+import static no.rutebanken.anshar.routes.HttpParameter.isEtagMatching;
+import static no.rutebanken.anshar.routes.HttpParameter.isGzipAccepted;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HttpParameterTest {
+
+    @Test
+    public void testGzipAccepted() {
+        assertTrue(isGzipAccepted("gzip"));
+        assertTrue(isGzipAccepted("deflate, gzip;q=1.0, br"));
+        assertTrue(isGzipAccepted("x-gzip"));
+        assertTrue(isGzipAccepted("*"));
+        assertTrue(isGzipAccepted("GZIP"));
+    }
+
+    @Test
+    public void testGzipNotAccepted() {
+        assertFalse(isGzipAccepted(null));
+        assertFalse(isGzipAccepted(""));
+        assertFalse(isGzipAccepted("identity"));
+        assertFalse(isGzipAccepted("deflate, br"));
+        assertFalse(isGzipAccepted("gzip;q=0"));
+        assertFalse(isGzipAccepted("gzip;q=0, *"));
+        assertFalse(isGzipAccepted("*;q=0"));
+    }
+
+    @Test
+    public void testEtagMatching() {
+        String etag = "\"abc-1-ff\"";
+        assertTrue(isEtagMatching(etag, etag));
+        assertTrue(isEtagMatching("\"other\", " + etag, etag));
+        assertTrue(isEtagMatching("W/" + etag, etag));
+        assertTrue(isEtagMatching("*", etag));
+
+        assertFalse(isEtagMatching(null, etag));
+        assertFalse(isEtagMatching("\"abc-2-ff\"", etag));
+        assertFalse(isEtagMatching("abc-1-ff", etag));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RenderedResponseCacheTest {
+
+    @Test
+    public void testSnapshotIsReusedForSameVersion() throws Exception {
+        RenderedResponseCache cache = new RenderedResponseCache(null, 10, 60);
+        AtomicInteger renderCount = new AtomicInteger();
+
+        RenderedResponseCache.Snapshot first = cache.get("vm-cache", "key", 1, () -> render(1, renderCount));
+        RenderedResponseCache.Snapshot second = cache.get("vm-cache", "key", 1, () -> render(1, renderCount));
+
+        assertSame(first, second);
+        assertEquals(1, renderCount.get());
+    }
+
+    @Test
+    public void testSnapshotIsRenderedForNewVersion() throws Exception {
+        RenderedResponseCache cache = new RenderedResponseCache(null, 10, 60);
+        AtomicInteger renderCount = new AtomicInteger();
+
+        cache.get("vm-cache", "key", 1, () -> render(1, renderCount));
+        RenderedResponseCache.Snapshot updated = cache.get("vm-cache", "key", 2, () -> render(2, renderCount));
+        assertEquals(2, updated.getVersion());
+        assertEquals(2, renderCount.get());
+
+        // Request based on an older version is served from the newer snapshot
+        RenderedResponseCache.Snapshot older = cache.get("vm-cache", "key", 1, () -> render(1, renderCount));
+        assertSame(updated, older);
+        assertEquals(2, renderCount.get());
+
+        // Different representations are rendered separately
+        cache.get("vm-cache", "other-key", 2, () -> render(2, renderCount));
+        assertEquals(3, renderCount.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsRenderOnce() throws Exception {
+        RenderedResponseCache cache = new RenderedResponseCache(null, 10, 60);
+        AtomicInteger renderCount = new AtomicInteger();
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(5);
+        try {
+            Future<RenderedResponseCache.Snapshot> first = executorService.submit(() -> cache.get("et", "key", 1, () -> {
+                rendering.countDown();
+                assertTrue(release.await(5, TimeUnit.SECONDS));
+                return render(1, renderCount);
+            }));
+            assertTrue(rendering.await(5, TimeUnit.SECONDS));
+
+            Future<?>[] waiting = new Future[4];
+            for (int i = 0; i < waiting.length; i++) {
+                waiting[i] = executorService.submit(() -> cache.get("et", "key", 1, () -> render(1, renderCount)));
+            }
+            release.countDown();
+
+            RenderedResponseCache.Snapshot snapshot = first.get(5, TimeUnit.SECONDS);
+            for (Future<?> future : waiting) {
+                assertSame(snapshot, future.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, renderCount.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedRenderIsNotCached() throws Exception {
+        RenderedResponseCache cache = new RenderedResponseCache(null, 10, 60);
+        AtomicInteger renderCount = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> cache.get("sx-cache", "key", 1, () -> {
+            throw new IllegalStateException("Failed");
+        }));
+        assertEquals(0, cache.size());
+
+        RenderedResponseCache.Snapshot snapshot = cache.get("sx-cache", "key", 1, () -> render(1, renderCount));
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(1, renderCount.get());
+    }
+
+    @Test
+    public void testSnapshotsAreEvictedBySize() throws Exception {
+        RenderedResponseCache cache = new RenderedResponseCache(null, 1, 60);
+
+        cache.get("et", "first", 1, () -> new RenderedResponseCache.Snapshot(1, new byte[600 * 1024], "application/xml", false, 1));
+        cache.get("et", "second", 1, () -> new RenderedResponseCache.Snapshot(1, new byte[600 * 1024], "application/xml", false, 1));
+
+        assertEquals(1, cache.size());
+    }
+
+    private static RenderedResponseCache.Snapshot render(long version, AtomicInteger renderCount) {
+        renderCount.incrementAndGet();
+        return new RenderedResponseCache.Snapshot(version, new byte[] {1, 2, 3}, "application/xml", false, 1);
+    }
+}
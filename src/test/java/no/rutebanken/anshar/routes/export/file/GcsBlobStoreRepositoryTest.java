@@ -0,0 +1,130 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.export.file;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+/**
+ * Uploads to a mocked Storage that - like GCS - finalizes a blob when its write-channel is closed
+ */
+public class GcsBlobStoreRepositoryTest {
+
+    private static final String CONTAINER = "test";
+
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+
+    private GcsBlobStoreRepository repository;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        Storage storage = Mockito.mock(Storage.class);
+
+        Mockito.when(storage.writer(any(BlobInfo.class), any(Storage.BlobWriteOption[].class))).thenAnswer(invocation -> {
+            String name = ((BlobInfo) invocation.getArgument(0)).getName();
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            WriteChannel channel = Mockito.mock(WriteChannel.class);
+            Mockito.when(channel.write(any(ByteBuffer.class))).thenAnswer(write -> {
+                ByteBuffer buffer = write.getArgument(0);
+                int length = buffer.remaining();
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                written.write(bytes);
+                return length;
+            });
+            Mockito.doAnswer(close -> blobs.put(name, written.toByteArray())).when(channel).close();
+            return channel;
+        });
+
+        Mockito.when(storage.get(any(BlobId.class))).thenAnswer(invocation ->
+                blobs.containsKey(((BlobId) invocation.getArgument(0)).getName()) ? Mockito.mock(Blob.class) : null);
+
+        Mockito.when(storage.compose(any(Storage.ComposeRequest.class))).thenAnswer(invocation -> {
+            Storage.ComposeRequest request = invocation.getArgument(0);
+            blobs.put(request.getTarget().getName(), blobs.get(request.getSourceBlobs().get(0).getName()));
+            return Mockito.mock(Blob.class);
+        });
+
+        Mockito.when(storage.delete(any(BlobId.class))).thenAnswer(invocation ->
+                blobs.remove(((BlobId) invocation.getArgument(0)).getName()) != null);
+
+        repository = new GcsBlobStoreRepository();
+        repository.setStorage(storage);
+        repository.setContainerName(CONTAINER);
+    }
+
+    @Test
+    public void testUploadStream() {
+        byte[] data = "<Siri/>".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+        repository.uploadBlob("snapshot.zip", new ByteArrayInputStream(data));
+
+        assertEquals(Set.of("snapshot.zip"), blobs.keySet());
+        assertArrayEquals(data, blobs.get("snapshot.zip"));
+    }
+
+    @Test
+    public void testNoBlobWhenStreamFailsPartway() {
+        byte[] data = "<Siri/>".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        InputStream failing = new InputStream() {
+            private final InputStream in = new ByteArrayInputStream(data);
+
+            @Override
+            public int read() throws IOException {
+                return checkEnd(in.read());
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return checkEnd(in.read(b, off, Math.min(len, 100)));
+            }
+
+            // Writer failed after some data was read - as in SnapshotExporter
+            private int checkEnd(int result) throws IOException {
+                if (result == -1) {
+                    throw new IOException("Writing snapshot failed");
+                }
+                return result;
+            }
+        };
+
+        assertThrows(RuntimeException.class, () -> repository.uploadBlob("snapshot.zip", failing));
+
+        assertTrue(blobs.isEmpty(), "Partial upload was stored: " + blobs.keySet());
+    }
+}
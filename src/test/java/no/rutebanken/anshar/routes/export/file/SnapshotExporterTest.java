@@ -0,0 +1,211 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.export.file;
+
+import no.rutebanken.anshar.data.EstimatedTimetables;
+import no.rutebanken.anshar.data.Situations;
+import no.rutebanken.anshar.data.VehicleActivities;
+import no.rutebanken.anshar.integration.SpringBootBaseTest;
+import org.entur.siri21.util.SiriXml;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import uk.org.siri.siri21.DataFrameRefStructure;
+import uk.org.siri.siri21.EstimatedCall;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.FramedVehicleJourneyRefStructure;
+import uk.org.siri.siri21.HalfOpenTimestampOutputRangeStructure;
+import uk.org.siri.siri21.LineRef;
+import uk.org.siri.siri21.LocationStructure;
+import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.RequestorRef;
+import uk.org.siri.siri21.Siri;
+import uk.org.siri.siri21.SituationNumber;
+import uk.org.siri.siri21.StopPointRefStructure;
+import uk.org.siri.siri21.VehicleActivityStructure;
+import uk.org.siri.siri21.VehicleRef;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static no.rutebanken.anshar.subscription.SiriDataType.ESTIMATED_TIMETABLE;
+import static no.rutebanken.anshar.subscription.SiriDataType.SITUATION_EXCHANGE;
+import static no.rutebanken.anshar.subscription.SiriDataType.VEHICLE_MONITORING;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotExporterTest extends SpringBootBaseTest {
+
+    @Autowired
+    private SnapshotExporter snapshotExporter;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @Autowired
+    private EstimatedTimetables estimatedTimetables;
+
+    @Autowired
+    private Situations situations;
+
+    @Autowired
+    private VehicleActivities vehicleActivities;
+
+    @BeforeEach
+    public void init() {
+        estimatedTimetables.clearAll();
+        situations.clearAll();
+        vehicleActivities.clearAll();
+    }
+
+    @Test
+    public void testExportAllDataTypes() throws Exception {
+        // More than one page of ET
+        int etCount = 2500;
+        for (int i = 0; i < etCount; i++) {
+            estimatedTimetables.add("TST", createET());
+        }
+        situations.add("TST", createSX());
+        vehicleActivities.add("TST", createVM());
+
+        String name = "SIRI-SNAPSHOT-" + UUID.randomUUID() + ".zip";
+        snapshotExporter.export(name, ESTIMATED_TIMETABLE, SITUATION_EXCHANGE, VEHICLE_MONITORING);
+
+        Map<String, Siri> entries = readZip(blobStoreService.getBlob(name));
+        assertEquals(3, entries.size());
+
+        Siri et = entries.get("ET.xml");
+        assertNotNull(et);
+        assertEquals(etCount, et.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies().size());
+
+        Siri sx = entries.get("SX.xml");
+        assertNotNull(sx);
+        assertEquals(1, sx.getServiceDelivery().getSituationExchangeDeliveries().get(0)
+                .getSituations().getPtSituationElements().size());
+
+        Siri vm = entries.get("VM.xml");
+        assertNotNull(vm);
+        assertEquals(1, vm.getServiceDelivery().getVehicleMonitoringDeliveries().get(0).getVehicleActivities().size());
+    }
+
+    @Test
+    public void testExportEmptyDataset() throws Exception {
+        String name = "SIRI-SNAPSHOT-" + UUID.randomUUID() + "-ET.zip";
+        snapshotExporter.export(name, ESTIMATED_TIMETABLE);
+
+        Map<String, Siri> entries = readZip(blobStoreService.getBlob(name));
+        assertEquals(1, entries.size());
+
+        Siri et = entries.get("ET.xml");
+        assertNotNull(et);
+        assertTrue(et.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies().isEmpty());
+    }
+
+    private static Map<String, Siri> readZip(InputStream blob) throws Exception {
+        assertNotNull(blob);
+        Map<String, Siri> entries = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(blob)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.put(entry.getName(), SiriXml.parseXml(new ByteArrayInputStream(zip.readAllBytes())));
+            }
+        }
+        return entries;
+    }
+
+    private static EstimatedVehicleJourney createET() {
+        EstimatedVehicleJourney element = new EstimatedVehicleJourney();
+        LineRef lineRef = new LineRef();
+        lineRef.setValue("TST:Line:1234");
+        element.setLineRef(lineRef);
+        VehicleRef vehicleRef = new VehicleRef();
+        vehicleRef.setValue("TST:Vehicle:1234");
+        element.setVehicleRef(vehicleRef);
+        element.setIsCompleteStopSequence(true);
+        element.setDataSource("TST");
+
+        FramedVehicleJourneyRefStructure framedVehicleJourney = new FramedVehicleJourneyRefStructure();
+        DataFrameRefStructure dataFrame = new DataFrameRefStructure();
+        dataFrame.setValue(ZonedDateTime.now().toLocalDate().toString());
+        framedVehicleJourney.setDataFrameRef(dataFrame);
+        framedVehicleJourney.setDatedVehicleJourneyRef("TST:ServiceJourney:" + UUID.randomUUID());
+        element.setFramedVehicleJourneyRef(framedVehicleJourney);
+
+        EstimatedVehicleJourney.EstimatedCalls estimatedCalls = new EstimatedVehicleJourney.EstimatedCalls();
+        for (int i = 0; i < 2; i++) {
+            StopPointRefStructure stopPointRef = new StopPointRefStructure();
+            stopPointRef.setValue("NSR:TEST:" + i);
+            EstimatedCall call = new EstimatedCall();
+            call.setStopPointRef(stopPointRef);
+            call.setAimedArrivalTime(ZonedDateTime.now().plusMinutes(5));
+            call.setExpectedArrivalTime(ZonedDateTime.now().plusMinutes(5));
+            call.setAimedDepartureTime(ZonedDateTime.now().plusMinutes(6));
+            call.setExpectedDepartureTime(ZonedDateTime.now().plusMinutes(6));
+            call.setOrder(BigInteger.valueOf(i));
+            call.setVisitNumber(BigInteger.valueOf(i));
+            estimatedCalls.getEstimatedCalls().add(call);
+        }
+        element.setEstimatedCalls(estimatedCalls);
+        return element;
+    }
+
+    private static PtSituationElement createSX() {
+        PtSituationElement situation = new PtSituationElement();
+        SituationNumber sitNumber = new SituationNumber();
+        sitNumber.setValue("TST:SituationNumber:" + UUID.randomUUID());
+        situation.setSituationNumber(sitNumber);
+        RequestorRef participantRef = new RequestorRef();
+        participantRef.setValue("TST");
+        situation.setParticipantRef(participantRef);
+
+        HalfOpenTimestampOutputRangeStructure validity = new HalfOpenTimestampOutputRangeStructure();
+        validity.setStartTime(ZonedDateTime.now().minusMinutes(5));
+        validity.setEndTime(ZonedDateTime.now().plusMinutes(5));
+        situation.getValidityPeriods().add(validity);
+        return situation;
+    }
+
+    private static VehicleActivityStructure createVM() {
+        VehicleActivityStructure element = new VehicleActivityStructure();
+        element.setValidUntilTime(ZonedDateTime.now().plusMinutes(1));
+
+        VehicleActivityStructure.MonitoredVehicleJourney mvj = new VehicleActivityStructure.MonitoredVehicleJourney();
+        mvj.setDataSource("TST");
+        mvj.setLocationRecordedAtTime(ZonedDateTime.now().minusMinutes(1));
+        LocationStructure location = new LocationStructure();
+        location.setLatitude(BigDecimal.valueOf(1L));
+        location.setLongitude(BigDecimal.valueOf(1L));
+        mvj.setVehicleLocation(location);
+
+        VehicleRef vehicleRef = new VehicleRef();
+        vehicleRef.setValue("TST:Vehicle:" + UUID.randomUUID());
+        mvj.setVehicleRef(vehicleRef);
+
+        element.setMonitoredVehicleJourney(mvj);
+        return element;
+    }
+}
@@ -0,0 +1,93 @@
+package no.rutebanken.anshar.routes.mapping;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SortedIdTableTest {
+
+    @Test
+    public void testLookup() {
+        Map<String, String> mappings = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            mappings.put("ABC:Quay:" + i, "NSR:Quay:" + (i % 100));
+        }
+        SortedIdTable table = SortedIdTable.builder().putAll(mappings).build();
+
+        assertEquals(mappings.size(), table.size());
+        mappings.forEach((id, value) -> assertEquals(value, table.get(id)));
+
+        assertNull(table.get("ABC:Quay:10000"));
+        assertNull(table.get("ABC:Quay:"));
+        assertNull(table.get("ABC:Quay:12345"));
+        assertNull(table.get(""));
+        assertNull(table.get(null));
+
+        // Values are dictionary-encoded - the same instance is returned for all ids mapping to a value
+        assertSame(table.get("ABC:Quay:1"), table.get("ABC:Quay:101"));
+    }
+
+    @Test
+    public void testNonAsciiIds() {
+        SortedIdTable table = SortedIdTable.builder()
+                .put("RUT:StopPlace:Ål", "NSR:StopPlace:1")
+                .put("RUT:StopPlace:Øst", "NSR:StopPlace:2")
+                .put("RUT:StopPlace:🚆", "NSR:StopPlace:3")
+                .put("RUT:StopPlace:�", "NSR:StopPlace:4")
+                .put("RUT:StopPlace:Z", "NSR:StopPlace:5")
+                .build();
+
+        assertEquals("NSR:StopPlace:1", table.get("RUT:StopPlace:Ål"));
+        assertEquals("NSR:StopPlace:2", table.get("RUT:StopPlace:Øst"));
+        assertEquals("NSR:StopPlace:3", table.get("RUT:StopPlace:🚆"));
+        assertEquals("NSR:StopPlace:4", table.get("RUT:StopPlace:�"));
+        assertEquals("NSR:StopPlace:5", table.get("RUT:StopPlace:Z"));
+        assertNull(table.get("RUT:StopPlace:Å"));
+    }
+
+    @Test
+    public void testIdsWithoutValues() {
+        SortedIdTable table = SortedIdTable.builder()
+                .add("NSR:StopPlace:1")
+                .add("NSR:Quay:1")
+                .add("NSR:Quay:1")
+                .build();
+
+        assertEquals(2, table.size());
+        assertTrue(table.contains("NSR:StopPlace:1"));
+        assertTrue(table.contains("NSR:Quay:1"));
+        assertFalse(table.contains("NSR:Quay:2"));
+        assertNull(table.get("NSR:Quay:1"));
+    }
+
+    @Test
+    public void testLaterValuesReplaceEarlier() {
+        SortedIdTable first = SortedIdTable.builder()
+                .put("1234", "NSR:Quay:1")
+                .put("2345", "NSR:Quay:2")
+                .build();
+
+        SortedIdTable merged = SortedIdTable.builder()
+                .putAll(first)
+                .put("1234", "NSR:Quay:3")
+                .build();
+
+        assertEquals("NSR:Quay:3", merged.get("1234"));
+        assertEquals("NSR:Quay:2", merged.get("2345"));
+        assertEquals("NSR:Quay:1", first.get("1234"));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(SortedIdTable.EMPTY.isEmpty());
+        assertFalse(SortedIdTable.EMPTY.contains("NSR:Quay:1"));
+        assertNull(SortedIdTable.EMPTY.get("NSR:Quay:1"));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
+import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.routes.siri.transformer.SiriValueTransformer;
+import no.rutebanken.anshar.routes.siri.transformer.ValueAdapter;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.entur.siri.validator.SiriValidator;
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.LineRef;
+import uk.org.siri.siri21.Siri;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutboundPayloadCacheTest {
+
+    @Test
+    public void testSubscriptionRefIsReplaced() {
+        String xml = "<Siri><SubscriptionRef>" + OutboundPayloadCache.SUBSCRIPTION_REF_PLACEHOLDER + "</SubscriptionRef>" +
+                "<Other>" + OutboundPayloadCache.SUBSCRIPTION_REF_PLACEHOLDER + "</Other></Siri>";
+        OutboundPayloadCache.RenderedPayload rendered = new OutboundPayloadCache.RenderedPayload(xml.getBytes(StandardCharsets.UTF_8), "data");
+
+        assertEquals("<Siri><SubscriptionRef>abc</SubscriptionRef><Other>abc</Other></Siri>",
+                new String(rendered.getXml("abc"), StandardCharsets.UTF_8));
+        assertEquals("<Siri><SubscriptionRef>a&amp;b</SubscriptionRef><Other>a&amp;b</Other></Siri>",
+                new String(rendered.getXml("a&b"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPayloadWithoutPlaceholderIsShared() {
+        byte[] xml = "<Siri/>".getBytes(StandardCharsets.UTF_8);
+        OutboundPayloadCache.RenderedPayload rendered = new OutboundPayloadCache.RenderedPayload(xml, "heartbeat");
+        assertSame(xml, rendered.getXml("abc"));
+    }
+
+    @Test
+    public void testRenderingIsSharedForIdenticalSubscriptions() {
+        OutboundSubscriptionSetup first = createSubscription("1", OutboundIdMappingPolicy.DEFAULT, SiriValidator.Version.VERSION_2_1);
+        OutboundSubscriptionSetup second = createSubscription("2", OutboundIdMappingPolicy.DEFAULT, SiriValidator.Version.VERSION_2_1);
+
+        OutboundPayloadCache cache = OutboundPayloadCache.create(List.of(first, second), s -> 1000, false);
+        assertTrue(cache.isTransformInPlace());
+
+        AtomicInteger renderCount = new AtomicInteger();
+        cache.getRenderedPayload(first, 1000, 0, () -> render(renderCount));
+        cache.getRenderedPayload(second, 1000, 0, () -> render(renderCount));
+
+        assertEquals(1, renderCount.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        assertFalse(cache.recipientCompleted());
+        assertTrue(cache.recipientCompleted());
+    }
+
+    @Test
+    public void testRenderingIsNotSharedForDifferentSubscriptions() {
+        OutboundSubscriptionSetup first = createSubscription("1", OutboundIdMappingPolicy.DEFAULT, SiriValidator.Version.VERSION_2_1);
+        OutboundSubscriptionSetup otherPolicy = createSubscription("2", OutboundIdMappingPolicy.ORIGINAL_ID, SiriValidator.Version.VERSION_2_1);
+        OutboundSubscriptionSetup otherVersion = createSubscription("3", OutboundIdMappingPolicy.DEFAULT, SiriValidator.Version.VERSION_2_0);
+        OutboundSubscriptionSetup unknownPolicy = createSubscription("4", null, SiriValidator.Version.VERSION_2_1);
+        OutboundSubscriptionSetup unknownPolicy2 = createSubscription("5", null, SiriValidator.Version.VERSION_2_1);
+
+        List<OutboundSubscriptionSetup> recipients = List.of(first, otherPolicy, otherVersion, unknownPolicy, unknownPolicy2);
+        OutboundPayloadCache cache = OutboundPayloadCache.create(recipients, s -> 1000, false);
+        assertFalse(cache.isTransformInPlace());
+
+        AtomicInteger renderCount = new AtomicInteger();
+        for (OutboundSubscriptionSetup recipient : recipients) {
+            cache.getRenderedPayload(recipient, 1000, 0, () -> render(renderCount));
+        }
+        assertEquals(recipients.size(), renderCount.get());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testSharedPayloadIsNotTransformedInPlace() {
+        OutboundSubscriptionSetup subscription = createSubscription("1", OutboundIdMappingPolicy.DEFAULT, SiriValidator.Version.VERSION_2_1);
+
+        assertTrue(OutboundPayloadCache.create(List.of(subscription), s -> 1000, false).isTransformInPlace());
+        assertFalse(OutboundPayloadCache.create(List.of(subscription), s -> 1000, true).isTransformInPlace());
+    }
+
+    @Test
+    public void testOriginalDeliveryIsUnchangedAfterFilteredPush() {
+        Siri original = new SiriObjectFactory(Instant.now()).createETServiceDelivery(List.of(
+                createJourney("TST:Line:1"),
+                createJourney("TST:Line:2")
+        ));
+        Map<Class, Set<String>> filter = Map.of(LineRef.class, Set.of("TST:Line:1"));
+        OutboundSubscriptionSetup subscription = createSubscription("1", OutboundIdMappingPolicy.DEFAULT, SiriValidator.Version.VERSION_2_1);
+
+        // Original delivery is also passed to the topic-producer
+        OutboundPayloadCache cache = OutboundPayloadCache.create(List.of(subscription), s -> 1000, true);
+
+        Siri filtered = SiriHelper.filterSiriPayload(original, filter);
+        Siri transformed = SiriValueTransformer.transform(cache.getTransformablePayload(filtered),
+                List.of(new ValueAdapter(LineRef.class) {
+                    @Override
+                    protected String apply(String value) {
+                        return "PREFIX:" + value;
+                    }
+                }),
+                false, false);
+
+        List<EstimatedVehicleJourney> transformedJourneys = getJourneys(transformed);
+        assertEquals(1, transformedJourneys.size());
+        assertEquals("PREFIX:TST:Line:1", transformedJourneys.get(0).getLineRef().getValue());
+
+        List<EstimatedVehicleJourney> originalJourneys = getJourneys(original);
+        assertEquals(2, originalJourneys.size());
+        assertEquals("TST:Line:1", originalJourneys.get(0).getLineRef().getValue());
+        assertEquals("TST:Line:2", originalJourneys.get(1).getLineRef().getValue());
+    }
+
+    private EstimatedVehicleJourney createJourney(String lineRef) {
+        EstimatedVehicleJourney journey = new EstimatedVehicleJourney();
+        LineRef line = new LineRef();
+        line.setValue(lineRef);
+        journey.setLineRef(line);
+        return journey;
+    }
+
+    private List<EstimatedVehicleJourney> getJourneys(Siri siri) {
+        return siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies();
+    }
+
+    private OutboundPayloadCache.RenderedPayload render(AtomicInteger renderCount) {
+        renderCount.incrementAndGet();
+        return new OutboundPayloadCache.RenderedPayload(
+                ("<Siri>" + OutboundPayloadCache.SUBSCRIPTION_REF_PLACEHOLDER + "</Siri>").getBytes(StandardCharsets.UTF_8),
+                "data");
+    }
+
+    private OutboundSubscriptionSetup createSubscription(String subscriptionId, OutboundIdMappingPolicy policy, SiriValidator.Version version) {
+        return new OutboundSubscriptionSetup(
+                ZonedDateTime.now(),
+                SiriDataType.ESTIMATED_TIMETABLE,
+                "http://localhost",
+                0,
+                0,
+                Map.of(String.class, Set.of("TST")),
+                List.of(),
+                policy,
+                subscriptionId,
+                "requestor",
+                ZonedDateTime.now().plusHours(1),
+                null,
+                null,
+                version
+        );
+    }
+}
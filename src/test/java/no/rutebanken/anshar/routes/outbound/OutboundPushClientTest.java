@@ -0,0 +1,203 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pushes to a local Jetty-server with configurable latency and responses
+ */
+public class OutboundPushClientTest {
+
+    private Server server;
+    private StubConsumer consumer;
+    private String address;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        consumer = new StubConsumer();
+        server = new Server(0);
+        server.setHandler(consumer);
+        server.start();
+        address = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/push";
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void testConcurrentRequestsPerHostAreLimited() throws Exception {
+        consumer.latencyMillis = 200;
+        OutboundPushClient client = new OutboundPushClient(4, 0, 10, false);
+
+        List<CompletableFuture<Integer>> responses = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            responses.add(client.post(address, "subscription-" + i, "<Siri/>".getBytes(StandardCharsets.UTF_8)));
+        }
+        for (CompletableFuture<Integer> response : responses) {
+            assertEquals(200, response.get(10, TimeUnit.SECONDS));
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        assertEquals(20, consumer.requestCount.get());
+        assertEquals(4, consumer.maxConcurrent.get());
+        // 20 requests, 4 at a time - with only 2 client-threads
+        assertTrue(duration >= 1000, "Requests were not limited: " + duration);
+        assertTrue(duration < 5000, "Requests were not concurrent: " + duration);
+    }
+
+    @Test
+    public void testRetryWithBackoff() throws Exception {
+        consumer.failuresBeforeSuccess.set(2);
+        OutboundPushClient client = new OutboundPushClient(4, 2, 50, false);
+
+        long start = System.currentTimeMillis();
+        int responseCode = client.post(address, "subscription", "<Siri/>".getBytes(StandardCharsets.UTF_8)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(200, responseCode);
+        assertEquals(3, consumer.requestCount.get());
+        // 50 ms + 100 ms, minus jitter
+        assertTrue(System.currentTimeMillis() - start >= 120);
+    }
+
+    @Test
+    public void testNoRetryWhenRetriesAreExhausted() throws Exception {
+        consumer.failuresBeforeSuccess.set(5);
+        OutboundPushClient client = new OutboundPushClient(4, 1, 10, false);
+
+        int responseCode = client.post(address, "subscription", "<Siri/>".getBytes(StandardCharsets.UTF_8)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(503, responseCode);
+        assertEquals(2, consumer.requestCount.get());
+    }
+
+    @Test
+    public void testGzipRequestBody() throws Exception {
+        OutboundPushClient client = new OutboundPushClient(4, 0, 10, true);
+
+        String xml = "<Siri>" + "<Data/>".repeat(1000) + "</Siri>";
+        int responseCode = client.post(address, "subscription", xml.getBytes(StandardCharsets.UTF_8)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(200, responseCode);
+        assertEquals("gzip", consumer.lastContentEncoding);
+        assertEquals(xml, consumer.lastBody);
+        assertEquals("subscription", consumer.lastSubscriptionId);
+    }
+
+    @Test
+    public void testPendingRequestsAreNotStartedOnCompletingThread() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            OutboundPushClient.HostLimiter limiter = new OutboundPushClient.HostLimiter(1, executor);
+
+            CompletableFuture<Integer> running = new CompletableFuture<>();
+            CompletableFuture<Integer> first = limiter.submit(() -> running);
+
+            // Pending requests failing synchronously must not recurse into each other
+            Thread completingThread = Thread.currentThread();
+            AtomicInteger startedOnCompletingThread = new AtomicInteger();
+            List<CompletableFuture<Integer>> pending = new ArrayList<>();
+            for (int i = 0; i < 10_000; i++) {
+                pending.add(limiter.submit(() -> {
+                    if (Thread.currentThread() == completingThread) {
+                        startedOnCompletingThread.incrementAndGet();
+                    }
+                    throw new IllegalStateException("Failed synchronously");
+                }));
+            }
+
+            running.complete(200);
+            assertEquals(200, first.get(10, TimeUnit.SECONDS));
+
+            for (CompletableFuture<Integer> response : pending) {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> response.get(10, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            assertEquals(0, startedOnCompletingThread.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class StubConsumer extends AbstractHandler {
+        private volatile long latencyMillis;
+        private final AtomicInteger failuresBeforeSuccess = new AtomicInteger();
+        private final AtomicInteger requestCount = new AtomicInteger();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private volatile String lastContentEncoding;
+        private volatile String lastBody;
+        private volatile String lastSubscriptionId;
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            requestCount.incrementAndGet();
+            int current = concurrent.incrementAndGet();
+            maxConcurrent.accumulateAndGet(current, Math::max);
+            try {
+                lastContentEncoding = request.getHeader("Content-Encoding");
+                lastSubscriptionId = request.getHeader("subscriptionId");
+                InputStream body = request.getInputStream();
+                if ("gzip".equals(lastContentEncoding)) {
+                    body = new GZIPInputStream(body);
+                }
+                lastBody = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+                if (failuresBeforeSuccess.getAndDecrement() > 0) {
+                    response.setStatus(503);
+                } else {
+                    response.setStatus(200);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrent.decrementAndGet();
+                baseRequest.setHandled(true);
+            }
+        }
+    }
+}
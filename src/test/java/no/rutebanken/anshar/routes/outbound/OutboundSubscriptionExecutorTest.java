@@ -0,0 +1,182 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutboundSubscriptionExecutorTest {
+
+    private OutboundSubscriptionExecutor executor;
+
+    @AfterEach
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOldestIsDiscardedWhenQueueIsFull() throws InterruptedException {
+        executor = new OutboundSubscriptionExecutor(null, 2, 100, 1, 3);
+        OutboundSubscriptionSetup subscription = createSubscription("1");
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.submit(subscription, () -> {
+            started.countDown();
+            return CompletableFuture.runAsync(() -> await(blocker));
+        }, () -> {}, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+        AtomicInteger discarded = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(3);
+        for (int i = 0; i < 5; i++) {
+            final int value = i;
+            executor.submit(subscription, () -> {
+                executed.add(value);
+                completed.countDown();
+                return CompletableFuture.completedFuture(null);
+            }, discarded::incrementAndGet, null);
+        }
+        assertEquals(3, executor.getQueueDepths().get("1"));
+
+        blocker.countDown();
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(2, 3, 4), executed);
+        assertEquals(2, discarded.get());
+    }
+
+    @Test
+    public void testSupersededUpdatesAreSkipped() throws InterruptedException {
+        executor = new OutboundSubscriptionExecutor(null, 2, 100, 1, 100);
+        OutboundSubscriptionSetup subscription = createSubscription("1");
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.submit(subscription, () -> {
+            started.countDown();
+            return CompletableFuture.runAsync(() -> await(blocker));
+        }, () -> {}, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<String> executed = new CopyOnWriteArrayList<>();
+        AtomicInteger discarded = new AtomicInteger();
+        CountDownLatch completed = new CountDownLatch(2);
+
+        executor.submit(subscription, () -> complete(() -> executed.add("first")), discarded::incrementAndGet, Set.of("A", "B"));
+        executor.submit(subscription, () -> complete(() -> {
+            executed.add("partial");
+            completed.countDown();
+        }), discarded::incrementAndGet, Set.of("B", "C"));
+        executor.submit(subscription, () -> complete(() -> {
+            executed.add("latest");
+            completed.countDown();
+        }), discarded::incrementAndGet, Set.of("A", "B"));
+
+        blocker.countDown();
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+
+        // "partial" also contains C, which is not included in any later update
+        assertEquals(List.of("partial", "latest"), executed);
+        assertEquals(1, discarded.get());
+    }
+
+    @Test
+    public void testPendingUpdatesAreDiscardedWhenSubscriptionIsRemoved() throws InterruptedException {
+        executor = new OutboundSubscriptionExecutor(null, 2, 100, 1, 100);
+        OutboundSubscriptionSetup subscription = createSubscription("1");
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.submit(subscription, () -> {
+            started.countDown();
+            return CompletableFuture.runAsync(() -> await(blocker));
+        }, () -> {}, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        AtomicInteger executed = new AtomicInteger();
+        AtomicInteger discarded = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            executor.submit(subscription, () -> complete(executed::incrementAndGet), discarded::incrementAndGet, null);
+        }
+
+        executor.removeSubscription("1");
+        blocker.countDown();
+
+        assertEquals(3, discarded.get());
+        assertEquals(0, executed.get());
+        assertTrue(executor.getQueueDepths().isEmpty());
+    }
+
+    @Test
+    public void testThreadIsNotOccupiedWhileWaitingForPush() throws InterruptedException {
+        executor = new OutboundSubscriptionExecutor(null, 1, 100, 10, 100);
+
+        // Single thread in pool, ten pushes in progress at the same time
+        List<CompletableFuture<Object>> inProgress = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            executor.submit(createSubscription("" + i), () -> {
+                CompletableFuture<Object> future = new CompletableFuture<>();
+                inProgress.add(future);
+                started.countDown();
+                return future;
+            }, () -> {}, null);
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(10, executor.getActiveCounts().values().stream().mapToInt(Integer::intValue).sum());
+
+        inProgress.forEach(future -> future.complete(null));
+
+        long timeout = System.currentTimeMillis() + 5000;
+        while (executor.getActiveCounts().values().stream().mapToInt(Integer::intValue).sum() > 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executor.getActiveCounts().values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    private static CompletableFuture<Void> complete(Runnable runnable) {
+        runnable.run();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private OutboundSubscriptionSetup createSubscription(String subscriptionId) {
+        return new OutboundSubscriptionSetup(SiriDataType.ESTIMATED_TIMETABLE, "http://localhost", 60000, List.of(), subscriptionId);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.routes.outbound;
+
+import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
+import no.rutebanken.anshar.subscription.SiriDataType;
+import org.entur.siri.validator.SiriValidator;
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.AffectedLineStructure;
+import uk.org.siri.siri21.AffectsScopeStructure;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.LineRef;
+import uk.org.siri.siri21.PtSituationElement;
+import uk.org.siri.siri21.VehicleActivityStructure;
+import uk.org.siri.siri21.VehicleRef;
+
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SubscriptionRoutingIndexTest {
+
+    @Test
+    public void testRoutingByDatasetAndLine() {
+        SubscriptionRoutingIndex index = new SubscriptionRoutingIndex();
+        index.add(createSubscription("all", SiriDataType.ESTIMATED_TIMETABLE, null, null, null));
+        index.add(createSubscription("dataset", SiriDataType.ESTIMATED_TIMETABLE, "TST", null, null));
+        index.add(createSubscription("otherDataset", SiriDataType.ESTIMATED_TIMETABLE, "OTH", null, null));
+        index.add(createSubscription("line", SiriDataType.ESTIMATED_TIMETABLE, null, Set.of("TST:Line:1", "TST:Line:2"), null));
+        index.add(createSubscription("otherLine", SiriDataType.ESTIMATED_TIMETABLE, "TST", Set.of("TST:Line:3"), null));
+        index.add(createSubscription("vm", SiriDataType.VEHICLE_MONITORING, null, null, null));
+
+        assertEquals(Set.of("all", "dataset", "line"),
+                ids(index.findEstimatedTimetableRecipients("TST", List.of(createJourney("TST:Line:1", null)))));
+
+        assertEquals(Set.of("all", "dataset"),
+                ids(index.findEstimatedTimetableRecipients("TST", List.of(createJourney(null, null)))));
+
+        assertEquals(Set.of("all", "line"),
+                ids(index.findEstimatedTimetableRecipients("OTH2", List.of(createJourney("TST:Line:2", null)))));
+
+        assertEquals(Set.of("all", "dataset", "line", "otherLine"),
+                ids(index.findEstimatedTimetableRecipients("TST", List.of(createJourney("TST:Line:1", null), createJourney("TST:Line:3", null)))));
+    }
+
+    @Test
+    public void testRoutingRequiresBothLineAndVehicleMatch() {
+        SubscriptionRoutingIndex index = new SubscriptionRoutingIndex();
+        index.add(createSubscription("vehicle", SiriDataType.VEHICLE_MONITORING, null, null, Set.of("1234")));
+        index.add(createSubscription("lineAndVehicle", SiriDataType.VEHICLE_MONITORING, "TST", Set.of("TST:Line:1"), Set.of("1234")));
+
+        assertEquals(Set.of("vehicle", "lineAndVehicle"),
+                ids(index.findVehicleActivityRecipients("TST", List.of(createVehicleActivity("TST:Line:1", "1234")))));
+
+        assertEquals(Set.of("vehicle"),
+                ids(index.findVehicleActivityRecipients("TST", List.of(createVehicleActivity("TST:Line:2", "1234")))));
+
+        assertTrue(index.findVehicleActivityRecipients("TST", List.of(createVehicleActivity("TST:Line:1", "5678"))).isEmpty());
+    }
+
+    @Test
+    public void testSituationsAreRoutedByAffectedLines() {
+        SubscriptionRoutingIndex index = new SubscriptionRoutingIndex();
+        index.add(createSubscription("all", SiriDataType.SITUATION_EXCHANGE, null, null, null));
+        index.add(createSubscription("line", SiriDataType.SITUATION_EXCHANGE, "TST", Set.of("TST:Line:2"), null));
+        index.add(createSubscription("otherLine", SiriDataType.SITUATION_EXCHANGE, null, Set.of("TST:Line:3"), null));
+
+        assertEquals(Set.of("all", "line"),
+                ids(index.findSituationRecipients("TST", List.of(createSituation("TST:Line:1", "TST:Line:2")))));
+
+        assertEquals(Set.of("all"),
+                ids(index.findSituationRecipients("TST", List.of(createSituation()))));
+    }
+
+    @Test
+    public void testRemovedSubscriptionIsNotRouted() {
+        SubscriptionRoutingIndex index = new SubscriptionRoutingIndex();
+        index.add(createSubscription("line", SiriDataType.ESTIMATED_TIMETABLE, null, Set.of("TST:Line:1"), null));
+        index.add(createSubscription("line", SiriDataType.ESTIMATED_TIMETABLE, null, Set.of("TST:Line:2"), null));
+        assertEquals(1, index.size());
+
+        assertTrue(index.findEstimatedTimetableRecipients("TST", List.of(createJourney("TST:Line:1", null))).isEmpty());
+        assertEquals(Set.of("line"), ids(index.findEstimatedTimetableRecipients("TST", List.of(createJourney("TST:Line:2", null)))));
+
+        index.remove("line");
+        assertEquals(0, index.size());
+        assertTrue(index.findEstimatedTimetableRecipients("TST", List.of(createJourney("TST:Line:2", null))).isEmpty());
+    }
+
+    private Set<String> ids(List<OutboundSubscriptionSetup> subscriptions) {
+        return subscriptions.stream().map(OutboundSubscriptionSetup::getSubscriptionId).collect(Collectors.toSet());
+    }
+
+    private EstimatedVehicleJourney createJourney(String lineRef, String vehicleRef) {
+        EstimatedVehicleJourney journey = new EstimatedVehicleJourney();
+        if (lineRef != null) {
+            LineRef line = new LineRef();
+            line.setValue(lineRef);
+            journey.setLineRef(line);
+        }
+        if (vehicleRef != null) {
+            VehicleRef vehicle = new VehicleRef();
+            vehicle.setValue(vehicleRef);
+            journey.setVehicleRef(vehicle);
+        }
+        return journey;
+    }
+
+    private VehicleActivityStructure createVehicleActivity(String lineRef, String vehicleRef) {
+        VehicleActivityStructure.MonitoredVehicleJourney journey = new VehicleActivityStructure.MonitoredVehicleJourney();
+        LineRef line = new LineRef();
+        line.setValue(lineRef);
+        journey.setLineRef(line);
+        VehicleRef vehicle = new VehicleRef();
+        vehicle.setValue(vehicleRef);
+        journey.setVehicleRef(vehicle);
+
+        VehicleActivityStructure activity = new VehicleActivityStructure();
+        activity.setMonitoredVehicleJourney(journey);
+        return activity;
+    }
+
+    private PtSituationElement createSituation(String... lineRefs) {
+        AffectsScopeStructure.Networks.AffectedNetwork network = new AffectsScopeStructure.Networks.AffectedNetwork();
+        for (String lineRef : lineRefs) {
+            LineRef line = new LineRef();
+            line.setValue(lineRef);
+            AffectedLineStructure affectedLine = new AffectedLineStructure();
+            affectedLine.setLineRef(line);
+            network.getAffectedLines().add(affectedLine);
+        }
+        AffectsScopeStructure.Networks networks = new AffectsScopeStructure.Networks();
+        networks.getAffectedNetworks().add(network);
+        AffectsScopeStructure affects = new AffectsScopeStructure();
+        affects.setNetworks(networks);
+
+        PtSituationElement situation = new PtSituationElement();
+        situation.setAffects(affects);
+        return situation;
+    }
+
+    private OutboundSubscriptionSetup createSubscription(String subscriptionId, SiriDataType type, String datasetId,
+                                                         Set<String> lineRefs, Set<String> vehicleRefs) {
+        Map<Class, Set<String>> filterMap = new HashMap<>();
+        if (lineRefs != null) {
+            filterMap.put(LineRef.class, lineRefs);
+        }
+        if (vehicleRefs != null) {
+            filterMap.put(VehicleRef.class, vehicleRefs);
+        }
+        return new OutboundSubscriptionSetup(
+                ZonedDateTime.now(),
+                type,
+                "http://localhost",
+                0,
+                0,
+                filterMap,
+                List.of(),
+                OutboundIdMappingPolicy.DEFAULT,
+                subscriptionId,
+                "TST",
+                ZonedDateTime.now().plusHours(1),
+                datasetId,
+                null,
+                SiriValidator.Version.VERSION_2_1
+        );
+    }
+}
@@ -0,0 +1,47 @@
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class NetexUpdaterServiceTest {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String[] paths = {
+            "src/test/resources/rb_flt-aggregated-netex.zip",
+            "src/test/resources/rb_gjb-aggregated-netex.zip",
+            "src/test/resources/RailStations.zip"
+    };
+
+    @Test
+    public void testParallelLoadingGivesSameIndex() {
+        long start = System.currentTimeMillis();
+        RouteData sequential = NetexUpdaterService.read(1, paths);
+        long sequentialTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        RouteData parallel = NetexUpdaterService.read(paths.length, paths);
+        long parallelTime = System.currentTimeMillis() - start;
+
+        logger.info("Loaded {} NeTEx files in {} ms with 1 thread, {} ms with {} threads", paths.length,
+                sequentialTime, parallelTime, paths.length);
+
+        assertFalse(sequential.getParentStops().isEmpty());
+        assertEquals(sequential.getStringCount(), parallel.getStringCount());
+        assertEquals(sequential.getSizeInBytes(), parallel.getSizeInBytes());
+        assertEquals(sequential.getParentStops(), parallel.getParentStops());
+    }
+
+    @Test
+    public void testUpdatePublishesIndex() {
+        NetexUpdaterService.update(paths);
+
+        RouteData routeData = NetexUpdaterService.getRouteData();
+        assertFalse(routeData.getParentStops().isEmpty());
+        assertEquals(routeData.getParentStops(), NetexUpdaterService.getParentStops());
+    }
+}
@@ -0,0 +1,181 @@
+package no.rutebanken.anshar.routes.siri.processor.routedata;
+
+import org.junit.jupiter.api.Test;
+import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
+import org.rutebanken.netex.model.DatedServiceJourney;
+import org.rutebanken.netex.model.LocationStructure;
+import org.rutebanken.netex.model.OperatingDay;
+import org.rutebanken.netex.model.OperatingDayRefStructure;
+import org.rutebanken.netex.model.ServiceAlterationEnumeration;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RouteDataTest {
+
+    private static final String SERVICE_JOURNEY = "NSB:ServiceJourney:1-2345";
+
+    @Test
+    public void testLookups() {
+        verify(createRouteData());
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        Path file = Files.createTempFile("route-data", ".bin");
+        try {
+            RouteData routeData = createRouteData();
+            routeData.writeTo(file);
+            assertEquals(routeData.getSizeInBytes(), Files.size(file));
+
+            verify(RouteData.read(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testTrainNumberTripsAreMerged() {
+        RouteData routeData = RouteData.builder()
+                .addTrainNumberTrips("1234", List.of("sj-1"))
+                .addTrainNumberTrips("1234", List.of("sj-2"))
+                .build();
+
+        assertEquals(Set.of("sj-1", "sj-2"), routeData.getServiceJourneys("1234"));
+    }
+
+    @Test
+    public void testMergedPartialIndexes() {
+        RouteData.Builder first = RouteData.builder()
+                .addTrainNumberTrips("1234", List.of("sj-1"))
+                .putParentStop("NSR:Quay:1", "NSR:StopPlace:1")
+                .putPublicCode("NSR:Quay:2", "2");
+        RouteData.Builder second = RouteData.builder()
+                .addTrainNumberTrips("1234", List.of("sj-2"))
+                .putParentStop("NSR:Quay:1", "NSR:StopPlace:2");
+
+        RouteData routeData = RouteData.builder().putAll(first).putAll(second).build();
+
+        assertEquals(Set.of("sj-1", "sj-2"), routeData.getServiceJourneys("1234"));
+        assertEquals("NSR:StopPlace:2", routeData.getParentStop("NSR:Quay:1"));
+        assertEquals("2", routeData.getPublicCode("NSR:Quay:2"));
+    }
+
+    @Test
+    public void testManyDatedServiceJourneys() {
+        RouteData.Builder builder = RouteData.builder();
+        List<DatedServiceJourney> journeys = new ArrayList<>();
+        LocalDateTime firstDay = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int day = 0; day < 366; day++) {
+            builder.putOperatingDay("OperatingDay:" + day, new OperatingDay().withCalendarDate(firstDay.plusDays(day)));
+            journeys.add(new DatedServiceJourney()
+                    .withId("DatedServiceJourney:" + day)
+                    .withOperatingDayRef(new OperatingDayRefStructure().withRef("OperatingDay:" + day))
+                    .withServiceAlteration(day % 7 == 0 ? ServiceAlterationEnumeration.CANCELLATION : null));
+        }
+        RouteData routeData = builder.putDatedServiceJourneys(SERVICE_JOURNEY, journeys).build();
+
+        for (int day = 0; day < 366; day++) {
+            ServiceDate serviceDate = new ServiceDate(firstDay.plusDays(day).atZone(ZoneId.of("UTC")));
+            assertEquals(day % 7 == 0, routeData.isDsjCancelled(SERVICE_JOURNEY, serviceDate));
+            assertEquals("DatedServiceJourney:" + day, routeData.getDatedServiceJourneyId(SERVICE_JOURNEY, serviceDate));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        RouteData routeData = RouteData.EMPTY;
+
+        assertNull(routeData.getStopTimes(SERVICE_JOURNEY));
+        assertNull(routeData.getServiceJourneys("1234"));
+        assertNull(routeData.getParentStop(null));
+        assertFalse(routeData.hasLocations());
+        assertFalse(routeData.isDsjCancelled(SERVICE_JOURNEY, new ServiceDate(2024, 5, 17)));
+    }
+
+    private static RouteData createRouteData() {
+        return RouteData.builder()
+                .putStopTimes(SERVICE_JOURNEY, List.of(
+                        new StopTime("NSR:Quay:1", 1, 0, 3600),
+                        new StopTime("NSR:Quay:2", 2, 4200, 4260)
+                ))
+                .addTrainNumberTrips("1234", List.of(SERVICE_JOURNEY))
+                .putServiceDates(SERVICE_JOURNEY, List.of(new ServiceDate(2024, 5, 17), new ServiceDate(2024, 12, 31)))
+                .putOperatingDay("NSB:OperatingDay:1", new OperatingDay().withCalendarDate(LocalDateTime.of(2024, 5, 17, 0, 0)))
+                .putOperatingDay("NSB:OperatingDay:2", new OperatingDay().withCalendarDate(LocalDateTime.of(2024, 12, 31, 0, 0)))
+                .putDatedServiceJourneys(SERVICE_JOURNEY, List.of(
+                        new DatedServiceJourney()
+                                .withId("NSB:DatedServiceJourney:1")
+                                .withOperatingDayRef(new OperatingDayRefStructure().withRef("NSB:OperatingDay:1"))
+                                .withServiceAlteration(ServiceAlterationEnumeration.CANCELLATION),
+                        new DatedServiceJourney()
+                                .withId("NSB:DatedServiceJourney:2")
+                                .withOperatingDayRef(new OperatingDayRefStructure().withRef("NSB:OperatingDay:2")),
+                        new DatedServiceJourney()
+                                .withId("NSB:DatedServiceJourney:3")
+                                .withOperatingDayRef(new OperatingDayRefStructure().withRef("NSB:OperatingDay:2"))
+                                .withServiceAlteration(ServiceAlterationEnumeration.REPLACED)
+                ))
+                .putParentStop("NSR:Quay:1", "NSR:StopPlace:337")
+                .putPublicCode("NSR:Quay:1", "5")
+                .putLocation("NSR:Quay:1", new LocationStructure()
+                        .withLatitude(new BigDecimal("59.910357"))
+                        .withLongitude(new BigDecimal("10.753051")))
+                .putMode("NSR:StopPlace:337", AllVehicleModesOfTransportEnumeration.RAIL)
+                .putMode("NSR:StopPlace:1", null)
+                .build();
+    }
+
+    private static void verify(RouteData routeData) {
+        assertEquals(List.of(
+                new StopTime("NSR:Quay:1", 1, 0, 3600),
+                new StopTime("NSR:Quay:2", 2, 4200, 4260)
+        ), routeData.getStopTimes(SERVICE_JOURNEY));
+        assertTrue(routeData.hasStopTimes(SERVICE_JOURNEY));
+        assertFalse(routeData.hasStopTimes("NSR:Quay:1"));
+        assertNull(routeData.getStopTimes("NSB:ServiceJourney:unknown"));
+
+        assertEquals(Set.of(SERVICE_JOURNEY), routeData.getServiceJourneys("1234"));
+        assertTrue(routeData.isKnownTrainNumber("1234"));
+        assertFalse(routeData.isKnownTrainNumber("4321"));
+
+        assertEquals(List.of(new ServiceDate(2024, 5, 17), new ServiceDate(2024, 12, 31)),
+                routeData.getServiceDates(SERVICE_JOURNEY));
+
+        assertTrue(routeData.isDsjCancelled(SERVICE_JOURNEY, new ServiceDate(2024, 5, 17)));
+        assertFalse(routeData.isDsjCancelled(SERVICE_JOURNEY, new ServiceDate(2024, 12, 31)));
+        assertFalse(routeData.isDsjCancelled(SERVICE_JOURNEY, new ServiceDate(2024, 6, 1)));
+        assertFalse(routeData.isDsjCancelled("NSR:Quay:1", new ServiceDate(2024, 5, 17)));
+        assertEquals("NSB:DatedServiceJourney:1", routeData.getDatedServiceJourneyId(SERVICE_JOURNEY, new ServiceDate(2024, 5, 17)));
+        // First DatedServiceJourney for the operating day is used
+        assertEquals("NSB:DatedServiceJourney:2", routeData.getDatedServiceJourneyId(SERVICE_JOURNEY, new ServiceDate(2024, 12, 31)));
+        assertNull(routeData.getDatedServiceJourneyId(SERVICE_JOURNEY, new ServiceDate(2024, 6, 1)));
+
+        assertEquals("NSR:StopPlace:337", routeData.getParentStop("NSR:Quay:1"));
+        assertNull(routeData.getParentStop("NSR:Quay:2"));
+        assertEquals("5", routeData.getPublicCode("NSR:Quay:1"));
+        assertNull(routeData.getPublicCode("NSR:Quay:2"));
+
+        assertTrue(routeData.hasLocations());
+        assertTrue(routeData.hasLocation("NSR:Quay:1"));
+        assertFalse(routeData.hasLocation("NSR:Quay:2"));
+        assertEquals(59.910357, routeData.getLatitude("NSR:Quay:1"));
+        assertEquals(10.753051, routeData.getLongitude("NSR:Quay:1"));
+
+        assertEquals(AllVehicleModesOfTransportEnumeration.RAIL, routeData.getMode("NSR:StopPlace:337"));
+        assertNull(routeData.getMode("NSR:StopPlace:1"));
+        assertNull(routeData.getMode("NSR:Quay:1"));
+    }
+}
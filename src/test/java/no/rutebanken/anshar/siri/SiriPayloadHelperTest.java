@@ -0,0 +1,89 @@
+/*
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ *   https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+
+package no.rutebanken.anshar.siri;
+
+import no.rutebanken.anshar.data.collections.KryoSerializer;
+import no.rutebanken.anshar.routes.siri.helpers.SiriObjectFactory;
+import no.rutebanken.anshar.routes.siri.helpers.SiriPayloadHelper;
+import org.entur.siri21.util.SiriXml;
+import org.junit.jupiter.api.Test;
+import uk.org.siri.siri21.EstimatedVehicleJourney;
+import uk.org.siri.siri21.Siri;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SiriPayloadHelperTest {
+
+    @Test
+    public void testDetectSiri20Payload() {
+        assertTrue(SiriPayloadHelper.isSiri20Payload("<?xml version=\"1.0\"?><Siri version=\"2.0\" xmlns=\"http://www.siri.org.uk/siri\"/>"));
+        assertTrue(SiriPayloadHelper.isSiri20Payload("<siri:Siri version=\"2.1\" xmlns:siri=\"http://www.siri.org.uk/siri\"><siri:ServiceDelivery/></siri:Siri>"));
+
+        assertFalse(SiriPayloadHelper.isSiri20Payload("<Siri version=\"1.4\" xmlns=\"http://www.siri.org.uk/siri\"/>"));
+        assertFalse(SiriPayloadHelper.isSiri20Payload("<Siri xmlns=\"http://www.siri.org.uk/siri\"/>"));
+        assertFalse(SiriPayloadHelper.isSiri20Payload("<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body/></soapenv:Envelope>"));
+        assertFalse(SiriPayloadHelper.isSiri20Payload("not xml"));
+        assertFalse(SiriPayloadHelper.isSiri20Payload(null));
+    }
+
+    @Test
+    public void testSplitServiceDelivery() throws Exception {
+        Siri siri = readSample();
+        int journeyCount = siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies().size();
+
+        List<Siri> split = SiriPayloadHelper.splitServiceDelivery(siri);
+        assertEquals(journeyCount, split.size());
+
+        for (Siri s : split) {
+            assertEquals(siri.getServiceDelivery().getProducerRef(), s.getServiceDelivery().getProducerRef());
+            assertEquals(1, s.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                    .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies().size());
+        }
+
+        assertTrue(SiriPayloadHelper.splitServiceDelivery(new SiriObjectFactory(Instant.now()).createHeartbeatNotification("test")).isEmpty());
+    }
+
+    @Test
+    public void testSerializeParsedSiri() throws Exception {
+        Siri siri = readSample();
+
+        KryoSerializer serializer = new KryoSerializer();
+        Siri copy = (Siri) serializer.read(serializer.write(siri));
+
+        List<EstimatedVehicleJourney> original = siri.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies();
+        List<EstimatedVehicleJourney> copied = copy.getServiceDelivery().getEstimatedTimetableDeliveries().get(0)
+                .getEstimatedJourneyVersionFrames().get(0).getEstimatedVehicleJourneies();
+
+        assertNotNull(copied);
+        assertEquals(SiriXml.toXml(siri), SiriXml.toXml(copy));
+        assertEquals(original.size(), copied.size());
+    }
+
+    private Siri readSample() throws Exception {
+        try (InputStream xml = getClass().getResourceAsStream("/siri-et-from-bnr.xml")) {
+            return SiriXml.parseXml(xml);
+        }
+    }
+}
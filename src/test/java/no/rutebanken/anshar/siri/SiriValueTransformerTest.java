@@ -18,6 +18,7 @@ package no.rutebanken.anshar.siri;
 import jakarta.xml.bind.JAXBException;
 import no.rutebanken.anshar.config.AnsharConfiguration;
 import no.rutebanken.anshar.integration.SpringBootBaseTest;
+import no.rutebanken.anshar.metrics.PipelineStage;
 import no.rutebanken.anshar.routes.siri.handlers.OutboundIdMappingPolicy;
 import no.rutebanken.anshar.routes.siri.transformer.SiriValueTransformer;
 import no.rutebanken.anshar.routes.siri.transformer.ValueAdapter;
@@ -37,12 +38,18 @@ import uk.org.siri.siri21.Siri;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static no.rutebanken.anshar.routes.siri.transformer.SiriValueTransformer.SEPARATOR;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class SiriValueTransformerTest extends SpringBootBaseTest {
 
@@ -73,6 +80,21 @@ public class SiriValueTransformerTest extends SpringBootBaseTest {
         assertNotNull(siri);
     }
 
+    @Test
+    public void testStageTimesAreReported() throws JAXBException {
+        Siri siri = createSiriObject("99", "34");
+
+        List<ValueAdapter> mappingAdapters = new ArrayList<>();
+        mappingAdapters.add(new LeftPaddingAdapter(LineRef.class, 4, '0'));
+
+        Map<PipelineStage, Long> stageTimes = new EnumMap<>(PipelineStage.class);
+        siri = SiriValueTransformer.transform(siri, mappingAdapters, false, false, stageTimes::put);
+
+        assertEquals("0099", getLineRefFromSiriObj(siri));
+        assertEquals(Set.of(PipelineStage.VALUE_TRANSFORM, PipelineStage.POST_PROCESS), stageTimes.keySet());
+        assertTrue(stageTimes.get(PipelineStage.VALUE_TRANSFORM) >= 0);
+    }
+
     @Test
     public void testLineRefLeftpad() throws JAXBException {
         String lineRefValue = "99";
@@ -188,6 +210,23 @@ public class SiriValueTransformerTest extends SpringBootBaseTest {
 
     }
 
+    @Test
+    public void testConcurrentTransform() {
+        List<ValueAdapter> mappingAdapters = new ArrayList<>();
+        mappingAdapters.add(new LeftPaddingAdapter(BlockRefStructure.class, 4, '0'));
+        mappingAdapters.add(new LeftPaddingAdapter(LineRef.class, 4, '0'));
+
+        List<Siri> transformed = IntStream.range(0, 200)
+                .parallel()
+                .mapToObj(i -> SiriValueTransformer.transform(createSiriObject("" + (i % 100), "34"), mappingAdapters, false, false))
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < transformed.size(); i++) {
+            assertEquals(String.format("%04d", i % 100), getLineRefFromSiriObj(transformed.get(i)), "LineRef has not been padded as expected");
+            assertEquals("34" + SEPARATOR + "0034", getBlockRefFromSiriObj(transformed.get(i)), "BlockRef has not been padded as expected");
+        }
+    }
+
     private Siri createSiriObject(String lineRefValue, String blockRefValue) {
         return createSiriObject(lineRefValue, blockRefValue, null, null);
     }
@@ -1,6 +1,7 @@
 package no.rutebanken.anshar.siri.processor;
 
 import no.rutebanken.anshar.routes.siri.processor.routedata.NetexUpdaterService;
+import no.rutebanken.anshar.routes.siri.processor.routedata.RouteData;
 import no.rutebanken.anshar.routes.siri.processor.routedata.StopsUtil;
 import org.junit.jupiter.api.Test;
 import org.rutebanken.netex.model.AllVehicleModesOfTransportEnumeration;
@@ -34,11 +35,10 @@ public class StopsUtilTest {
         BigDecimal toLon = new BigDecimal(5.582071);
         BigDecimal toLat = new BigDecimal(58.921065);
 
-        NetexUpdaterService.locations.put(fromRef,
-            new LocationStructure().withLatitude(fromLat).withLongitude(fromLon)
-        );
-        NetexUpdaterService.locations.put(toRef,
-            new LocationStructure().withLatitude(toLat).withLongitude(toLon)
+        NetexUpdaterService.setRouteData(RouteData.builder()
+            .putLocation(fromRef, new LocationStructure().withLatitude(fromLat).withLongitude(fromLon))
+            .putLocation(toRef, new LocationStructure().withLatitude(toLat).withLongitude(toLon))
+            .build()
         );
 
         final double distance = StopsUtil.getDistance(fromRef, toRef);
@@ -67,11 +67,10 @@ public class StopsUtilTest {
         BigDecimal toLon = new BigDecimal(5.582071);
         BigDecimal toLat = new BigDecimal(58.921065);
 
-        NetexUpdaterService.locations.put(fromRef,
-                new LocationStructure().withLatitude(fromLat).withLongitude(fromLon)
-        );
-        NetexUpdaterService.locations.put(toRef,
-                new LocationStructure().withLatitude(toLat).withLongitude(toLon)
+        NetexUpdaterService.setRouteData(RouteData.builder()
+            .putLocation(fromRef, new LocationStructure().withLatitude(fromLat).withLongitude(fromLon))
+            .putLocation(toRef, new LocationStructure().withLatitude(toLat).withLongitude(toLon))
+            .build()
         );
 
         final double distance = StopsUtil.getDistance(fromRef, toRef);
@@ -106,7 +105,10 @@ public class StopsUtilTest {
     @Test
     public void testModeVerification() {
         final String osloS = "NSR:StopPlace:337";
-        NetexUpdaterService.modes.put(osloS, AllVehicleModesOfTransportEnumeration.RAIL);
+        NetexUpdaterService.setRouteData(RouteData.builder()
+            .putMode(osloS, AllVehicleModesOfTransportEnumeration.RAIL)
+            .build()
+        );
 
         assertFalse(StopsUtil.doesVehicleModeMatchStopMode(List.of(BUS), osloS));
         assertFalse(StopsUtil.doesVehicleModeMatchStopMode(List.of(COACH), osloS));
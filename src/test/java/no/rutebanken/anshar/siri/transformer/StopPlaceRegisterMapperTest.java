@@ -15,10 +15,13 @@
 
 package no.rutebanken.anshar.siri.transformer;
 
+import io.micrometer.core.instrument.Counter;
 import no.rutebanken.anshar.integration.SpringBootBaseTest;
+import no.rutebanken.anshar.metrics.PrometheusMetricsService;
 import no.rutebanken.anshar.routes.health.HealthManager;
 import no.rutebanken.anshar.routes.mapping.StopPlaceUpdaterService;
 import no.rutebanken.anshar.routes.siri.transformer.ApplicationContextHolder;
+import no.rutebanken.anshar.routes.siri.transformer.MappingNames;
 import no.rutebanken.anshar.routes.siri.transformer.impl.StopPlaceRegisterMapper;
 import no.rutebanken.anshar.subscription.SiriDataType;
 import org.junit.jupiter.api.BeforeEach;
@@ -32,6 +35,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static no.rutebanken.anshar.helpers.SleepUtil.sleep;
+import static no.rutebanken.anshar.routes.siri.transformer.MappingNames.INVALID_NSR_ID;
+import static no.rutebanken.anshar.routes.siri.transformer.MappingNames.ORIGINAL_ID_TO_NSR;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -162,6 +168,45 @@ public class StopPlaceRegisterMapperTest extends SpringBootBaseTest {
 
     }
 
+    @Test
+    public void testUnmappedIdsAndMappingCountsAreFlushed() {
+        HealthManager healthManager = ApplicationContextHolder.getContext().getBean(HealthManager.class);
+        PrometheusMetricsService metricsService = ApplicationContextHolder.getContext().getBean(PrometheusMetricsService.class);
+
+        List<String> prefixes = new ArrayList<>();
+        prefixes.add("ABC");
+
+        String datasetId = "TST_" + System.currentTimeMillis();
+        String unmappedId = "9999-" + datasetId;
+        String invalidNsrId = "NSR:Quay:9-" + datasetId;
+
+        StopPlaceRegisterMapper mapper = new StopPlaceRegisterMapper(SiriDataType.VEHICLE_MONITORING, datasetId, JourneyPlaceRefStructure.class, prefixes);
+
+        assertEquals("NSR:Quay:11223344", mapper.apply("1234"));
+        assertEquals("NSR:Quay:22334455", mapper.apply("2345"));
+        assertEquals(unmappedId, mapper.apply(unmappedId));
+        assertEquals(unmappedId, mapper.apply(unmappedId));
+        assertEquals(invalidNsrId, mapper.apply(invalidNsrId));
+
+        // Mapping counts are registered by the scheduled flush
+        long timeout = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < timeout && getMappingCount(metricsService, datasetId, ORIGINAL_ID_TO_NSR) < 2) {
+            sleep(50);
+        }
+        assertEquals(2, getMappingCount(metricsService, datasetId, ORIGINAL_ID_TO_NSR));
+        assertEquals(1, getMappingCount(metricsService, datasetId, INVALID_NSR_ID));
+
+        Map<SiriDataType, Set<String>> unmappedIds = healthManager.getUnmappedIds(datasetId);
+        assertEquals(Set.of(unmappedId, invalidNsrId), unmappedIds.get(SiriDataType.VEHICLE_MONITORING));
+    }
+
+    private long getMappingCount(PrometheusMetricsService metricsService, String datasetId, MappingNames mappingName) {
+        Counter counter = metricsService.find("app.anshar.data.mapping")
+                .tags("agency", datasetId, "mappingId", mappingName.name())
+                .counter();
+        return counter != null ? (long) counter.count() : 0;
+    }
+
     @Test
     public void testValidNsrId() {
         StopPlaceUpdaterService stopPlaceService = ApplicationContextHolder.getContext().getBean(StopPlaceUpdaterService.class);
@@ -15,12 +15,14 @@
 
 package no.rutebanken.anshar.subscription;
 
+import com.hazelcast.map.IMap;
 import no.rutebanken.anshar.integration.SpringBootBaseTest;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -28,6 +30,7 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
@@ -38,6 +41,14 @@ public class SubscriptionManagerTest extends SpringBootBaseTest {
     @Autowired
     private SubscriptionManager subscriptionManager;
 
+    @Autowired
+    @Qualifier("getHitcountMap")
+    private IMap<String, Integer> hitcount;
+
+    @Autowired
+    @Qualifier("getReceivedBytesMap")
+    private IMap<String, Long> receivedBytes;
+
     @BeforeEach
     public void init() {
         subscriptionManager.subscriptions.clear();
@@ -377,6 +388,74 @@ public class SubscriptionManagerTest extends SpringBootBaseTest {
         assertTrue(verifiedCounter, "Counter has not been verified");
     }
 
+    @Test
+    public void testConcurrentObjectCounterUpdatesAreNotLost() throws InterruptedException {
+        SubscriptionSetup subscription = createSubscription(1);
+        subscriptionManager.addSubscription(subscription.getSubscriptionId(), subscription);
+        subscriptionManager.activatePendingSubscription(subscription.getSubscriptionId());
+
+        int threadCount = 8;
+        int incrementsPerThread = 1000;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < incrementsPerThread; j++) {
+                    subscriptionManager.incrementObjectCounter(subscription, 1);
+                    subscriptionManager.touchSubscription(subscription.getSubscriptionId());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        JSONObject jsonObject = subscriptionManager.buildStats();
+        JSONArray types = (JSONArray) jsonObject.get("types");
+
+        boolean verifiedCounter = false;
+        for (int i = 0; i < types.size(); i++) {
+            for (Object object : (JSONArray) ((JSONObject) types.get(i)).get("subscriptions")) {
+                JSONObject jsonStats = (JSONObject) object;
+                if (subscription.getSubscriptionId().equals(jsonStats.get("subscriptionId"))) {
+                    assertEquals("" + threadCount * incrementsPerThread, "" + jsonStats.get("objectcount"));
+                    assertEquals("" + threadCount * incrementsPerThread, "" + jsonStats.get("hitcount"));
+                    verifiedCounter = true;
+                }
+            }
+        }
+        assertTrue(verifiedCounter, "Counter has not been verified");
+    }
+
+    @Test
+    public void testActivityFlushLag() throws InterruptedException {
+        SubscriptionSetup subscription = createSubscription(1);
+        String subscriptionId = subscription.getSubscriptionId();
+        subscriptionManager.addSubscription(subscriptionId, subscription);
+        subscriptionManager.flushActivity();
+        assertEquals(0, subscriptionManager.getActivityFlushLag());
+
+        int hitsBefore = hitcount.getOrDefault(subscriptionId, 0);
+        long bytesBefore = receivedBytes.getOrDefault(subscriptionId, 0L);
+
+        subscriptionManager.dataReceived(subscriptionId, 100);
+        Thread.sleep(20);
+
+        // Activity is kept locally until flushed
+        assertTrue(subscriptionManager.getActivityFlushLag() > 0);
+        assertEquals(hitsBefore, hitcount.getOrDefault(subscriptionId, 0).intValue());
+        assertEquals(bytesBefore, receivedBytes.getOrDefault(subscriptionId, 0L).longValue());
+        assertNotNull(subscriptionManager.getLastDataReceived(subscriptionId));
+
+        subscriptionManager.flushActivity();
+
+        assertEquals(0, subscriptionManager.getActivityFlushLag());
+        assertEquals(hitsBefore + 1, hitcount.get(subscriptionId).intValue());
+        assertEquals(bytesBefore + 100, receivedBytes.get(subscriptionId).longValue());
+        assertNotNull(subscriptionManager.getLastDataReceived(subscriptionId));
+    }
+
     @Test
     public void testIsSubscriptionRegistered() {
 